@@ -0,0 +1,92 @@
+-- Baseline audit schema. Safe to apply over databases created by the
+-- per-run DDL that predates versioned migrations.
+CREATE TABLE IF NOT EXISTS {schema}.audit_runs (
+    id BIGSERIAL PRIMARY KEY,
+    run_at TIMESTAMPTZ NOT NULL,
+    run_name TEXT,
+    input_file TEXT,
+    rules_file TEXT,
+    total_applicants INT NOT NULL,
+    eligible INT NOT NULL,
+    ineligible INT NOT NULL,
+    eligible_rate NUMERIC(6,4) NOT NULL,
+    ineligible_rate NUMERIC(6,4) NOT NULL,
+    warning_applicants INT,
+    warning_rate NUMERIC(6,4),
+    review_count INT,
+    review_rate NUMERIC(6,4),
+    id_field TEXT NOT NULL,
+    failure_limit INT,
+    failures_truncated BOOLEAN NOT NULL,
+    review_limit INT,
+    reviews_truncated BOOLEAN,
+    run_key TEXT
+);
+ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS warning_applicants INT;
+ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS warning_rate NUMERIC(6,4);
+ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS review_count INT;
+ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS review_rate NUMERIC(6,4);
+ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS review_limit INT;
+ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS reviews_truncated BOOLEAN;
+ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS run_key TEXT;
+CREATE UNIQUE INDEX IF NOT EXISTS audit_runs_run_key_idx ON {schema}.audit_runs (run_key);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_reason_counts (
+    run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
+    reason TEXT NOT NULL,
+    count INT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_reason_categories (
+    run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
+    category TEXT NOT NULL,
+    count INT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_warning_counts (
+    run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
+    warning TEXT NOT NULL,
+    count INT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_warning_categories (
+    run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
+    category TEXT NOT NULL,
+    count INT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_review_counts (
+    run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
+    reason TEXT NOT NULL,
+    count INT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_field_completeness (
+    run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
+    field_name TEXT NOT NULL,
+    missing_count INT NOT NULL,
+    missing_rate NUMERIC(6,4) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_failures (
+    run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
+    applicant_id TEXT NOT NULL,
+    reasons TEXT[] NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_reviews (
+    run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
+    applicant_id TEXT NOT NULL,
+    reasons TEXT[] NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_segments (
+    run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
+    segment_field TEXT NOT NULL,
+    segment_value TEXT NOT NULL,
+    total INT NOT NULL,
+    eligible INT NOT NULL,
+    ineligible INT NOT NULL,
+    eligible_rate NUMERIC(6,4) NOT NULL,
+    ineligible_rate NUMERIC(6,4) NOT NULL
+);
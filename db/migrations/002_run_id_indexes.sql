@@ -0,0 +1,10 @@
+-- Child tables are always read and deleted by run_id.
+CREATE INDEX IF NOT EXISTS audit_reason_counts_run_id_idx ON {schema}.audit_reason_counts (run_id);
+CREATE INDEX IF NOT EXISTS audit_reason_categories_run_id_idx ON {schema}.audit_reason_categories (run_id);
+CREATE INDEX IF NOT EXISTS audit_warning_counts_run_id_idx ON {schema}.audit_warning_counts (run_id);
+CREATE INDEX IF NOT EXISTS audit_warning_categories_run_id_idx ON {schema}.audit_warning_categories (run_id);
+CREATE INDEX IF NOT EXISTS audit_review_counts_run_id_idx ON {schema}.audit_review_counts (run_id);
+CREATE INDEX IF NOT EXISTS audit_field_completeness_run_id_idx ON {schema}.audit_field_completeness (run_id);
+CREATE INDEX IF NOT EXISTS audit_failures_run_id_idx ON {schema}.audit_failures (run_id);
+CREATE INDEX IF NOT EXISTS audit_reviews_run_id_idx ON {schema}.audit_reviews (run_id);
+CREATE INDEX IF NOT EXISTS audit_segments_run_id_idx ON {schema}.audit_segments (run_id);
@@ -0,0 +1,72 @@
+-- Reason strings are stored once in audit_reasons; failures and reviews
+-- become narrow (run_id, entry, applicant_id, position, reason_id) facts.
+-- entry is the 1-based position of the applicant in the run's list and
+-- position the 1-based position of the reason within that applicant.
+CREATE TABLE IF NOT EXISTS {schema}.audit_reasons (
+    id SERIAL PRIMARY KEY,
+    reason TEXT NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_failure_reasons (
+    run_id BIGINT NOT NULL REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
+    entry INT NOT NULL,
+    applicant_id TEXT NOT NULL,
+    position SMALLINT NOT NULL,
+    reason_id INT NOT NULL REFERENCES {schema}.audit_reasons(id),
+    PRIMARY KEY (run_id, entry, position)
+);
+CREATE INDEX IF NOT EXISTS audit_failure_reasons_reason_idx ON {schema}.audit_failure_reasons (reason_id, run_id);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_review_reasons (
+    run_id BIGINT NOT NULL REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
+    entry INT NOT NULL,
+    applicant_id TEXT NOT NULL,
+    position SMALLINT NOT NULL,
+    reason_id INT NOT NULL REFERENCES {schema}.audit_reasons(id),
+    PRIMARY KEY (run_id, entry, position)
+);
+CREATE INDEX IF NOT EXISTS audit_review_reasons_reason_idx ON {schema}.audit_review_reasons (reason_id, run_id);
+
+INSERT INTO {schema}.audit_reasons (reason)
+SELECT DISTINCT reason FROM (
+    SELECT unnest(reasons) AS reason FROM {schema}.audit_failures
+    UNION
+    SELECT unnest(reasons) AS reason FROM {schema}.audit_reviews
+) legacy
+ON CONFLICT (reason) DO NOTHING;
+
+INSERT INTO {schema}.audit_failure_reasons (run_id, entry, applicant_id, position, reason_id)
+SELECT f.run_id, f.entry, f.applicant_id, r.position, d.id
+FROM (
+    SELECT run_id, applicant_id, reasons,
+           ROW_NUMBER() OVER (PARTITION BY run_id ORDER BY ctid) AS entry
+    FROM {schema}.audit_failures
+) f
+CROSS JOIN LATERAL unnest(f.reasons) WITH ORDINALITY AS r(reason, position)
+JOIN {schema}.audit_reasons d ON d.reason = r.reason;
+
+INSERT INTO {schema}.audit_review_reasons (run_id, entry, applicant_id, position, reason_id)
+SELECT f.run_id, f.entry, f.applicant_id, r.position, d.id
+FROM (
+    SELECT run_id, applicant_id, reasons,
+           ROW_NUMBER() OVER (PARTITION BY run_id ORDER BY ctid) AS entry
+    FROM {schema}.audit_reviews
+) f
+CROSS JOIN LATERAL unnest(f.reasons) WITH ORDINALITY AS r(reason, position)
+JOIN {schema}.audit_reasons d ON d.reason = r.reason;
+
+-- The array tables are kept for rollback; dashboards read the views.
+ALTER TABLE {schema}.audit_failures RENAME TO audit_failures_legacy;
+ALTER TABLE {schema}.audit_reviews RENAME TO audit_reviews_legacy;
+
+CREATE VIEW {schema}.audit_failures AS
+SELECT f.run_id, f.applicant_id, array_agg(d.reason ORDER BY f.position) AS reasons
+FROM {schema}.audit_failure_reasons f
+JOIN {schema}.audit_reasons d ON d.id = f.reason_id
+GROUP BY f.run_id, f.entry, f.applicant_id;
+
+CREATE VIEW {schema}.audit_reviews AS
+SELECT f.run_id, f.applicant_id, array_agg(d.reason ORDER BY f.position) AS reasons
+FROM {schema}.audit_review_reasons f
+JOIN {schema}.audit_reasons d ON d.id = f.reason_id
+GROUP BY f.run_id, f.entry, f.applicant_id;
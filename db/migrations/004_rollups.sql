@@ -0,0 +1,68 @@
+-- Incremental rollups maintained by the logger in the same transaction as
+-- each audit_runs insert. Days are UTC; an unnamed run rolls up under ''.
+CREATE TABLE IF NOT EXISTS {schema}.audit_rollup_daily (
+    day DATE PRIMARY KEY,
+    runs INT NOT NULL,
+    total_applicants BIGINT NOT NULL,
+    eligible BIGINT NOT NULL,
+    ineligible BIGINT NOT NULL,
+    warning_applicants BIGINT NOT NULL,
+    review_count BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_rollup_run_names (
+    run_name TEXT NOT NULL,
+    day DATE NOT NULL,
+    runs INT NOT NULL,
+    total_applicants BIGINT NOT NULL,
+    eligible BIGINT NOT NULL,
+    ineligible BIGINT NOT NULL,
+    warning_applicants BIGINT NOT NULL,
+    review_count BIGINT NOT NULL,
+    PRIMARY KEY (run_name, day)
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_rollup_reasons (
+    day DATE NOT NULL,
+    run_name TEXT NOT NULL,
+    reason TEXT NOT NULL,
+    count BIGINT NOT NULL,
+    PRIMARY KEY (day, run_name, reason)
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_rollup_completeness (
+    day DATE NOT NULL,
+    run_name TEXT NOT NULL,
+    field_name TEXT NOT NULL,
+    missing_count BIGINT NOT NULL,
+    total_applicants BIGINT NOT NULL,
+    PRIMARY KEY (day, run_name, field_name)
+);
+
+INSERT INTO {schema}.audit_rollup_daily (day, runs, total_applicants, eligible, ineligible, warning_applicants, review_count)
+SELECT (run_at AT TIME ZONE 'UTC')::date, COUNT(*), SUM(total_applicants), SUM(eligible), SUM(ineligible),
+       SUM(COALESCE(warning_applicants, 0)), SUM(COALESCE(review_count, 0))
+FROM {schema}.audit_runs
+GROUP BY 1
+ON CONFLICT (day) DO NOTHING;
+
+INSERT INTO {schema}.audit_rollup_run_names (run_name, day, runs, total_applicants, eligible, ineligible, warning_applicants, review_count)
+SELECT COALESCE(run_name, ''), (run_at AT TIME ZONE 'UTC')::date, COUNT(*), SUM(total_applicants), SUM(eligible), SUM(ineligible),
+       SUM(COALESCE(warning_applicants, 0)), SUM(COALESCE(review_count, 0))
+FROM {schema}.audit_runs
+GROUP BY 1, 2
+ON CONFLICT (run_name, day) DO NOTHING;
+
+INSERT INTO {schema}.audit_rollup_reasons (day, run_name, reason, count)
+SELECT (r.run_at AT TIME ZONE 'UTC')::date, COALESCE(r.run_name, ''), c.reason, SUM(c.count)
+FROM {schema}.audit_reason_counts c
+JOIN {schema}.audit_runs r ON r.id = c.run_id
+GROUP BY 1, 2, 3
+ON CONFLICT (day, run_name, reason) DO NOTHING;
+
+INSERT INTO {schema}.audit_rollup_completeness (day, run_name, field_name, missing_count, total_applicants)
+SELECT (r.run_at AT TIME ZONE 'UTC')::date, COALESCE(r.run_name, ''), c.field_name, SUM(c.missing_count), SUM(r.total_applicants)
+FROM {schema}.audit_field_completeness c
+JOIN {schema}.audit_runs r ON r.id = c.run_id
+GROUP BY 1, 2, 3
+ON CONFLICT (day, run_name, field_name) DO NOTHING;
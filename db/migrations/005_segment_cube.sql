@@ -0,0 +1,5 @@
+-- Segment rows now cover several fields per run plus pairwise crosses.
+-- Single-field breakdowns leave cross_field/cross_value NULL; a cross row
+-- holds the value of segment_field and of cross_field for one pair.
+ALTER TABLE {schema}.audit_segments ADD COLUMN IF NOT EXISTS cross_field TEXT;
+ALTER TABLE {schema}.audit_segments ADD COLUMN IF NOT EXISTS cross_value TEXT;
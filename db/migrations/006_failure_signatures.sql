@@ -0,0 +1,43 @@
+-- Runs logged with --group-failures store each distinct failure reason list
+-- once in audit_signatures (reason ids in evaluation order), write one
+-- audit_failure_groups row per signature with that run's applicant count and
+-- one audit_failure_group_members row per applicant, instead of one
+-- audit_failure_reasons row per applicant and reason.
+CREATE TABLE IF NOT EXISTS {schema}.audit_signatures (
+    id SERIAL PRIMARY KEY,
+    reason_ids INT[] NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_failure_groups (
+    run_id BIGINT NOT NULL REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
+    signature_id INT NOT NULL REFERENCES {schema}.audit_signatures(id),
+    applicants INT NOT NULL,
+    PRIMARY KEY (run_id, signature_id)
+);
+CREATE INDEX IF NOT EXISTS audit_failure_groups_signature_idx ON {schema}.audit_failure_groups (signature_id, run_id);
+
+CREATE TABLE IF NOT EXISTS {schema}.audit_failure_group_members (
+    run_id BIGINT NOT NULL,
+    signature_id INT NOT NULL,
+    applicant_id TEXT NOT NULL,
+    FOREIGN KEY (run_id, signature_id) REFERENCES {schema}.audit_failure_groups (run_id, signature_id) ON DELETE CASCADE
+);
+CREATE INDEX IF NOT EXISTS audit_failure_group_members_group_idx ON {schema}.audit_failure_group_members (run_id, signature_id);
+CREATE INDEX IF NOT EXISTS audit_failure_group_members_applicant_idx ON {schema}.audit_failure_group_members (applicant_id);
+
+-- Dashboards keep reading one row per failed applicant from either layout.
+CREATE OR REPLACE VIEW {schema}.audit_failures AS
+SELECT f.run_id, f.applicant_id, array_agg(d.reason ORDER BY f.position) AS reasons
+FROM {schema}.audit_failure_reasons f
+JOIN {schema}.audit_reasons d ON d.id = f.reason_id
+GROUP BY f.run_id, f.entry, f.applicant_id
+UNION ALL
+SELECT m.run_id, m.applicant_id, r.reasons
+FROM {schema}.audit_failure_group_members m
+JOIN (
+    SELECT s.id, array_agg(d.reason ORDER BY u.position) AS reasons
+    FROM {schema}.audit_signatures s
+    CROSS JOIN LATERAL unnest(s.reason_ids) WITH ORDINALITY AS u(reason_id, position)
+    JOIN {schema}.audit_reasons d ON d.id = u.reason_id
+    GROUP BY s.id
+) r ON r.id = m.signature_id;
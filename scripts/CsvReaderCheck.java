@@ -0,0 +1,167 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Compares CsvRowReader, the audit-path tokenizer, with the line reader it replaced
+// (BufferedReader.readLine plus parseCsvLine) on edge cases and random inputs, with
+// reads split at random or chosen points. Run from the repo root after compiling:
+//   java -cp build scripts/CsvReaderCheck.java
+public class CsvReaderCheck {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static Constructor<?> readerConstructor;
+    private static Method next;
+    private static Method fieldCount;
+    private static Method field;
+    private static Method parseCsvLine;
+
+    public static void main(String[] args) throws Exception {
+        Class<?> oracle = Class.forName("EligibilityOracle");
+        Class<?> reader = Class.forName("EligibilityOracle$CsvRowReader");
+        readerConstructor = reader.getDeclaredConstructor(InputStream.class);
+        next = reader.getDeclaredMethod("next");
+        fieldCount = reader.getDeclaredMethod("fieldCount");
+        field = reader.getDeclaredMethod("field", int.class);
+        parseCsvLine = oracle.getDeclaredMethod("parseCsvLine", String.class);
+        for (Method method : new Method[] {next, fieldCount, field, parseCsvLine}) {
+            method.setAccessible(true);
+        }
+        readerConstructor.setAccessible(true);
+
+        Map<String, String> cases = new LinkedHashMap<>();
+        cases.put("crlf", "id,name\r\n1,a\r\n2,b\r\n");
+        cases.put("lone cr", "id,name\r1,a\r2,b\r");
+        cases.put("mixed endings", "id,name\n1,a\r\n2,b\r3,c\n\r4,d");
+        cases.put("quoted commas", "id,note\n1,\"a, b, c\"\n2,\"x\",y,\"\"\n");
+        cases.put("escaped quotes", "id,note\n1,\"say \"\"hi\"\"\"\n2,\"\"\"\"\n3,a\"b\n");
+        cases.put("no final newline", "id,name\n1,a\n2,b");
+        cases.put("blank trailing lines", "id,name\n1,a\n\n\r\n\n");
+        cases.put("empty fields", ",\n,,\n,a,\n");
+        cases.put("multibyte", "id,name\n1,Zoë\n2,\"Renée, M\"\n3,日本\n");
+        cases.put("long line", "id,note\n1," + "x".repeat(BUFFER_SIZE + 4096) + ",end\n2,b\n");
+        cases.put("long quoted line", "id,note\n1,\"" + "y,".repeat(BUFFER_SIZE / 2 + 100) + "\"\n2,b");
+        cases.put("long line without newline", "a," + "z".repeat(BUFFER_SIZE * 2 + 3));
+
+        int checked = 0;
+        for (Map.Entry<String, String> entry : cases.entrySet()) {
+            byte[] data = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            check(entry.getKey(), data, new int[] {Integer.MAX_VALUE});
+            check(entry.getKey() + " (1-byte reads)", data, new int[] {1});
+            check(entry.getKey() + " (7-byte reads)", data, new int[] {7});
+            checked += 3;
+        }
+        byte[] crAtFill = "id,name\r\n1,a\r\n2,b\r".getBytes(StandardCharsets.UTF_8);
+        for (int split = 1; split < crAtFill.length; split++) {
+            check("cr at end of a fill (split " + split + ")", crAtFill, new int[] {split, Integer.MAX_VALUE});
+            checked++;
+        }
+
+        Random random = new Random(20261019L);
+        String[] alphabet = {"a", "b", "7", " ", ",", ",", "\"", "\"\"", "\r", "\n", "\r\n", "é", "—"};
+        for (int round = 0; round < 2000; round++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(round % 50 == 0 ? 5000 : 120);
+            for (int i = 0; i < length; i++) {
+                text.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            int[] reads = new int[1 + random.nextInt(6)];
+            for (int r = 0; r < reads.length; r++) {
+                reads[r] = 1 + random.nextInt(random.nextBoolean() ? 9 : 64);
+            }
+            check("random #" + round, text.toString().getBytes(StandardCharsets.UTF_8), reads);
+            checked++;
+        }
+        System.out.println("CSV reader check: " + checked + " inputs match the line reader.");
+    }
+
+    private static void check(String name, byte[] data, int[] reads) throws Exception {
+        List<List<String>> expected = lineReaderRows(data);
+        List<List<String>> actual = csvRowReaderRows(new SplitInputStream(data, reads));
+        if (expected.equals(actual)) {
+            return;
+        }
+        int row = 0;
+        while (row < Math.min(expected.size(), actual.size()) && expected.get(row).equals(actual.get(row))) {
+            row++;
+        }
+        System.err.println("CSV reader mismatch for " + name + " at row " + row + ":");
+        System.err.println("  line reader:   " + (row < expected.size() ? expected.get(row) : "<end>"));
+        System.err.println("  CsvRowReader:  " + (row < actual.size() ? actual.get(row) : "<end>"));
+        System.exit(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<List<String>> lineReaderRows(byte[] data) throws Exception {
+        List<List<String>> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                rows.add((List<String>) parseCsvLine.invoke(null, line));
+            }
+        }
+        return rows;
+    }
+
+    private static List<List<String>> csvRowReaderRows(InputStream in) throws Exception {
+        List<List<String>> rows = new ArrayList<>();
+        Object reader = readerConstructor.newInstance(in);
+        try {
+            while ((Boolean) next.invoke(reader)) {
+                int count = (Integer) fieldCount.invoke(reader);
+                List<String> row = new ArrayList<>(count);
+                for (int f = 0; f < count; f++) {
+                    row.add((String) field.invoke(reader, f));
+                }
+                rows.add(row);
+            }
+        } catch (InvocationTargetException e) {
+            throw (Exception) e.getCause();
+        }
+        return rows;
+    }
+
+    // Hands out the data in reads of the given sizes (the last size repeats), so
+    // line ends, CRs and multibyte characters land on buffer fill boundaries.
+    private static class SplitInputStream extends InputStream {
+        private final byte[] data;
+        private final int[] reads;
+        private int position;
+        private int read;
+
+        SplitInputStream(byte[] data, int[] reads) {
+            this.data = data;
+            this.reads = reads;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (position >= data.length) {
+                return -1;
+            }
+            int size = reads[Math.min(read++, reads.length - 1)];
+            int count = Math.min(Math.min(length, size), data.length - position);
+            System.arraycopy(data, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+#!/usr/bin/env python3
+"""End-to-end macro benchmark for the eligibility oracle CLI.
+
+Runs the full CLI (JVM startup, rules load, read, audit, render, report write
+and --log-db flush) over generated intakes of increasing size and rule sets of
+increasing complexity. DB logging goes to scripts/pg-standin.py, a local
+stand-in that speaks the Postgres wire protocol, unless --db-url points at a
+real database.
+
+Per scenario it records the median of --repeat runs for:
+  wall_ms      process wall time
+  peak_rss_mb  peak resident set size of the JVM
+  gc_pause_ms  total GC pause time (from -Xlog:gc)
+  db_write_ms  time the spool flusher spent writing to the database
+
+Results go to --output as JSON. With --baseline, each metric is compared to
+the baseline, and the run exits 1 if any metric regresses past its threshold.
+--update-baseline writes the results as the new baseline.
+
+Usage:
+  scripts/bench.py [--sizes 10000,100000,300000] [--rules basic,extended]
+                   [--repeat 3] [--output reports/bench/latest.json]
+                   [--baseline bench/baseline.json] [--update-baseline]
+                   [--threshold wall_ms=15] [--db-latency-ms 0]
+                   [--db-url jdbc:postgresql://...]
+"""
+import argparse
+import json
+import os
+import platform
+import random
+import re
+import shutil
+import socket
+import statistics
+import subprocess
+import sys
+import tempfile
+import time
+from datetime import date, timedelta
+from pathlib import Path
+
+ROOT = Path(__file__).resolve().parent.parent
+HEADER = "id,first_name,last_name,email,phone,guardian_email,gpa,grad_year,status,dob,review_notes"
+STATUSES = ["eligible", "conditional", "ineligible", "Eligible", " conditional "]
+NOTES = ["", "", "", "tbd", "unknown", "reviewed by counselor", "needs transcript"]
+FIRST_NAMES = ["Jordan", "Samira", "Avery", "Mateo", "Priya", "Kai", "Noor", "Lena"]
+LAST_NAMES = ["Lee", "Ortiz", "Nguyen", "Okafor", "Schmidt", "Haddad", "Kim", "Silva"]
+
+# Relative regression allowed before the run fails, in percent.
+DEFAULT_THRESHOLDS = {"wall_ms": 15.0, "peak_rss_mb": 20.0, "gc_pause_ms": 50.0, "db_write_ms": 50.0}
+# Absolute slack so tiny metrics do not flap on noise.
+ABSOLUTE_SLACK = {"wall_ms": 150.0, "peak_rss_mb": 16.0, "gc_pause_ms": 20.0, "db_write_ms": 50.0}
+
+GC_PAUSE = re.compile(r"Pause.*?(\d+(?:\.\d+)?)ms")
+DB_WRITE = re.compile(r"Logged (\d+) spooled audit run\(s\) to DB in (\d+) ms")
+
+
+def generate_intake(path, rows, seed):
+    rng = random.Random(seed)
+    start = date(1996, 1, 1)
+    with open(path, "w", encoding="utf-8", newline="") as out:
+        out.write(HEADER + "\n")
+        for i in range(rows):
+            email = "applicant%d@example.com" % rng.randrange(rows * 2) if rng.random() > 0.02 else "bad-address"
+            phone = "555-%04d" % rng.randrange(10000) if rng.random() > 0.3 else ""
+            guardian = "guardian%d@example.com" % i if not phone and rng.random() > 0.2 else ""
+            dob = start + timedelta(days=rng.randrange(16 * 365))
+            out.write(",".join([
+                "A-%d" % i,
+                rng.choice(FIRST_NAMES),
+                rng.choice(LAST_NAMES),
+                email,
+                phone,
+                guardian,
+                "%.2f" % rng.uniform(1.8, 4.0),
+                str(rng.randrange(2023, 2032)),
+                rng.choice(STATUSES),
+                dob.isoformat() if rng.random() > 0.01 else "not-a-date",
+                rng.choice(NOTES),
+            ]) + "\n")
+
+
+def extended_rules(path):
+    """data/rules.txt plus warn/review/conditional sections and large value sets."""
+    base = (ROOT / "data" / "rules.txt").read_text(encoding="utf-8")
+    extra = ["", "[warn_required]", "fields=phone,guardian_email,review_notes", ""]
+    for status in ("eligible", "ineligible"):
+        extra += ["[require_if:status=%s]" % status, "fields=phone", ""]
+        extra += ["[warn_if:status=%s]" % status, "fields=guardian_email", ""]
+    extra += ["[review_if:review_notes=needs transcript]", "reasons=transcript_pending", ""]
+    extra += ["[warn_range:gpa]", "min=3.0", "max=4.0", ""]
+    extra += ["[warn_date:dob]", "earliest=2002-01-01", "latest=2007-12-31", ""]
+    extra += ["[warn_pattern:phone]", r"regex=^555-\d{4}$", ""]
+    extra += ["[allowed:last_name]", "values=" + ",".join(LAST_NAMES + ["Surname%d" % n for n in range(2000)]), ""]
+    extra += ["[warn_disallowed:first_name]", "values=" + ",".join("Blocked%d" % n for n in range(2000)), ""]
+    extra += ["[unique]", "fields=email,id", ""]
+    path.write_text(base + "\n".join(extra), encoding="utf-8")
+
+
+def free_port():
+    with socket.socket() as sock:
+        sock.bind(("127.0.0.1", 0))
+        return sock.getsockname()[1]
+
+
+def start_standin(latency_ms):
+    port = free_port()
+    proc = subprocess.Popen(
+        [sys.executable, str(ROOT / "scripts" / "pg-standin.py"), "--port", str(port), "--latency-ms", str(latency_ms)],
+        stdout=subprocess.PIPE, stderr=subprocess.DEVNULL, text=True,
+    )
+    proc.stdout.readline()
+    return proc, "jdbc:postgresql://127.0.0.1:%d/bench" % port
+
+
+def run_once(java_cmd, env, work, spool_dir):
+    gc_log = work / "gc.log"
+    stderr_log = work / "stderr.log"
+    for path in (gc_log, stderr_log):
+        if path.exists():
+            path.unlink()
+    cmd = [java_cmd[0], "-Xlog:gc:file=%s" % gc_log] + java_cmd[1:]
+    with open(stderr_log, "w", encoding="utf-8") as stderr_file:
+        started = time.perf_counter()
+        proc = subprocess.Popen(cmd, cwd=ROOT, env=env, stdout=subprocess.DEVNULL, stderr=stderr_file)
+        # wait4 reports rusage for this child only, which gives a per-run peak RSS.
+        _, status, usage = os.wait4(proc.pid, 0)
+        wall_ms = (time.perf_counter() - started) * 1000.0
+    proc.returncode = os.waitstatus_to_exitcode(status)
+    stderr = stderr_log.read_text(encoding="utf-8")
+    if proc.returncode != 0:
+        raise RuntimeError("oracle exited with %d:\n%s" % (proc.returncode, stderr))
+    pauses = [float(m.group(1)) for m in GC_PAUSE.finditer(gc_log.read_text(encoding="utf-8"))] if gc_log.exists() else []
+    db = DB_WRITE.search(stderr)
+    if db is None or db.group(1) == "0":
+        raise RuntimeError("DB flush did not complete within the wait window:\n" + stderr)
+    rss_kb = usage.ru_maxrss if platform.system() != "Darwin" else usage.ru_maxrss / 1024.0
+    shutil.rmtree(spool_dir, ignore_errors=True)
+    return {
+        "wall_ms": wall_ms,
+        "peak_rss_mb": rss_kb / 1024.0,
+        "gc_pause_ms": sum(pauses),
+        "db_write_ms": float(db.group(2)),
+    }
+
+
+def compare(results, baseline, thresholds):
+    failures = []
+    for name, metrics in results["scenarios"].items():
+        previous = baseline.get("scenarios", {}).get(name)
+        if previous is None:
+            continue
+        for metric, value in metrics.items():
+            if metric not in thresholds or metric not in previous:
+                continue
+            before = previous[metric]
+            limit = before * (1.0 + thresholds[metric] / 100.0) + ABSOLUTE_SLACK.get(metric, 0.0)
+            status = "ok"
+            if value > limit:
+                status = "REGRESSED"
+                failures.append("%s %s: %.1f -> %.1f (limit %.1f)" % (name, metric, before, value, limit))
+            print("  %-28s %-12s %10.1f -> %10.1f  %s" % (name, metric, before, value, status))
+    return failures
+
+
+def parse_thresholds(values):
+    thresholds = dict(DEFAULT_THRESHOLDS)
+    for value in values:
+        metric, _, pct = value.partition("=")
+        if metric not in thresholds or not pct:
+            raise SystemExit("Unknown threshold %r (expected one of %s)" % (value, ", ".join(thresholds)))
+        thresholds[metric] = float(pct)
+    return thresholds
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    parser.add_argument("--sizes", default="10000,100000,300000")
+    parser.add_argument("--rules", default="basic,extended")
+    parser.add_argument("--repeat", type=int, default=3)
+    parser.add_argument("--seed", type=int, default=20261018)
+    parser.add_argument("--output", default=str(ROOT / "reports" / "bench" / "latest.json"))
+    parser.add_argument("--baseline", default=str(ROOT / "bench" / "baseline.json"))
+    parser.add_argument("--update-baseline", action="store_true")
+    parser.add_argument("--threshold", action="append", default=[], help="metric=percent, repeatable")
+    parser.add_argument("--db-url", help="benchmark against this database instead of the local stand-in")
+    parser.add_argument("--db-latency-ms", type=float, default=0.0, help="round-trip delay added by the stand-in")
+    parser.add_argument("--java-opts", default="", help="extra JVM options, space separated")
+    args = parser.parse_args()
+    thresholds = parse_thresholds(args.threshold)
+
+    subprocess.run(["javac", "-d", "build", "src/EligibilityOracle.java"], cwd=ROOT, check=True)
+    standin = None
+    env = dict(os.environ)
+    if args.db_url:
+        env["ELIGIBILITY_DB_URL"] = args.db_url
+    else:
+        standin, env["ELIGIBILITY_DB_URL"] = start_standin(args.db_latency_ms)
+        env["ELIGIBILITY_DB_USER"] = "bench"
+    env.setdefault("ELIGIBILITY_DB_SCHEMA", "eligibility_oracle_bench")
+
+    work = Path(tempfile.mkdtemp(prefix="oracle-bench-"))
+    results = {
+        "generated_at": time.strftime("%Y-%m-%dT%H:%M:%SZ", time.gmtime()),
+        "host": {"platform": platform.platform(), "python": platform.python_version(), "cpus": os.cpu_count()},
+        "repeat": args.repeat,
+        "seed": args.seed,
+        "scenarios": {},
+    }
+    try:
+        rule_files = {"basic": ROOT / "data" / "rules.txt"}
+        extended_rules(work / "extended-rules.txt")
+        rule_files["extended"] = work / "extended-rules.txt"
+        sizes = [int(size) for size in args.sizes.split(",") if size.strip()]
+        for size in sizes:
+            intake = work / ("intake-%d.csv" % size)
+            generate_intake(intake, size, args.seed + size)
+            for rules_name in [name.strip() for name in args.rules.split(",") if name.strip()]:
+                if rules_name not in rule_files:
+                    raise SystemExit("Unknown rule set %r (expected basic or extended)" % rules_name)
+                name = "%s-%d" % (rules_name, size)
+                spool_dir = work / "spool"
+                java_cmd = ["java"] + args.java_opts.split() + [
+                    "-cp", "build" + os.pathsep + str(Path("lib") / "*"), "EligibilityOracle",
+                    "--input", str(intake), "--rules", str(rule_files[rules_name]),
+                    "--format", "json", "--segment-field", "status",
+                    "--output", str(work / "report.json"),
+                    "--log-db", "--run-name", "bench-" + name,
+                    "--spool-dir", str(spool_dir), "--db-flush-wait", "60000",
+                ]
+                runs = [run_once(java_cmd, env, work, spool_dir) for _ in range(args.repeat)]
+                metrics = {metric: round(statistics.median(run[metric] for run in runs), 1) for metric in runs[0]}
+                results["scenarios"][name] = metrics
+                print("%-28s wall %8.1f ms  rss %7.1f MB  gc %7.1f ms  db %7.1f ms" % (
+                    name, metrics["wall_ms"], metrics["peak_rss_mb"], metrics["gc_pause_ms"], metrics["db_write_ms"]))
+    finally:
+        shutil.rmtree(work, ignore_errors=True)
+        if standin is not None:
+            standin.terminate()
+            standin.wait()
+
+    output = Path(args.output)
+    output.parent.mkdir(parents=True, exist_ok=True)
+    output.write_text(json.dumps(results, indent=2, sort_keys=True) + "\n", encoding="utf-8")
+    print("Wrote %s" % output)
+
+    baseline_path = Path(args.baseline)
+    if args.update_baseline:
+        baseline_path.parent.mkdir(parents=True, exist_ok=True)
+        baseline_path.write_text(json.dumps(results, indent=2, sort_keys=True) + "\n", encoding="utf-8")
+        print("Updated baseline %s" % baseline_path)
+        return 0
+    if not baseline_path.exists():
+        print("No baseline at %s; run with --update-baseline to record one." % baseline_path)
+        return 0
+    print("Comparing against %s:" % baseline_path)
+    failures = compare(results, json.loads(baseline_path.read_text(encoding="utf-8")), thresholds)
+    if failures:
+        print("Regressions beyond threshold:")
+        for failure in failures:
+            print("- " + failure)
+        return 1
+    print("No regressions.")
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,508 @@
+#!/usr/bin/env python3
+"""Minimal Postgres wire-protocol stand-in for benchmarks and smoke tests.
+
+Accepts the statements the oracle issues over pgjdbc (simple and extended
+query protocol), acknowledges writes without storing them, and answers
+SELECT/RETURNING statements with a single int8 column. Migration versions
+recorded through INSERT INTO ...schema_migrations are remembered so the
+version check behaves like a real database across connections.
+
+With --source-csv, the CSV file also plays an applicant table: COPY ... TO
+STDOUT streams it (header row included when the statement asks for HEADER),
+and SELECTs naming --source-table return its rows as text columns, honouring
+the fetch size of a cursor-style Execute. Empty values are sent as NULL.
+
+Upserts into the audit_rollup_* tables are summed in memory, and the
+--history queries over them are answered from those sums, so --log-db
+(or scripts/seed-db.py) followed by --history round-trips through the
+stand-in. Runs themselves are not kept: a SELECT from audit_runs returns no
+rows.
+
+Usage: pg-standin.py [--port 55432] [--log statements.log] [--latency-ms 0]
+                     [--source-csv applicants.csv] [--source-table applicants]
+"""
+import argparse
+import csv
+import datetime
+import re
+import socket
+import socketserver
+import struct
+import sys
+import threading
+import time
+
+STATE_LOCK = threading.Lock()
+STATE = {"counter": 0, "versions": set(), "statements": 0, "rows": {}}
+ROLLUPS = {
+    "audit_rollup_daily": {},
+    "audit_rollup_run_names": {},
+    "audit_rollup_reasons": {},
+    "audit_rollup_completeness": {},
+}
+ROLLUP_QUERY = re.compile(r"^\s*SELECT\b.*\bFROM\s+(?:\w+\.)?(audit_rollup_\w+)", re.IGNORECASE | re.DOTALL)
+ROLLUP_INSERT = re.compile(r"^\s*INSERT\s+INTO\s+(?:\w+\.)?audit_rollup_", re.IGNORECASE)
+DATE_OID, INT8_OID, TEXT_OID = 1082, 20, 25
+PG_EPOCH = datetime.date(2000, 1, 1)
+
+INSERT_TABLE = re.compile(r"^\s*INSERT\s+INTO\s+([\w.]+)", re.IGNORECASE)
+VERSION_QUERY = re.compile(r"schema_migrations", re.IGNORECASE)
+RUNS_QUERY = re.compile(r"\bFROM\s+(?:\w+\.)?audit_runs\b", re.IGNORECASE)
+
+
+def decode_int(raw):
+    if len(raw) in (4, 8) and not raw.isdigit():
+        return struct.unpack("!i" if len(raw) == 4 else "!q", raw)[0]
+    return int(raw.decode())
+
+
+def decode_param(raw, fmt, oid):
+    if raw is None:
+        return None
+    if fmt == 0:
+        text = raw.decode()
+        if oid == DATE_OID or re.fullmatch(r"\d{4}-\d{2}-\d{2}", text):
+            return datetime.date.fromisoformat(text)
+        return int(text) if re.fullmatch(r"-?\d+", text) and oid != TEXT_OID else text
+    if oid == DATE_OID:
+        return PG_EPOCH + datetime.timedelta(days=struct.unpack("!i", raw)[0])
+    if len(raw) in (2, 4, 8) and oid != TEXT_OID:
+        return struct.unpack({2: "!h", 4: "!i", 8: "!q"}[len(raw)], raw)[0]
+    return raw.decode()
+
+
+def literal_values(sql, params):
+    """The VALUES tuple of an INSERT, with $n placeholders replaced by the bound parameters."""
+    clause = re.search(r"\bVALUES\s*\((.*?)\)\s*(?:ON\b|RETURNING\b|$)", sql, re.IGNORECASE | re.DOTALL)
+    values = []
+    for token in re.findall(r"'(?:[^']|'')*'(?:::\w+)?|[^,\s][^,]*", clause.group(1) if clause else ""):
+        token = token.strip()
+        if token.startswith("$"):
+            values.append(params[int(token[1:]) - 1])
+        elif token.upper() == "NULL":
+            values.append(None)
+        elif token.startswith("'"):
+            quoted = re.fullmatch(r"'((?:[^']|'')*)'(?:::(\w+))?", token)
+            oid = DATE_OID if (quoted.group(2) or "").lower() == "date" else TEXT_OID
+            values.append(decode_param(quoted.group(1).replace("''", "'").encode(), 0, oid))
+        else:
+            values.append(int(token))
+    return values
+
+
+def record_rollup(table, values):
+    """Apply one rollup upsert; values are the inserted columns in table order."""
+    keys = {"audit_rollup_daily": 1, "audit_rollup_run_names": 2}.get(table, 3)
+    key, totals = tuple(values[:keys]), values[keys:]
+    if table == "audit_rollup_daily":
+        key = (key[0], "")
+    elif table == "audit_rollup_run_names":
+        key = (key[1], key[0])
+    rollup = ROLLUPS[table]
+    with STATE_LOCK:
+        current = rollup.get(key)
+        rollup[key] = [a + b for a, b in zip(current, totals)] if current else list(totals)
+
+
+def rollup_rows(sql, params):
+    """Answer a --history query: (column types, rows) grouped by period."""
+    table = ROLLUP_QUERY.match(sql).group(1).lower()
+    weekly = "date_trunc('week'" in sql
+    since = params[0] if params else datetime.date.min
+    run_name = params[1] if len(params) > 1 else None
+    groups = {}
+    with STATE_LOCK:
+        entries = list(ROLLUPS.get(table, {}).items())
+    for key, totals in entries:
+        day, name = key[0], key[1]
+        if day < since or (run_name is not None and name != run_name):
+            continue
+        period = day - datetime.timedelta(days=day.weekday()) if weekly else day
+        group = (period,) + tuple(key[2:])
+        current = groups.get(group)
+        groups[group] = [a + b for a, b in zip(current, totals)] if current else list(totals)
+    rows = [list(group) + totals for group, totals in sorted(groups.items())]
+    width = 1 + (len(rows[0]) - 1 if rows else {"audit_rollup_reasons": 2, "audit_rollup_completeness": 3}.get(table, 6))
+    types = [DATE_OID] + ([TEXT_OID] if table in ("audit_rollup_reasons", "audit_rollup_completeness") else [])
+    types += [INT8_OID] * (width - len(types))
+    return types, rows
+
+
+def next_id():
+    with STATE_LOCK:
+        STATE["counter"] += 1
+        return STATE["counter"]
+
+
+class Statement:
+    def __init__(self, sql, param_types):
+        self.sql = sql
+        self.param_types = param_types
+
+    @property
+    def returns_rows(self):
+        head = self.sql.lstrip().upper()
+        return head.startswith("SELECT") or " RETURNING " in self.sql.upper()
+
+    @property
+    def param_count(self):
+        count = len(self.param_types)
+        found = [int(m) for m in re.findall(r"\$(\d+)", self.sql)]
+        return max([count] + found)
+
+
+class Handler(socketserver.BaseRequestHandler):
+    def setup(self):
+        self.statements = {}
+        self.portals = {}
+        self.cursors = {}
+        self.in_transaction = False
+        self.failed = False
+        self.buffer = bytearray()
+
+    # -- framing -------------------------------------------------------
+    def recv_exact(self, size):
+        while len(self.buffer) < size:
+            chunk = self.request.recv(65536)
+            if not chunk:
+                raise ConnectionError("client closed")
+            self.buffer.extend(chunk)
+        data = bytes(self.buffer[:size])
+        del self.buffer[:size]
+        return data
+
+    def send(self, kind, payload=b""):
+        self.out.append(kind + struct.pack("!I", len(payload) + 4) + payload)
+
+    def flush(self):
+        if self.out:
+            self.request.sendall(b"".join(self.out))
+            self.out = []
+
+    # -- protocol ------------------------------------------------------
+    def handle(self):
+        self.out = []
+        try:
+            self.startup()
+            while True:
+                kind = self.recv_exact(1)
+                (length,) = struct.unpack("!I", self.recv_exact(4))
+                body = self.recv_exact(length - 4)
+                if kind == b"X":
+                    return
+                self.dispatch(kind, body)
+        except ConnectionError:
+            return
+
+    def startup(self):
+        while True:
+            (length,) = struct.unpack("!I", self.recv_exact(4))
+            body = self.recv_exact(length - 4)
+            (code,) = struct.unpack("!I", body[:4])
+            if code in (80877103, 80877104):  # SSLRequest / GSSENCRequest
+                self.request.sendall(b"N")
+                continue
+            break
+        self.send(b"R", struct.pack("!I", 0))
+        for key, value in (
+            ("server_version", "16.0"),
+            ("server_encoding", "UTF8"),
+            ("client_encoding", "UTF8"),
+            ("DateStyle", "ISO, MDY"),
+            ("integer_datetimes", "on"),
+            ("standard_conforming_strings", "on"),
+            ("TimeZone", "UTC"),
+        ):
+            self.send(b"S", key.encode() + b"\0" + value.encode() + b"\0")
+        self.send(b"K", struct.pack("!II", 4242, 0))
+        self.ready()
+        self.flush()
+
+    def ready(self):
+        status = b"E" if self.failed else (b"T" if self.in_transaction else b"I")
+        self.send(b"Z", status)
+
+    def dispatch(self, kind, body):
+        latency = self.server.latency
+        if kind == b"Q":
+            sql = body.rstrip(b"\0").decode()
+            for part in [p for p in sql.split(";") if p.strip()]:
+                stmt = Statement(part, [])
+                if self.is_copy_out(stmt):
+                    self.copy_out(stmt)
+                    continue
+                if self.is_source(stmt):
+                    self.row_description_source()
+                    self.execute_source(None, 0)
+                    continue
+                if stmt.returns_rows:
+                    self.row_description(stmt, [0])
+                self.execute(stmt, [], [0])
+            if latency:
+                time.sleep(latency)
+            self.ready()
+            self.flush()
+        elif kind == b"P":
+            name, rest = body.split(b"\0", 1)
+            sql, rest = rest.split(b"\0", 1)
+            (count,) = struct.unpack("!H", rest[:2])
+            types = list(struct.unpack("!%dI" % count, rest[2:2 + 4 * count]))
+            self.statements[name] = Statement(sql.decode(), types)
+            self.send(b"1")
+        elif kind == b"B":
+            portal, rest = body.split(b"\0", 1)
+            name, rest = rest.split(b"\0", 1)
+            (fcount,) = struct.unpack("!H", rest[:2])
+            pformats = list(struct.unpack("!%dH" % fcount, rest[2:2 + 2 * fcount]))
+            pos = 2 + 2 * fcount
+            (pcount,) = struct.unpack("!H", rest[pos:pos + 2])
+            pos += 2
+            params = []
+            for _ in range(pcount):
+                (size,) = struct.unpack("!i", rest[pos:pos + 4])
+                pos += 4
+                if size >= 0:
+                    params.append(rest[pos:pos + size])
+                    pos += size
+                else:
+                    params.append(None)
+            (rcount,) = struct.unpack("!H", rest[pos:pos + 2])
+            formats = list(struct.unpack("!%dH" % rcount, rest[pos + 2:pos + 2 + 2 * rcount]))
+            stmt = self.statements.get(name)
+            if stmt is not None and (ROLLUP_INSERT.match(stmt.sql) or ROLLUP_QUERY.match(stmt.sql)):
+                oids = list(stmt.param_types) + [0] * len(params)
+                params = [decode_param(raw, pformats[i] if len(pformats) > 1 else (pformats[0] if pformats else 0), oids[i])
+                          for i, raw in enumerate(params)]
+            self.portals[portal] = (stmt, params, formats or [0])
+            self.send(b"2")
+        elif kind == b"D":
+            target, name = body[:1], body[1:].rstrip(b"\0")
+            if target == b"S":
+                stmt = self.statements.get(name)
+                types = list(stmt.param_types) if stmt else []
+                count = stmt.param_count if stmt else 0
+                types += [0] * (count - len(types))
+                types = [t if t else 25 for t in types]
+                self.send(b"t", struct.pack("!H", len(types)) + b"".join(struct.pack("!I", t) for t in types))
+                if stmt and self.is_source(stmt):
+                    self.row_description_source()
+                elif stmt and stmt.returns_rows:
+                    self.row_description(stmt, [0])
+                else:
+                    self.send(b"n")
+            else:
+                stmt, _, formats = self.portals.get(name, (None, [], [0]))
+                if stmt and self.is_source(stmt):
+                    self.row_description_source()
+                elif stmt and stmt.returns_rows:
+                    self.row_description(stmt, formats)
+                else:
+                    self.send(b"n")
+        elif kind == b"E":
+            name, rest = body.split(b"\0", 1)
+            (max_rows,) = struct.unpack("!i", rest[:4])
+            stmt, params, formats = self.portals.get(name, (None, [], [0]))
+            if stmt is not None and self.is_source(stmt):
+                self.log_statement(stmt.sql)
+                self.execute_source(name, max_rows)
+            elif stmt is not None:
+                self.execute(stmt, params, formats)
+        elif kind == b"S":
+            if latency:
+                time.sleep(latency)
+            self.ready()
+            self.flush()
+        elif kind == b"H":
+            self.flush()
+        elif kind == b"C":
+            self.cursors.pop(body[1:].rstrip(b"\0"), None)
+            self.send(b"3")
+        elif kind in (b"d", b"c", b"f"):
+            pass
+
+    # -- applicant source ----------------------------------------------
+    def is_source(self, stmt):
+        table = re.escape(self.server.source_table)
+        return bool(self.server.source_csv) and re.search(r"\bFROM\s+(\w+\.)?" + table + r"\b", stmt.sql, re.IGNORECASE) \
+            and not self.is_copy_out(stmt)
+
+    def is_copy_out(self, stmt):
+        return bool(self.server.source_csv) and re.match(r"^\s*COPY\b.*\bTO\s+STDOUT\b", stmt.sql, re.IGNORECASE | re.DOTALL)
+
+    def source_header(self):
+        with open(self.server.source_csv, newline="") as fh:
+            return next(csv.reader(fh))
+
+    def source_rows(self):
+        with open(self.server.source_csv, newline="") as fh:
+            reader = csv.reader(fh)
+            width = len(next(reader))
+            for row in reader:
+                yield (row + [""] * width)[:width]
+
+    def row_description_source(self):
+        header = self.source_header()
+        fields = b"".join(name.encode() + b"\0" + struct.pack("!IhIhih", 0, 0, 25, -1, -1, 0) for name in header)
+        self.send(b"T", struct.pack("!H", len(header)) + fields)
+
+    def execute_source(self, portal, max_rows):
+        rows = self.cursors.get(portal) if portal is not None else None
+        if rows is None:
+            rows = self.source_rows()
+            if portal is not None:
+                self.cursors[portal] = rows
+        sent = 0
+        for row in rows:
+            values = []
+            for value in row:
+                if value == "":
+                    values.append(struct.pack("!i", -1))
+                else:
+                    data = value.encode()
+                    values.append(struct.pack("!i", len(data)) + data)
+            self.send(b"D", struct.pack("!H", len(row)) + b"".join(values))
+            sent += 1
+            if sent % 1000 == 0:
+                self.flush()
+            if max_rows and sent >= max_rows:
+                self.send(b"s")
+                return
+        self.cursors.pop(portal, None)
+        self.send(b"C", b"SELECT %d\0" % sent)
+
+    def copy_out(self, stmt):
+        self.log_statement(stmt.sql)
+        header = self.source_header()
+        include_header = bool(re.search(r"\bHEADER\b", stmt.sql, re.IGNORECASE))
+        self.send(b"H", struct.pack("!bH", 0, len(header)) + struct.pack("!%dH" % len(header), *([0] * len(header))))
+        sent = 0
+        with open(self.server.source_csv, "rb") as fh:
+            for index, line in enumerate(fh):
+                if index == 0 and not include_header:
+                    continue
+                if not line.endswith(b"\n"):
+                    line += b"\n"
+                self.send(b"d", line)
+                sent += 1
+                if sent % 1000 == 0:
+                    self.flush()
+        self.send(b"c")
+        self.send(b"C", b"COPY %d\0" % (sent - (1 if include_header else 0)))
+
+    def log_statement(self, sql):
+        if self.server.log:
+            with STATE_LOCK:
+                self.server.log.write(" ".join(sql.split()) + "\n")
+                self.server.log.flush()
+
+    def row_description(self, stmt, formats):
+        if ROLLUP_QUERY.match(stmt.sql):
+            types, _ = rollup_rows(stmt.sql, [])
+            fields = b"".join(b"c%d\0" % i + struct.pack("!IhIhih", 0, 0, oid, -1, -1, self.column_format(formats, i))
+                              for i, oid in enumerate(types))
+            self.send(b"T", struct.pack("!H", len(types)) + fields)
+            return
+        fmt = formats[0] if formats else 0
+        field = b"id\0" + struct.pack("!IhIhih", 0, 0, 20, 8, -1, fmt)
+        self.send(b"T", struct.pack("!H", 1) + field)
+
+    @staticmethod
+    def column_format(formats, index):
+        if not formats:
+            return 0
+        return formats[index] if len(formats) > 1 else formats[0]
+
+    def send_rollup_rows(self, stmt, params, formats):
+        types, rows = rollup_rows(stmt.sql, params)
+        for row in rows:
+            values = []
+            for i, (oid, value) in enumerate(zip(types, row)):
+                if self.column_format(formats, i) == 1:
+                    if oid == DATE_OID:
+                        data = struct.pack("!i", (value - PG_EPOCH).days)
+                    elif oid == INT8_OID:
+                        data = struct.pack("!q", value)
+                    else:
+                        data = str(value).encode()
+                else:
+                    data = (value.isoformat() if oid == DATE_OID else str(value)).encode()
+                values.append(struct.pack("!i", len(data)) + data)
+            self.send(b"D", struct.pack("!H", len(values)) + b"".join(values))
+        self.send(b"C", b"SELECT %d\0" % len(rows))
+
+    def execute(self, stmt, params, formats):
+        sql = stmt.sql.strip()
+        head = sql.split(None, 1)[0].upper() if sql else ""
+        with STATE_LOCK:
+            STATE["statements"] += 1
+        self.log_statement(sql)
+        if head in ("BEGIN", "START"):
+            self.in_transaction = True
+        elif head in ("COMMIT", "ROLLBACK", "END"):
+            self.in_transaction = False
+        match = INSERT_TABLE.match(sql)
+        if match:
+            table = match.group(1).split(".")[-1]
+            with STATE_LOCK:
+                STATE["rows"][table] = STATE["rows"].get(table, 0) + 1
+                if table == "schema_migrations" and params and params[0] is not None:
+                    STATE["versions"].add(decode_int(params[0]))
+            values = literal_values(sql, params) if table in ROLLUPS else []
+            if values:
+                record_rollup(table, values)
+        if ROLLUP_QUERY.match(sql):
+            self.send_rollup_rows(stmt, params, formats)
+            return
+        if head == "SELECT" and RUNS_QUERY.search(sql):
+            self.send(b"C", b"SELECT 0\0")
+            return
+        if stmt.returns_rows:
+            if head == "SELECT" and VERSION_QUERY.search(sql):
+                with STATE_LOCK:
+                    value = max(STATE["versions"]) if STATE["versions"] else 0
+            else:
+                value = next_id()
+            fmt = formats[0] if formats else 0
+            data = struct.pack("!q", value) if fmt == 1 else str(value).encode()
+            self.send(b"D", struct.pack("!H", 1) + struct.pack("!i", len(data)) + data)
+            self.send(b"C", b"SELECT 1\0" if head == "SELECT" else ("%s 0 1\0" % head).encode())
+            return
+        if head == "INSERT":
+            tag = b"INSERT 0 1\0"
+        elif head in ("UPDATE", "DELETE"):
+            tag = ("%s 1\0" % head).encode()
+        else:
+            tag = (head or "EMPTY").encode() + b"\0"
+        self.send(b"C", tag)
+
+
+class Server(socketserver.ThreadingTCPServer):
+    allow_reuse_address = True
+    daemon_threads = True
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    parser.add_argument("--port", type=int, default=55432)
+    parser.add_argument("--log", help="append every executed statement to this file")
+    parser.add_argument("--latency-ms", type=float, default=0.0, help="delay added to each Sync round trip")
+    parser.add_argument("--source-csv", help="CSV file served for COPY ... TO STDOUT and SELECTs from --source-table")
+    parser.add_argument("--source-table", default="applicants", help="table name that SELECTs read from --source-csv")
+    args = parser.parse_args()
+    server = Server(("127.0.0.1", args.port), Handler)
+    server.log = open(args.log, "a") if args.log else None
+    server.latency = args.latency_ms / 1000.0
+    server.source_csv = args.source_csv
+    server.source_table = args.source_table
+    print("pg-standin listening on 127.0.0.1:%d" % server.server_address[1], flush=True)
+    try:
+        server.serve_forever()
+    except KeyboardInterrupt:
+        pass
+    finally:
+        with STATE_LOCK:
+            print("statements=%d rows=%s" % (STATE["statements"], STATE["rows"]), file=sys.stderr)
+
+
+if __name__ == "__main__":
+    sys.exit(main())
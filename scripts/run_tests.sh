@@ -10,4 +10,158 @@ echo "$TEXT_OUTPUT" | grep -q "Total applicants"
 JSON_OUTPUT=$(./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --format json)
 echo "$JSON_OUTPUT" | grep -q '"totalApplicants"'
 
+java -cp build scripts/CsvReaderCheck.java | grep -q "inputs match the line reader"
+
+TMP_DIR=$(mktemp -d)
+trap 'rm -rf "$TMP_DIR"' EXIT
+
+gzip -c data/sample-intake.csv > "$TMP_DIR/intake.csv.gz"
+./scripts/run.sh --input "$TMP_DIR/intake.csv.gz" --rules data/rules.txt --format json --output "$TMP_DIR/report.json.gz"
+GZIP_OUTPUT=$(gzip -dc "$TMP_DIR/report.json.gz")
+[ "$(echo "$GZIP_OUTPUT" | grep '"totalApplicants"')" = "$(echo "$JSON_OUTPUT" | grep '"totalApplicants"')" ]
+
+./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --verdicts "$TMP_DIR/verdicts.ndjson" > /dev/null
+[ "$(wc -l < "$TMP_DIR/verdicts.ndjson")" -eq "$(($(wc -l < data/sample-intake.csv) - 1))" ]
+grep -q '"verdict": "ineligible"' "$TMP_DIR/verdicts.ndjson"
+
+./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --verdicts "$TMP_DIR/verdicts.bin" > /dev/null
+[ "$(head -c 4 "$TMP_DIR/verdicts.bin")" = "DVSG" ]
+
+SPILL_OUTPUT=$(./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --format json --memory-budget 1k --spill-dir "$TMP_DIR" 2> "$TMP_DIR/spill.log")
+[ "$SPILL_OUTPUT" = "$JSON_OUTPUT" ]
+grep -q "spilled" "$TMP_DIR/spill.log"
+
+UNREACHABLE_DB="jdbc:postgresql://127.0.0.1:1/eligibility"
+ELIGIBILITY_DB_URL="$UNREACHABLE_DB" ./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --log-db --spool-dir "$TMP_DIR/spool" --db-flush-wait 500 > /dev/null 2> "$TMP_DIR/spool.log"
+[ "$(head -c 4 "$TMP_DIR/spool/audit-runs.spool")" = "GSPL" ]
+SPOOL_BYTES=$(wc -c < "$TMP_DIR/spool/audit-runs.spool")
+if ELIGIBILITY_DB_URL="$UNREACHABLE_DB" java -cp "build:lib/*" EligibilityOracle --flush-spool --spool-dir "$TMP_DIR/spool" 2> "$TMP_DIR/flush.log"; then
+  exit 1
+fi
+grep -q "runs remain in" "$TMP_DIR/flush.log"
+[ "$(wc -c < "$TMP_DIR/spool/audit-runs.spool")" -eq "$SPOOL_BYTES" ]
+
+python3 scripts/pg-standin.py --port 0 --source-csv data/sample-intake.csv --log "$TMP_DIR/standin.sql" > "$TMP_DIR/standin.out" 2> /dev/null &
+STANDIN_PID=$!
+trap 'kill "$STANDIN_PID" 2> /dev/null; rm -rf "$TMP_DIR"' EXIT
+for _ in $(seq 50); do
+  grep -q "listening" "$TMP_DIR/standin.out" 2> /dev/null && break
+  sleep 0.1
+done
+STANDIN_DB="jdbc:postgresql://$(sed -n 's/.*listening on //p' "$TMP_DIR/standin.out")/eligibility"
+ELIGIBILITY_DB_URL="$STANDIN_DB" java -cp "build:lib/*" EligibilityOracle --input data/sample-intake.csv --rules data/rules.txt --log-db --run-name smoke --spool-dir "$TMP_DIR/history-spool" --db-flush-wait 10000 > /dev/null
+ELIGIBILITY_DB_URL="$STANDIN_DB" java -cp "build:lib/*" EligibilityOracle --input data/sample-intake.csv --rules data/rules.txt --log-db --run-name smoke --spool-dir "$TMP_DIR/history-spool" --db-flush-wait 10000 > /dev/null
+ELIGIBILITY_DB_URL="$STANDIN_DB" java -cp "build:lib/*" EligibilityOracle --history --days 7 --run-name smoke > "$TMP_DIR/history.txt"
+grep -q "Run name: smoke" "$TMP_DIR/history.txt"
+grep -q "Trend:" "$TMP_DIR/history.txt"
+grep -Eq "^- [0-9]{4}-[0-9]{2}-[0-9]{2}: runs 2 \| applicants $((2 * ($(wc -l < data/sample-intake.csv) - 1))) " "$TMP_DIR/history.txt"
+grep -q "Top reasons" "$TMP_DIR/history.txt"
+grep -q "Completeness drift" "$TMP_DIR/history.txt"
+mkdir "$TMP_DIR/corrupt-spool"
+{ head -c 3000 /dev/zero; cat "$TMP_DIR/spool/audit-runs.spool"; printf 'junk'; cat "$TMP_DIR/spool/audit-runs.spool"; } > "$TMP_DIR/corrupt-spool/audit-runs.spool"
+ELIGIBILITY_DB_URL="$STANDIN_DB" java -cp "build:lib/*" EligibilityOracle --flush-spool --spool-dir "$TMP_DIR/corrupt-spool" 2> "$TMP_DIR/corrupt-flush.log"
+[ "$(grep -c "corrupt spool" "$TMP_DIR/corrupt-flush.log")" -eq 2 ]
+grep -q "Skipping 3000 corrupt spool byte(s) at offset 0\." "$TMP_DIR/corrupt-flush.log"
+grep -q "Skipping 4 corrupt spool byte(s) at offset $((3000 + SPOOL_BYTES))\." "$TMP_DIR/corrupt-flush.log"
+grep -q "Logged 2 spooled audit run(s)" "$TMP_DIR/corrupt-flush.log"
+if python3 -c "import psycopg2" 2> /dev/null; then
+  ELIGIBILITY_DB_URL="$STANDIN_DB" python3 scripts/seed-db.py > /dev/null
+  ELIGIBILITY_DB_URL="$STANDIN_DB" java -cp "build:lib/*" EligibilityOracle --history --days 7 --run-name seed-sample > "$TMP_DIR/seed-history.txt"
+  grep -Eq "^- [0-9-]+: runs 1 \| applicants 12 \| eligible 8 " "$TMP_DIR/seed-history.txt"
+  grep -q "missing:email: 2" "$TMP_DIR/seed-history.txt"
+fi
+ELIGIBILITY_DB_URL="$STANDIN_DB" java -cp "build:lib/*" EligibilityOracle --input data/sample-intake.csv --rules data/rules.txt --group-failures --log-db --spool-dir "$TMP_DIR/history-spool" --db-flush-wait 10000 > /dev/null
+[ "$(grep -c "^INSERT INTO eligibility_oracle.audit_failure_group_members " "$TMP_DIR/standin.sql")" -eq "$(echo "$TEXT_OUTPUT" | sed -n 's/^Ineligible: \([0-9]*\).*/\1/p')" ]
+CSV_REPORT=$(echo "$TEXT_OUTPUT" | grep -v "^Input:")
+for MODE in copy cursor; do
+  QUERY_REPORT=$(ELIGIBILITY_DB_URL="$STANDIN_DB" java -cp "build:lib/*" EligibilityOracle --input-query "SELECT * FROM applicants" --query-mode "$MODE" --fetch-size 2 --rules data/rules.txt)
+  echo "$QUERY_REPORT" | grep -q "^Input: query: SELECT \* FROM applicants"
+  [ "$(echo "$QUERY_REPORT" | grep -v "^Input:")" = "$CSV_REPORT" ]
+done
+cp data/rules.txt "$TMP_DIR/expr-rules.txt"
+cat >> "$TMP_DIR/expr-rules.txt" <<'RULES'
+
+[expr:graduation_age]
+check = grad_year - year(dob) <= 24
+
+[expr:conditional_gpa]
+check = if(status in ('conditional'), gpa >= 3.5, gpa >= 2.0)
+level = warn
+RULES
+EXPR_OUTPUT=$(./scripts/run.sh --input data/sample-intake.csv --rules "$TMP_DIR/expr-rules.txt")
+echo "$EXPR_OUTPUT" | grep -q "A-1004: out_of_range:grad_year, expr:graduation_age"
+echo "$EXPR_OUTPUT" | grep -q "warn_expr:conditional_gpa: 1"
+
+printf '[required]\nfields=id\n' > "$TMP_DIR/loose-rules.txt"
+COMPARE_OUTPUT=$(./scripts/run.sh --input data/sample-intake.csv --rules "$TMP_DIR/loose-rules.txt,data/rules.txt" --format json)
+echo "$COMPARE_OUTPUT" | grep -q '"eligibleToIneligible": 6'
+
+CUBE_OUTPUT=$(./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --segment-field status,grad_year --segment-cross status:grad_year)
+echo "$CUBE_OUTPUT" | grep -q "Segment breakdown (field: grad_year)"
+echo "$CUBE_OUTPUT" | grep -q "eligible x 2026: total 1"
+
+printf '[near_unique:contact]\nfields=email\nthreshold=0.9\n' > "$TMP_DIR/near-rules.txt"
+printf 'id,email\n1,Jane.Doe@example.com\n2,janedoe@example.com\n3,sam@example.org\n' > "$TMP_DIR/near.csv"
+NEAR_OUTPUT=$(./scripts/run.sh --input "$TMP_DIR/near.csv" --rules "$TMP_DIR/near-rules.txt")
+echo "$NEAR_OUTPUT" | grep -q "duplicate:contact:1.0: 2"
+
+./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --output-text "$TMP_DIR/fan.txt" --output-json "$TMP_DIR/fan.json" --output-ndjson "$TMP_DIR/fan.ndjson" > /dev/null
+grep -q "Eligibility Audit" "$TMP_DIR/fan.txt"
+grep -q '"totalApplicants"' "$TMP_DIR/fan.json"
+[ "$(wc -l < "$TMP_DIR/fan.ndjson")" -eq "$(($(wc -l < data/sample-intake.csv) - 1))" ]
+
+java -XX:StartFlightRecording=filename="$TMP_DIR/audit.jfr",settings=scripts/eligibility.jfc -cp "build:lib/*" EligibilityOracle \
+  --input data/sample-intake.csv --rules data/rules.txt --output "$TMP_DIR/jfr-report.txt" > /dev/null 2>&1
+jfr summary "$TMP_DIR/audit.jfr" | grep -q "eligibility.AuditRun"
+
+QUERY_ERROR=$(env -u ELIGIBILITY_DB_URL ./scripts/run.sh --input-query "SELECT * FROM applicants" --rules data/rules.txt 2>&1 || true)
+echo "$QUERY_ERROR" | grep -q "needs ELIGIBILITY_DB_URL"
+
+CHECKPOINT_OUTPUT=$(./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --checkpoint "$TMP_DIR/checkpoint")
+[ "$CHECKPOINT_OUTPUT" = "$(./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt)" ]
+[ ! -f "$TMP_DIR/checkpoint/checkpoint.bin" ]
+
+PLAN_OUTPUT=$(./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --format json --explain-plan 2> "$TMP_DIR/plan.log")
+[ "$PLAN_OUTPUT" = "$(./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --format json --no-optimize)" ]
+grep -q "field reads per row" "$TMP_DIR/plan.log"
+
+GROUPED_OUTPUT=$(./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --group-failures --format json)
+echo "$GROUPED_OUTPUT" | grep -q '"failureGroups"'
+echo "$GROUPED_OUTPUT" | grep -q '"count": 1, "ids": \["A-1001"\]'
+
+CACHE_MISS=$(./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --cache "$TMP_DIR/cache" 2> "$TMP_DIR/cache-miss.log")
+CACHE_HIT=$(./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --cache "$TMP_DIR/cache" 2> "$TMP_DIR/cache-hit.log")
+[ "$CACHE_MISS" = "$CACHE_HIT" ]
+grep -q "Cache miss" "$TMP_DIR/cache-miss.log"
+grep -q "Cache hit rate 1/2" "$TMP_DIR/cache-hit.log"
+
+SHARDED_OUTPUT=$(./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --format json --shards 3 2> "$TMP_DIR/shards.log")
+[ "$SHARDED_OUTPUT" = "$(./scripts/run.sh --input data/sample-intake.csv --rules data/rules.txt --format json)" ]
+echo "$SHARDED_OUTPUT" | grep -q '"duplicate:email": 2'
+grep -q "Merged 3 shard results (6 rows)" "$TMP_DIR/shards.log"
+
+mkdir -p "$TMP_DIR/routes"
+cp data/rules.txt "$TMP_DIR/routes/strict.txt"
+printf '[required]\nfields=id,email\n' > "$TMP_DIR/routes/loose.txt"
+printf '[route:status]\neligible = strict.txt\n* = loose.txt\n' > "$TMP_DIR/routes/routes.txt"
+ROUTED_OUTPUT=$(./scripts/run.sh --input data/sample-intake.csv --routes "$TMP_DIR/routes/routes.txt")
+echo "$ROUTED_OUTPUT" | grep -q "Routed Eligibility Audit"
+echo "$ROUTED_OUTPUT" | grep -q "=== Program: eligible ==="
+echo "$ROUTED_OUTPUT" | grep -q "Routed: 6 | unrouted: 0"
+
+mkdir -p "$TMP_DIR/landing"
+java -cp "build:lib/*" EligibilityOracle --watch "$TMP_DIR/landing" --rules data/rules.txt --format json 2> "$TMP_DIR/watch.log" &
+WATCH_PID=$!
+sleep 1
+cp data/sample-intake.csv "$TMP_DIR/landing/vanishing.csv"
+rm "$TMP_DIR/landing/vanishing.csv"
+cp data/sample-intake.csv "$TMP_DIR/landing/intake.csv"
+for _ in 1 2 3 4 5 6 7 8 9 10; do
+  [ -f "$TMP_DIR/landing/reports/intake.json" ] && break
+  sleep 0.5
+done
+kill "$WATCH_PID"
+grep -q '"totalApplicants"' "$TMP_DIR/landing/reports/intake.json"
+[ ! -f "$TMP_DIR/landing/reports/vanishing.json" ]
+
 echo "Tests passed."
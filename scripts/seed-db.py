@@ -1,9 +1,36 @@
 #!/usr/bin/env python3
 import os
+import re
 import sys
 from datetime import datetime, timezone
+from pathlib import Path
 
 import psycopg2
+import psycopg2.errors
+
+MIGRATION_NAME = re.compile(r"^(\d+)_.*\.sql$")
+MIGRATION_LOCK_KEY = "eligibility_oracle.migrations"
+SEED_RUN_NAME = "seed-sample"
+SEED_TOTALS = {"total_applicants": 12, "eligible": 8, "ineligible": 4, "warning_applicants": 3, "review_count": 4}
+SEED_REASON_COUNTS = {
+    "missing:email": 2,
+    "out_of_range:gpa": 1,
+    "disallowed:status": 1,
+}
+SEED_COMPLETENESS = [
+    ("email", 2, 0.1667),
+    ("phone", 5, 0.4167),
+    ("guardian_email", 7, 0.5833),
+    ("review_notes", 3, 0.2500),
+]
+ROLLUP_TOTALS = (
+    "runs = r.runs + 1, "
+    "total_applicants = r.total_applicants + EXCLUDED.total_applicants, "
+    "eligible = r.eligible + EXCLUDED.eligible, "
+    "ineligible = r.ineligible + EXCLUDED.ineligible, "
+    "warning_applicants = r.warning_applicants + EXCLUDED.warning_applicants, "
+    "review_count = r.review_count + EXCLUDED.review_count"
+)
 
 
 def get_env(name, fallback=None):
@@ -13,149 +40,152 @@ def get_env(name, fallback=None):
     return value
 
 
-def main():
-    url = get_env("ELIGIBILITY_DB_URL")
-    if not url:
-        print("Missing ELIGIBILITY_DB_URL.")
-        return 1
-    if url.startswith("jdbc:"):
-        url = url.replace("jdbc:", "", 1)
+def migrations_dir():
+    configured = get_env("ELIGIBILITY_DB_MIGRATIONS")
+    if configured:
+        return Path(configured)
+    return Path(__file__).resolve().parent.parent / "db" / "migrations"
 
-    schema = get_env("ELIGIBILITY_DB_SCHEMA", "eligibility_oracle")
-    user = get_env("ELIGIBILITY_DB_USER")
-    password = get_env("ELIGIBILITY_DB_PASSWORD")
 
-    conn = psycopg2.connect(url, user=user, password=password)
-    conn.autocommit = False
-    cur = conn.cursor()
+def load_migrations():
+    migrations = []
+    for path in sorted(migrations_dir().glob("*.sql")):
+        match = MIGRATION_NAME.match(path.name)
+        if match:
+            migrations.append((int(match.group(1)), path.name, path.read_text(encoding="utf-8")))
+    migrations.sort()
+    if not migrations:
+        raise RuntimeError(f"No migrations found in {migrations_dir()}")
+    return migrations
+
+
+def current_version(conn, cur, schema):
+    try:
+        cur.execute(f"SELECT COALESCE(MAX(version), 0) FROM {schema}.schema_migrations")
+        return cur.fetchone()[0]
+    except (psycopg2.errors.UndefinedTable, psycopg2.errors.InvalidSchemaName):
+        conn.rollback()
+        return 0
 
+
+def migrate(conn, cur, schema):
+    migrations = load_migrations()
+    if current_version(conn, cur, schema) >= migrations[-1][0]:
+        return
+    cur.execute("SELECT pg_advisory_xact_lock(hashtext(%s))", (MIGRATION_LOCK_KEY,))
     cur.execute(f"CREATE SCHEMA IF NOT EXISTS {schema}")
     cur.execute(
         f"""
-        CREATE TABLE IF NOT EXISTS {schema}.audit_runs (
-            id BIGSERIAL PRIMARY KEY,
-            run_at TIMESTAMPTZ NOT NULL,
-            run_name TEXT,
-            input_file TEXT,
-            rules_file TEXT,
-            total_applicants INT NOT NULL,
-            eligible INT NOT NULL,
-            ineligible INT NOT NULL,
-            eligible_rate NUMERIC(6,4) NOT NULL,
-            ineligible_rate NUMERIC(6,4) NOT NULL,
-            warning_applicants INT,
-            warning_rate NUMERIC(6,4),
-            review_count INT,
-            review_rate NUMERIC(6,4),
-            id_field TEXT NOT NULL,
-            failure_limit INT,
-            failures_truncated BOOLEAN NOT NULL,
-            review_limit INT,
-            reviews_truncated BOOLEAN
+        CREATE TABLE IF NOT EXISTS {schema}.schema_migrations (
+            version INT PRIMARY KEY,
+            name TEXT NOT NULL,
+            applied_at TIMESTAMPTZ NOT NULL DEFAULT now()
         )
         """
     )
-    cur.execute(f"ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS warning_applicants INT")
-    cur.execute(f"ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS warning_rate NUMERIC(6,4)")
-    cur.execute(f"ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS review_count INT")
-    cur.execute(f"ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS review_rate NUMERIC(6,4)")
-    cur.execute(f"ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS review_limit INT")
-    cur.execute(f"ALTER TABLE {schema}.audit_runs ADD COLUMN IF NOT EXISTS reviews_truncated BOOLEAN")
-    cur.execute(
-        f"""
-        CREATE TABLE IF NOT EXISTS {schema}.audit_reason_counts (
-            run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
-            reason TEXT NOT NULL,
-            count INT NOT NULL
-        )
-        """
-    )
-    cur.execute(
-        f"""
-        CREATE TABLE IF NOT EXISTS {schema}.audit_reason_categories (
-            run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
-            category TEXT NOT NULL,
-            count INT NOT NULL
-        )
-        """
-    )
-    cur.execute(
-        f"""
-        CREATE TABLE IF NOT EXISTS {schema}.audit_warning_counts (
-            run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
-            warning TEXT NOT NULL,
-            count INT NOT NULL
-        )
-        """
-    )
-    cur.execute(
-        f"""
-        CREATE TABLE IF NOT EXISTS {schema}.audit_warning_categories (
-            run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
-            category TEXT NOT NULL,
-            count INT NOT NULL
-        )
-        """
-    )
-    cur.execute(
-        f"""
-        CREATE TABLE IF NOT EXISTS {schema}.audit_review_counts (
-            run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
-            reason TEXT NOT NULL,
-            count INT NOT NULL
+    cur.execute(f"SELECT COALESCE(MAX(version), 0) FROM {schema}.schema_migrations")
+    applied = cur.fetchone()[0]
+    for version, name, sql in migrations:
+        if version <= applied:
+            continue
+        cur.execute(sql.replace("{schema}", schema))
+        cur.execute(
+            f"INSERT INTO {schema}.schema_migrations (version, name) VALUES (%s, %s)",
+            (version, name),
         )
-        """
+    conn.commit()
+
+
+def insert_reason_facts(cur, schema, table, run_id, entries):
+    for entry, (applicant_id, reasons) in enumerate(entries, start=1):
+        for position, reason in enumerate(reasons, start=1):
+            cur.execute(
+                f"""
+                INSERT INTO {schema}.audit_reasons (reason) VALUES (%s)
+                ON CONFLICT (reason) DO UPDATE SET reason = EXCLUDED.reason
+                RETURNING id
+                """,
+                (reason,),
+            )
+            reason_id = cur.fetchone()[0]
+            cur.execute(
+                f"""
+                INSERT INTO {schema}.{table} (run_id, entry, applicant_id, position, reason_id)
+                VALUES (%s, %s, %s, %s, %s)
+                """,
+                (run_id, entry, applicant_id, position, reason_id),
+            )
+
+
+def update_rollups(cur, schema, day, run_name):
+    # Same upserts as updateRollups in EligibilityOracle, so seeded runs show up in --history.
+    totals = (
+        SEED_TOTALS["total_applicants"],
+        SEED_TOTALS["eligible"],
+        SEED_TOTALS["ineligible"],
+        SEED_TOTALS["warning_applicants"],
+        SEED_TOTALS["review_count"],
     )
     cur.execute(
-        f"""
-        CREATE TABLE IF NOT EXISTS {schema}.audit_field_completeness (
-            run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
-            field_name TEXT NOT NULL,
-            missing_count INT NOT NULL,
-            missing_rate NUMERIC(6,4) NOT NULL
-        )
-        """
+        f"INSERT INTO {schema}.audit_rollup_daily AS r "
+        "(day, runs, total_applicants, eligible, ineligible, warning_applicants, review_count) "
+        f"VALUES (%s, 1, %s, %s, %s, %s, %s) ON CONFLICT (day) DO UPDATE SET {ROLLUP_TOTALS}",
+        (day, *totals),
     )
     cur.execute(
-        f"""
-        CREATE TABLE IF NOT EXISTS {schema}.audit_failures (
-            run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
-            applicant_id TEXT NOT NULL,
-            reasons TEXT[] NOT NULL
-        )
-        """
+        f"INSERT INTO {schema}.audit_rollup_run_names AS r "
+        "(run_name, day, runs, total_applicants, eligible, ineligible, warning_applicants, review_count) "
+        f"VALUES (%s, %s, 1, %s, %s, %s, %s, %s) ON CONFLICT (run_name, day) DO UPDATE SET {ROLLUP_TOTALS}",
+        (run_name, day, *totals),
     )
-    cur.execute(
-        f"""
-        CREATE TABLE IF NOT EXISTS {schema}.audit_reviews (
-            run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
-            applicant_id TEXT NOT NULL,
-            reasons TEXT[] NOT NULL
+    for reason, count in SEED_REASON_COUNTS.items():
+        cur.execute(
+            f"INSERT INTO {schema}.audit_rollup_reasons AS r (day, run_name, reason, count) "
+            "VALUES (%s, %s, %s, %s) ON CONFLICT (day, run_name, reason) DO UPDATE SET count = r.count + EXCLUDED.count",
+            (day, run_name, reason, count),
         )
-        """
-    )
-    cur.execute(
-        f"""
-        CREATE TABLE IF NOT EXISTS {schema}.audit_segments (
-            run_id BIGINT REFERENCES {schema}.audit_runs(id) ON DELETE CASCADE,
-            segment_field TEXT NOT NULL,
-            segment_value TEXT NOT NULL,
-            total INT NOT NULL,
-            eligible INT NOT NULL,
-            ineligible INT NOT NULL,
-            eligible_rate NUMERIC(6,4) NOT NULL,
-            ineligible_rate NUMERIC(6,4) NOT NULL
+    for field_name, missing_count, _ in SEED_COMPLETENESS:
+        cur.execute(
+            f"INSERT INTO {schema}.audit_rollup_completeness AS r "
+            "(day, run_name, field_name, missing_count, total_applicants) VALUES (%s, %s, %s, %s, %s) "
+            "ON CONFLICT (day, run_name, field_name) DO UPDATE SET "
+            "missing_count = r.missing_count + EXCLUDED.missing_count, "
+            "total_applicants = r.total_applicants + EXCLUDED.total_applicants",
+            (day, run_name, field_name, missing_count, SEED_TOTALS["total_applicants"]),
         )
-        """
-    )
+
+
+def main():
+    url = get_env("ELIGIBILITY_DB_URL")
+    if not url:
+        print("Missing ELIGIBILITY_DB_URL.")
+        return 1
+    if url.startswith("jdbc:"):
+        url = url.replace("jdbc:", "", 1)
+
+    schema = get_env("ELIGIBILITY_DB_SCHEMA", "eligibility_oracle")
+    user = get_env("ELIGIBILITY_DB_USER")
+    password = get_env("ELIGIBILITY_DB_PASSWORD")
+
+    conn = psycopg2.connect(url, user=user, password=password)
+    conn.autocommit = False
+    cur = conn.cursor()
+
+    migrate(conn, cur, schema)
 
     cur.execute(
-        f"SELECT id FROM {schema}.audit_runs WHERE run_name = %s",
-        ("seed-sample",),
+        f"SELECT id, run_at FROM {schema}.audit_runs WHERE run_name = %s",
+        (SEED_RUN_NAME,),
     )
     existing = cur.fetchone()
     if existing:
-        run_id = existing[0]
+        run_id, run_at = existing
+        cur.execute(
+            f"SELECT 1 FROM {schema}.audit_rollup_run_names WHERE run_name = %s LIMIT 1",
+            (SEED_RUN_NAME,),
+        )
+        if cur.fetchone() is None:
+            update_rollups(cur, schema, run_at.astimezone(timezone.utc).date(), SEED_RUN_NAME)
         cur.execute(
             f"SELECT 1 FROM {schema}.audit_field_completeness WHERE run_id = %s LIMIT 1",
             (run_id,),
@@ -195,13 +225,7 @@ def main():
             print("Seed already present.")
             return 0
         if not completeness_exists:
-            completeness_rows = [
-                ("email", 2, 0.1667),
-                ("phone", 5, 0.4167),
-                ("guardian_email", 7, 0.5833),
-                ("review_notes", 3, 0.2500),
-            ]
-            for field_name, missing_count, missing_rate in completeness_rows:
+            for field_name, missing_count, missing_rate in SEED_COMPLETENESS:
                 cur.execute(
                     f"""
                     INSERT INTO {schema}.audit_field_completeness
@@ -242,11 +266,7 @@ def main():
                 ("GS-1008", ["review_flag:manual_review"]),
                 ("GS-1011", ["review_missing:review_notes"]),
             ]
-            for applicant_id, reasons in review_flags:
-                cur.execute(
-                    f"INSERT INTO {schema}.audit_reviews (run_id, applicant_id, reasons) VALUES (%s, %s, %s)",
-                    (run_id, applicant_id, reasons),
-                )
+            insert_reason_facts(cur, schema, "audit_review_reasons", run_id, review_flags)
         cur.execute(
             f"""
             UPDATE {schema}.audit_runs
@@ -270,6 +290,7 @@ def main():
             print("Seed segments and field completeness inserted.")
         return 0
 
+    run_at = datetime.now(timezone.utc)
     cur.execute(
         f"""
         INSERT INTO {schema}.audit_runs
@@ -278,18 +299,18 @@ def main():
         RETURNING id
         """,
         (
-            datetime.now(timezone.utc),
-            "seed-sample",
+            run_at,
+            SEED_RUN_NAME,
             "data/sample-intake.csv",
             "data/rules.txt",
-            12,
-            8,
-            4,
+            SEED_TOTALS["total_applicants"],
+            SEED_TOTALS["eligible"],
+            SEED_TOTALS["ineligible"],
             0.6667,
             0.3333,
-            3,
+            SEED_TOTALS["warning_applicants"],
             0.2500,
-            4,
+            SEED_TOTALS["review_count"],
             0.3333,
             "applicant_id",
             None,
@@ -300,12 +321,7 @@ def main():
     )
     run_id = cur.fetchone()[0]
 
-    reason_counts = {
-        "missing:email": 2,
-        "out_of_range:gpa": 1,
-        "disallowed:status": 1,
-    }
-    for reason, count in reason_counts.items():
+    for reason, count in SEED_REASON_COUNTS.items():
         cur.execute(
             f"INSERT INTO {schema}.audit_reason_counts (run_id, reason, count) VALUES (%s, %s, %s)",
             (run_id, reason, count),
@@ -332,13 +348,7 @@ def main():
             (run_id, reason, count),
         )
 
-    completeness_rows = [
-        ("email", 2, 0.1667),
-        ("phone", 5, 0.4167),
-        ("guardian_email", 7, 0.5833),
-        ("review_notes", 3, 0.2500),
-    ]
-    for field_name, missing_count, missing_rate in completeness_rows:
+    for field_name, missing_count, missing_rate in SEED_COMPLETENESS:
         cur.execute(
             f"""
             INSERT INTO {schema}.audit_field_completeness
@@ -354,11 +364,7 @@ def main():
         ("GS-1009", ["missing:email", "disallowed:status"]),
         ("GS-1012", ["disallowed:status"]),
     ]
-    for applicant_id, reasons in failures:
-        cur.execute(
-            f"INSERT INTO {schema}.audit_failures (run_id, applicant_id, reasons) VALUES (%s, %s, %s)",
-            (run_id, applicant_id, reasons),
-        )
+    insert_reason_facts(cur, schema, "audit_failure_reasons", run_id, failures)
 
     review_flags = [
         ("GS-1002", ["review_missing:review_notes"]),
@@ -366,11 +372,7 @@ def main():
         ("GS-1008", ["review_flag:manual_review"]),
         ("GS-1011", ["review_missing:review_notes"]),
     ]
-    for applicant_id, reasons in review_flags:
-        cur.execute(
-            f"INSERT INTO {schema}.audit_reviews (run_id, applicant_id, reasons) VALUES (%s, %s, %s)",
-            (run_id, applicant_id, reasons),
-        )
+    insert_reason_facts(cur, schema, "audit_review_reasons", run_id, review_flags)
 
     segments = [
         ("status", "eligible", 6, 6, 0, 1.0000, 0.0000),
@@ -387,6 +389,8 @@ def main():
             (run_id, *segment),
         )
 
+    update_rollups(cur, schema, run_at.date(), SEED_RUN_NAME)
+
     conn.commit()
     conn.close()
     print("Seed inserted.")
@@ -1,1153 +1,6640 @@
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
-import java.sql.Array;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
 
 public class EligibilityOracle {
+    private static final long WATCH_QUIET_MILLIS = 200L;
+    private static final long WATCH_SPOOL_RETRY_MILLIS = 30_000L;
+    private static final int RENDER_CHUNK_CHARS = 1 << 16;
+    private static final String MIGRATION_LOCK_KEY = "eligibility_oracle.migrations";
+    private static final Set<String> MIGRATED_SCHEMAS = ConcurrentHashMap.newKeySet();
+    private static SpoolFlusher spoolFlusher;
+
     public static void main(String[] args) {
         Map<String, String> options = parseArgs(args);
-        if (options.containsKey("help") || !options.containsKey("input") || !options.containsKey("rules")) {
+        if (options.containsKey("flush-spool") && !options.containsKey("help")) {
+            try {
+                flushSpool(options);
+            } catch (IOException e) {
+                System.err.println("Error: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (options.containsKey("history") && !options.containsKey("help")) {
+            try {
+                printHistory(options);
+            } catch (IOException e) {
+                System.err.println("Error: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (options.containsKey("shard-worker") && !options.containsKey("help")) {
+            try {
+                ShardedAudit.work(options);
+            } catch (IOException e) {
+                System.err.println("Error: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        boolean watch = options.containsKey("watch");
+        boolean hasInput = options.containsKey("input") || options.containsKey("input-query");
+        boolean routes = options.containsKey("routes");
+        if (options.containsKey("help") || (!hasInput && !watch) || (!options.containsKey("rules") && !(routes && !watch))) {
             printUsage();
             System.exit(0);
         }
 
-        Path inputPath = Path.of(options.get("input"));
-        Path rulesPath = Path.of(options.get("rules"));
-        String format = options.getOrDefault("format", "text").toLowerCase(Locale.ROOT);
-        String outputPath = options.get("output");
-        boolean logDb = options.containsKey("log-db");
-        String runName = options.get("run-name");
-        String segmentField = options.get("segment-field");
-        int reviewLimit = parseIntOption(options.get("review-limit"), -1);
-
         try {
-            RuleSet rules = RuleSet.load(rulesPath);
-            String idField = options.getOrDefault("id-field", "id");
-            int limit = parseIntOption(options.get("limit"), -1);
-            AuditResult result = audit(inputPath, rules, idField, limit, segmentField, reviewLimit);
-            result.runName = runName == null ? "" : runName;
-            result.inputPath = inputPath.toString();
-            result.rulesPath = rulesPath.toString();
-            String report = format.equals("json") ? renderJson(result) : renderText(result);
-            if (outputPath == null) {
-                System.out.println(report);
-            } else {
-                Files.writeString(Path.of(outputPath), report, StandardCharsets.UTF_8);
+            if (routes && !watch) {
+                auditRoutes(options.containsKey("input") ? Path.of(options.get("input")) : null, Path.of(options.get("routes")), options);
+                awaitSpoolFlush(parseIntOption(options.get("db-flush-wait"), 2000));
+                return;
             }
-            if (logDb) {
-                logToDatabase(result, inputPath, rulesPath, runName);
+            Path rulesPath = Path.of(options.get("rules"));
+            if (watch) {
+                runWatch(Path.of(options.get("watch")), rulesPath, options);
+                return;
             }
+            Path inputPath = options.containsKey("input") ? Path.of(options.get("input")) : null;
+            List<Path> rulesPaths = parsePathList(options.get("rules"));
+            if (rulesPaths.size() > 1) {
+                compareRuleSets(inputPath, rulesPaths, options);
+                return;
+            }
+            RuleSet rules = loadRules(rulesPath, options);
+            auditFile(inputPath, rulesPath, rules, options, options.get("output"), options.get("run-name"));
+            awaitSpoolFlush(parseIntOption(options.get("db-flush-wait"), 2000));
         } catch (IOException e) {
             System.err.println("Error: " + e.getMessage());
             System.exit(1);
+        } catch (UncheckedIOException e) {
+            System.err.println("Error: " + e.getCause().getMessage());
+            System.exit(1);
         }
     }
 
-    private static void printUsage() {
-        System.out.println("Group Scholar Eligibility Oracle");
-        System.out.println("Usage: java -cp src EligibilityOracle --input <file.csv> --rules <rules.txt> [--format text|json] [--output report.txt] [--id-field field] [--limit N] [--segment-field field] [--review-limit N] [--log-db] [--run-name name]");
-        System.out.println("Options:");
-        System.out.println("  --input   Path to applicant intake CSV");
-        System.out.println("  --rules   Path to eligibility rules file");
-        System.out.println("  --format  text (default) or json");
-        System.out.println("  --output  Optional output file path");
-        System.out.println("  --id-field Field name to use for applicant identifiers (default: id)");
-        System.out.println("  --limit   Limit number of ineligible applicants listed (default: no limit)");
-        System.out.println("  --segment-field Field to summarize eligibility breakdowns (ex: status)");
-        System.out.println("  --review-limit Limit number of review-flagged applicants listed (default: no limit)");
-        System.out.println("  --log-db  Write audit summary + failures to the Postgres analytics schema");
-        System.out.println("  --run-name Optional label to store alongside the audit run");
-    }
+    private static AuditResult auditFile(Path inputPath, Path rulesPath, RuleSet rules, Map<String, String> options, String outputPath, String runName) throws IOException {
+        boolean logDb = options.containsKey("log-db");
+        SegmentCube segments = SegmentCube.create(options.get("segment-field"), options.get("segment-cross"), rules);
+        int reviewLimit = parseIntOption(options.get("review-limit"), -1);
+        String idField = options.getOrDefault("id-field", "id");
+        int limit = parseIntOption(options.get("limit"), -1);
+        List<ReportTarget> targets = reportTargets(options, outputPath);
+        int shards = Math.max(1, parseIntOption(options.get("shards"), 1));
+        if (shards > 1) {
+            if (options.containsKey("verdicts") || options.containsKey("output-ndjson") || options.containsKey("checkpoint")) {
+                throw new IOException("--verdicts, --output-ndjson and --checkpoint are not supported with --shards.");
+            }
+            if (inputPath == null || isGzip(inputPath)) {
+                throw new IOException("--shards needs an uncompressed file --input; byte ranges cannot be cut from a query or a gzip stream.");
+            }
+        }
+        AuditCheckpoint checkpoint = null;
+        if (options.containsKey("checkpoint")) {
+            if (options.containsKey("verdicts") || options.containsKey("output-ndjson")) {
+                throw new IOException("--verdicts and --output-ndjson are not supported with --checkpoint.");
+            }
+            if (inputPath == null) {
+                throw new IOException("--checkpoint needs a file --input; a query result cannot be resumed.");
+            }
+            checkpoint = AuditCheckpoint.open(Path.of(options.get("checkpoint")), inputPath, rulesPath, options);
+        }
 
-    private static Map<String, String> parseArgs(String[] args) {
-        Map<String, String> options = new HashMap<>();
-        for (int i = 0; i < args.length; i++) {
-            String arg = args[i];
-            if (arg.equals("--help") || arg.equals("-h")) {
-                options.put("help", "true");
-                return options;
+        AuditCache cache = AuditCache.open(options);
+        String cacheKey = null;
+        long started = System.nanoTime();
+        if (cache != null) {
+            if (inputPath == null) {
+                throw new IOException("--cache needs a file --input; a query result has no content to address.");
             }
-            if (arg.startsWith("--")) {
-                String key = arg.substring(2);
-                if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
-                    options.put(key, args[i + 1]);
-                    i++;
-                } else {
-                    options.put(key, "true");
+            cacheKey = cache.key(inputPath, rules, options);
+        }
+        AuditCache.Entry cached = cache == null ? null : cache.get(cacheKey);
+
+        MemoryBudget budget = MemoryBudget.fromOptions(options);
+
+        AuditResult result;
+        long auditNanos = 0;
+        if (cached != null) {
+            result = cached.result;
+            cache.recordHit(inputPath, System.nanoTime() - started, cached.auditNanos);
+        } else {
+            if (shards > 1) {
+                AuditResult merged = newAuditResult(rules, buildTrackedFields(rules), idField, limit, segments, reviewLimit, budget);
+                result = ShardedAudit.run(inputPath, rulesPath, rules, options, shards, merged, budget);
+            } else {
+                try (VerdictSink sink = openVerdictSinks(options, rules)) {
+                    result = audit(inputPath, options, rules, idField, limit, segments, reviewLimit, sink, budget, checkpoint);
                 }
             }
+            auditNanos = System.nanoTime() - started;
         }
-        return options;
+        try (AuditResult report = result) {
+            report.runName = runName == null ? "" : runName;
+            report.groupFailures = options.containsKey("group-failures");
+            report.inputPath = inputLabel(inputPath, options);
+            report.rulesPath = rulesPath.toString();
+            SinkPipeline pipeline = new SinkPipeline();
+            for (ReportTarget target : targets) {
+                pipeline.add("report-" + target.format, () -> writeReport(target, (format, out) -> renderReport(report, format, out)));
+            }
+            if (logDb) {
+                pipeline.add("db-spool", () -> logToDatabase(report, runName, options));
+            }
+            if (cache != null && cached == null) {
+                String key = cacheKey;
+                long elapsed = auditNanos;
+                pipeline.add("cache", () -> cache.put(key, report, elapsed, inputPath));
+            }
+            pipeline.run();
+            if (checkpoint != null) {
+                checkpoint.clear();
+            }
+        }
+        if (budget.spilledBytes > 0) {
+            System.err.println(String.format(Locale.ROOT, "Memory budget exceeded; spilled %.1f MiB of audit state to %s.",
+                    budget.spilledBytes / (1024.0 * 1024.0), budget.spillDir));
+        }
+        return result;
     }
 
-    private static AuditResult audit(Path inputPath, RuleSet rules, String idField, int limit, String segmentField, int reviewLimit) throws IOException {
-        List<String> lines = Files.readAllLines(inputPath, StandardCharsets.UTF_8);
-        if (lines.isEmpty()) {
-            throw new IOException("Input CSV is empty.");
+    private static void compareRuleSets(Path inputPath, List<Path> rulesPaths, Map<String, String> options) throws IOException {
+        if (options.containsKey("verdicts") || options.containsKey("output-ndjson") || options.containsKey("log-db") || options.containsKey("checkpoint")
+                || options.containsKey("cache") || options.containsKey("shards")) {
+            throw new IOException("--verdicts, --output-ndjson, --log-db, --checkpoint, --cache and --shards need a single --rules file.");
         }
-
-        String headerLine = lines.get(0);
-        List<String> headers = parseCsvLine(headerLine);
-        AuditResult result = new AuditResult();
-        result.totalRows = Math.max(0, lines.size() - 1);
-        result.failureLimit = limit;
-        result.reviewLimit = reviewLimit;
-        result.idField = canonicalizeField(normalize(idField), rules);
-        result.segmentField = segmentField == null ? "" : canonicalizeField(normalize(segmentField), rules);
-        List<RowRecord> rows = new ArrayList<>();
-        Map<String, Map<String, List<RowRecord>>> uniqueLookup = new LinkedHashMap<>();
-        List<String> trackedFields = buildTrackedFields(rules);
-        for (String field : trackedFields) {
-            result.missingFieldCounts.put(field, 0);
+        String idField = options.getOrDefault("id-field", "id");
+        int sampleLimit = parseIntOption(options.get("sample"), 10);
+        List<ReportTarget> targets = reportTargets(options, options.get("output"));
+        MemoryBudget budget = MemoryBudget.fromOptions(options);
+        List<RuleSet> ruleSets = new ArrayList<>();
+        for (Path rulesPath : rulesPaths) {
+            ruleSets.add(loadRules(rulesPath, options));
         }
 
-        for (int i = 1; i < lines.size(); i++) {
-            List<String> row = parseCsvLine(lines.get(i));
-            Map<String, String> rowMap = new HashMap<>();
-            for (int c = 0; c < headers.size(); c++) {
-                String key = normalize(headers.get(c));
-                String value = c < row.size() ? row.get(c).trim() : "";
-                rowMap.put(key, value);
-            }
-            applyAliases(rowMap, rules);
-            for (String field : trackedFields) {
-                String value = rowMap.getOrDefault(field, "");
-                if (value.isBlank()) {
-                    result.missingFieldCounts.put(field, result.missingFieldCounts.get(field) + 1);
-                }
+        try (RuleComparison comparison = compare(inputPath, options, ruleSets, idField, sampleLimit, budget)) {
+            comparison.inputPath = inputLabel(inputPath, options);
+            for (int l = 0; l < rulesPaths.size(); l++) {
+                comparison.results.get(l).rulesPath = rulesPaths.get(l).toString();
             }
-
-            String id = rowMap.getOrDefault(result.idField, "row-" + i);
-            List<String> reasons = new ArrayList<>();
-            List<String> reviewReasons = new ArrayList<>();
-            List<String> warnings = new ArrayList<>();
-            for (String required : rules.requiredFields) {
-                String value = rowMap.getOrDefault(required, "");
-                if (value.isBlank()) {
-                    reasons.add("missing:" + required);
-                }
+            SinkPipeline pipeline = new SinkPipeline();
+            for (ReportTarget target : targets) {
+                pipeline.add("report-" + target.format, () -> writeReport(target, (format, out) -> renderComparison(comparison, format, out)));
             }
+            pipeline.run();
+        }
+        if (budget.spilledBytes > 0) {
+            System.err.println(String.format(Locale.ROOT, "Memory budget exceeded; spilled %.1f MiB of audit state to %s.",
+                    budget.spilledBytes / (1024.0 * 1024.0), budget.spillDir));
+        }
+    }
 
-            for (ConditionalRequirement requirement : rules.conditionalRequirements) {
-                String value = normalizeValue(rowMap.getOrDefault(requirement.conditionField, ""));
-                if (value.equals(requirement.conditionValue)) {
-                    for (String needed : requirement.requiredFields) {
-                        String requiredValue = rowMap.getOrDefault(needed, "");
-                        if (requiredValue.isBlank()) {
-                            reasons.add("missing_if:" + requirement.conditionField + "=" + requirement.conditionValue + ":" + needed);
-                        }
-                    }
-                }
+    private static void auditRoutes(Path inputPath, Path routesPath, Map<String, String> options) throws IOException {
+        for (String option : List.of("rules", "verdicts", "output-ndjson", "checkpoint", "cache", "shards")) {
+            if (options.containsKey(option)) {
+                throw new IOException("--" + option + " cannot be combined with --routes.");
             }
+        }
+        String idField = options.getOrDefault("id-field", "id");
+        int limit = parseIntOption(options.get("limit"), -1);
+        int reviewLimit = parseIntOption(options.get("review-limit"), -1);
+        String runName = options.getOrDefault("run-name", "");
+        List<ReportTarget> targets = reportTargets(options, options.get("output"));
+        MemoryBudget budget = MemoryBudget.fromOptions(options);
+        RouteTable table = RouteTable.load(routesPath, options);
 
-            for (AnyRequirement requirement : rules.anyRequirements) {
-                boolean hasAny = false;
-                for (String field : requirement.fields) {
-                    String value = rowMap.getOrDefault(field, "");
-                    if (!value.isBlank()) {
-                        hasAny = true;
-                        break;
-                    }
-                }
-                if (!hasAny) {
-                    reasons.add("missing_any:" + requirement.name);
-                }
+        try (RoutedAudit routed = route(inputPath, options, table, idField, limit, reviewLimit, budget)) {
+            routed.inputPath = inputLabel(inputPath, options);
+            routed.routesPath = routesPath.toString();
+            for (int p = 0; p < table.programs.size(); p++) {
+                AuditResult result = routed.results.get(p);
+                String label = table.programs.get(p).label;
+                result.runName = runName.isBlank() ? label : runName + ":" + label;
+                result.inputPath = routed.inputPath;
+                result.groupFailures = options.containsKey("group-failures");
             }
-
-            for (String reviewField : rules.reviewMissingFields) {
-                String value = rowMap.getOrDefault(reviewField, "");
-                if (value.isBlank()) {
-                    reviewReasons.add("review_missing:" + reviewField);
-                }
+            SinkPipeline pipeline = new SinkPipeline();
+            for (ReportTarget target : targets) {
+                pipeline.add("report-" + target.format, () -> writeReport(target, (format, out) -> renderRouted(routed, format, out)));
             }
-
-            for (ReviewCondition condition : rules.reviewConditions) {
-                String value = normalizeValue(rowMap.getOrDefault(condition.conditionField, ""));
-                if (value.equals(condition.conditionValue)) {
-                    for (String reason : condition.reasons) {
-                        reviewReasons.add("review_flag:" + reason);
+            if (options.containsKey("log-db")) {
+                pipeline.add("db-spool", () -> {
+                    for (AuditResult result : routed.results) {
+                        logToDatabase(result, result.runName, options);
                     }
-                }
+                });
             }
+            pipeline.run();
+        }
+        if (budget.spilledBytes > 0) {
+            System.err.println(String.format(Locale.ROOT, "Memory budget exceeded; spilled %.1f MiB of audit state to %s.",
+                    budget.spilledBytes / (1024.0 * 1024.0), budget.spillDir));
+        }
+    }
 
-            for (Map.Entry<String, NumericRange> entry : rules.numericRanges.entrySet()) {
-                String field = entry.getKey();
-                String value = rowMap.getOrDefault(field, "");
-                if (value.isBlank()) {
-                    continue;
-                }
-                try {
-                    double numeric = Double.parseDouble(value);
-                    if (numeric < entry.getValue().min || numeric > entry.getValue().max) {
-                        reasons.add("out_of_range:" + field);
-                    }
-                } catch (NumberFormatException e) {
-                    reasons.add("invalid_number:" + field);
-                }
+    private static RoutedAudit route(Path inputPath, Map<String, String> options, RouteTable table, String idField, int limit, int reviewLimit,
+                                     MemoryBudget budget) throws IOException {
+        RoutedAudit routed = new RoutedAudit();
+        List<List<String>> trackedFields = new ArrayList<>();
+        List<RecordList<RowRecord>> buffers = new ArrayList<>();
+        List<DuplicateIndex> duplicates = new ArrayList<>();
+        Map<RuleSet, List<String>> trackedByRules = new HashMap<>();
+        try (RowSource reader = openRowSource(inputPath, options)) {
+            List<String> headerKeys = readHeader(reader);
+            if (!headerKeys.contains(table.field)) {
+                throw new IOException("Route field '" + table.field + "' is not in the input header.");
             }
-
-            for (Map.Entry<String, Set<String>> entry : rules.allowedValues.entrySet()) {
-                String field = entry.getKey();
-                String value = normalizeValue(rowMap.getOrDefault(field, ""));
-                if (value.isBlank()) {
-                    continue;
-                }
-                if (!entry.getValue().contains(value)) {
-                    reasons.add("disallowed:" + field);
-                }
+            for (RouteProgram program : table.programs) {
+                List<String> tracked = trackedByRules.computeIfAbsent(program.rules, EligibilityOracle::buildTrackedFields);
+                trackedFields.add(tracked);
+                SegmentCube segments = SegmentCube.create(options.get("segment-field"), options.get("segment-cross"), program.rules);
+                AuditResult result = newAuditResult(program.rules, tracked, idField, limit, segments, reviewLimit, budget);
+                result.rulesPath = program.rulesPath;
+                routed.results.add(result);
+                boolean buffered = program.rules.checksDuplicates();
+                buffers.add(buffered ? new RecordList<>(RowRecord.CODEC, budget) : null);
+                duplicates.add(buffered ? new DuplicateIndex(budget, program.rules.nearUniqueRules) : null);
             }
 
-            for (Map.Entry<String, Set<String>> entry : rules.disallowedValues.entrySet()) {
-                String field = entry.getKey();
-                String value = normalizeValue(rowMap.getOrDefault(field, ""));
-                if (value.isBlank()) {
+            int i = 0;
+            while (reader.next()) {
+                i++;
+                routed.totalRows = i;
+                Map<String, String> shared = readRow(reader, headerKeys);
+                String value = shared.get(table.field);
+                RouteProgram program = table.route(value);
+                if (program == null) {
+                    routed.unrouted(value);
                     continue;
                 }
-                if (entry.getValue().contains(value)) {
-                    reasons.add("blocked:" + field);
+                int p = program.index;
+                Map<String, String> rowMap = shared;
+                if (!program.rules.aliases.isEmpty()) {
+                    rowMap = new HashMap<>(shared);
+                    applyAliases(rowMap, program.rules);
+                }
+                AuditResult result = routed.results.get(p);
+                result.totalRows++;
+                RowRecord record = evaluateRecord(rowMap, program.rules, trackedFields.get(p), result, i);
+                if (buffers.get(p) == null) {
+                    finalizeRow(record, result, null);
+                } else {
+                    buffers.get(p).add(record);
+                    indexUniqueFields(rowMap, program.rules, duplicates.get(p), i);
                 }
             }
 
-            for (Map.Entry<String, DateRange> entry : rules.dateRanges.entrySet()) {
-                String field = entry.getKey();
-                String value = rowMap.getOrDefault(field, "");
-                if (value.isBlank()) {
+            for (int p = 0; p < buffers.size(); p++) {
+                if (buffers.get(p) == null) {
                     continue;
                 }
-                try {
-                    LocalDate date = LocalDate.parse(value);
-                    if (date.isBefore(entry.getValue().earliest) || date.isAfter(entry.getValue().latest)) {
-                        reasons.add("out_of_range:" + field);
+                duplicates.get(p).resolve();
+                Iterator<RowRecord> pending = buffers.get(p).drain();
+                while (pending.hasNext()) {
+                    RowRecord record = pending.next();
+                    for (String field : duplicates.get(p).duplicateFields(record.row)) {
+                        record.reasons.add("duplicate:" + field);
                     }
-                } catch (DateTimeParseException e) {
-                    reasons.add("invalid_date:" + field);
+                    finalizeRow(record, routed.results.get(p), null);
                 }
             }
-
-            for (Map.Entry<String, Pattern> entry : rules.patternRules.entrySet()) {
-                String field = entry.getKey();
-                String value = rowMap.getOrDefault(field, "");
-                if (value.isBlank()) {
-                    continue;
-                }
-                if (!entry.getValue().matcher(value).matches()) {
-                    reasons.add("invalid_pattern:" + field);
+        } catch (IOException | RuntimeException e) {
+            routed.close();
+            throw e;
+        } finally {
+            for (RecordList<RowRecord> buffer : buffers) {
+                if (buffer != null) {
+                    buffer.close();
                 }
             }
-
-            for (String required : rules.warnRequiredFields) {
-                String value = rowMap.getOrDefault(required, "");
-                if (value.isBlank()) {
-                    warnings.add("warn_missing:" + required);
+            for (DuplicateIndex index : duplicates) {
+                if (index != null) {
+                    index.close();
                 }
             }
+        }
+        routed.table = table;
+        return routed;
+    }
 
-            for (ConditionalRequirement requirement : rules.warnConditionalRequirements) {
-                String value = normalizeValue(rowMap.getOrDefault(requirement.conditionField, ""));
-                if (value.equals(requirement.conditionValue)) {
-                    for (String needed : requirement.requiredFields) {
-                        String requiredValue = rowMap.getOrDefault(needed, "");
-                        if (requiredValue.isBlank()) {
-                            warnings.add("warn_missing_if:" + requirement.conditionField + "=" + requirement.conditionValue + ":" + needed);
-                        }
-                    }
-                }
+    private static RuleComparison compare(Path inputPath, Map<String, String> options, List<RuleSet> ruleSets, String idField, int sampleLimit,
+                                          MemoryBudget budget) throws IOException {
+        RuleComparison comparison = new RuleComparison(sampleLimit);
+        List<DuplicateIndex> duplicates = new ArrayList<>();
+        try (RowSource reader = openRowSource(inputPath, options);
+             RecordList<RowRecord[]> rows = new RecordList<>(RuleComparison.ROWS_CODEC, budget)) {
+            List<String> headerKeys = readHeader(reader);
+            List<List<String>> trackedFields = new ArrayList<>();
+            boolean buffered = false;
+            for (RuleSet rules : ruleSets) {
+                List<String> tracked = buildTrackedFields(rules);
+                trackedFields.add(tracked);
+                comparison.add(newAuditResult(rules, tracked, idField, 0, null, 0, budget));
+                duplicates.add(new DuplicateIndex(budget, rules.nearUniqueRules));
+                buffered |= rules.checksDuplicates();
             }
 
-            for (AnyRequirement requirement : rules.warnAnyRequirements) {
-                boolean hasAny = false;
-                for (String field : requirement.fields) {
-                    String value = rowMap.getOrDefault(field, "");
-                    if (!value.isBlank()) {
-                        hasAny = true;
-                        break;
+            int i = 0;
+            while (reader.next()) {
+                i++;
+                Map<String, String> shared = readRow(reader, headerKeys);
+                RowRecord[] records = new RowRecord[ruleSets.size()];
+                for (int l = 0; l < ruleSets.size(); l++) {
+                    RuleSet rules = ruleSets.get(l);
+                    AuditResult result = comparison.results.get(l);
+                    result.totalRows = i;
+                    Map<String, String> rowMap = shared;
+                    if (!rules.aliases.isEmpty()) {
+                        rowMap = new HashMap<>(shared);
+                        applyAliases(rowMap, rules);
+                    }
+                    records[l] = evaluateRecord(rowMap, rules, trackedFields.get(l), result, i);
+                    if (buffered) {
+                        indexUniqueFields(rowMap, rules, duplicates.get(l), i);
                     }
                 }
-                if (!hasAny) {
-                    warnings.add("warn_missing_any:" + requirement.name);
+                if (buffered) {
+                    rows.add(records);
+                } else {
+                    comparison.accept(records);
                 }
             }
 
-            for (Map.Entry<String, NumericRange> entry : rules.warnNumericRanges.entrySet()) {
-                String field = entry.getKey();
-                String value = rowMap.getOrDefault(field, "");
-                if (value.isBlank()) {
-                    continue;
+            if (buffered) {
+                for (DuplicateIndex index : duplicates) {
+                    index.resolve();
                 }
-                try {
-                    double numeric = Double.parseDouble(value);
-                    if (numeric < entry.getValue().min || numeric > entry.getValue().max) {
-                        warnings.add("warn_out_of_range:" + field);
+                Iterator<RowRecord[]> pending = rows.drain();
+                while (pending.hasNext()) {
+                    RowRecord[] records = pending.next();
+                    for (int l = 0; l < records.length; l++) {
+                        for (String field : duplicates.get(l).duplicateFields(records[l].row)) {
+                            records[l].reasons.add("duplicate:" + field);
+                        }
                     }
-                } catch (NumberFormatException e) {
-                    warnings.add("warn_invalid_number:" + field);
+                    comparison.accept(records);
                 }
             }
+        } catch (IOException | RuntimeException e) {
+            comparison.close();
+            throw e;
+        } finally {
+            for (DuplicateIndex index : duplicates) {
+                index.close();
+            }
+        }
+        return comparison;
+    }
+
+    private static void runWatch(Path watchDir, Path rulesPath, Map<String, String> options) throws IOException {
+        if (!Files.isDirectory(watchDir)) {
+            throw new IOException("Watch directory does not exist: " + watchDir);
+        }
+        for (String option : List.of("verdicts", "checkpoint", "output-text", "output-json", "output-ndjson")) {
+            if (options.containsKey(option)) {
+                throw new IOException("--" + option + " is not supported with --watch.");
+            }
+        }
+        Path absoluteRules = rulesPath.toAbsolutePath().normalize();
+        Path reportDir = Path.of(options.getOrDefault("output-dir", watchDir.resolve("reports").toString()));
+        Files.createDirectories(reportDir);
+        String extension = options.getOrDefault("format", "text").equalsIgnoreCase("json") ? ".json" : ".txt";
+        int workers = Math.max(1, parseIntOption(options.get("workers"), 2));
+        AtomicReference<RuleSet> currentRules = new AtomicReference<>(loadRules(absoluteRules, options));
 
-            for (Map.Entry<String, Set<String>> entry : rules.warnAllowedValues.entrySet()) {
-                String field = entry.getKey();
-                String value = normalizeValue(rowMap.getOrDefault(field, ""));
-                if (value.isBlank()) {
-                    continue;
-                }
-                if (!entry.getValue().contains(value)) {
-                    warnings.add("warn_disallowed:" + field);
-                }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workers * 16), new ThreadPoolExecutor.CallerRunsPolicy());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+        }));
 
-            for (Map.Entry<String, Set<String>> entry : rules.warnDisallowedValues.entrySet()) {
-                String field = entry.getKey();
-                String value = normalizeValue(rowMap.getOrDefault(field, ""));
-                if (value.isBlank()) {
-                    continue;
-                }
-                if (entry.getValue().contains(value)) {
-                    warnings.add("warn_blocked:" + field);
-                }
+        try (WatchService watcher = watchDir.getFileSystem().newWatchService()) {
+            Path absoluteWatch = watchDir.toAbsolutePath().normalize();
+            absoluteWatch.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            Path rulesDir = absoluteRules.getParent();
+            if (!rulesDir.equals(absoluteWatch)) {
+                rulesDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
             }
+            System.err.println("Watching " + absoluteWatch + " (" + workers + " workers, reports in " + reportDir + ").");
 
-            for (Map.Entry<String, DateRange> entry : rules.warnDateRanges.entrySet()) {
-                String field = entry.getKey();
-                String value = rowMap.getOrDefault(field, "");
-                if (value.isBlank()) {
-                    continue;
-                }
+            Map<Path, long[]> pending = new LinkedHashMap<>();
+            Map<Path, FileTime> audited = new HashMap<>();
+            long rulesChangedAt = -1;
+            long lastSpoolRetry = System.currentTimeMillis();
+            while (true) {
+                WatchKey key;
                 try {
-                    LocalDate date = LocalDate.parse(value);
-                    if (date.isBefore(entry.getValue().earliest) || date.isAfter(entry.getValue().latest)) {
-                        warnings.add("warn_out_of_range:" + field);
+                    key = watcher.poll(WATCH_QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastSpoolRetry >= WATCH_SPOOL_RETRY_MILLIS) {
+                    lastSpoolRetry = now;
+                    synchronized (EligibilityOracle.class) {
+                        if (spoolFlusher != null) {
+                            spoolFlusher.requestFlush();
+                        }
                     }
-                } catch (DateTimeParseException e) {
-                    warnings.add("warn_invalid_date:" + field);
                 }
-            }
-
-            for (Map.Entry<String, Pattern> entry : rules.warnPatternRules.entrySet()) {
-                String field = entry.getKey();
-                String value = rowMap.getOrDefault(field, "");
-                if (value.isBlank()) {
-                    continue;
+                if (key != null) {
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            if (dir.equals(rulesDir)) {
+                                rulesChangedAt = now;
+                            }
+                            if (dir.equals(absoluteWatch)) {
+                                rescanWatchDir(absoluteWatch, pending, audited, now);
+                            }
+                            continue;
+                        }
+                        Path changed = dir.resolve((Path) event.context());
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                            pending.remove(changed);
+                            audited.remove(changed);
+                        } else if (changed.equals(absoluteRules)) {
+                            rulesChangedAt = now;
+                        } else if (dir.equals(absoluteWatch) && isIntakeFile(changed)) {
+                            pending.put(changed, new long[] {now, -1L});
+                        }
+                    }
+                    key.reset();
                 }
-                if (!entry.getValue().matcher(value).matches()) {
-                    warnings.add("warn_invalid_pattern:" + field);
+                if (rulesChangedAt >= 0 && now - rulesChangedAt >= WATCH_QUIET_MILLIS) {
+                    rulesChangedAt = -1;
+                    try {
+                        currentRules.set(RuleSet.load(absoluteRules, !options.containsKey("no-optimize")));
+                        System.err.println("Reloaded rules from " + absoluteRules + ".");
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("Rules reload failed, keeping previous rules: " + e.getMessage());
+                    }
                 }
-            }
-
-            RowRecord record = new RowRecord(id, reasons, reviewReasons, warnings);
-            rows.add(record);
-
-            if (!result.segmentField.isBlank()) {
-                String rawSegmentValue = rowMap.getOrDefault(result.segmentField, "").trim();
-                String segmentValue = rawSegmentValue.isBlank() ? "missing" : normalizeValue(rawSegmentValue);
-                SegmentStats stats = result.segmentStats.computeIfAbsent(segmentValue, key -> new SegmentStats(segmentValue));
-                stats.total++;
-                if (reasons.isEmpty()) {
-                    stats.eligible++;
-                } else {
-                    stats.ineligible++;
+                Iterator<Map.Entry<Path, long[]>> iterator = pending.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Path, long[]> entry = iterator.next();
+                    Path file = entry.getKey();
+                    long[] state = entry.getValue();
+                    if (now - state[0] < WATCH_QUIET_MILLIS) {
+                        continue;
+                    }
+                    if (!Files.isRegularFile(file)) {
+                        iterator.remove();
+                        continue;
+                    }
+                    long size;
+                    FileTime modified;
+                    try {
+                        size = Files.size(file);
+                        modified = Files.getLastModifiedTime(file);
+                    } catch (IOException e) {
+                        System.err.println("Skipping " + file + ": " + e.getMessage());
+                        iterator.remove();
+                        continue;
+                    }
+                    if (size != state[1]) {
+                        state[0] = now;
+                        state[1] = size;
+                        continue;
+                    }
+                    iterator.remove();
+                    if (modified.equals(audited.get(file))) {
+                        continue;
+                    }
+                    audited.put(file, modified);
+                    Path reportPath = reportDir.resolve(stripIntakeExtension(file.getFileName().toString()) + extension);
+                    pool.execute(() -> auditWatchedFile(file, absoluteRules, currentRules.get(), options, reportPath));
                 }
             }
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-            for (String uniqueField : rules.uniqueFields) {
-                String value = rowMap.getOrDefault(uniqueField, "").trim();
-                if (value.isBlank()) {
-                    continue;
+    private static void rescanWatchDir(Path watchDir, Map<Path, long[]> pending, Map<Path, FileTime> audited, long now) {
+        audited.keySet().removeIf(file -> !Files.exists(file));
+        int queued = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(watchDir)) {
+            for (Path file : stream) {
+                if (isIntakeFile(file) && !audited.containsKey(file) && !pending.containsKey(file) && Files.isRegularFile(file)) {
+                    pending.put(file, new long[] {now, -1L});
+                    queued++;
                 }
-                uniqueLookup
-                        .computeIfAbsent(uniqueField, key -> new LinkedHashMap<>())
-                        .computeIfAbsent(value, key -> new ArrayList<>())
-                        .add(record);
             }
+        } catch (IOException e) {
+            System.err.println("Rescan of " + watchDir + " failed: " + e.getMessage());
+            return;
         }
+        System.err.println("Watch events overflowed; rescanned " + watchDir + " and queued " + queued + " file(s).");
+    }
 
-        for (Map.Entry<String, Map<String, List<RowRecord>>> fieldEntry : uniqueLookup.entrySet()) {
-            String field = fieldEntry.getKey();
-            for (Map.Entry<String, List<RowRecord>> valueEntry : fieldEntry.getValue().entrySet()) {
-                List<RowRecord> matches = valueEntry.getValue();
-                if (matches.size() > 1) {
-                    for (RowRecord record : matches) {
-                        record.reasons.add("duplicate:" + field);
-                    }
-                }
-            }
+    private static void auditWatchedFile(Path file, Path rulesPath, RuleSet rules, Map<String, String> options, Path reportPath) {
+        long started = System.nanoTime();
+        try {
+            String runName = options.getOrDefault("run-name", stripIntakeExtension(file.getFileName().toString()));
+            AuditResult result = auditFile(file, rulesPath, rules, options, reportPath.toString(), runName);
+            long elapsed = (System.nanoTime() - started) / 1_000_000L;
+            System.err.println("Audited " + file.getFileName() + " -> " + reportPath + " (" + result.totalRows + " applicants, " + elapsed + " ms).");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Audit failed for " + file + ": " + e.getMessage());
         }
+    }
 
-        for (RowRecord record : rows) {
-            if (record.reasons.isEmpty()) {
-                result.eligible++;
-            } else {
-                result.ineligible++;
-                if (result.failureLimit < 0 || result.failures.size() < result.failureLimit) {
-                    result.failures.add(new FailureRecord(record.id, record.reasons));
-                } else {
-                    result.failuresTruncated = true;
-                }
-                for (String reason : record.reasons) {
-                    result.reasonCounts.put(reason, result.reasonCounts.getOrDefault(reason, 0) + 1);
-                    String category = reason.split(":", 2)[0];
-                    result.reasonCategoryCounts.put(category, result.reasonCategoryCounts.getOrDefault(category, 0) + 1);
-                }
-            }
-            if (!record.warningReasons.isEmpty()) {
-                result.warningApplicants++;
-                for (String warning : record.warningReasons) {
-                    result.warningCounts.put(warning, result.warningCounts.getOrDefault(warning, 0) + 1);
-                    String category = warning.split(":", 2)[0];
-                    result.warningCategoryCounts.put(category, result.warningCategoryCounts.getOrDefault(category, 0) + 1);
-                }
-            }
-            if (!record.reviewReasons.isEmpty()) {
-                result.reviewCount++;
-                if (result.reviewLimit < 0 || result.reviews.size() < result.reviewLimit) {
-                    result.reviews.add(new ReviewRecord(record.id, record.reviewReasons));
-                } else {
-                    result.reviewsTruncated = true;
-                }
-                for (String reason : record.reviewReasons) {
-                    result.reviewCounts.put(reason, result.reviewCounts.getOrDefault(reason, 0) + 1);
-                }
-            }
+    private static boolean isIntakeFile(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return !name.startsWith(".") && (name.endsWith(".csv") || name.endsWith(".csv.gz"));
+    }
+
+    private static String stripIntakeExtension(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".csv.gz")) {
+            return name.substring(0, name.length() - ".csv.gz".length());
         }
+        if (lower.endsWith(".csv")) {
+            return name.substring(0, name.length() - ".csv".length());
+        }
+        return name;
+    }
 
-        return result;
+    private static void printUsage() {
+        System.out.println("Group Scholar Eligibility Oracle");
+        System.out.println("Usage: java -cp src EligibilityOracle (--input <file.csv> | --input-query <sql>) --rules <rules.txt> [--format text|json] [--output report.txt] [--id-field field] [--limit N] [--group-failures] [--segment-field fields] [--segment-cross a:b] [--review-limit N] [--output-text file] [--output-json file] [--output-ndjson file] [--verdicts file] [--verdict-format ndjson|binary] [--checkpoint dir] [--cache dir] [--shards N] [--log-db] [--run-name name]");
+        System.out.println("       java -cp src EligibilityOracle (--input <file.csv> | --input-query <sql>) --routes <routes.txt> [--format text|json] [--output file] [audit options]");
+        System.out.println("       java -cp src EligibilityOracle --flush-spool [--spool-dir dir]");
+        System.out.println("       java -cp src EligibilityOracle --history [--days N] [--bucket day|week] [--run-name name] [--top N] [--output file]");
+        System.out.println("       java -cp src EligibilityOracle --watch <dir> --rules <rules.txt> [--output-dir dir] [--workers N] [audit options]");
+        System.out.println("Options:");
+        System.out.println("  --input   Path to applicant intake CSV (.csv or .csv.gz)");
+        System.out.println("  --input-query Read applicants from Postgres (ELIGIBILITY_DB_URL) with this SELECT instead of a CSV");
+        System.out.println("  --query-mode copy (default, COPY ... TO STDOUT) or cursor (server-side cursor)");
+        System.out.println("  --fetch-size Rows per round trip for --query-mode cursor (default: 10000)");
+        System.out.println("  --rules   Path to eligibility rules file; a comma-separated list compares rule sets over one read of the input");
+        System.out.println("  --routes  Routes file mapping a field's values to rules files; audits each row with its program's rules in one pass");
+        System.out.println("  --sample  Applicant ids listed per transition when comparing rule sets (default: 10)");
+        System.out.println("  --format  text (default) or json");
+        System.out.println("  --output  Optional output file path (gzip-compressed when it ends in .gz)");
+        System.out.println("  --output-text Also write the text report to this file (same evaluation, own writer thread)");
+        System.out.println("  --output-json Also write the JSON report to this file (same evaluation, own writer thread)");
+        System.out.println("  --output-ndjson Write per-applicant verdicts as NDJSON, alongside --verdicts if given");
+        System.out.println("  --id-field Field name to use for applicant identifiers (default: id)");
+        System.out.println("  --limit   Limit number of ineligible applicants listed (default: no limit)");
+        System.out.println("  --no-optimize Evaluate rules section by section instead of through the optimized rule plan");
+        System.out.println("  --explain-plan Print what the rule plan shares, merges and derives for each loaded rules file to stderr");
+        System.out.println("  --group-failures List ineligible applicants once per distinct reason set, with counts and ids (reports and --log-db)");
+        System.out.println("  --segment-field Comma-separated fields to summarize eligibility breakdowns (ex: status,grad_year)");
+        System.out.println("  --segment-cross Comma-separated field:field pairs to cross-tabulate in the same pass (ex: status:grad_year)");
+        System.out.println("  --review-limit Limit number of review-flagged applicants listed (default: no limit)");
+        System.out.println("  --memory-budget Spill buffered rows, failures, reviews and unique keys to disk beyond this size (ex: 512m, 2g)");
+        System.out.println("  --spill-dir Directory for --memory-budget spill files (default: system temp directory)");
+        System.out.println("  --verdicts Write every applicant's verdict, reasons, warnings and review flags as they are evaluated");
+        System.out.println("  --verdict-format ndjson (default) or binary (fixed-width records; default for .bin paths)");
+        System.out.println("  --checkpoint Save progress to this directory periodically and resume from it after an interrupted run");
+        System.out.println("  --checkpoint-interval Seconds between checkpoint saves (default: 60)");
+        System.out.println("  --cache   Reuse finished results from this directory when the input, rules and options are unchanged");
+        System.out.println("  --cache-size Cache size limit; least recently used results are evicted (default: 256m)");
+        System.out.println("  --shards  Split the input into N byte ranges audited by separate worker processes, then merge their results (default: 1)");
+        System.out.println("  --shard-launcher Command that starts a worker; {shard} becomes the shard number (default: this JVM's java and classpath)");
+        System.out.println("  --shard-dir Directory workers write partial results to; must be shared with remote workers (default: system temp directory)");
+        System.out.println("  --log-db  Spool audit summary + failures for the Postgres analytics schema and flush them in the background");
+        System.out.println("  --spool-dir Local DB spool directory (default: $ELIGIBILITY_DB_SPOOL or reports/db-spool)");
+        System.out.println("  --db-flush-wait Milliseconds to wait for the background DB flush before exiting (default: 2000)");
+        System.out.println("  --flush-spool Replay spooled audit runs to Postgres and exit");
+        System.out.println("  --run-name Optional label to store alongside the audit run (filters --history)");
+        System.out.println("  --history Print eligibility, reason and completeness trends from the DB rollup tables");
+        System.out.println("  --days    History window in UTC days, ending today (default: 28)");
+        System.out.println("  --bucket  History period: day (default) or week");
+        System.out.println("  --top     Number of reasons listed in --history (default: 5)");
+        System.out.println("  --watch   Audit .csv/.csv.gz files as they land in a directory; reloads --rules when it changes");
+        System.out.println("  --output-dir Report directory for --watch (default: <dir>/reports)");
+        System.out.println("  --workers Concurrent audits for --watch (default: 2)");
     }
 
-    private static void applyAliases(Map<String, String> rowMap, RuleSet rules) {
-        if (rules.aliases.isEmpty()) {
-            return;
+    private static List<Path> parsePathList(String value) {
+        List<Path> paths = new ArrayList<>();
+        for (String part : value.split(",")) {
+            if (!part.isBlank()) {
+                paths.add(Path.of(part.trim()));
+            }
         }
-        for (Map.Entry<String, List<String>> entry : rules.aliases.entrySet()) {
-            String canonical = entry.getKey();
-            String current = rowMap.getOrDefault(canonical, "");
-            if (!current.isBlank()) {
-                continue;
+        return paths;
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--help") || arg.equals("-h")) {
+                options.put("help", "true");
+                return options;
             }
-            for (String alias : entry.getValue()) {
-                String value = rowMap.getOrDefault(alias, "");
-                if (!value.isBlank()) {
-                    rowMap.put(canonical, value);
-                    break;
+            if (arg.startsWith("--")) {
+                String key = arg.substring(2);
+                if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    options.put(key, args[i + 1]);
+                    i++;
+                } else {
+                    options.put(key, "true");
                 }
             }
         }
+        return options;
     }
 
-    private static String canonicalizeField(String field, RuleSet rules) {
-        if (field == null || field.isBlank()) {
-            return field;
+    private static AuditResult audit(Path inputPath, Map<String, String> options, RuleSet rules, String idField, int limit, SegmentCube segments,
+                                     int reviewLimit, VerdictSink sink, MemoryBudget budget, AuditCheckpoint checkpoint) throws IOException {
+        AuditRunEvent event = new AuditRunEvent();
+        event.begin();
+        try (RowSource reader = openRowSource(inputPath, options)) {
+            AuditResult result = audit(reader, rules, idField, limit, segments, reviewLimit, sink, budget, checkpoint);
+            if (event.shouldCommit()) {
+                event.input = inputLabel(inputPath, options);
+                event.rows = result.totalRows;
+                event.bytes = reader.offset();
+                event.eligible = result.eligible;
+                event.ineligible = result.ineligible;
+                event.commit();
+            }
+            return result;
         }
-        String canonical = rules.aliasToCanonical.get(field);
-        return canonical == null ? field : canonical;
     }
 
-    private static List<String> parseCsvLine(String line) {
-        List<String> values = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        boolean inQuotes = false;
-        for (int i = 0; i < line.length(); i++) {
-            char ch = line.charAt(i);
-            if (ch == '"') {
-                if (inQuotes && i + 1 < line.length() && line.charAt(i + 1) == '"') {
-                    current.append('"');
-                    i++;
-                } else {
-                    inQuotes = !inQuotes;
-                }
-            } else if (ch == ',' && !inQuotes) {
-                values.add(current.toString());
-                current.setLength(0);
-            } else {
-                current.append(ch);
-            }
+    private static AuditResult audit(RowSource reader, RuleSet rules, String idField, int limit, SegmentCube segments, int reviewLimit, VerdictSink sink,
+                                     MemoryBudget budget, AuditCheckpoint checkpoint) throws IOException {
+        List<String> headerKeys = readHeader(reader);
+        List<String> trackedFields = buildTrackedFields(rules);
+        AuditResult result = newAuditResult(rules, trackedFields, idField, limit, segments, reviewLimit, budget);
+
+        try (RecordList<RowRecord> rows = new RecordList<>(RowRecord.CODEC, budget);
+             DuplicateIndex duplicates = new DuplicateIndex(budget, rules.nearUniqueRules)) {
+            auditRows(reader, headerKeys, rules, trackedFields, result, sink, rows, duplicates, checkpoint);
+        } catch (IOException | RuntimeException e) {
+            result.close();
+            throw e;
         }
-        values.add(current.toString());
-        return values;
+        return result;
     }
 
-    private static String normalize(String value) {
-        return value.trim().toLowerCase(Locale.ROOT).replace(" ", "_");
+    private static List<String> readHeader(RowSource reader) throws IOException {
+        if (!reader.next()) {
+            throw new IOException("Input CSV is empty.");
+        }
+        List<String> headerKeys = new ArrayList<>(reader.fieldCount());
+        for (int c = 0; c < reader.fieldCount(); c++) {
+            headerKeys.add(normalize(reader.field(c)));
+        }
+        return headerKeys;
     }
 
-    private static String normalizeValue(String value) {
-        return value.trim().toLowerCase(Locale.ROOT).replace(" ", "_");
+    private static AuditResult newAuditResult(RuleSet rules, List<String> trackedFields, String idField, int limit, SegmentCube segments,
+                                              int reviewLimit, MemoryBudget budget) {
+        AuditResult result = new AuditResult(budget);
+        result.failureLimit = limit;
+        result.reviewLimit = reviewLimit;
+        result.idField = canonicalizeField(normalize(idField), rules);
+        result.segments = segments;
+        for (String field : trackedFields) {
+            result.missingFieldCounts.put(field, 0);
+        }
+        return result;
     }
 
-    private static String renderText(AuditResult result) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Eligibility Audit Summary\n");
-        if (!result.runName.isBlank()) {
-            sb.append("Run name: ").append(result.runName).append("\n");
-        }
-        if (!result.inputPath.isBlank()) {
-            sb.append("Input: ").append(result.inputPath).append("\n");
+    private static void auditRows(RowSource reader, List<String> headerKeys, RuleSet rules, List<String> trackedFields,
+                                  AuditResult result, VerdictSink sink,
+                                  RecordList<RowRecord> rows, DuplicateIndex duplicates, AuditCheckpoint checkpoint) throws IOException {
+        int i = checkpoint == null ? 0 : checkpoint.restore(reader, result, rows, duplicates);
+        while (reader.next()) {
+            i++;
+            result.totalRows = i;
+            Map<String, String> rowMap = readRow(reader, headerKeys);
+            applyAliases(rowMap, rules);
+            RowRecord record = evaluateRecord(rowMap, rules, trackedFields, result, i);
+
+            if (!rules.checksDuplicates()) {
+                finalizeRow(record, result, sink);
+            } else {
+                rows.add(record);
+                indexUniqueFields(rowMap, rules, duplicates, i);
+            }
+            if (checkpoint != null && i % AuditCheckpoint.CHECK_ROWS == 0 && checkpoint.due()) {
+                checkpoint.save(i, reader.offset(), result, rows, duplicates);
+            }
         }
-        if (!result.rulesPath.isBlank()) {
-            sb.append("Rules: ").append(result.rulesPath).append("\n");
+
+        duplicates.resolve();
+        Iterator<RowRecord> buffered = rows.drain();
+        while (buffered.hasNext()) {
+            RowRecord record = buffered.next();
+            for (String field : duplicates.duplicateFields(record.row)) {
+                record.reasons.add("duplicate:" + field);
+            }
+            finalizeRow(record, result, sink);
         }
-        sb.append("Total applicants: ").append(result.totalRows).append("\n");
-        sb.append("Eligible: ").append(result.eligible).append(" (").append(formatRate(result.eligible, result.totalRows)).append(")\n");
-        sb.append("Ineligible: ").append(result.ineligible).append(" (").append(formatRate(result.ineligible, result.totalRows)).append(")\n\n");
-        if (!result.warningCounts.isEmpty()) {
-            sb.append("Applicants with warnings: ").append(result.warningApplicants)
-                    .append(" (").append(formatRate(result.warningApplicants, result.totalRows)).append(")\n\n");
+    }
+
+    private static Map<String, String> readRow(RowSource reader, List<String> headerKeys) {
+        int fieldCount = reader.fieldCount();
+        Map<String, String> rowMap = new HashMap<>();
+        for (int c = 0; c < headerKeys.size(); c++) {
+            String value = c < fieldCount ? reader.field(c).trim() : "";
+            rowMap.put(headerKeys.get(c), value);
         }
+        return rowMap;
+    }
 
-        if (!result.reasonCategoryCounts.isEmpty()) {
-            sb.append("Reason categories:\n");
-            result.reasonCategoryCounts.entrySet().stream()
-                    .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
-                    .forEach(entry -> sb.append("- ").append(entry.getKey())
-                            .append(": ").append(entry.getValue()).append("\n"));
-            sb.append("\n");
+    private static RowRecord evaluateRecord(Map<String, String> rowMap, RuleSet rules, List<String> trackedFields,
+                                            AuditResult result, int row) throws IOException {
+        for (String field : trackedFields) {
+            String value = rowMap.getOrDefault(field, "");
+            if (value.isBlank()) {
+                result.missingFieldCounts.put(field, result.missingFieldCounts.get(field) + 1);
+            }
         }
 
-        if (!result.warningCategoryCounts.isEmpty()) {
-            sb.append("Warning categories:\n");
-            result.warningCategoryCounts.entrySet().stream()
-                    .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
-                    .forEach(entry -> sb.append("- ").append(entry.getKey())
-                            .append(": ").append(entry.getValue()).append("\n"));
-            sb.append("\n");
+        String id = rowMap.getOrDefault(result.idField, "row-" + row);
+        RowEvaluationEvent sampled = row % RowEvaluationEvent.SAMPLE_ROWS == 0 ? new RowEvaluationEvent() : null;
+        SlowRowEvent slow = new SlowRowEvent();
+        if (sampled != null) {
+            sampled.begin();
+        }
+        slow.begin();
+        RowRecord record = evaluateRow(rowMap, rules, id, row);
+        slow.end();
+        if (sampled != null) {
+            sampled.end();
+            if (sampled.shouldCommit()) {
+                sampled.describe(record);
+                sampled.commit();
+            }
+        }
+        if (slow.shouldCommit()) {
+            slow.row = row;
+            slow.applicantId = id;
+            slow.reasons = String.join(",", record.reasons);
+            slow.commit();
         }
 
-        if (!result.reasonCounts.isEmpty()) {
-            sb.append("Top ineligibility reasons:\n");
-            result.reasonCounts.entrySet().stream()
-                    .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
-                    .forEach(entry -> sb.append("- ").append(entry.getKey())
-                            .append(": ").append(entry.getValue()).append("\n"));
-            sb.append("\n");
+        if (result.segments != null) {
+            result.segments.add(rowMap, record.reasons.isEmpty());
         }
+        return record;
+    }
 
-        if (!result.warningCounts.isEmpty()) {
-            sb.append("Top warnings:\n");
-            result.warningCounts.entrySet().stream()
-                    .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
-                    .forEach(entry -> sb.append("- ").append(entry.getKey())
-                            .append(": ").append(entry.getValue()).append("\n"));
-            sb.append("\n");
+    private static void indexUniqueFields(Map<String, String> rowMap, RuleSet rules, DuplicateIndex duplicates, int row) throws IOException {
+        for (String uniqueField : rules.uniqueFields) {
+            String value = rowMap.getOrDefault(uniqueField, "").trim();
+            if (value.isBlank()) {
+                continue;
+            }
+            duplicates.add(uniqueField, value, row);
         }
+        duplicates.addNear(rowMap, row);
+    }
 
-        if (result.reviewCount > 0) {
-            sb.append("Review flags: ").append(result.reviewCount)
-                    .append(" (").append(formatRate(result.reviewCount, result.totalRows)).append(")\n");
-            if (!result.reviewCounts.isEmpty()) {
-                sb.append("Top review flags:\n");
-                result.reviewCounts.entrySet().stream()
-                        .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
-                        .forEach(entry -> sb.append("- ").append(entry.getKey())
-                                .append(": ").append(entry.getValue()).append("\n"));
-                sb.append("\n");
+    private static void finalizeRow(RowRecord record, AuditResult result, VerdictSink sink) throws IOException {
+        if (record.reasons.isEmpty()) {
+            result.eligible++;
+        } else {
+            result.ineligible++;
+            if (result.failureLimit < 0 || result.failures.size() < result.failureLimit) {
+                result.failures.add(new FailureRecord(record.id, record.reasons));
+            } else {
+                result.failuresTruncated = true;
+            }
+            for (String reason : record.reasons) {
+                result.reasonCounts.put(reason, result.reasonCounts.getOrDefault(reason, 0) + 1);
+                String category = reason.split(":", 2)[0];
+                result.reasonCategoryCounts.put(category, result.reasonCategoryCounts.getOrDefault(category, 0) + 1);
+            }
+        }
+        if (!record.warningReasons.isEmpty()) {
+            result.warningApplicants++;
+            for (String warning : record.warningReasons) {
+                result.warningCounts.put(warning, result.warningCounts.getOrDefault(warning, 0) + 1);
+                String category = warning.split(":", 2)[0];
+                result.warningCategoryCounts.put(category, result.warningCategoryCounts.getOrDefault(category, 0) + 1);
+            }
+        }
+        if (!record.reviewReasons.isEmpty()) {
+            result.reviewCount++;
+            if (result.reviewLimit < 0 || result.reviews.size() < result.reviewLimit) {
+                result.reviews.add(new ReviewRecord(record.id, record.reviewReasons));
+            } else {
+                result.reviewsTruncated = true;
             }
+            for (String reason : record.reviewReasons) {
+                result.reviewCounts.put(reason, result.reviewCounts.getOrDefault(reason, 0) + 1);
+            }
+        }
+        if (sink != null) {
+            sink.accept(record);
         }
+    }
 
-        if (!result.missingFieldCounts.isEmpty()) {
-            List<Map.Entry<String, Integer>> missingEntries = result.missingFieldCounts.entrySet().stream()
-                    .filter(entry -> entry.getValue() > 0)
-                    .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
-                    .toList();
-            if (!missingEntries.isEmpty()) {
-                sb.append("Field completeness (missing values):\n");
-                for (Map.Entry<String, Integer> entry : missingEntries) {
-                    sb.append("- ").append(entry.getKey())
-                            .append(": ").append(entry.getValue())
-                            .append(" (").append(formatRate(entry.getValue(), result.totalRows)).append(")\n");
-                }
-                sb.append("\n");
+    private static RowRecord evaluateRow(Map<String, String> rowMap, RuleSet rules, String id, int row) {
+        if (rules.plan != null) {
+            return rules.plan.evaluate(rowMap, rules, id, row);
+        }
+        List<String> reasons = new ArrayList<>();
+        List<String> reviewReasons = new ArrayList<>();
+        List<String> warnings = new ArrayList<>();
+        for (String required : rules.requiredFields) {
+            String value = rowMap.getOrDefault(required, "");
+            if (value.isBlank()) {
+                reasons.add("missing:" + required);
             }
         }
 
-        if (!result.segmentField.isBlank() && !result.segmentStats.isEmpty()) {
-            sb.append("Segment breakdown (field: ").append(result.segmentField).append("):\n");
-            result.segmentStats.values().stream()
-                    .sorted((a, b) -> Integer.compare(b.total, a.total))
-                    .forEach(stat -> sb.append("- ").append(stat.value)
-                            .append(": total ").append(stat.total)
-                            .append(" | eligible ").append(stat.eligible)
-                            .append(" (").append(formatRate(stat.eligible, stat.total)).append(")")
-                            .append(" | ineligible ").append(stat.ineligible)
-                            .append(" (").append(formatRate(stat.ineligible, stat.total)).append(")")
-                            .append("\n"));
-            sb.append("\n");
+        for (ConditionalRequirement requirement : rules.conditionalIndex.match(rowMap)) {
+            for (String needed : requirement.requiredFields) {
+                String requiredValue = rowMap.getOrDefault(needed, "");
+                if (requiredValue.isBlank()) {
+                    reasons.add("missing_if:" + requirement.conditionField + "=" + requirement.conditionValue + ":" + needed);
+                }
+            }
         }
 
-        if (!result.failures.isEmpty()) {
-            sb.append("Ineligible applicants:");
-            if (result.failureLimit >= 0) {
-                sb.append(" (showing ").append(result.failures.size());
-                if (result.failuresTruncated) {
-                    sb.append(" of ").append(result.ineligible);
+        for (AnyRequirement requirement : rules.anyRequirements) {
+            boolean hasAny = false;
+            for (String field : requirement.fields) {
+                String value = rowMap.getOrDefault(field, "");
+                if (!value.isBlank()) {
+                    hasAny = true;
+                    break;
                 }
-                sb.append(")");
             }
-            sb.append("\n");
-            for (FailureRecord record : result.failures) {
-                sb.append("- ").append(record.id).append(": ")
-                        .append(String.join(", ", record.reasons)).append("\n");
+            if (!hasAny) {
+                reasons.add("missing_any:" + requirement.name);
             }
-            if (result.failuresTruncated) {
-                sb.append("... truncated\n");
+        }
+
+        for (String reviewField : rules.reviewMissingFields) {
+            String value = rowMap.getOrDefault(reviewField, "");
+            if (value.isBlank()) {
+                reviewReasons.add("review_missing:" + reviewField);
             }
         }
 
-        if (!result.reviews.isEmpty()) {
-            sb.append("Review-flagged applicants:");
-            if (result.reviewLimit >= 0) {
-                sb.append(" (showing ").append(result.reviews.size());
-                if (result.reviewsTruncated) {
-                    sb.append(" of ").append(result.reviewCount);
+        for (ReviewCondition condition : rules.reviewIndex.match(rowMap)) {
+            for (String reason : condition.reasons) {
+                reviewReasons.add("review_flag:" + reason);
+            }
+        }
+
+        for (Map.Entry<String, NumericRange> entry : rules.numericRanges.entrySet()) {
+            String field = entry.getKey();
+            String value = rowMap.getOrDefault(field, "");
+            if (value.isBlank()) {
+                continue;
+            }
+            try {
+                double numeric = Double.parseDouble(value);
+                if (numeric < entry.getValue().min || numeric > entry.getValue().max) {
+                    reasons.add("out_of_range:" + field);
                 }
-                sb.append(")");
+            } catch (NumberFormatException e) {
+                reasons.add("invalid_number:" + field);
             }
-            sb.append("\n");
-            for (ReviewRecord record : result.reviews) {
-                sb.append("- ").append(record.id).append(": ")
-                        .append(String.join(", ", record.reasons)).append("\n");
+        }
+
+        for (Map.Entry<String, NormalizedValueSet> entry : rules.allowedValues.entrySet()) {
+            String field = entry.getKey();
+            String value = rowMap.getOrDefault(field, "");
+            if (isBlankNormalized(value)) {
+                continue;
             }
-            if (result.reviewsTruncated) {
-                sb.append("... truncated\n");
+            if (!entry.getValue().contains(value)) {
+                reasons.add("disallowed:" + field);
             }
         }
 
-        return sb.toString();
-    }
+        for (Map.Entry<String, NormalizedValueSet> entry : rules.disallowedValues.entrySet()) {
+            String field = entry.getKey();
+            String value = rowMap.getOrDefault(field, "");
+            if (isBlankNormalized(value)) {
+                continue;
+            }
+            if (entry.getValue().contains(value)) {
+                reasons.add("blocked:" + field);
+            }
+        }
 
-    private static String renderJson(AuditResult result) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\n");
-        sb.append("  \"runName\": ").append(result.runName.isBlank() ? "null" : "\"" + escapeJson(result.runName) + "\"").append(",\n");
-        sb.append("  \"inputPath\": ").append(result.inputPath.isBlank() ? "null" : "\"" + escapeJson(result.inputPath) + "\"").append(",\n");
-        sb.append("  \"rulesPath\": ").append(result.rulesPath.isBlank() ? "null" : "\"" + escapeJson(result.rulesPath) + "\"").append(",\n");
-        sb.append("  \"totalApplicants\": ").append(result.totalRows).append(",\n");
-        sb.append("  \"eligible\": ").append(result.eligible).append(",\n");
-        sb.append("  \"eligibleRate\": ").append(formatRateValue(result.eligible, result.totalRows)).append(",\n");
-        sb.append("  \"ineligible\": ").append(result.ineligible).append(",\n");
-        sb.append("  \"ineligibleRate\": ").append(formatRateValue(result.ineligible, result.totalRows)).append(",\n");
-        sb.append("  \"warningApplicants\": ").append(result.warningApplicants).append(",\n");
-        sb.append("  \"warningRate\": ").append(formatRateValue(result.warningApplicants, result.totalRows)).append(",\n");
-        sb.append("  \"idField\": \"").append(escapeJson(result.idField)).append("\",\n");
-        sb.append("  \"failureLimit\": ").append(result.failureLimit).append(",\n");
-        sb.append("  \"failuresTruncated\": ").append(result.failuresTruncated).append(",\n");
-        sb.append("  \"reviewCount\": ").append(result.reviewCount).append(",\n");
-        sb.append("  \"reviewRate\": ").append(formatRateValue(result.reviewCount, result.totalRows)).append(",\n");
-        sb.append("  \"reviewLimit\": ").append(result.reviewLimit).append(",\n");
-        sb.append("  \"reviewsTruncated\": ").append(result.reviewsTruncated).append(",\n");
-        sb.append("  \"segmentField\": ").append(result.segmentField.isBlank() ? "null" : "\"" + escapeJson(result.segmentField) + "\"").append(",\n");
-        sb.append("  \"reasonCategories\": {");
-        if (!result.reasonCategoryCounts.isEmpty()) {
-            sb.append("\n");
-            int catIdx = 0;
-            for (Map.Entry<String, Integer> entry : result.reasonCategoryCounts.entrySet()) {
-                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
-                catIdx++;
-                sb.append(catIdx < result.reasonCategoryCounts.size() ? ",\n" : "\n");
+        for (Map.Entry<String, DateRange> entry : rules.dateRanges.entrySet()) {
+            String field = entry.getKey();
+            String value = rowMap.getOrDefault(field, "");
+            if (value.isBlank()) {
+                continue;
+            }
+            try {
+                LocalDate date = LocalDate.parse(value);
+                if (date.isBefore(entry.getValue().earliest) || date.isAfter(entry.getValue().latest)) {
+                    reasons.add("out_of_range:" + field);
+                }
+            } catch (DateTimeParseException e) {
+                reasons.add("invalid_date:" + field);
             }
-            sb.append("  ");
         }
-        sb.append("},\n");
-        sb.append("  \"warningCategories\": {");
-        if (!result.warningCategoryCounts.isEmpty()) {
-            sb.append("\n");
-            int catIdx = 0;
-            for (Map.Entry<String, Integer> entry : result.warningCategoryCounts.entrySet()) {
-                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
-                catIdx++;
-                sb.append(catIdx < result.warningCategoryCounts.size() ? ",\n" : "\n");
+
+        for (Map.Entry<String, Pattern> entry : rules.patternRules.entrySet()) {
+            String field = entry.getKey();
+            String value = rowMap.getOrDefault(field, "");
+            if (value.isBlank()) {
+                continue;
+            }
+            if (!entry.getValue().matcher(value).matches()) {
+                reasons.add("invalid_pattern:" + field);
             }
-            sb.append("  ");
         }
-        sb.append("},\n");
-        sb.append("  \"reasonCounts\": {");
-        if (!result.reasonCounts.isEmpty()) {
-            sb.append("\n");
-            int idx = 0;
-            for (Map.Entry<String, Integer> entry : result.reasonCounts.entrySet()) {
-                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
-                idx++;
-                sb.append(idx < result.reasonCounts.size() ? ",\n" : "\n");
+
+        for (String required : rules.warnRequiredFields) {
+            String value = rowMap.getOrDefault(required, "");
+            if (value.isBlank()) {
+                warnings.add("warn_missing:" + required);
             }
-            sb.append("  ");
         }
-        sb.append("},\n");
-        sb.append("  \"warningCounts\": {");
-        if (!result.warningCounts.isEmpty()) {
-            sb.append("\n");
-            int idx = 0;
-            for (Map.Entry<String, Integer> entry : result.warningCounts.entrySet()) {
-                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
-                idx++;
-                sb.append(idx < result.warningCounts.size() ? ",\n" : "\n");
+
+        for (ConditionalRequirement requirement : rules.warnConditionalIndex.match(rowMap)) {
+            for (String needed : requirement.requiredFields) {
+                String requiredValue = rowMap.getOrDefault(needed, "");
+                if (requiredValue.isBlank()) {
+                    warnings.add("warn_missing_if:" + requirement.conditionField + "=" + requirement.conditionValue + ":" + needed);
+                }
             }
-            sb.append("  ");
         }
-        sb.append("},\n");
-        sb.append("  \"missingFieldCounts\": {");
-        if (!result.missingFieldCounts.isEmpty()) {
+
+        for (AnyRequirement requirement : rules.warnAnyRequirements) {
+            boolean hasAny = false;
+            for (String field : requirement.fields) {
+                String value = rowMap.getOrDefault(field, "");
+                if (!value.isBlank()) {
+                    hasAny = true;
+                    break;
+                }
+            }
+            if (!hasAny) {
+                warnings.add("warn_missing_any:" + requirement.name);
+            }
+        }
+
+        for (Map.Entry<String, NumericRange> entry : rules.warnNumericRanges.entrySet()) {
+            String field = entry.getKey();
+            String value = rowMap.getOrDefault(field, "");
+            if (value.isBlank()) {
+                continue;
+            }
+            try {
+                double numeric = Double.parseDouble(value);
+                if (numeric < entry.getValue().min || numeric > entry.getValue().max) {
+                    warnings.add("warn_out_of_range:" + field);
+                }
+            } catch (NumberFormatException e) {
+                warnings.add("warn_invalid_number:" + field);
+            }
+        }
+
+        for (Map.Entry<String, NormalizedValueSet> entry : rules.warnAllowedValues.entrySet()) {
+            String field = entry.getKey();
+            String value = rowMap.getOrDefault(field, "");
+            if (isBlankNormalized(value)) {
+                continue;
+            }
+            if (!entry.getValue().contains(value)) {
+                warnings.add("warn_disallowed:" + field);
+            }
+        }
+
+        for (Map.Entry<String, NormalizedValueSet> entry : rules.warnDisallowedValues.entrySet()) {
+            String field = entry.getKey();
+            String value = rowMap.getOrDefault(field, "");
+            if (isBlankNormalized(value)) {
+                continue;
+            }
+            if (entry.getValue().contains(value)) {
+                warnings.add("warn_blocked:" + field);
+            }
+        }
+
+        for (Map.Entry<String, DateRange> entry : rules.warnDateRanges.entrySet()) {
+            String field = entry.getKey();
+            String value = rowMap.getOrDefault(field, "");
+            if (value.isBlank()) {
+                continue;
+            }
+            try {
+                LocalDate date = LocalDate.parse(value);
+                if (date.isBefore(entry.getValue().earliest) || date.isAfter(entry.getValue().latest)) {
+                    warnings.add("warn_out_of_range:" + field);
+                }
+            } catch (DateTimeParseException e) {
+                warnings.add("warn_invalid_date:" + field);
+            }
+        }
+
+        for (Map.Entry<String, Pattern> entry : rules.warnPatternRules.entrySet()) {
+            String field = entry.getKey();
+            String value = rowMap.getOrDefault(field, "");
+            if (value.isBlank()) {
+                continue;
+            }
+            if (!entry.getValue().matcher(value).matches()) {
+                warnings.add("warn_invalid_pattern:" + field);
+            }
+        }
+
+        evaluateExpressions(rowMap, rules, row, reasons, reviewReasons, warnings);
+        RowRecord record = new RowRecord(id, reasons, reviewReasons, warnings);
+        record.row = row;
+        return record;
+    }
+
+    private static void evaluateExpressions(Map<String, String> rowMap, RuleSet rules, int row, List<String> reasons, List<String> reviewReasons,
+                                            List<String> warnings) {
+        boolean sampled = row % RowEvaluationEvent.SAMPLE_ROWS == 0;
+        for (ExpressionRule rule : rules.expressionRules) {
+            int outcome = sampled ? rule.evaluateTraced(rowMap, row) : rule.evaluate(rowMap);
+            if (outcome == ExpressionRule.FAIL || outcome == ExpressionRule.INVALID) {
+                String reason = outcome == ExpressionRule.FAIL ? rule.reason() : rule.invalidReason();
+                if (rule.level.equals("warn")) {
+                    warnings.add(reason);
+                } else if (rule.level.equals("review")) {
+                    reviewReasons.add(reason);
+                } else {
+                    reasons.add(reason);
+                }
+            }
+        }
+    }
+
+    private static RowSource openRowSource(Path inputPath, Map<String, String> options) throws IOException {
+        if (inputPath != null) {
+            return CsvRowReader.open(inputPath);
+        }
+        DbConfig config = DbConfig.fromEnv();
+        if (!config.enabled) {
+            throw new IOException("--input-query needs ELIGIBILITY_DB_URL.");
+        }
+        String query = inputQuery(options);
+        String mode = options.getOrDefault("query-mode", "copy").toLowerCase(Locale.ROOT);
+        if (mode.equals("copy")) {
+            String copySql = "COPY (" + query + ") TO STDOUT WITH (FORMAT csv, HEADER true)";
+            return new CsvRowReader(new PrefetchInputStream("pg-copy-out", "Input query failed", out -> QueryRowSource.copyOut(config, copySql, out)));
+        }
+        if (mode.equals("cursor")) {
+            return QueryRowSource.open(config, query, Math.max(1, parseIntOption(options.get("fetch-size"), QueryRowSource.DEFAULT_FETCH_SIZE)));
+        }
+        throw new IOException("Unknown query mode: " + mode + " (expected copy or cursor)");
+    }
+
+    private static RuleSet loadRules(Path path, Map<String, String> options) throws IOException {
+        RuleSet rules = RuleSet.load(path, !options.containsKey("no-optimize"));
+        if (rules.plan != null && options.containsKey("explain-plan")) {
+            System.err.print(rules.plan.describe(path));
+        }
+        return rules;
+    }
+
+    private static String inputQuery(Map<String, String> options) {
+        String query = options.get("input-query").trim();
+        while (query.endsWith(";")) {
+            query = query.substring(0, query.length() - 1).trim();
+        }
+        return query;
+    }
+
+    private static String inputLabel(Path inputPath, Map<String, String> options) {
+        return inputPath != null ? inputPath.toString() : "query: " + inputQuery(options);
+    }
+
+    private static InputStream openInput(Path path) throws IOException {
+        if (!isGzip(path)) {
+            return Files.newInputStream(path);
+        }
+        InputStream raw = Files.newInputStream(path);
+        return new PrefetchInputStream("gzip-inflate-" + path.getFileName(), "Failed to decompress input", out -> {
+            try (InputStream source = raw; GZIPInputStream gzip = new GZIPInputStream(source, PrefetchInputStream.CHUNK_SIZE)) {
+                gzip.transferTo(out);
+            }
+        });
+    }
+
+    private static Writer openOutput(Path path) throws IOException {
+        return openOutput(path, 1 << 16);
+    }
+
+    private static Writer openOutput(Path path, int bufferSize) throws IOException {
+        createParentDirectories(path);
+        OutputStream out = Files.newOutputStream(path);
+        if (isGzip(path)) {
+            out = new GZIPOutputStream(out, bufferSize);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), bufferSize);
+    }
+
+    private static void createParentDirectories(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+    }
+
+    private static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available.", e);
+        }
+    }
+
+    private static VerdictSink openVerdictSink(Path path, String format, RuleSet rules) throws IOException {
+        String resolved = format == null ? "" : format.trim().toLowerCase(Locale.ROOT);
+        if (resolved.isEmpty()) {
+            String name = path.getFileName() == null ? "" : path.getFileName().toString().toLowerCase(Locale.ROOT);
+            resolved = name.endsWith(".bin") ? "binary" : "ndjson";
+        }
+        if (resolved.equals("ndjson")) {
+            return new NdjsonVerdictSink(path);
+        }
+        if (resolved.equals("binary")) {
+            return new BinaryVerdictSink(path, ReasonCatalog.from(rules));
+        }
+        throw new IOException("Unknown verdict format: " + format + " (expected ndjson or binary)");
+    }
+
+    private static VerdictSink openVerdictSinks(Map<String, String> options, RuleSet rules) throws IOException {
+        List<VerdictSink> sinks = new ArrayList<>();
+        try {
+            if (options.containsKey("verdicts")) {
+                sinks.add(new QueuedVerdictSink(openVerdictSink(Path.of(options.get("verdicts")), options.get("verdict-format"), rules), "verdicts"));
+            }
+            if (options.containsKey("output-ndjson")) {
+                sinks.add(new QueuedVerdictSink(new NdjsonVerdictSink(Path.of(options.get("output-ndjson"))), "ndjson"));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (VerdictSink sink : sinks) {
+                try {
+                    sink.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        if (sinks.isEmpty()) {
+            return null;
+        }
+        return sinks.size() == 1 ? sinks.get(0) : new FanOutVerdictSink(sinks);
+    }
+
+    private static List<ReportTarget> reportTargets(Map<String, String> options, String outputPath) {
+        List<ReportTarget> targets = new ArrayList<>();
+        if (options.containsKey("output-text")) {
+            targets.add(new ReportTarget("text", Path.of(options.get("output-text"))));
+        }
+        if (options.containsKey("output-json")) {
+            targets.add(new ReportTarget("json", Path.of(options.get("output-json"))));
+        }
+        if (outputPath != null || targets.isEmpty()) {
+            String format = options.getOrDefault("format", "text").toLowerCase(Locale.ROOT);
+            targets.add(0, new ReportTarget(format, outputPath == null ? null : Path.of(outputPath)));
+        }
+        return targets;
+    }
+
+    private static void writeReport(ReportTarget target, ReportRenderer renderer) throws IOException {
+        if (target.path == null) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            renderer.render(target.format, out);
+            out.write(System.lineSeparator());
+            out.flush();
+            return;
+        }
+        try (Writer out = openOutput(target.path)) {
+            renderer.render(target.format, out);
+        }
+    }
+
+    private static void writeReport(Path path, String report) throws IOException {
+        try (Writer writer = openOutput(path)) {
+            writer.write(report);
+        }
+    }
+
+    private static boolean isGzip(Path path) {
+        Path name = path.getFileName();
+        return name != null && name.toString().toLowerCase(Locale.ROOT).endsWith(".gz");
+    }
+
+    private static void applyAliases(Map<String, String> rowMap, RuleSet rules) {
+        if (rules.aliases.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, List<String>> entry : rules.aliases.entrySet()) {
+            String canonical = entry.getKey();
+            String current = rowMap.getOrDefault(canonical, "");
+            if (!current.isBlank()) {
+                continue;
+            }
+            for (String alias : entry.getValue()) {
+                String value = rowMap.getOrDefault(alias, "");
+                if (!value.isBlank()) {
+                    rowMap.put(canonical, value);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static String canonicalizeField(String field, RuleSet rules) {
+        if (field == null || field.isBlank()) {
+            return field;
+        }
+        String canonical = rules.aliasToCanonical.get(field);
+        return canonical == null ? field : canonical;
+    }
+
+    private static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (ch == '"') {
+                if (inQuotes && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else {
+                    inQuotes = !inQuotes;
+                }
+            } else if (ch == ',' && !inQuotes) {
+                values.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(ch);
+            }
+        }
+        values.add(current.toString());
+        return values;
+    }
+
+    private static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.ROOT).replace(" ", "_");
+    }
+
+    private static String normalizeValue(String value) {
+        return value.trim().toLowerCase(Locale.ROOT).replace(" ", "_");
+    }
+
+    private static boolean isBlankNormalized(String raw) {
+        int start = trimStart(raw);
+        int end = trimEnd(raw, start);
+        for (int i = start; i < end; i++) {
+            char ch = raw.charAt(i);
+            if (ch == ' ' || !Character.isWhitespace(ch)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int trimStart(String value) {
+        int start = 0;
+        while (start < value.length() && value.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(String value, int start) {
+        int end = value.length();
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isAsciiRange(String value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char foldAscii(char ch) {
+        if (ch >= 'A' && ch <= 'Z') {
+            return (char) (ch + ('a' - 'A'));
+        }
+        return ch == ' ' ? '_' : ch;
+    }
+
+    private static void renderReport(AuditResult result, String format, Writer out) throws IOException {
+        if (format.equals("json")) {
+            renderJson(result, out);
+        } else {
+            renderText(result, out);
+        }
+    }
+
+    private static void drainTo(StringBuilder sb, Writer out) throws IOException {
+        if (sb.length() >= RENDER_CHUNK_CHARS) {
+            out.append(sb);
+            sb.setLength(0);
+        }
+    }
+
+    private static void renderText(AuditResult result, Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Eligibility Audit Summary\n");
+        if (!result.runName.isBlank()) {
+            sb.append("Run name: ").append(result.runName).append("\n");
+        }
+        if (!result.inputPath.isBlank()) {
+            sb.append("Input: ").append(result.inputPath).append("\n");
+        }
+        if (!result.rulesPath.isBlank()) {
+            sb.append("Rules: ").append(result.rulesPath).append("\n");
+        }
+        sb.append("Total applicants: ").append(result.totalRows).append("\n");
+        sb.append("Eligible: ").append(result.eligible).append(" (").append(formatRate(result.eligible, result.totalRows)).append(")\n");
+        sb.append("Ineligible: ").append(result.ineligible).append(" (").append(formatRate(result.ineligible, result.totalRows)).append(")\n\n");
+        if (!result.warningCounts.isEmpty()) {
+            sb.append("Applicants with warnings: ").append(result.warningApplicants)
+                    .append(" (").append(formatRate(result.warningApplicants, result.totalRows)).append(")\n\n");
+        }
+
+        if (!result.reasonCategoryCounts.isEmpty()) {
+            sb.append("Reason categories:\n");
+            result.reasonCategoryCounts.entrySet().stream()
+                    .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
+                    .forEach(entry -> sb.append("- ").append(entry.getKey())
+                            .append(": ").append(entry.getValue()).append("\n"));
             sb.append("\n");
-            int idx = 0;
-            for (Map.Entry<String, Integer> entry : result.missingFieldCounts.entrySet()) {
-                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
-                idx++;
-                sb.append(idx < result.missingFieldCounts.size() ? ",\n" : "\n");
+        }
+
+        if (!result.warningCategoryCounts.isEmpty()) {
+            sb.append("Warning categories:\n");
+            result.warningCategoryCounts.entrySet().stream()
+                    .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
+                    .forEach(entry -> sb.append("- ").append(entry.getKey())
+                            .append(": ").append(entry.getValue()).append("\n"));
+            sb.append("\n");
+        }
+
+        if (!result.reasonCounts.isEmpty()) {
+            sb.append("Top ineligibility reasons:\n");
+            result.reasonCounts.entrySet().stream()
+                    .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
+                    .forEach(entry -> sb.append("- ").append(entry.getKey())
+                            .append(": ").append(entry.getValue()).append("\n"));
+            sb.append("\n");
+        }
+
+        if (!result.warningCounts.isEmpty()) {
+            sb.append("Top warnings:\n");
+            result.warningCounts.entrySet().stream()
+                    .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
+                    .forEach(entry -> sb.append("- ").append(entry.getKey())
+                            .append(": ").append(entry.getValue()).append("\n"));
+            sb.append("\n");
+        }
+
+        if (result.reviewCount > 0) {
+            sb.append("Review flags: ").append(result.reviewCount)
+                    .append(" (").append(formatRate(result.reviewCount, result.totalRows)).append(")\n");
+            if (!result.reviewCounts.isEmpty()) {
+                sb.append("Top review flags:\n");
+                result.reviewCounts.entrySet().stream()
+                        .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
+                        .forEach(entry -> sb.append("- ").append(entry.getKey())
+                                .append(": ").append(entry.getValue()).append("\n"));
+                sb.append("\n");
+            }
+        }
+
+        if (!result.missingFieldCounts.isEmpty()) {
+            List<Map.Entry<String, Integer>> missingEntries = result.missingFieldCounts.entrySet().stream()
+                    .filter(entry -> entry.getValue() > 0)
+                    .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
+                    .toList();
+            if (!missingEntries.isEmpty()) {
+                sb.append("Field completeness (missing values):\n");
+                for (Map.Entry<String, Integer> entry : missingEntries) {
+                    sb.append("- ").append(entry.getKey())
+                            .append(": ").append(entry.getValue())
+                            .append(" (").append(formatRate(entry.getValue(), result.totalRows)).append(")\n");
+                }
+                sb.append("\n");
+            }
+        }
+
+        List<SegmentBreakdown> breakdowns = result.segments == null ? List.of() : result.segments.breakdowns();
+        for (SegmentBreakdown breakdown : breakdowns) {
+            if (breakdown.stats.isEmpty()) {
+                continue;
+            }
+            sb.append("Segment breakdown (").append(breakdown.crossField == null ? "field: " : "fields: ")
+                    .append(breakdown.label()).append("):\n");
+            for (SegmentStats stat : breakdown.stats) {
+                sb.append("- ").append(stat.label())
+                        .append(": total ").append(stat.total)
+                        .append(" | eligible ").append(stat.eligible)
+                        .append(" (").append(formatRate(stat.eligible, stat.total)).append(")")
+                        .append(" | ineligible ").append(stat.ineligible)
+                        .append(" (").append(formatRate(stat.ineligible, stat.total)).append(")")
+                        .append("\n");
+                drainTo(sb, out);
+            }
+            sb.append("\n");
+        }
+
+        if (!result.failures.isEmpty() && result.groupFailures) {
+            List<FailureGroup> groups = result.failureGroups().groups;
+            sb.append("Ineligible applicants by reason signature: (").append(groups.size()).append(" signatures");
+            if (result.failureLimit >= 0) {
+                sb.append(", showing ").append(result.failures.size());
+                if (result.failuresTruncated) {
+                    sb.append(" of ").append(result.ineligible);
+                }
+                sb.append(" applicants");
+            }
+            sb.append(")\n");
+            for (FailureGroup group : groups) {
+                sb.append("- ").append(String.join(", ", group.reasons)).append(": ").append(group.ids.size()).append("\n");
+                sb.append("  ").append(String.join(", ", group.ids)).append("\n");
+                drainTo(sb, out);
+            }
+            if (result.failuresTruncated) {
+                sb.append("... truncated\n");
+            }
+        } else if (!result.failures.isEmpty()) {
+            sb.append("Ineligible applicants:");
+            if (result.failureLimit >= 0) {
+                sb.append(" (showing ").append(result.failures.size());
+                if (result.failuresTruncated) {
+                    sb.append(" of ").append(result.ineligible);
+                }
+                sb.append(")");
+            }
+            sb.append("\n");
+            for (FailureRecord record : result.failures) {
+                sb.append("- ").append(record.id).append(": ")
+                        .append(String.join(", ", record.reasons)).append("\n");
+                drainTo(sb, out);
+            }
+            if (result.failuresTruncated) {
+                sb.append("... truncated\n");
+            }
+        }
+
+        if (!result.reviews.isEmpty()) {
+            sb.append("Review-flagged applicants:");
+            if (result.reviewLimit >= 0) {
+                sb.append(" (showing ").append(result.reviews.size());
+                if (result.reviewsTruncated) {
+                    sb.append(" of ").append(result.reviewCount);
+                }
+                sb.append(")");
+            }
+            sb.append("\n");
+            for (ReviewRecord record : result.reviews) {
+                sb.append("- ").append(record.id).append(": ")
+                        .append(String.join(", ", record.reasons)).append("\n");
+                drainTo(sb, out);
+            }
+            if (result.reviewsTruncated) {
+                sb.append("... truncated\n");
+            }
+        }
+
+        out.append(sb);
+    }
+
+    private static void renderJson(AuditResult result, Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"runName\": ").append(result.runName.isBlank() ? "null" : "\"" + escapeJson(result.runName) + "\"").append(",\n");
+        sb.append("  \"inputPath\": ").append(result.inputPath.isBlank() ? "null" : "\"" + escapeJson(result.inputPath) + "\"").append(",\n");
+        sb.append("  \"rulesPath\": ").append(result.rulesPath.isBlank() ? "null" : "\"" + escapeJson(result.rulesPath) + "\"").append(",\n");
+        sb.append("  \"totalApplicants\": ").append(result.totalRows).append(",\n");
+        sb.append("  \"eligible\": ").append(result.eligible).append(",\n");
+        sb.append("  \"eligibleRate\": ").append(formatRateValue(result.eligible, result.totalRows)).append(",\n");
+        sb.append("  \"ineligible\": ").append(result.ineligible).append(",\n");
+        sb.append("  \"ineligibleRate\": ").append(formatRateValue(result.ineligible, result.totalRows)).append(",\n");
+        sb.append("  \"warningApplicants\": ").append(result.warningApplicants).append(",\n");
+        sb.append("  \"warningRate\": ").append(formatRateValue(result.warningApplicants, result.totalRows)).append(",\n");
+        sb.append("  \"idField\": \"").append(escapeJson(result.idField)).append("\",\n");
+        sb.append("  \"failureLimit\": ").append(result.failureLimit).append(",\n");
+        sb.append("  \"failuresTruncated\": ").append(result.failuresTruncated).append(",\n");
+        sb.append("  \"reviewCount\": ").append(result.reviewCount).append(",\n");
+        sb.append("  \"reviewRate\": ").append(formatRateValue(result.reviewCount, result.totalRows)).append(",\n");
+        sb.append("  \"reviewLimit\": ").append(result.reviewLimit).append(",\n");
+        sb.append("  \"reviewsTruncated\": ").append(result.reviewsTruncated).append(",\n");
+        List<SegmentBreakdown> breakdowns = result.segments == null ? List.of() : result.segments.breakdowns();
+        sb.append("  \"segmentField\": ").append(breakdowns.isEmpty() ? "null" : "\"" + escapeJson(breakdowns.get(0).field) + "\"").append(",\n");
+        sb.append("  \"reasonCategories\": {");
+        if (!result.reasonCategoryCounts.isEmpty()) {
+            sb.append("\n");
+            int catIdx = 0;
+            for (Map.Entry<String, Integer> entry : result.reasonCategoryCounts.entrySet()) {
+                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
+                catIdx++;
+                sb.append(catIdx < result.reasonCategoryCounts.size() ? ",\n" : "\n");
+            }
+            sb.append("  ");
+        }
+        sb.append("},\n");
+        sb.append("  \"warningCategories\": {");
+        if (!result.warningCategoryCounts.isEmpty()) {
+            sb.append("\n");
+            int catIdx = 0;
+            for (Map.Entry<String, Integer> entry : result.warningCategoryCounts.entrySet()) {
+                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
+                catIdx++;
+                sb.append(catIdx < result.warningCategoryCounts.size() ? ",\n" : "\n");
+            }
+            sb.append("  ");
+        }
+        sb.append("},\n");
+        sb.append("  \"reasonCounts\": {");
+        if (!result.reasonCounts.isEmpty()) {
+            sb.append("\n");
+            int idx = 0;
+            for (Map.Entry<String, Integer> entry : result.reasonCounts.entrySet()) {
+                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
+                idx++;
+                sb.append(idx < result.reasonCounts.size() ? ",\n" : "\n");
+            }
+            sb.append("  ");
+        }
+        sb.append("},\n");
+        sb.append("  \"warningCounts\": {");
+        if (!result.warningCounts.isEmpty()) {
+            sb.append("\n");
+            int idx = 0;
+            for (Map.Entry<String, Integer> entry : result.warningCounts.entrySet()) {
+                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
+                idx++;
+                sb.append(idx < result.warningCounts.size() ? ",\n" : "\n");
+            }
+            sb.append("  ");
+        }
+        sb.append("},\n");
+        sb.append("  \"missingFieldCounts\": {");
+        if (!result.missingFieldCounts.isEmpty()) {
+            sb.append("\n");
+            int idx = 0;
+            for (Map.Entry<String, Integer> entry : result.missingFieldCounts.entrySet()) {
+                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
+                idx++;
+                sb.append(idx < result.missingFieldCounts.size() ? ",\n" : "\n");
+            }
+            sb.append("  ");
+        }
+        sb.append("},\n");
+        sb.append("  \"missingFieldRates\": {");
+        if (!result.missingFieldCounts.isEmpty()) {
+            sb.append("\n");
+            int idx = 0;
+            for (Map.Entry<String, Integer> entry : result.missingFieldCounts.entrySet()) {
+                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ")
+                        .append(formatRateValue(entry.getValue(), result.totalRows));
+                idx++;
+                sb.append(idx < result.missingFieldCounts.size() ? ",\n" : "\n");
+            }
+            sb.append("  ");
+        }
+        sb.append("},\n");
+        if (result.groupFailures) {
+            sb.append("  \"failureGroups\": [");
+            List<FailureGroup> groups = result.failureGroups().groups;
+            if (!groups.isEmpty()) {
+                sb.append("\n");
+                for (int g = 0; g < groups.size(); g++) {
+                    FailureGroup group = groups.get(g);
+                    sb.append("    {\"reasons\": ");
+                    appendJsonStrings(sb, group.reasons);
+                    sb.append(", \"count\": ").append(group.ids.size()).append(", \"ids\": ");
+                    appendJsonStrings(sb, group.ids);
+                    sb.append("}").append(g + 1 < groups.size() ? ",\n" : "\n");
+                    drainTo(sb, out);
+                }
+                sb.append("  ");
+            }
+        } else {
+            sb.append("  \"failures\": [");
+            if (!result.failures.isEmpty()) {
+                sb.append("\n");
+                int i = 0;
+                for (FailureRecord record : result.failures) {
+                    sb.append("    {\"id\": \"").append(escapeJson(record.id)).append("\", \"reasons\": [");
+                    for (int r = 0; r < record.reasons.size(); r++) {
+                        sb.append("\"").append(escapeJson(record.reasons.get(r))).append("\"");
+                        if (r + 1 < record.reasons.size()) {
+                            sb.append(", ");
+                        }
+                    }
+                    sb.append("]}");
+                    sb.append(++i < result.failures.size() ? ",\n" : "\n");
+                    drainTo(sb, out);
+                }
+                sb.append("  ");
+            }
+        }
+        sb.append("],\n");
+        sb.append("  \"reviewCounts\": {");
+        if (!result.reviewCounts.isEmpty()) {
+            sb.append("\n");
+            int idx = 0;
+            for (Map.Entry<String, Integer> entry : result.reviewCounts.entrySet()) {
+                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
+                idx++;
+                sb.append(idx < result.reviewCounts.size() ? ",\n" : "\n");
+            }
+            sb.append("  ");
+        }
+        sb.append("},\n");
+        sb.append("  \"reviews\": [");
+        if (!result.reviews.isEmpty()) {
+            sb.append("\n");
+            int i = 0;
+            for (ReviewRecord record : result.reviews) {
+                sb.append("    {\"id\": \"").append(escapeJson(record.id)).append("\", \"reasons\": [");
+                for (int r = 0; r < record.reasons.size(); r++) {
+                    sb.append("\"").append(escapeJson(record.reasons.get(r))).append("\"");
+                    if (r + 1 < record.reasons.size()) {
+                        sb.append(", ");
+                    }
+                }
+                sb.append("]}");
+                sb.append(++i < result.reviews.size() ? ",\n" : "\n");
+                drainTo(sb, out);
+            }
+            sb.append("  ");
+        }
+        sb.append("],\n");
+        sb.append("  \"segments\": ");
+        appendSegmentsJson(sb, "  ", breakdowns.isEmpty() ? List.of() : breakdowns.get(0).stats, out);
+        if (breakdowns.size() > 1) {
+            sb.append(",\n  \"segmentBreakdowns\": [\n");
+            for (int b = 0; b < breakdowns.size(); b++) {
+                SegmentBreakdown breakdown = breakdowns.get(b);
+                sb.append("    {\"field\": \"").append(escapeJson(breakdown.field)).append("\", \"crossField\": ")
+                        .append(breakdown.crossField == null ? "null" : "\"" + escapeJson(breakdown.crossField) + "\"")
+                        .append(", \"segments\": ");
+                appendSegmentsJson(sb, "    ", breakdown.stats, out);
+                sb.append("}").append(b + 1 < breakdowns.size() ? ",\n" : "\n");
+            }
+            sb.append("  ]");
+        }
+        sb.append("\n");
+        sb.append("}\n");
+        out.append(sb);
+    }
+
+    private static void renderComparison(RuleComparison comparison, String format, Writer out) throws IOException {
+        if (format.equals("json")) {
+            renderComparisonJson(comparison, out);
+        } else {
+            renderComparisonText(comparison, out);
+        }
+    }
+
+    private static void renderComparisonText(RuleComparison comparison, Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        List<AuditResult> results = comparison.results;
+        AuditResult baseline = results.get(0);
+        sb.append("Rule Set Comparison\n");
+        if (!comparison.inputPath.isBlank()) {
+            sb.append("Input: ").append(comparison.inputPath).append("\n");
+        }
+        sb.append("Total applicants: ").append(baseline.totalRows).append("\n\n");
+
+        sb.append("Rule sets:\n");
+        for (int l = 0; l < results.size(); l++) {
+            AuditResult result = results.get(l);
+            sb.append("- [").append(l + 1).append("] ").append(result.rulesPath).append(l == 0 ? " (baseline)" : "")
+                    .append(": eligible ").append(result.eligible).append(" (").append(formatRate(result.eligible, result.totalRows)).append(")")
+                    .append(" | ineligible ").append(result.ineligible).append(" (").append(formatRate(result.ineligible, result.totalRows)).append(")")
+                    .append(" | review ").append(result.reviewCount)
+                    .append(" | warnings ").append(result.warningApplicants).append("\n");
+        }
+        sb.append("\n");
+
+        LinkedHashMap<String, Boolean> reasons = new LinkedHashMap<>();
+        for (AuditResult result : results) {
+            addAll(reasons, result.reasonCounts.keySet());
+        }
+        if (!reasons.isEmpty()) {
+            sb.append("Reason counts (").append(ruleSetLabels(results.size())).append("):\n");
+            reasons.keySet().stream()
+                    .sorted((a, b) -> Integer.compare(maxCount(results, b), maxCount(results, a)))
+                    .forEach(reason -> {
+                        sb.append("- ").append(reason).append(": ");
+                        for (int l = 0; l < results.size(); l++) {
+                            sb.append(l == 0 ? "" : " | ").append(results.get(l).reasonCounts.getOrDefault(reason, 0));
+                        }
+                        sb.append("\n");
+                    });
+            sb.append("\n");
+        }
+
+        for (int t = 0; t < comparison.transitions.size(); t++) {
+            RuleTransition transition = comparison.transitions.get(t);
+            sb.append("Transitions [1] -> [").append(t + 2).append("] ").append(results.get(t + 1).rulesPath).append(":\n");
+            sb.append("- eligible -> eligible: ").append(transition.eligibleToEligible).append("\n");
+            sb.append("- eligible -> ineligible: ").append(transition.eligibleToIneligible).append("\n");
+            sb.append("- ineligible -> eligible: ").append(transition.ineligibleToEligible).append("\n");
+            sb.append("- ineligible -> ineligible: ").append(transition.ineligibleToIneligible).append("\n");
+            if (transition.eligibleToIneligible > 0) {
+                sb.append("Newly ineligible, by reason:\n");
+                appendSortedCounts(sb, transition.newlyIneligibleReasons);
+                sb.append("Newly ineligible sample: ").append(String.join(", ", transition.newlyIneligibleSample)).append("\n");
+            }
+            if (transition.ineligibleToEligible > 0) {
+                sb.append("Newly eligible, by cleared reason:\n");
+                appendSortedCounts(sb, transition.newlyEligibleReasons);
+                sb.append("Newly eligible sample: ").append(String.join(", ", transition.newlyEligibleSample)).append("\n");
+            }
+            sb.append("\n");
+        }
+        sb.setLength(sb.length() - 1);
+        out.append(sb);
+    }
+
+    private static void renderRouted(RoutedAudit routed, String format, Writer out) throws IOException {
+        if (format.equals("json")) {
+            renderRoutedJson(routed, out);
+        } else {
+            renderRoutedText(routed, out);
+        }
+    }
+
+    private static void renderRoutedText(RoutedAudit routed, Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int eligible = routed.eligible();
+        int ineligible = routed.ineligible();
+        sb.append("Routed Eligibility Audit\n");
+        if (!routed.inputPath.isBlank()) {
+            sb.append("Input: ").append(routed.inputPath).append("\n");
+        }
+        sb.append("Routes: ").append(routed.routesPath).append(" (field: ").append(routed.table.field).append(")\n");
+        sb.append("Total applicants: ").append(routed.totalRows).append("\n");
+        sb.append("Routed: ").append(routed.totalRows - routed.unrouted).append(" | unrouted: ").append(routed.unrouted).append("\n");
+        sb.append("Eligible: ").append(eligible).append(" (").append(formatRate(eligible, routed.totalRows)).append(")\n");
+        sb.append("Ineligible: ").append(ineligible).append(" (").append(formatRate(ineligible, routed.totalRows)).append(")\n\n");
+
+        sb.append("Programs:\n");
+        for (int p = 0; p < routed.results.size(); p++) {
+            AuditResult result = routed.results.get(p);
+            sb.append("- ").append(routed.table.programs.get(p).label).append(" (").append(result.rulesPath).append(")")
+                    .append(": total ").append(result.totalRows)
+                    .append(" | eligible ").append(result.eligible).append(" (").append(formatRate(result.eligible, result.totalRows)).append(")")
+                    .append(" | ineligible ").append(result.ineligible).append(" (").append(formatRate(result.ineligible, result.totalRows)).append(")")
+                    .append(" | review ").append(result.reviewCount).append("\n");
+        }
+        if (!routed.unroutedValues.isEmpty()) {
+            sb.append("\nUnrouted values:\n");
+            appendSortedCounts(sb, routed.unroutedValues);
+        }
+        Map<String, Integer> reasons = routed.reasonCounts();
+        if (!reasons.isEmpty()) {
+            sb.append("\nCombined reason counts:\n");
+            appendSortedCounts(sb, reasons);
+        }
+        out.append(sb);
+        for (int p = 0; p < routed.results.size(); p++) {
+            out.append("\n=== Program: ").append(routed.table.programs.get(p).label).append(" ===\n");
+            renderText(routed.results.get(p), out);
+            out.append("\n");
+        }
+    }
+
+    private static void renderRoutedJson(RoutedAudit routed, Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int eligible = routed.eligible();
+        int ineligible = routed.ineligible();
+        sb.append("{\n");
+        sb.append("  \"inputPath\": ").append(routed.inputPath.isBlank() ? "null" : "\"" + escapeJson(routed.inputPath) + "\"").append(",\n");
+        sb.append("  \"routesPath\": \"").append(escapeJson(routed.routesPath)).append("\",\n");
+        sb.append("  \"routeField\": \"").append(escapeJson(routed.table.field)).append("\",\n");
+        sb.append("  \"totalApplicants\": ").append(routed.totalRows).append(",\n");
+        sb.append("  \"routed\": ").append(routed.totalRows - routed.unrouted).append(",\n");
+        sb.append("  \"unrouted\": ").append(routed.unrouted).append(",\n");
+        sb.append("  \"eligible\": ").append(eligible).append(",\n");
+        sb.append("  \"eligibleRate\": ").append(formatRateValue(eligible, routed.totalRows)).append(",\n");
+        sb.append("  \"ineligible\": ").append(ineligible).append(",\n");
+        sb.append("  \"ineligibleRate\": ").append(formatRateValue(ineligible, routed.totalRows)).append(",\n");
+        sb.append("  \"unroutedValues\": ");
+        appendJsonCounts(sb, "  ", routed.unroutedValues);
+        sb.append(",\n  \"reasonCounts\": ");
+        appendJsonCounts(sb, "  ", routed.reasonCounts());
+        sb.append(",\n  \"programs\": [\n");
+        out.append(sb);
+        for (int p = 0; p < routed.results.size(); p++) {
+            RouteProgram program = routed.table.programs.get(p);
+            sb.setLength(0);
+            sb.append("    {\n");
+            sb.append("      \"program\": \"").append(escapeJson(program.label)).append("\",\n");
+            sb.append("      \"values\": ");
+            appendJsonStrings(sb, program.values);
+            sb.append(",\n      \"report\": ");
+            StringWriter report = new StringWriter();
+            renderJson(routed.results.get(p), report);
+            sb.append(report.toString().stripTrailing().replace("\n", "\n      "));
+            sb.append("\n    }").append(p + 1 < routed.results.size() ? ",\n" : "\n");
+            out.append(sb);
+        }
+        out.append("  ]\n}\n");
+    }
+
+    private static void renderComparisonJson(RuleComparison comparison, Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        List<AuditResult> results = comparison.results;
+        sb.append("{\n");
+        sb.append("  \"inputPath\": ").append(comparison.inputPath.isBlank() ? "null" : "\"" + escapeJson(comparison.inputPath) + "\"").append(",\n");
+        sb.append("  \"totalApplicants\": ").append(results.get(0).totalRows).append(",\n");
+        sb.append("  \"ruleSets\": [\n");
+        for (int l = 0; l < results.size(); l++) {
+            AuditResult result = results.get(l);
+            sb.append("    {\n");
+            sb.append("      \"rulesPath\": \"").append(escapeJson(result.rulesPath)).append("\",\n");
+            sb.append("      \"eligible\": ").append(result.eligible).append(",\n");
+            sb.append("      \"eligibleRate\": ").append(formatRateValue(result.eligible, result.totalRows)).append(",\n");
+            sb.append("      \"ineligible\": ").append(result.ineligible).append(",\n");
+            sb.append("      \"ineligibleRate\": ").append(formatRateValue(result.ineligible, result.totalRows)).append(",\n");
+            sb.append("      \"reviewCount\": ").append(result.reviewCount).append(",\n");
+            sb.append("      \"warningApplicants\": ").append(result.warningApplicants).append(",\n");
+            sb.append("      \"reasonCounts\": ");
+            appendJsonCounts(sb, "      ", result.reasonCounts);
+            sb.append("\n    }").append(l + 1 < results.size() ? ",\n" : "\n");
+        }
+        sb.append("  ],\n");
+        sb.append("  \"transitions\": [");
+        if (!comparison.transitions.isEmpty()) {
+            sb.append("\n");
+            for (int t = 0; t < comparison.transitions.size(); t++) {
+                RuleTransition transition = comparison.transitions.get(t);
+                sb.append("    {\n");
+                sb.append("      \"from\": \"").append(escapeJson(results.get(0).rulesPath)).append("\",\n");
+                sb.append("      \"to\": \"").append(escapeJson(results.get(t + 1).rulesPath)).append("\",\n");
+                sb.append("      \"eligibleToEligible\": ").append(transition.eligibleToEligible).append(",\n");
+                sb.append("      \"eligibleToIneligible\": ").append(transition.eligibleToIneligible).append(",\n");
+                sb.append("      \"ineligibleToEligible\": ").append(transition.ineligibleToEligible).append(",\n");
+                sb.append("      \"ineligibleToIneligible\": ").append(transition.ineligibleToIneligible).append(",\n");
+                sb.append("      \"newlyIneligibleReasons\": ");
+                appendJsonCounts(sb, "      ", transition.newlyIneligibleReasons);
+                sb.append(",\n      \"newlyEligibleReasons\": ");
+                appendJsonCounts(sb, "      ", transition.newlyEligibleReasons);
+                sb.append(",\n      \"newlyIneligibleSample\": ");
+                appendJsonStrings(sb, transition.newlyIneligibleSample);
+                sb.append(",\n      \"newlyEligibleSample\": ");
+                appendJsonStrings(sb, transition.newlyEligibleSample);
+                sb.append("\n    }").append(t + 1 < comparison.transitions.size() ? ",\n" : "\n");
+            }
+            sb.append("  ");
+        }
+        sb.append("]\n");
+        sb.append("}\n");
+        out.append(sb);
+    }
+
+    private static void appendSegmentsJson(StringBuilder sb, String indent, List<SegmentStats> stats, Writer out) throws IOException {
+        sb.append("[");
+        if (!stats.isEmpty()) {
+            sb.append("\n");
+            for (int i = 0; i < stats.size(); i++) {
+                SegmentStats stat = stats.get(i);
+                sb.append(indent).append("  {\"value\": \"").append(escapeJson(stat.value)).append("\",");
+                if (stat.crossValue != null) {
+                    sb.append(" \"crossValue\": \"").append(escapeJson(stat.crossValue)).append("\",");
+                }
+                sb.append(" \"total\": ").append(stat.total).append(",")
+                        .append(" \"eligible\": ").append(stat.eligible).append(",")
+                        .append(" \"eligibleRate\": ").append(formatRateValue(stat.eligible, stat.total)).append(",")
+                        .append(" \"ineligible\": ").append(stat.ineligible).append(",")
+                        .append(" \"ineligibleRate\": ").append(formatRateValue(stat.ineligible, stat.total)).append("}");
+                sb.append(i + 1 < stats.size() ? ",\n" : "\n");
+                drainTo(sb, out);
+            }
+            sb.append(indent);
+        }
+        sb.append("]");
+    }
+
+    private static String ruleSetLabels(int count) {
+        StringBuilder labels = new StringBuilder();
+        for (int l = 0; l < count; l++) {
+            labels.append(l == 0 ? "" : " | ").append("[").append(l + 1).append("]");
+        }
+        return labels.toString();
+    }
+
+    private static int maxCount(List<AuditResult> results, String reason) {
+        int max = 0;
+        for (AuditResult result : results) {
+            max = Math.max(max, result.reasonCounts.getOrDefault(reason, 0));
+        }
+        return max;
+    }
+
+    private static void appendSortedCounts(StringBuilder sb, Map<String, Integer> counts) {
+        counts.entrySet().stream()
+                .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
+                .forEach(entry -> sb.append("- ").append(entry.getKey())
+                        .append(": ").append(entry.getValue()).append("\n"));
+    }
+
+    private static void appendJsonCounts(StringBuilder sb, String indent, Map<String, Integer> counts) {
+        sb.append("{");
+        if (!counts.isEmpty()) {
+            sb.append("\n");
+            int idx = 0;
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                sb.append(indent).append("  \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
+                idx++;
+                sb.append(idx < counts.size() ? ",\n" : "\n");
+            }
+            sb.append(indent);
+        }
+        sb.append("}");
+    }
+
+    private static void appendJsonStrings(StringBuilder sb, List<String> values) {
+        sb.append("[");
+        for (int i = 0; i < values.size(); i++) {
+            sb.append("\"").append(escapeJson(values.get(i))).append("\"");
+            if (i + 1 < values.size()) {
+                sb.append(", ");
+            }
+        }
+        sb.append("]");
+    }
+
+    private static void logToDatabase(AuditResult result, String runName, Map<String, String> options) {
+        DbConfig config = DbConfig.fromEnv();
+        if (!config.enabled) {
+            System.err.println("DB logging requested but ELIGIBILITY_DB_URL is not set.");
+            return;
+        }
+        SpooledRun run = new SpooledRun(UUID.randomUUID().toString(), System.currentTimeMillis(), runName, result);
+        try {
+            DbSpool spool = DbSpool.open(spoolDirectory(options));
+            spool.append(run);
+            spoolFlusher(spool, config).requestFlush();
+        } catch (IOException e) {
+            System.err.println("DB logging failed: could not spool audit run: " + e.getMessage());
+        }
+    }
+
+    private static Path spoolDirectory(Map<String, String> options) {
+        String configured = options.get("spool-dir");
+        if (configured == null || configured.isBlank()) {
+            configured = System.getenv("ELIGIBILITY_DB_SPOOL");
+        }
+        return Path.of(configured == null || configured.isBlank() ? "reports/db-spool" : configured.trim());
+    }
+
+    private static synchronized SpoolFlusher spoolFlusher(DbSpool spool, DbConfig config) {
+        if (spoolFlusher == null) {
+            spoolFlusher = new SpoolFlusher(spool, config);
+        }
+        return spoolFlusher;
+    }
+
+    private static void awaitSpoolFlush(long waitMillis) {
+        SpoolFlusher flusher;
+        synchronized (EligibilityOracle.class) {
+            flusher = spoolFlusher;
+        }
+        if (flusher != null && !flusher.awaitIdle(waitMillis)) {
+            System.err.println("DB flush still pending; audit runs stay spooled in " + flusher.spool.dir + " (retry with --flush-spool).");
+        }
+    }
+
+    private static void flushSpool(Map<String, String> options) throws IOException {
+        DbConfig config = DbConfig.fromEnv();
+        if (!config.enabled) {
+            throw new IOException("ELIGIBILITY_DB_URL is not set.");
+        }
+        DbSpool spool = DbSpool.open(spoolDirectory(options));
+        int flushed = new SpoolFlusher(spool, config).flushOnce();
+        if (flushed < 0) {
+            throw new IOException("Spool flush failed; runs remain in " + spool.dir + ".");
+        }
+        System.err.println("Flushed " + flushed + " spooled audit run(s); " + spool.pendingBytes() + " byte(s) pending.");
+    }
+
+    private static void printHistory(Map<String, String> options) throws IOException {
+        DbConfig config = DbConfig.fromEnv();
+        if (!config.enabled) {
+            throw new IOException("ELIGIBILITY_DB_URL is not set.");
+        }
+        int days = Math.max(1, parseIntOption(options.get("days"), 28));
+        String bucket = options.getOrDefault("bucket", "day").toLowerCase(Locale.ROOT);
+        if (!bucket.equals("day") && !bucket.equals("week")) {
+            throw new IOException("--bucket must be day or week.");
+        }
+        String runName = options.get("run-name");
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        LocalDate since = today.minusDays(days - 1L);
+        HistoryReport report = new HistoryReport(since, today, bucket, runName);
+        try (Connection conn = openConnection(config)) {
+            conn.setAutoCommit(false);
+            ensureSchema(conn, config.schema);
+            conn.commit();
+            DbPhaseEvent phase = DbPhaseEvent.start("loadHistory", config.schema);
+            loadHistory(conn, config.schema, report, Math.max(1, parseIntOption(options.get("top"), 5)));
+            conn.commit();
+            phase.finish(0);
+        } catch (SQLException e) {
+            throw new IOException("History query failed: " + e.getMessage(), e);
+        }
+        String text = renderHistory(report);
+        if (options.containsKey("output")) {
+            writeReport(Path.of(options.get("output")), text);
+        } else {
+            System.out.println(text);
+        }
+    }
+
+    private static void loadHistory(Connection conn, String schema, HistoryReport report, int top) throws SQLException {
+        String period = report.bucket.equals("week") ? "date_trunc('week', day)::date" : "day";
+        String filter = " WHERE day >= ?" + (report.runName == null ? "" : " AND run_name = ?");
+        String totalsTable = report.runName == null ? "audit_rollup_daily" : "audit_rollup_run_names";
+        String totalsSql = "SELECT " + period + " AS period, SUM(runs), SUM(total_applicants), SUM(eligible), SUM(ineligible), " +
+                "SUM(warning_applicants), SUM(review_count) FROM " + schema + "." + totalsTable + filter +
+                " GROUP BY 1 ORDER BY 1";
+        try (PreparedStatement stmt = prepareHistoryQuery(conn, totalsSql, report)) {
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    HistoryPeriod row = new HistoryPeriod(rs.getObject(1, LocalDate.class));
+                    row.runs = rs.getLong(2);
+                    row.total = rs.getLong(3);
+                    row.eligible = rs.getLong(4);
+                    row.ineligible = rs.getLong(5);
+                    row.warnings = rs.getLong(6);
+                    row.reviews = rs.getLong(7);
+                    report.periods.put(row.period, row);
+                }
+            }
+        }
+        String reasonSql = "SELECT " + period + " AS period, reason, SUM(count) FROM " + schema + ".audit_rollup_reasons" + filter +
+                " GROUP BY 1, 2";
+        Map<String, Long> reasonTotals = new HashMap<>();
+        try (PreparedStatement stmt = prepareHistoryQuery(conn, reasonSql, report)) {
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    LocalDate key = rs.getObject(1, LocalDate.class);
+                    String reason = rs.getString(2);
+                    long count = rs.getLong(3);
+                    report.reasons.computeIfAbsent(reason, k -> new HashMap<>()).put(key, count);
+                    reasonTotals.merge(reason, count, Long::sum);
+                }
+            }
+        }
+        report.topReasons = reasonTotals.entrySet().stream()
+                .sorted((a, b) -> b.getValue().equals(a.getValue()) ? a.getKey().compareTo(b.getKey()) : Long.compare(b.getValue(), a.getValue()))
+                .limit(top)
+                .map(Map.Entry::getKey)
+                .toList();
+        report.reasonTotals = reasonTotals;
+        String completenessSql = "SELECT " + period + " AS period, field_name, SUM(missing_count), SUM(total_applicants) FROM " +
+                schema + ".audit_rollup_completeness" + filter + " GROUP BY 1, 2";
+        try (PreparedStatement stmt = prepareHistoryQuery(conn, completenessSql, report)) {
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    LocalDate key = rs.getObject(1, LocalDate.class);
+                    report.completeness.computeIfAbsent(rs.getString(2), k -> new HashMap<>())
+                            .put(key, new long[]{rs.getLong(3), rs.getLong(4)});
+                }
+            }
+        }
+    }
+
+    private static PreparedStatement prepareHistoryQuery(Connection conn, String sql, HistoryReport report) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        stmt.setObject(1, report.since);
+        if (report.runName != null) {
+            stmt.setString(2, report.runName);
+        }
+        return stmt;
+    }
+
+    private static String renderHistory(HistoryReport report) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Eligibility history (").append(report.since).append(" to ").append(report.until)
+                .append(" UTC, by ").append(report.bucket).append(")\n");
+        sb.append("Run name: ").append(report.runName == null ? "all" : report.runName).append("\n\n");
+        if (report.periods.isEmpty()) {
+            sb.append("No audit runs logged in this window.\n");
+            return sb.toString();
+        }
+        sb.append("Trend:\n");
+        for (HistoryPeriod row : report.periods.values()) {
+            sb.append("- ").append(row.period)
+                    .append(": runs ").append(row.runs)
+                    .append(" | applicants ").append(row.total)
+                    .append(" | eligible ").append(row.eligible)
+                    .append(" (").append(formatRate(row.eligible, row.total)).append(")")
+                    .append(" | warnings ").append(row.warnings)
+                    .append(" (").append(formatRate(row.warnings, row.total)).append(")")
+                    .append(" | reviews ").append(row.reviews)
+                    .append(" (").append(formatRate(row.reviews, row.total)).append(")")
+                    .append("\n");
+        }
+        sb.append("\n");
+        HistoryPeriod first = report.periods.values().iterator().next();
+        HistoryPeriod last = null;
+        for (HistoryPeriod row : report.periods.values()) {
+            last = row;
+        }
+        if (!report.topReasons.isEmpty()) {
+            sb.append("Top reasons (share of applicants, first -> last period):\n");
+            for (String reason : report.topReasons) {
+                Map<LocalDate, Long> counts = report.reasons.get(reason);
+                sb.append("- ").append(reason)
+                        .append(": ").append(report.reasonTotals.get(reason))
+                        .append(" | ").append(formatRate(counts.getOrDefault(first.period, 0L), first.total))
+                        .append(" -> ").append(formatRate(counts.getOrDefault(last.period, 0L), last.total))
+                        .append("\n");
+            }
+            sb.append("\n");
+        }
+        List<String> drifting = new ArrayList<>();
+        Map<String, Double> drift = new HashMap<>();
+        for (Map.Entry<String, Map<LocalDate, long[]>> entry : report.completeness.entrySet()) {
+            long[] from = entry.getValue().getOrDefault(first.period, new long[2]);
+            long[] to = entry.getValue().getOrDefault(last.period, new long[2]);
+            double change = missingRate(to) - missingRate(from);
+            if (from[0] > 0 || to[0] > 0) {
+                drifting.add(entry.getKey());
+                drift.put(entry.getKey(), change);
+            }
+        }
+        if (!drifting.isEmpty()) {
+            drifting.sort((a, b) -> Double.compare(Math.abs(drift.get(b)), Math.abs(drift.get(a))));
+            sb.append("Completeness drift (missing rate, first -> last period):\n");
+            for (String field : drifting) {
+                Map<LocalDate, long[]> counts = report.completeness.get(field);
+                long[] from = counts.getOrDefault(first.period, new long[2]);
+                long[] to = counts.getOrDefault(last.period, new long[2]);
+                sb.append("- ").append(field)
+                        .append(": ").append(formatRate(from[0], from[1]))
+                        .append(" -> ").append(formatRate(to[0], to[1]))
+                        .append(String.format(Locale.ROOT, " (%+.2f pts)", drift.get(field)))
+                        .append("\n");
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static double missingRate(long[] counts) {
+        return counts[1] == 0 ? 0.0 : (counts[0] * 100.0) / counts[1];
+    }
+
+    private static Connection openConnection(DbConfig config) throws SQLException {
+        Properties props = new Properties();
+        if (config.user != null && !config.user.isBlank()) {
+            props.setProperty("user", config.user);
+        }
+        if (config.password != null && !config.password.isBlank()) {
+            props.setProperty("password", config.password);
+        }
+        return DriverManager.getConnection(config.url, props);
+    }
+
+    private static long writeSpooledRun(Connection conn, String schema, SpooledRun run, Map<String, Integer> reasonIds) throws SQLException {
+        AuditResult result = run.result;
+        DbPhaseEvent phase = DbPhaseEvent.start("insertAuditRun", schema);
+        long runId = insertAuditRun(conn, schema, run);
+        phase.finish(1);
+        if (runId < 0) {
+            return -1;
+        }
+        phase = DbPhaseEvent.start("insertReasonCounts", schema);
+        insertReasonCounts(conn, schema, runId, result.reasonCounts, "audit_reason_counts", "reason");
+        insertReasonCounts(conn, schema, runId, result.reasonCategoryCounts, "audit_reason_categories", "category");
+        insertReasonCounts(conn, schema, runId, result.warningCounts, "audit_warning_counts", "warning");
+        insertReasonCounts(conn, schema, runId, result.warningCategoryCounts, "audit_warning_categories", "category");
+        insertReasonCounts(conn, schema, runId, result.reviewCounts, "audit_review_counts", "reason");
+        phase.finish(result.reasonCounts.size() + result.reasonCategoryCounts.size() + result.warningCounts.size()
+                + result.warningCategoryCounts.size() + result.reviewCounts.size());
+        phase = DbPhaseEvent.start("insertFieldCompleteness", schema);
+        insertFieldCompleteness(conn, schema, runId, result);
+        phase.finish(result.missingFieldCounts.size());
+        if (result.groupFailures) {
+            phase = DbPhaseEvent.start("insertFailureGroups", schema);
+            List<FailureGroup> groups = result.failureGroups().groups;
+            insertFailureGroups(conn, schema, runId, groups, reasonIds);
+            phase.finish(groups.size());
+        } else {
+            phase = DbPhaseEvent.start("insertFailures", schema);
+            insertFailures(conn, schema, runId, result.failures, reasonIds);
+            phase.finish(result.failures.size());
+        }
+        phase = DbPhaseEvent.start("insertReviews", schema);
+        insertReviews(conn, schema, runId, result.reviews, reasonIds);
+        phase.finish(result.reviews.size());
+        phase = DbPhaseEvent.start("insertSegments", schema);
+        insertSegments(conn, schema, runId, result);
+        phase.finish(0);
+        phase = DbPhaseEvent.start("updateRollups", schema);
+        updateRollups(conn, schema, run);
+        phase.finish(0);
+        return runId;
+    }
+
+    private static void ensureSchema(Connection conn, String schema) throws SQLException {
+        String cacheKey = conn.getMetaData().getURL() + "#" + schema;
+        if (MIGRATED_SCHEMAS.contains(cacheKey)) {
+            return;
+        }
+        DbPhaseEvent phase = DbPhaseEvent.start("ensureSchema", schema);
+        List<Migration> migrations;
+        try {
+            migrations = Migration.load(migrationsDirectory());
+        } catch (IOException e) {
+            throw new SQLException("Could not read schema migrations: " + e.getMessage(), e);
+        }
+        int latest = migrations.get(migrations.size() - 1).version;
+        if (schemaVersion(conn, schema) < latest) {
+            applyMigrations(conn, schema, migrations);
+        }
+        MIGRATED_SCHEMAS.add(cacheKey);
+        phase.finish(0);
+    }
+
+    private static int schemaVersion(Connection conn, String schema) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COALESCE(MAX(version), 0) FROM " + schema + ".schema_migrations");
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            if (!"42P01".equals(e.getSQLState()) && !"3F000".equals(e.getSQLState())) {
+                throw e;
+            }
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+            }
+            return 0;
+        }
+    }
+
+    private static void applyMigrations(Connection conn, String schema, List<Migration> migrations) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT pg_advisory_xact_lock(hashtext(?))")) {
+            stmt.setString(1, MIGRATION_LOCK_KEY);
+            stmt.execute();
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE SCHEMA IF NOT EXISTS " + schema);
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + schema + ".schema_migrations (" +
+                    "version INT PRIMARY KEY," +
+                    "name TEXT NOT NULL," +
+                    "applied_at TIMESTAMPTZ NOT NULL DEFAULT now()" +
+                    ")");
+        }
+        int applied = schemaVersion(conn, schema);
+        for (Migration migration : migrations) {
+            if (migration.version <= applied) {
+                continue;
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(migration.sql.replace("{schema}", schema));
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO " + schema + ".schema_migrations (version, name) VALUES (?, ?)")) {
+                stmt.setInt(1, migration.version);
+                stmt.setString(2, migration.name);
+                stmt.executeUpdate();
+            }
+            System.err.println("Applied schema migration " + migration.name + ".");
+        }
+    }
+
+    private static Path migrationsDirectory() {
+        String configured = System.getenv("ELIGIBILITY_DB_MIGRATIONS");
+        if (configured != null && !configured.isBlank()) {
+            return Path.of(configured.trim());
+        }
+        Path local = Path.of("db", "migrations");
+        if (Files.isDirectory(local)) {
+            return local;
+        }
+        try {
+            Path codeLocation = Path.of(EligibilityOracle.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            Path bundled = codeLocation.toAbsolutePath().getParent().resolve("db").resolve("migrations");
+            if (Files.isDirectory(bundled)) {
+                return bundled;
+            }
+        } catch (URISyntaxException | RuntimeException e) {
+            // fall back to the working directory
+        }
+        return local;
+    }
+
+    private static long insertAuditRun(Connection conn, String schema, SpooledRun run) throws SQLException {
+        AuditResult result = run.result;
+        double eligibleRate = result.totalRows == 0 ? 0.0 : (result.eligible * 1.0) / result.totalRows;
+        double ineligibleRate = result.totalRows == 0 ? 0.0 : (result.ineligible * 1.0) / result.totalRows;
+        double warningRate = result.totalRows == 0 ? 0.0 : (result.warningApplicants * 1.0) / result.totalRows;
+        double reviewRate = result.totalRows == 0 ? 0.0 : (result.reviewCount * 1.0) / result.totalRows;
+        String sql = "INSERT INTO " + schema + ".audit_runs " +
+                "(run_at, run_name, input_file, rules_file, total_applicants, eligible, ineligible, eligible_rate, ineligible_rate, warning_applicants, warning_rate, review_count, review_rate, id_field, failure_limit, failures_truncated, review_limit, reviews_truncated, run_key) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (run_key) DO NOTHING RETURNING id";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setObject(1, OffsetDateTime.ofInstant(Instant.ofEpochMilli(run.runAt), ZoneId.systemDefault()));
+            stmt.setString(2, run.runName);
+            stmt.setString(3, result.inputPath);
+            stmt.setString(4, result.rulesPath);
+            stmt.setInt(5, result.totalRows);
+            stmt.setInt(6, result.eligible);
+            stmt.setInt(7, result.ineligible);
+            stmt.setBigDecimal(8, BigDecimal.valueOf(eligibleRate));
+            stmt.setBigDecimal(9, BigDecimal.valueOf(ineligibleRate));
+            stmt.setInt(10, result.warningApplicants);
+            stmt.setBigDecimal(11, BigDecimal.valueOf(warningRate));
+            stmt.setInt(12, result.reviewCount);
+            stmt.setBigDecimal(13, BigDecimal.valueOf(reviewRate));
+            stmt.setString(14, result.idField);
+            if (result.failureLimit >= 0) {
+                stmt.setInt(15, result.failureLimit);
+            } else {
+                stmt.setNull(15, Types.INTEGER);
+            }
+            stmt.setBoolean(16, result.failuresTruncated);
+            if (result.reviewLimit >= 0) {
+                stmt.setInt(17, result.reviewLimit);
+            } else {
+                stmt.setNull(17, Types.INTEGER);
+            }
+            stmt.setBoolean(18, result.reviewsTruncated);
+            stmt.setString(19, run.runKey);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void insertReasonCounts(Connection conn, String schema, long runId, Map<String, Integer> counts, String table, String keyColumn) throws SQLException {
+        if (counts.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO " + schema + "." + table + " (run_id, " + keyColumn + ", count) VALUES (?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                stmt.setLong(1, runId);
+                stmt.setString(2, entry.getKey());
+                stmt.setInt(3, entry.getValue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static void insertFieldCompleteness(Connection conn, String schema, long runId, AuditResult result) throws SQLException {
+        if (result.missingFieldCounts.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO " + schema + ".audit_field_completeness (run_id, field_name, missing_count, missing_rate) VALUES (?, ?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (Map.Entry<String, Integer> entry : result.missingFieldCounts.entrySet()) {
+                stmt.setLong(1, runId);
+                stmt.setString(2, entry.getKey());
+                stmt.setInt(3, entry.getValue());
+                double missingRate = result.totalRows == 0 ? 0.0 : (entry.getValue() * 1.0) / result.totalRows;
+                stmt.setBigDecimal(4, BigDecimal.valueOf(missingRate));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static void insertFailures(Connection conn, String schema, long runId, RecordList<FailureRecord> failures, Map<String, Integer> reasonIds) throws SQLException {
+        List<String> ids = new ArrayList<>(failures.size());
+        List<List<String>> reasons = new ArrayList<>(failures.size());
+        for (FailureRecord record : failures) {
+            ids.add(record.id);
+            reasons.add(record.reasons);
+        }
+        insertReasonFacts(conn, schema, runId, "audit_failure_reasons", ids, reasons, reasonIds);
+    }
+
+    private static void insertFailureGroups(Connection conn, String schema, long runId, List<FailureGroup> groups, Map<String, Integer> reasonIds) throws SQLException {
+        if (groups.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO " + schema + ".audit_failure_groups (run_id, signature_id, applicants) VALUES (?, ?, ?)";
+        String memberSql = "INSERT INTO " + schema + ".audit_failure_group_members (run_id, signature_id, applicant_id) VALUES (?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             PreparedStatement members = conn.prepareStatement(memberSql)) {
+            int[] signatureIds = new int[groups.size()];
+            for (int g = 0; g < groups.size(); g++) {
+                FailureGroup group = groups.get(g);
+                Integer[] signature = new Integer[group.reasons.size()];
+                for (int r = 0; r < signature.length; r++) {
+                    String reason = group.reasons.get(r);
+                    if (!reasonIds.containsKey(reason)) {
+                        reasonIds.put(reason, upsertReason(conn, schema, reason));
+                    }
+                    signature[r] = reasonIds.get(reason);
+                }
+                signatureIds[g] = upsertSignature(conn, schema, signature);
+                stmt.setLong(1, runId);
+                stmt.setInt(2, signatureIds[g]);
+                stmt.setInt(3, group.ids.size());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            for (int g = 0; g < groups.size(); g++) {
+                for (String id : groups.get(g).ids) {
+                    members.setLong(1, runId);
+                    members.setInt(2, signatureIds[g]);
+                    members.setString(3, id);
+                    members.addBatch();
+                }
+            }
+            members.executeBatch();
+        }
+    }
+
+    private static void insertReviews(Connection conn, String schema, long runId, RecordList<ReviewRecord> reviews, Map<String, Integer> reasonIds) throws SQLException {
+        List<String> ids = new ArrayList<>(reviews.size());
+        List<List<String>> reasons = new ArrayList<>(reviews.size());
+        for (ReviewRecord record : reviews) {
+            ids.add(record.id);
+            reasons.add(record.reasons);
+        }
+        insertReasonFacts(conn, schema, runId, "audit_review_reasons", ids, reasons, reasonIds);
+    }
+
+    private static void insertReasonFacts(Connection conn, String schema, long runId, String table, List<String> ids,
+                                          List<List<String>> reasons, Map<String, Integer> reasonIds) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        for (List<String> list : reasons) {
+            for (String reason : list) {
+                if (!reasonIds.containsKey(reason)) {
+                    reasonIds.put(reason, upsertReason(conn, schema, reason));
+                }
+            }
+        }
+        String sql = "INSERT INTO " + schema + "." + table + " (run_id, entry, applicant_id, position, reason_id) VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < ids.size(); i++) {
+                List<String> list = reasons.get(i);
+                for (int position = 0; position < list.size(); position++) {
+                    stmt.setLong(1, runId);
+                    stmt.setInt(2, i + 1);
+                    stmt.setString(3, ids.get(i));
+                    stmt.setShort(4, (short) (position + 1));
+                    stmt.setInt(5, reasonIds.get(list.get(position)));
+                    stmt.addBatch();
+                }
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static void updateRollups(Connection conn, String schema, SpooledRun run) throws SQLException {
+        AuditResult result = run.result;
+        LocalDate day = Instant.ofEpochMilli(run.runAt).atZone(ZoneOffset.UTC).toLocalDate();
+        String runName = run.runName == null ? "" : run.runName;
+        String totals = "runs = r.runs + 1, " +
+                "total_applicants = r.total_applicants + EXCLUDED.total_applicants, " +
+                "eligible = r.eligible + EXCLUDED.eligible, " +
+                "ineligible = r.ineligible + EXCLUDED.ineligible, " +
+                "warning_applicants = r.warning_applicants + EXCLUDED.warning_applicants, " +
+                "review_count = r.review_count + EXCLUDED.review_count";
+        String dailySql = "INSERT INTO " + schema + ".audit_rollup_daily AS r " +
+                "(day, runs, total_applicants, eligible, ineligible, warning_applicants, review_count) " +
+                "VALUES (?, 1, ?, ?, ?, ?, ?) ON CONFLICT (day) DO UPDATE SET " + totals;
+        try (PreparedStatement stmt = conn.prepareStatement(dailySql)) {
+            stmt.setObject(1, day);
+            setRollupTotals(stmt, 2, result);
+            stmt.executeUpdate();
+        }
+        String runNameSql = "INSERT INTO " + schema + ".audit_rollup_run_names AS r " +
+                "(run_name, day, runs, total_applicants, eligible, ineligible, warning_applicants, review_count) " +
+                "VALUES (?, ?, 1, ?, ?, ?, ?, ?) ON CONFLICT (run_name, day) DO UPDATE SET " + totals;
+        try (PreparedStatement stmt = conn.prepareStatement(runNameSql)) {
+            stmt.setString(1, runName);
+            stmt.setObject(2, day);
+            setRollupTotals(stmt, 3, result);
+            stmt.executeUpdate();
+        }
+        if (!result.reasonCounts.isEmpty()) {
+            String reasonSql = "INSERT INTO " + schema + ".audit_rollup_reasons AS r (day, run_name, reason, count) " +
+                    "VALUES (?, ?, ?, ?) ON CONFLICT (day, run_name, reason) DO UPDATE SET count = r.count + EXCLUDED.count";
+            try (PreparedStatement stmt = conn.prepareStatement(reasonSql)) {
+                for (Map.Entry<String, Integer> entry : result.reasonCounts.entrySet()) {
+                    stmt.setObject(1, day);
+                    stmt.setString(2, runName);
+                    stmt.setString(3, entry.getKey());
+                    stmt.setLong(4, entry.getValue());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        }
+        if (!result.missingFieldCounts.isEmpty()) {
+            String completenessSql = "INSERT INTO " + schema + ".audit_rollup_completeness AS r " +
+                    "(day, run_name, field_name, missing_count, total_applicants) VALUES (?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (day, run_name, field_name) DO UPDATE SET " +
+                    "missing_count = r.missing_count + EXCLUDED.missing_count, " +
+                    "total_applicants = r.total_applicants + EXCLUDED.total_applicants";
+            try (PreparedStatement stmt = conn.prepareStatement(completenessSql)) {
+                for (Map.Entry<String, Integer> entry : result.missingFieldCounts.entrySet()) {
+                    stmt.setObject(1, day);
+                    stmt.setString(2, runName);
+                    stmt.setString(3, entry.getKey());
+                    stmt.setLong(4, entry.getValue());
+                    stmt.setLong(5, result.totalRows);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        }
+    }
+
+    private static void setRollupTotals(PreparedStatement stmt, int index, AuditResult result) throws SQLException {
+        stmt.setLong(index, result.totalRows);
+        stmt.setLong(index + 1, result.eligible);
+        stmt.setLong(index + 2, result.ineligible);
+        stmt.setLong(index + 3, result.warningApplicants);
+        stmt.setLong(index + 4, result.reviewCount);
+    }
+
+    private static int upsertReason(Connection conn, String schema, String reason) throws SQLException {
+        String sql = "INSERT INTO " + schema + ".audit_reasons (reason) VALUES (?) " +
+                "ON CONFLICT (reason) DO UPDATE SET reason = EXCLUDED.reason RETURNING id";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, reason);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Reason upsert returned no id for " + reason);
+                }
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private static int upsertSignature(Connection conn, String schema, Integer[] reasonIds) throws SQLException {
+        String sql = "INSERT INTO " + schema + ".audit_signatures (reason_ids) VALUES (?) " +
+                "ON CONFLICT (reason_ids) DO UPDATE SET reason_ids = EXCLUDED.reason_ids RETURNING id";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, conn.createArrayOf("int4", reasonIds));
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Signature upsert returned no id for " + Arrays.toString(reasonIds));
+                }
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private static void insertSegments(Connection conn, String schema, long runId, AuditResult result) throws SQLException {
+        if (result.segments == null) {
+            return;
+        }
+        String sql = "INSERT INTO " + schema + ".audit_segments " +
+                "(run_id, segment_field, segment_value, cross_field, cross_value, total, eligible, ineligible, eligible_rate, ineligible_rate) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (SegmentBreakdown breakdown : result.segments.breakdowns()) {
+                for (SegmentStats stat : breakdown.stats) {
+                    double eligibleRate = stat.total == 0 ? 0.0 : (stat.eligible * 1.0) / stat.total;
+                    double ineligibleRate = stat.total == 0 ? 0.0 : (stat.ineligible * 1.0) / stat.total;
+                    stmt.setLong(1, runId);
+                    stmt.setString(2, breakdown.field);
+                    stmt.setString(3, stat.value);
+                    stmt.setString(4, breakdown.crossField);
+                    stmt.setString(5, stat.crossValue);
+                    stmt.setInt(6, stat.total);
+                    stmt.setInt(7, stat.eligible);
+                    stmt.setInt(8, stat.ineligible);
+                    stmt.setBigDecimal(9, BigDecimal.valueOf(eligibleRate));
+                    stmt.setBigDecimal(10, BigDecimal.valueOf(ineligibleRate));
+                    stmt.addBatch();
+                }
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static String escapeJson(String value) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default: sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+
+    private interface RowSource extends AutoCloseable {
+        boolean next() throws IOException;
+
+        int fieldCount();
+
+        String field(int index);
+
+        long offset();
+
+        void seek(long offset) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static class QueryRowSource implements RowSource {
+        static final int DEFAULT_FETCH_SIZE = 10_000;
+
+        private final Connection conn;
+        private final Statement stmt;
+        private final ResultSet rs;
+        private final String[] fields;
+        private boolean header = true;
+        private long rows;
+
+        private QueryRowSource(Connection conn, Statement stmt, ResultSet rs) throws SQLException {
+            this.conn = conn;
+            this.stmt = stmt;
+            this.rs = rs;
+            ResultSetMetaData meta = rs.getMetaData();
+            fields = new String[meta.getColumnCount()];
+            for (int c = 0; c < fields.length; c++) {
+                fields[c] = meta.getColumnLabel(c + 1);
+            }
+        }
+
+        static QueryRowSource open(DbConfig config, String query, int fetchSize) throws IOException {
+            Connection conn = null;
+            try {
+                conn = openConnection(config);
+                conn.setAutoCommit(false);
+                conn.setReadOnly(true);
+                Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                stmt.setFetchSize(fetchSize);
+                return new QueryRowSource(conn, stmt, stmt.executeQuery(query));
+            } catch (SQLException e) {
+                if (conn != null) {
+                    try {
+                        conn.close();
+                    } catch (SQLException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                }
+                throw new IOException("Input query failed: " + e.getMessage(), e);
+            }
+        }
+
+        static void copyOut(DbConfig config, String copySql, OutputStream out) throws IOException {
+            try (Connection conn = openConnection(config)) {
+                conn.setAutoCommit(false);
+                Class<?> pgConnection = Class.forName("org.postgresql.PGConnection");
+                Object copyApi = pgConnection.getMethod("getCopyAPI").invoke(conn.unwrap(pgConnection));
+                Class.forName("org.postgresql.copy.CopyManager").getMethod("copyOut", String.class, OutputStream.class)
+                        .invoke(copyApi, copySql, out);
+                conn.rollback();
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+            } catch (SQLException | ReflectiveOperationException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (header) {
+                header = false;
+                return true;
+            }
+            try {
+                if (!rs.next()) {
+                    return false;
+                }
+                for (int c = 0; c < fields.length; c++) {
+                    String value = rs.getString(c + 1);
+                    fields[c] = value == null ? "" : value;
+                }
+                rows++;
+                return true;
+            } catch (SQLException e) {
+                throw new IOException("Input query failed after " + rows + " rows: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public int fieldCount() {
+            return fields.length;
+        }
+
+        @Override
+        public String field(int index) {
+            return fields[index];
+        }
+
+        @Override
+        public long offset() {
+            return 0;
+        }
+
+        @Override
+        public void seek(long offset) throws IOException {
+            throw new IOException("Query input cannot be repositioned.");
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (Connection closing = conn) {
+                try {
+                    rs.close();
+                } finally {
+                    stmt.close();
+                }
+                closing.rollback();
+            } catch (SQLException e) {
+                throw new IOException("Could not close the input query: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static class CsvRowReader implements RowSource {
+        private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+        private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+        private static final long COMMAS = 0x2C2C2C2C2C2C2C2CL;
+        private static final long QUOTES = 0x2222222222222222L;
+        private static final long LINE_FEEDS = 0x0A0A0A0A0A0A0A0AL;
+        private static final long CARRIAGE_RETURNS = 0x0D0D0D0D0D0D0D0DL;
+
+        private final InputStream in;
+        private byte[] buffer = new byte[1 << 20];
+        private long base;
+        private int pos;
+        private int limit;
+        private boolean eof;
+        private int scanned;
+        private int[] commas = new int[64];
+        private int commaCount;
+        private boolean quoted;
+        private String[] fields = new String[64];
+        private int fieldCount;
+
+        CsvRowReader(InputStream in) {
+            this.in = in;
+        }
+
+        static CsvRowReader open(Path path) throws IOException {
+            return new CsvRowReader(openInput(path));
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            while (true) {
+                int end = scanLine();
+                if (end >= 0) {
+                    int next = end + 1;
+                    if (buffer[end] == '\r') {
+                        if (next == limit && !eof) {
+                            fill();
+                            continue;
+                        }
+                        if (next < limit && buffer[next] == '\n') {
+                            next++;
+                        }
+                    }
+                    materialize(pos, end);
+                    startLine(next);
+                    return true;
+                }
+                if (eof) {
+                    if (pos >= limit) {
+                        return false;
+                    }
+                    materialize(pos, limit);
+                    startLine(limit);
+                    return true;
+                }
+                fill();
+            }
+        }
+
+        @Override
+        public int fieldCount() {
+            return fieldCount;
+        }
+
+        @Override
+        public long offset() {
+            return base + pos;
+        }
+
+        @Override
+        public void seek(long offset) throws IOException {
+            if (offset < offset()) {
+                throw new IOException("Cannot seek backwards in the input.");
+            }
+            if (offset <= base + limit) {
+                startLine((int) (offset - base));
+                return;
+            }
+            in.skipNBytes(offset - base - limit);
+            base = offset;
+            limit = 0;
+            startLine(0);
+        }
+
+        @Override
+        public String field(int index) {
+            return fields[index];
+        }
+
+        // Resumes from where the previous call stopped, so a line that arrives over
+        // many fills is scanned once rather than once per fill.
+        private int scanLine() {
+            byte[] buf = buffer;
+            int i = scanned;
+            for (; i + 8 <= limit; i += 8) {
+                long word = (long) LONGS.get(buf, i);
+                long lineEnds = matches(word, LINE_FEEDS) | matches(word, CARRIAGE_RETURNS);
+                long commaBits = matches(word, COMMAS);
+                long quoteBits = matches(word, QUOTES);
+                if (lineEnds != 0) {
+                    long before = (lineEnds & -lineEnds) - 1;
+                    commaBits &= before;
+                    quoteBits &= before;
+                }
+                quoted |= quoteBits != 0;
+                while (commaBits != 0) {
+                    addComma(i + (Long.numberOfTrailingZeros(commaBits) >>> 3));
+                    commaBits &= commaBits - 1;
+                }
+                if (lineEnds != 0) {
+                    scanned = i + (Long.numberOfTrailingZeros(lineEnds) >>> 3);
+                    return scanned;
+                }
+            }
+            for (; i < limit; i++) {
+                byte b = buf[i];
+                if (b == '\n' || b == '\r') {
+                    scanned = i;
+                    return i;
+                }
+                if (b == ',') {
+                    addComma(i);
+                } else if (b == '"') {
+                    quoted = true;
+                }
+            }
+            scanned = i;
+            return -1;
+        }
+
+        private void startLine(int at) {
+            pos = at;
+            scanned = at;
+            commaCount = 0;
+            quoted = false;
+        }
+
+        private static long matches(long word, long pattern) {
+            long x = word ^ pattern;
+            return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+        }
+
+        private void addComma(int index) {
+            if (commaCount == commas.length) {
+                commas = Arrays.copyOf(commas, commaCount * 2);
+            }
+            commas[commaCount++] = index;
+        }
+
+        private void materialize(int start, int end) {
+            if (quoted) {
+                List<String> values = parseCsvLine(new String(buffer, start, end - start, StandardCharsets.UTF_8));
+                ensureFields(values.size());
+                fieldCount = values.size();
+                for (int f = 0; f < fieldCount; f++) {
+                    fields[f] = values.get(f);
+                }
+                return;
+            }
+            fieldCount = commaCount + 1;
+            ensureFields(fieldCount);
+            int from = start;
+            for (int f = 0; f < commaCount; f++) {
+                fields[f] = decode(from, commas[f]);
+                from = commas[f] + 1;
+            }
+            fields[commaCount] = decode(from, end);
+        }
+
+        private String decode(int from, int to) {
+            return from == to ? "" : new String(buffer, from, to - from, StandardCharsets.UTF_8);
+        }
+
+        private void ensureFields(int size) {
+            if (size > fields.length) {
+                fields = Arrays.copyOf(fields, Math.max(size, fields.length * 2));
+            }
+        }
+
+        private void fill() throws IOException {
+            if (pos > 0) {
+                System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+                for (int c = 0; c < commaCount; c++) {
+                    commas[c] -= pos;
+                }
+                base += pos;
+                limit -= pos;
+                scanned -= pos;
+                pos = 0;
+            }
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static class PrefetchInputStream extends InputStream {
+        static final int CHUNK_SIZE = 1 << 16;
+        private static final int QUEUE_CHUNKS = 16;
+        private static final byte[] END = new byte[0];
+
+        interface Producer {
+            void produce(OutputStream out) throws IOException;
+        }
+
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+        private final String failureMessage;
+        private final Thread worker;
+        private volatile IOException failure;
+        private volatile boolean closed = false;
+        private byte[] current;
+        private int position;
+        private boolean finished = false;
+
+        PrefetchInputStream(String threadName, String failureMessage, Producer producer) {
+            this.failureMessage = failureMessage;
+            worker = new Thread(() -> produce(producer), threadName);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        private void produce(Producer producer) {
+            OutputStream chunks = new OutputStream() {
+                private byte[] chunk = new byte[CHUNK_SIZE];
+                private int size;
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] data, int offset, int length) throws IOException {
+                    while (length > 0) {
+                        int count = Math.min(length, CHUNK_SIZE - size);
+                        System.arraycopy(data, offset, chunk, size, count);
+                        size += count;
+                        offset += count;
+                        length -= count;
+                        if (size == CHUNK_SIZE) {
+                            flush();
+                        }
+                    }
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    if (size == 0) {
+                        return;
+                    }
+                    if (closed) {
+                        throw new IOException("Input closed.");
+                    }
+                    try {
+                        queue.put(size == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, size));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while prefetching input.");
+                    }
+                    chunk = new byte[CHUNK_SIZE];
+                    size = 0;
+                }
+            };
+            try {
+                producer.produce(chunks);
+                chunks.flush();
+            } catch (IOException e) {
+                failure = e;
+            }
+            if (closed) {
+                return;
+            }
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private boolean fill() throws IOException {
+            if (finished) {
+                return false;
+            }
+            if (current != null && position < current.length) {
+                return true;
+            }
+            try {
+                current = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for prefetched input.", e);
+            }
+            position = 0;
+            if (current == END) {
+                finished = true;
+                if (failure != null) {
+                    throw new IOException(failureMessage + ": " + failure.getMessage(), failure);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            worker.interrupt();
+            queue.clear();
+        }
+    }
+
+    private interface VerdictSink extends AutoCloseable {
+        void accept(RowRecord record) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static class QueuedVerdictSink implements VerdictSink {
+        private static final int BATCH_SIZE = 1024;
+        private static final int QUEUE_BATCHES = 32;
+        private static final List<RowRecord> END = new ArrayList<>();
+
+        private final VerdictSink delegate;
+        private final BlockingQueue<List<RowRecord>> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        private final Thread worker;
+        private volatile IOException failure;
+        private List<RowRecord> batch = new ArrayList<>(BATCH_SIZE);
+
+        QueuedVerdictSink(VerdictSink delegate, String name) {
+            this.delegate = delegate;
+            worker = new Thread(this::drain, "verdict-sink-" + name);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        private void drain() {
+            while (true) {
+                List<RowRecord> records;
+                try {
+                    records = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (records == END) {
+                    return;
+                }
+                if (failure != null) {
+                    continue;
+                }
+                try {
+                    for (RowRecord record : records) {
+                        delegate.accept(record);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    failure = new IOException(e.getMessage(), e);
+                }
+            }
+        }
+
+        @Override
+        public void accept(RowRecord record) throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            batch.add(record);
+            if (batch.size() == BATCH_SIZE) {
+                put(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+
+        private void put(List<RowRecord> records) throws IOException {
+            try {
+                queue.put(records);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queueing verdicts.");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!batch.isEmpty()) {
+                    put(batch);
+                    batch = new ArrayList<>();
+                }
+                put(END);
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing verdicts.");
+            } finally {
+                delegate.close();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static class FanOutVerdictSink implements VerdictSink {
+        private final List<VerdictSink> sinks;
+
+        FanOutVerdictSink(List<VerdictSink> sinks) {
+            this.sinks = sinks;
+        }
+
+        @Override
+        public void accept(RowRecord record) throws IOException {
+            for (VerdictSink sink : sinks) {
+                sink.accept(record);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (VerdictSink sink : sinks) {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static class ReportTarget {
+        final String format;
+        final Path path;
+
+        ReportTarget(String format, Path path) {
+            this.format = format;
+            this.path = path;
+        }
+    }
+
+    private interface ReportRenderer {
+        void render(String format, Writer out) throws IOException;
+    }
+
+    private interface SinkTask {
+        void run() throws IOException;
+    }
+
+    private static class SinkPipeline {
+        private final List<String> names = new ArrayList<>();
+        private final List<SinkTask> tasks = new ArrayList<>();
+
+        void add(String name, SinkTask task) {
+            names.add(name);
+            tasks.add(task);
+        }
+
+        void run() throws IOException {
+            if (tasks.size() == 1) {
+                tasks.get(0).run();
+                return;
+            }
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < tasks.size(); t++) {
+                SinkTask task = tasks.get(t);
+                Thread thread = new Thread(() -> {
+                    try {
+                        task.run();
+                    } catch (IOException | RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }, "sink-" + names.get(t));
+                thread.start();
+                threads.add(thread);
+            }
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing reports.");
+            }
+            Throwable error = failure.get();
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+        }
+    }
+
+    private static class NdjsonVerdictSink implements VerdictSink {
+        private static final int BUFFER_SIZE = 1 << 20;
+
+        private final Writer writer;
+        private final StringBuilder line = new StringBuilder(256);
+
+        NdjsonVerdictSink(Path path) throws IOException {
+            this.writer = openOutput(path, BUFFER_SIZE);
+        }
+
+        @Override
+        public void accept(RowRecord record) throws IOException {
+            line.setLength(0);
+            line.append("{\"row\": ").append(record.row)
+                    .append(", \"id\": \"").append(escapeJson(record.id)).append("\"")
+                    .append(", \"verdict\": \"").append(record.reasons.isEmpty() ? "eligible" : "ineligible").append("\"");
+            appendJsonArray(line.append(", \"reasons\": "), record.reasons);
+            appendJsonArray(line.append(", \"warnings\": "), record.warningReasons);
+            appendJsonArray(line.append(", \"reviews\": "), record.reviewReasons);
+            line.append("}\n");
+            writer.append(line);
+        }
+
+        private static void appendJsonArray(StringBuilder sb, List<String> values) {
+            sb.append('[');
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append('"').append(escapeJson(values.get(i))).append('"');
+            }
+            sb.append(']');
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private static class BinaryVerdictSink implements VerdictSink {
+        static final int MAGIC = 0x47535644;
+        static final int VERSION = 1;
+        static final int HEADER_SIZE = 64;
+        static final int FLAG_INELIGIBLE = 1;
+        static final int FLAG_WARNING = 2;
+        static final int FLAG_REVIEW = 4;
+        private static final int BUFFER_SIZE = 1 << 20;
+
+        private final Path path;
+        private final Path idPath;
+        private final ReasonCatalog catalog;
+        private final int reasonWords;
+        private final int recordWidth;
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final OutputStream ids;
+        private final long[] bits;
+        private long idBytes = 0;
+        private long recordCount = 0;
+
+        BinaryVerdictSink(Path path, ReasonCatalog catalog) throws IOException {
+            createParentDirectories(path);
+            this.path = path;
+            this.idPath = path.resolveSibling(path.getFileName() + ".ids.tmp");
+            this.catalog = catalog;
+            this.reasonWords = Math.max(1, (catalog.size() + 63) / 64);
+            this.recordWidth = 16 + 8 * reasonWords;
+            this.bits = new long[reasonWords];
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            this.ids = new BufferedOutputStream(Files.newOutputStream(idPath), BUFFER_SIZE);
+            channel.position(HEADER_SIZE);
+        }
+
+        @Override
+        public void accept(RowRecord record) throws IOException {
+            Arrays.fill(bits, 0L);
+            int flags = 0;
+            if (!record.reasons.isEmpty()) {
+                flags |= FLAG_INELIGIBLE;
+                setBits(record.reasons);
+            }
+            if (!record.warningReasons.isEmpty()) {
+                flags |= FLAG_WARNING;
+                setBits(record.warningReasons);
+            }
+            if (!record.reviewReasons.isEmpty()) {
+                flags |= FLAG_REVIEW;
+                setBits(record.reviewReasons);
+            }
+            byte[] id = record.id.getBytes(StandardCharsets.UTF_8);
+            if (buffer.remaining() < recordWidth) {
+                drain();
+            }
+            buffer.putLong(idBytes).putInt(id.length).putInt(flags);
+            for (long word : bits) {
+                buffer.putLong(word);
+            }
+            ids.write(id);
+            idBytes += id.length;
+            recordCount++;
+        }
+
+        private void setBits(List<String> reasons) throws IOException {
+            for (String reason : reasons) {
+                int code = catalog.code(reason);
+                if (code < 0) {
+                    throw new IOException("Reason is not in the rule catalog: " + reason);
+                }
+                bits[code >>> 6] |= 1L << (code & 63);
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+                ids.close();
+                long reasonTableOffset = channel.position();
+                ByteArrayOutputStream table = new ByteArrayOutputStream();
+                ByteBuffer entry = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                entry.putInt(catalog.size());
+                table.write(entry.array());
+                for (String reason : catalog.reasons()) {
+                    byte[] bytes = reason.getBytes(StandardCharsets.UTF_8);
+                    entry.clear();
+                    entry.putInt(bytes.length);
+                    table.write(entry.array());
+                    table.write(bytes);
+                }
+                channel.write(ByteBuffer.wrap(table.toByteArray()));
+                long idTableOffset = channel.position();
+                try (FileChannel idChannel = FileChannel.open(idPath)) {
+                    long copied = 0;
+                    while (copied < idBytes) {
+                        copied += idChannel.transferTo(copied, idBytes - copied, channel);
+                    }
+                }
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(recordWidth).putInt(reasonWords)
+                        .putLong(recordCount).putLong(HEADER_SIZE).putLong(reasonTableOffset)
+                        .putLong(idTableOffset).putLong(idBytes);
+                header.rewind();
+                channel.write(header, 0);
+            } finally {
+                channel.close();
+                Files.deleteIfExists(idPath);
+            }
+        }
+    }
+
+    private static class ReasonCatalog {
+        private final Map<String, Integer> codes = new LinkedHashMap<>();
+
+        static ReasonCatalog from(RuleSet rules) {
+            ReasonCatalog catalog = new ReasonCatalog();
+            for (String field : rules.requiredFields) {
+                catalog.add("missing:" + field);
+            }
+            for (ConditionalRequirement requirement : rules.conditionalRequirements) {
+                for (String needed : requirement.requiredFields) {
+                    catalog.add("missing_if:" + requirement.conditionField + "=" + requirement.conditionValue + ":" + needed);
+                }
+            }
+            for (AnyRequirement requirement : rules.anyRequirements) {
+                catalog.add("missing_any:" + requirement.name);
+            }
+            for (String field : rules.numericRanges.keySet()) {
+                catalog.add("out_of_range:" + field);
+                catalog.add("invalid_number:" + field);
+            }
+            for (String field : rules.allowedValues.keySet()) {
+                catalog.add("disallowed:" + field);
+            }
+            for (String field : rules.disallowedValues.keySet()) {
+                catalog.add("blocked:" + field);
+            }
+            for (String field : rules.dateRanges.keySet()) {
+                catalog.add("out_of_range:" + field);
+                catalog.add("invalid_date:" + field);
+            }
+            for (String field : rules.patternRules.keySet()) {
+                catalog.add("invalid_pattern:" + field);
+            }
+            for (String field : rules.uniqueFields) {
+                catalog.add("duplicate:" + field);
+            }
+            for (NearUniqueRule rule : rules.nearUniqueRules) {
+                for (String reason : rule.reasons()) {
+                    catalog.add(reason);
+                }
+            }
+            for (String field : rules.reviewMissingFields) {
+                catalog.add("review_missing:" + field);
+            }
+            for (ReviewCondition condition : rules.reviewConditions) {
+                for (String reason : condition.reasons) {
+                    catalog.add("review_flag:" + reason);
+                }
+            }
+            for (String field : rules.warnRequiredFields) {
+                catalog.add("warn_missing:" + field);
+            }
+            for (ConditionalRequirement requirement : rules.warnConditionalRequirements) {
+                for (String needed : requirement.requiredFields) {
+                    catalog.add("warn_missing_if:" + requirement.conditionField + "=" + requirement.conditionValue + ":" + needed);
+                }
+            }
+            for (AnyRequirement requirement : rules.warnAnyRequirements) {
+                catalog.add("warn_missing_any:" + requirement.name);
+            }
+            for (String field : rules.warnNumericRanges.keySet()) {
+                catalog.add("warn_out_of_range:" + field);
+                catalog.add("warn_invalid_number:" + field);
+            }
+            for (String field : rules.warnAllowedValues.keySet()) {
+                catalog.add("warn_disallowed:" + field);
+            }
+            for (String field : rules.warnDisallowedValues.keySet()) {
+                catalog.add("warn_blocked:" + field);
+            }
+            for (String field : rules.warnDateRanges.keySet()) {
+                catalog.add("warn_out_of_range:" + field);
+                catalog.add("warn_invalid_date:" + field);
+            }
+            for (String field : rules.warnPatternRules.keySet()) {
+                catalog.add("warn_invalid_pattern:" + field);
+            }
+            for (ExpressionRule rule : rules.expressionRules) {
+                catalog.add(rule.reason());
+                catalog.add(rule.invalidReason());
+            }
+            return catalog;
+        }
+
+        void add(String reason) {
+            codes.putIfAbsent(reason, codes.size());
+        }
+
+        int code(String reason) {
+            Integer code = codes.get(reason);
+            return code == null ? -1 : code;
+        }
+
+        int size() {
+            return codes.size();
+        }
+
+        Iterable<String> reasons() {
+            return codes.keySet();
+        }
+    }
+
+    private static class NormalizedValueSet {
+        private String[] table = new String[16];
+        private int[] hashes = new int[16];
+        private int[] ordinals = new int[16];
+        private String[] values = new String[8];
+        private int size = 0;
+
+        int add(String normalized) {
+            int hash = mix(hashNormalized(normalized));
+            int slot = findSlot(normalized, hash);
+            return slot >= 0 ? ordinals[slot] : insert(normalized, hash);
+        }
+
+        boolean contains(String raw) {
+            return findRawSlot(raw) >= 0;
+        }
+
+        String find(String raw) {
+            int slot = findRawSlot(raw);
+            return slot < 0 ? null : table[slot];
+        }
+
+        int ordinal(String raw) {
+            int slot = findRawSlot(raw);
+            return slot < 0 ? -1 : ordinals[slot];
+        }
+
+        int internOrdinal(String raw) {
+            int slot = findRawSlot(raw);
+            if (slot >= 0) {
+                return ordinals[slot];
+            }
+            String normalized = normalizeValue(raw);
+            return insert(normalized, mix(hashNormalized(normalized)));
+        }
+
+        String value(int ordinal) {
+            return values[ordinal];
+        }
+
+        String intern(String raw) {
+            String existing = find(raw);
+            if (existing != null) {
+                return existing;
+            }
+            String normalized = normalizeValue(raw);
+            insert(normalized, mix(hashNormalized(normalized)));
+            return normalized;
+        }
+
+        private int findRawSlot(String raw) {
+            int start = trimStart(raw);
+            int end = trimEnd(raw, start);
+            if (!isAsciiRange(raw, start, end)) {
+                String normalized = normalizeValue(raw);
+                return findSlot(normalized, mix(hashNormalized(normalized)));
+            }
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + foldAscii(raw.charAt(i));
+            }
+            hash = mix(hash);
+            int mask = table.length - 1;
+            for (int slot = hash & mask; table[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && matchesFolded(raw, start, end, table[slot])) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int findSlot(String normalized, int hash) {
+            int mask = table.length - 1;
+            for (int slot = hash & mask; table[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && table[slot].equals(normalized)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private int insert(String normalized, int hash) {
+            if ((size + 1) * 2 > table.length) {
+                resize();
+            }
+            int mask = table.length - 1;
+            int slot = hash & mask;
+            while (table[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = normalized;
+            hashes[slot] = hash;
+            ordinals[slot] = size;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = normalized;
+            return size++;
+        }
+
+        private void resize() {
+            String[] oldTable = table;
+            int[] oldHashes = hashes;
+            int[] oldOrdinals = ordinals;
+            table = new String[oldTable.length * 2];
+            hashes = new int[oldTable.length * 2];
+            ordinals = new int[oldTable.length * 2];
+            int mask = table.length - 1;
+            for (int i = 0; i < oldTable.length; i++) {
+                if (oldTable[i] == null) {
+                    continue;
+                }
+                int slot = oldHashes[i] & mask;
+                while (table[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = oldTable[i];
+                hashes[slot] = oldHashes[i];
+                ordinals[slot] = oldOrdinals[i];
+            }
+        }
+
+        private static boolean matchesFolded(String raw, int start, int end, String normalized) {
+            if (end - start != normalized.length()) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                if (foldAscii(raw.charAt(i)) != normalized.charAt(i - start)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int hashNormalized(String normalized) {
+            int hash = 0;
+            for (int i = 0; i < normalized.length(); i++) {
+                hash = 31 * hash + normalized.charAt(i);
+            }
+            return hash;
+        }
+
+        private static int mix(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    private static class ConditionIndex<T> {
+        private final List<String> fields = new ArrayList<>();
+        private final List<NormalizedValueSet> values = new ArrayList<>();
+        private final List<List<T>> targets = new ArrayList<>();
+        private final List<int[]> positions = new ArrayList<>();
+
+        void add(String field, String value, T target, int position) {
+            int fieldIndex = fields.indexOf(field);
+            if (fieldIndex < 0) {
+                fieldIndex = fields.size();
+                fields.add(field);
+                values.add(new NormalizedValueSet());
+                targets.add(new ArrayList<>());
+                positions.add(new int[4]);
+            }
+            int ordinal = values.get(fieldIndex).add(value);
+            List<T> fieldTargets = targets.get(fieldIndex);
+            if (ordinal < fieldTargets.size()) {
+                return;
+            }
+            fieldTargets.add(target);
+            int[] fieldPositions = positions.get(fieldIndex);
+            if (ordinal >= fieldPositions.length) {
+                fieldPositions = Arrays.copyOf(fieldPositions, fieldPositions.length * 2);
+                positions.set(fieldIndex, fieldPositions);
+            }
+            fieldPositions[ordinal] = position;
+        }
+
+        List<T> match(Map<String, String> rowMap) {
+            T first = null;
+            int firstPosition = 0;
+            List<int[]> more = null;
+            for (int f = 0; f < fields.size(); f++) {
+                int ordinal = values.get(f).ordinal(rowMap.getOrDefault(fields.get(f), ""));
+                if (ordinal < 0) {
+                    continue;
+                }
+                if (first == null) {
+                    first = targets.get(f).get(ordinal);
+                    firstPosition = positions.get(f)[ordinal];
+                    continue;
+                }
+                if (more == null) {
+                    more = new ArrayList<>();
+                    more.add(new int[] {firstPosition, -1, -1});
+                }
+                more.add(new int[] {positions.get(f)[ordinal], f, ordinal});
+            }
+            if (first == null) {
+                return Collections.emptyList();
+            }
+            if (more == null) {
+                return Collections.singletonList(first);
+            }
+            more.sort((a, b) -> Integer.compare(a[0], b[0]));
+            List<T> matches = new ArrayList<>(more.size());
+            for (int[] entry : more) {
+                matches.add(entry[1] < 0 ? first : targets.get(entry[1]).get(entry[2]));
+            }
+            return matches;
+        }
+    }
+
+    private interface Spillable {
+        long inMemoryBytes();
+
+        long spill() throws IOException;
+    }
+
+    private interface RecordCodec<T> {
+        void write(DataOutputStream out, T record) throws IOException;
+
+        T read(DataInputStream in) throws IOException;
+
+        long estimate(T record);
+    }
+
+    private static long estimateString(String value) {
+        return 40 + 2L * value.length();
+    }
+
+    private static long estimateStrings(List<String> values) {
+        long bytes = 40 + 8L * values.size();
+        for (String value : values) {
+            bytes += estimateString(value);
+        }
+        return bytes;
+    }
+
+    private static class MemoryBudget {
+        static final MemoryBudget UNLIMITED = new MemoryBudget(Long.MAX_VALUE, null);
+
+        final long limit;
+        final Path spillDir;
+        final List<Spillable> spillables = new ArrayList<>();
+        long used;
+        long spilledBytes;
+
+        MemoryBudget(long limit, Path spillDir) {
+            this.limit = limit;
+            this.spillDir = spillDir;
+        }
+
+        static MemoryBudget fromOptions(Map<String, String> options) throws IOException {
+            String configured = options.get("memory-budget");
+            if (configured == null) {
+                return UNLIMITED;
+            }
+            long limit = parseByteSize(configured);
+            if (limit <= 0) {
+                throw new IOException("Invalid --memory-budget: " + configured + " (expected bytes or a size like 512m, 2g).");
+            }
+            Path spillDir = Path.of(options.getOrDefault("spill-dir", System.getProperty("java.io.tmpdir")));
+            Files.createDirectories(spillDir);
+            return new MemoryBudget(limit, spillDir);
+        }
+
+        void register(Spillable spillable) {
+            if (limit != Long.MAX_VALUE) {
+                spillables.add(spillable);
+            }
+        }
+
+        void reserve(long bytes) throws IOException {
+            if (limit == Long.MAX_VALUE) {
+                return;
+            }
+            used += bytes;
+            if (used <= limit) {
+                return;
+            }
+            List<Spillable> largest = new ArrayList<>(spillables);
+            largest.sort((a, b) -> Long.compare(b.inMemoryBytes(), a.inMemoryBytes()));
+            for (Spillable spillable : largest) {
+                long released = spillable.spill();
+                used -= released;
+                spilledBytes += released;
+                if (used <= limit / 2) {
+                    break;
+                }
+            }
+        }
+
+        void release(long bytes) {
+            if (limit != Long.MAX_VALUE) {
+                used -= bytes;
+            }
+        }
+
+        void unregister(Spillable spillable) {
+            spillables.remove(spillable);
+        }
+    }
+
+    private static long parseByteSize(String value) {
+        String trimmed = value.trim().toLowerCase(Locale.ROOT);
+        long multiplier = 1;
+        if (trimmed.endsWith("b")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        if (trimmed.endsWith("k")) {
+            multiplier = 1L << 10;
+        } else if (trimmed.endsWith("m")) {
+            multiplier = 1L << 20;
+        } else if (trimmed.endsWith("g")) {
+            multiplier = 1L << 30;
+        }
+        if (multiplier != 1) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        try {
+            return Math.multiplyExact(Long.parseLong(trimmed.trim()), multiplier);
+        } catch (NumberFormatException | ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    private static class RecordList<T> implements Iterable<T>, Spillable, AutoCloseable {
+        private final RecordCodec<T> codec;
+        private final MemoryBudget budget;
+        private final List<T> memory = new ArrayList<>();
+        private long memoryBytes;
+        private Path file;
+        private DataOutputStream spillOut;
+        private int spilled;
+        private boolean draining;
+
+        RecordList(RecordCodec<T> codec, MemoryBudget budget) {
+            this.codec = codec;
+            this.budget = budget;
+            budget.register(this);
+        }
+
+        void add(T record) throws IOException {
+            memory.add(record);
+            if (budget.limit != Long.MAX_VALUE) {
+                long bytes = codec.estimate(record);
+                memoryBytes += bytes;
+                budget.reserve(bytes);
+            }
+        }
+
+        int size() {
+            return spilled + memory.size();
+        }
+
+        boolean isEmpty() {
+            return size() == 0;
+        }
+
+        @Override
+        public long inMemoryBytes() {
+            return draining ? 0 : memoryBytes;
+        }
+
+        @Override
+        public long spill() throws IOException {
+            if (draining || memory.isEmpty()) {
+                return 0;
+            }
+            if (spillOut == null) {
+                file = Files.createTempFile(budget.spillDir, "eligibility-", ".run");
+                spillOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+            }
+            for (T record : memory) {
+                codec.write(spillOut, record);
+            }
+            spillOut.flush();
+            spilled += memory.size();
+            memory.clear();
+            long released = memoryBytes;
+            memoryBytes = 0;
+            return released;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return iterator(false);
+        }
+
+        Iterator<T> drain() {
+            draining = true;
+            return iterator(true);
+        }
+
+        private Iterator<T> iterator(boolean release) {
+            return new Iterator<>() {
+                private DataInputStream in;
+                private int read;
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    if (read < spilled) {
+                        return true;
+                    }
+                    closeInput();
+                    return index < memory.size();
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    if (read < spilled) {
+                        try {
+                            if (in == null) {
+                                spillOut.flush();
+                                in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+                            }
+                            read++;
+                            return codec.read(in);
+                        } catch (IOException e) {
+                            closeInput();
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    T record = memory.get(index);
+                    if (release) {
+                        memory.set(index, null);
+                        if (budget.limit != Long.MAX_VALUE) {
+                            long bytes = codec.estimate(record);
+                            memoryBytes -= bytes;
+                            budget.release(bytes);
+                        }
+                    }
+                    index++;
+                    return record;
+                }
+
+                private void closeInput() {
+                    if (in != null) {
+                        try {
+                            in.close();
+                        } catch (IOException ignored) {
+                            // read-only temp file
+                        }
+                        in = null;
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            budget.unregister(this);
+            budget.release(memoryBytes);
+            memoryBytes = 0;
+            memory.clear();
+            spilled = 0;
+            if (spillOut != null) {
+                spillOut.close();
+                spillOut = null;
+            }
+            if (file != null) {
+                Files.deleteIfExists(file);
+                file = null;
+            }
+        }
+    }
+
+    private static class DuplicateIndex implements Spillable, AutoCloseable {
+        private static final int PARTITIONS = 64;
+
+        private final MemoryBudget budget;
+        private final List<String> fieldOrder = new ArrayList<>();
+        private final Map<String, BitSet> duplicates = new HashMap<>();
+        private final Map<String, Map<String, Integer>> firstRows = new HashMap<>();
+        private long memoryBytes;
+        private Path dir;
+        private DataOutputStream[] partitions;
+        private long[] partitionCounts;
+        private final List<NearDuplicateIndex> near = new ArrayList<>();
+        private boolean resolved;
+
+        DuplicateIndex(MemoryBudget budget, List<NearUniqueRule> nearRules) {
+            this.budget = budget;
+            for (NearUniqueRule rule : nearRules) {
+                near.add(new NearDuplicateIndex(rule, budget));
+            }
+            budget.register(this);
+        }
+
+        void addNear(Map<String, String> rowMap, int row) throws IOException {
+            for (NearDuplicateIndex index : near) {
+                index.add(rowMap, row);
+            }
+        }
+
+        void add(String field, String value, int row) throws IOException {
+            BitSet marks = duplicates.get(field);
+            if (marks == null) {
+                marks = new BitSet();
+                duplicates.put(field, marks);
+                fieldOrder.add(field);
+            }
+            if (partitions != null) {
+                writeEntry(fieldOrder.indexOf(field), value, row);
+                return;
+            }
+            Integer first = firstRows.computeIfAbsent(field, key -> new HashMap<>()).putIfAbsent(value, row);
+            if (first != null) {
+                marks.set(first);
+                marks.set(row);
+                return;
+            }
+            if (budget.limit != Long.MAX_VALUE) {
+                long bytes = 64 + estimateString(value);
+                memoryBytes += bytes;
+                budget.reserve(bytes);
+            }
+        }
+
+        @Override
+        public long inMemoryBytes() {
+            return memoryBytes;
+        }
+
+        @Override
+        public long spill() throws IOException {
+            if (resolved) {
+                return 0;
+            }
+            if (partitions == null) {
+                dir = Files.createTempDirectory(budget.spillDir, "eligibility-unique-");
+                partitions = new DataOutputStream[PARTITIONS];
+                partitionCounts = new long[PARTITIONS];
+                for (int p = 0; p < PARTITIONS; p++) {
+                    partitions[p] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dir.resolve("part-" + p)), 1 << 14));
+                }
+            }
+            for (Map.Entry<String, Map<String, Integer>> fieldEntry : firstRows.entrySet()) {
+                int fieldIndex = fieldOrder.indexOf(fieldEntry.getKey());
+                for (Map.Entry<String, Integer> entry : fieldEntry.getValue().entrySet()) {
+                    writeEntry(fieldIndex, entry.getKey(), entry.getValue());
+                }
+            }
+            firstRows.clear();
+            long released = memoryBytes;
+            memoryBytes = 0;
+            return released;
+        }
+
+        private void writeEntry(int fieldIndex, String value, int row) throws IOException {
+            int partition = ((value.hashCode() * 31 + fieldIndex) & 0x7fffffff) % PARTITIONS;
+            partitionCounts[partition]++;
+            DataOutputStream out = partitions[partition];
+            out.writeShort(fieldIndex);
+            ResultCodec.writeString(out, value);
+            out.writeInt(row);
+        }
+
+        void resolve() throws IOException {
+            for (NearDuplicateIndex index : near) {
+                index.resolve();
+            }
+            if (partitions == null) {
+                resolved = true;
+                firstRows.clear();
+                budget.release(memoryBytes);
+                memoryBytes = 0;
+                return;
+            }
+            spill();
+            resolved = true;
+            for (DataOutputStream out : partitions) {
+                out.close();
+            }
+            for (int p = 0; p < PARTITIONS; p++) {
+                Path part = dir.resolve("part-" + p);
+                List<Map<String, Integer>> seen = new ArrayList<>();
+                for (int f = 0; f < fieldOrder.size(); f++) {
+                    seen.add(new HashMap<>());
+                }
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(part), 1 << 16))) {
+                    for (long n = partitionCounts[p]; n > 0; n--) {
+                        int fieldIndex = in.readShort();
+                        String value = ResultCodec.readString(in);
+                        int row = in.readInt();
+                        Integer first = seen.get(fieldIndex).putIfAbsent(value, row);
+                        if (first != null) {
+                            BitSet marks = duplicates.get(fieldOrder.get(fieldIndex));
+                            marks.set(first);
+                            marks.set(row);
+                        }
+                    }
+                }
+                Files.delete(part);
+            }
+        }
+
+        void writeState(DataOutputStream out) throws IOException {
+            ResultCodec.writeStrings(out, fieldOrder);
+            for (String field : fieldOrder) {
+                long[] words = duplicates.get(field).toLongArray();
+                out.writeInt(words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            }
+            long entries = 0;
+            for (Map<String, Integer> values : firstRows.values()) {
+                entries += values.size();
+            }
+            if (partitions != null) {
+                for (int p = 0; p < PARTITIONS; p++) {
+                    partitions[p].flush();
+                    entries += partitionCounts[p];
+                }
+            }
+            out.writeLong(entries);
+            for (int f = 0; f < fieldOrder.size(); f++) {
+                for (Map.Entry<String, Integer> entry : firstRows.getOrDefault(fieldOrder.get(f), Collections.emptyMap()).entrySet()) {
+                    out.writeShort(f);
+                    ResultCodec.writeString(out, entry.getKey());
+                    out.writeInt(entry.getValue());
+                }
+            }
+            if (partitions != null) {
+                for (int p = 0; p < PARTITIONS; p++) {
+                    Files.copy(dir.resolve("part-" + p), out);
+                }
+            }
+            writeNearState(out);
+        }
+
+        void writeNearState(DataOutputStream out) throws IOException {
+            for (NearDuplicateIndex index : near) {
+                index.writeState(out);
+            }
+        }
+
+        void readState(DataInputStream in) throws IOException {
+            for (String field : ResultCodec.readStrings(in)) {
+                long[] words = new long[in.readInt()];
+                for (int w = 0; w < words.length; w++) {
+                    words[w] = in.readLong();
+                }
+                fieldOrder.add(field);
+                duplicates.put(field, BitSet.valueOf(words));
+            }
+            for (long n = in.readLong(); n > 0; n--) {
+                add(fieldOrder.get(in.readShort()), ResultCodec.readString(in), in.readInt());
+            }
+            readNearState(in);
+        }
+
+        void readNearState(DataInputStream in) throws IOException {
+            for (NearDuplicateIndex index : near) {
+                index.readState(in);
+            }
+        }
+
+        List<String> duplicateFields(int row) {
+            List<String> fields = Collections.emptyList();
+            for (String field : fieldOrder) {
+                if (duplicates.get(field).get(row)) {
+                    if (fields.isEmpty()) {
+                        fields = new ArrayList<>(2);
+                    }
+                    fields.add(field);
+                }
+            }
+            for (NearDuplicateIndex index : near) {
+                double score = index.score(row);
+                if (score > 0) {
+                    if (fields.isEmpty()) {
+                        fields = new ArrayList<>(2);
+                    }
+                    fields.add(index.rule.name + ":" + NearUniqueRule.formatScore(score));
+                }
+            }
+            return fields;
+        }
+
+        @Override
+        public void close() throws IOException {
+            budget.unregister(this);
+            budget.release(memoryBytes);
+            memoryBytes = 0;
+            firstRows.clear();
+            for (NearDuplicateIndex index : near) {
+                index.close();
+            }
+            if (partitions != null) {
+                for (DataOutputStream out : partitions) {
+                    out.close();
+                }
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path part : (Iterable<Path>) files::iterator) {
+                        Files.deleteIfExists(part);
+                    }
+                }
+                Files.deleteIfExists(dir);
+                partitions = null;
+            }
+        }
+    }
+
+    private static class NearUniqueRule {
+        static final int HASHES = 32;
+
+        String name;
+        List<String> fields = new ArrayList<>();
+        List<String> blockFields = new ArrayList<>();
+        double threshold = 0.8;
+        int bands;
+        int rowsPerBand;
+
+        NearUniqueRule(String name) {
+            this.name = name;
+        }
+
+        void compile() throws IOException {
+            if (fields.isEmpty()) {
+                throw new IOException("Missing fields for near_unique:" + name);
+            }
+            if (!(threshold > 0 && threshold <= 1)) {
+                throw new IOException("Invalid threshold for near_unique:" + name + " -> " + threshold + " (expected 0 < threshold <= 1)");
+            }
+            double target = Math.max(0.05, threshold - 0.1);
+            rowsPerBand = 1;
+            for (int r = 1; r <= 8; r++) {
+                if (Math.pow(1.0 / (HASHES / r), 1.0 / r) <= target) {
+                    rowsPerBand = r;
+                }
+            }
+            bands = HASHES / rowsPerBand;
+        }
+
+        String reason(double score) {
+            return "duplicate:" + name + ":" + formatScore(score);
+        }
+
+        List<String> reasons() {
+            List<String> reasons = new ArrayList<>();
+            for (int tenth = (int) Math.floor(threshold * 10); tenth <= 10; tenth++) {
+                reasons.add(reason(tenth / 10.0));
+            }
+            return reasons;
+        }
+
+        static String formatScore(double score) {
+            return String.format(Locale.ROOT, "%.1f", Math.floor(score * 10 + 1e-9) / 10);
+        }
+    }
+
+    private static class NearDuplicateIndex {
+        private static final int WINDOW = 64;
+        private static final long ENTRY_BYTES = 16 + 2L * NearUniqueRule.HASHES;
+
+        private final NearUniqueRule rule;
+        private final MemoryBudget budget;
+        private int[] rows = new int[1024];
+        private long[] blocks = new long[1024];
+        private short[] signatures = new short[1024 * NearUniqueRule.HASHES];
+        private float[] scores;
+        private int count;
+        private long memoryBytes;
+        private final int[] minimums = new int[NearUniqueRule.HASHES];
+        private final StringBuilder scratch = new StringBuilder();
+        private MessageDigest blockDigest;
+
+        NearDuplicateIndex(NearUniqueRule rule, MemoryBudget budget) {
+            this.rule = rule;
+            this.budget = budget;
+        }
+
+        void add(Map<String, String> rowMap, int row) throws IOException {
+            long block = 0;
+            if (!rule.blockFields.isEmpty()) {
+                scratch.setLength(0);
+                for (String field : rule.blockFields) {
+                    if (!fold(rowMap.getOrDefault(field, ""))) {
+                        return;
+                    }
+                    scratch.append('\u0001');
+                }
+                if (blockDigest == null) {
+                    blockDigest = sha256();
+                }
+                byte[] digest = blockDigest.digest(scratch.toString().getBytes(StandardCharsets.UTF_8));
+                for (int b = 0; b < Long.BYTES; b++) {
+                    block = (block << 8) | (digest[b] & 0xFF);
+                }
+            }
+            Arrays.fill(minimums, Integer.MAX_VALUE);
+            boolean any = false;
+            for (int f = 0; f < rule.fields.size(); f++) {
+                scratch.setLength(0);
+                scratch.append('^');
+                if (!fold(rowMap.getOrDefault(rule.fields.get(f), ""))) {
+                    continue;
+                }
+                scratch.append('$');
+                for (int i = 0; i + 3 <= scratch.length(); i++) {
+                    long hash = mix64(((long) (f + 1) << 48) ^ ((long) scratch.charAt(i) << 32)
+                            ^ ((long) scratch.charAt(i + 1) << 16) ^ scratch.charAt(i + 2));
+                    int h1 = (int) hash;
+                    int h2 = (int) (hash >>> 32) | 1;
+                    for (int k = 0; k < NearUniqueRule.HASHES; k++) {
+                        int value = h1 + k * h2;
+                        if (value < minimums[k]) {
+                            minimums[k] = value;
+                        }
+                    }
+                    any = true;
+                }
+            }
+            if (!any) {
+                return;
+            }
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+                blocks = Arrays.copyOf(blocks, count * 2);
+                signatures = Arrays.copyOf(signatures, count * 2 * NearUniqueRule.HASHES);
+            }
+            rows[count] = row;
+            blocks[count] = block;
+            int base = count * NearUniqueRule.HASHES;
+            for (int k = 0; k < NearUniqueRule.HASHES; k++) {
+                signatures[base + k] = (short) (minimums[k] ^ (minimums[k] >>> 16));
+            }
+            count++;
+            if (budget.limit != Long.MAX_VALUE) {
+                memoryBytes += ENTRY_BYTES;
+                budget.reserve(ENTRY_BYTES);
+            }
+        }
+
+        void writeState(DataOutputStream out) throws IOException {
+            out.writeInt(count);
+            for (int e = 0; e < count; e++) {
+                out.writeInt(rows[e]);
+                out.writeLong(blocks[e]);
+            }
+            for (int k = 0; k < count * NearUniqueRule.HASHES; k++) {
+                out.writeShort(signatures[k]);
+            }
+        }
+
+        void readState(DataInputStream in) throws IOException {
+            int entries = in.readInt();
+            int capacity = Math.max(rows.length, count + entries);
+            rows = Arrays.copyOf(rows, capacity);
+            blocks = Arrays.copyOf(blocks, capacity);
+            signatures = Arrays.copyOf(signatures, capacity * NearUniqueRule.HASHES);
+            for (int e = count; e < count + entries; e++) {
+                rows[e] = in.readInt();
+                blocks[e] = in.readLong();
+            }
+            for (int k = count * NearUniqueRule.HASHES; k < (count + entries) * NearUniqueRule.HASHES; k++) {
+                signatures[k] = in.readShort();
+            }
+            count += entries;
+            if (budget.limit != Long.MAX_VALUE) {
+                long bytes = entries * ENTRY_BYTES;
+                memoryBytes += bytes;
+                budget.reserve(bytes);
+            }
+        }
+
+        private boolean fold(String value) {
+            int start = scratch.length();
+            for (int i = 0; i < value.length(); i++) {
+                char ch = value.charAt(i);
+                if (Character.isLetterOrDigit(ch)) {
+                    scratch.append(Character.toLowerCase(ch));
+                }
+            }
+            return scratch.length() > start;
+        }
+
+        void resolve() {
+            scores = new float[count];
+            long[] keys = new long[count];
+            for (int band = 0; band < rule.bands; band++) {
+                for (int e = 0; e < count; e++) {
+                    int hash = Long.hashCode(blocks[e]) * 31 + band;
+                    int base = e * NearUniqueRule.HASHES + band * rule.rowsPerBand;
+                    for (int k = 0; k < rule.rowsPerBand; k++) {
+                        hash = hash * 31 + signatures[base + k];
+                    }
+                    keys[e] = ((long) mix32(hash) << 32) | e;
+                }
+                Arrays.sort(keys);
+                int start = 0;
+                while (start < count) {
+                    int end = start + 1;
+                    while (end < count && (keys[end] >>> 32) == (keys[start] >>> 32)) {
+                        end++;
+                    }
+                    for (int i = start; i < end; i++) {
+                        for (int j = i + 1; j < Math.min(end, i + 1 + WINDOW); j++) {
+                            compare((int) keys[i], (int) keys[j]);
+                        }
+                    }
+                    start = end;
+                }
+            }
+            budget.release(memoryBytes);
+            memoryBytes = 0;
+            signatures = null;
+            blocks = null;
+        }
+
+        private void compare(int a, int b) {
+            if (blocks[a] != blocks[b]) {
+                return;
+            }
+            int same = 0;
+            int baseA = a * NearUniqueRule.HASHES;
+            int baseB = b * NearUniqueRule.HASHES;
+            for (int k = 0; k < NearUniqueRule.HASHES; k++) {
+                if (signatures[baseA + k] == signatures[baseB + k]) {
+                    same++;
+                }
+            }
+            float score = same / (float) NearUniqueRule.HASHES;
+            if (score >= rule.threshold) {
+                scores[a] = Math.max(scores[a], score);
+                scores[b] = Math.max(scores[b], score);
+            }
+        }
+
+        double score(int row) {
+            int e = Arrays.binarySearch(rows, 0, count, row);
+            return e < 0 ? 0 : scores[e];
+        }
+
+        void close() {
+            budget.release(memoryBytes);
+            memoryBytes = 0;
+        }
+
+        private static long mix64(long z) {
+            z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+            z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return z ^ (z >>> 33);
+        }
+
+        private static int mix32(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    private static class AuditResult implements AutoCloseable {
+        int totalRows = 0;
+        int eligible = 0;
+        int ineligible = 0;
+        int warningApplicants = 0;
+        int reviewCount = 0;
+        Map<String, Integer> reasonCounts = new LinkedHashMap<>();
+        Map<String, Integer> reasonCategoryCounts = new LinkedHashMap<>();
+        Map<String, Integer> warningCounts = new LinkedHashMap<>();
+        Map<String, Integer> warningCategoryCounts = new LinkedHashMap<>();
+        Map<String, Integer> missingFieldCounts = new LinkedHashMap<>();
+        Map<String, Integer> reviewCounts = new LinkedHashMap<>();
+        RecordList<FailureRecord> failures;
+        RecordList<ReviewRecord> reviews;
+        int failureLimit = -1;
+        boolean failuresTruncated = false;
+        int reviewLimit = -1;
+        boolean reviewsTruncated = false;
+        String idField = "id";
+        String runName = "";
+        String inputPath = "";
+        String rulesPath = "";
+        SegmentCube segments;
+        boolean groupFailures = false;
+        private FailureGroups failureGroups;
+
+        AuditResult() {
+            this(MemoryBudget.UNLIMITED);
+        }
+
+        AuditResult(MemoryBudget budget) {
+            failures = new RecordList<>(FailureRecord.CODEC, budget);
+            reviews = new RecordList<>(ReviewRecord.CODEC, budget);
+        }
+
+        void merge(AuditResult partial) throws IOException {
+            totalRows += partial.totalRows;
+            eligible += partial.eligible;
+            ineligible += partial.ineligible;
+            warningApplicants += partial.warningApplicants;
+            reviewCount += partial.reviewCount;
+            mergeCounts(reasonCounts, partial.reasonCounts);
+            mergeCounts(reasonCategoryCounts, partial.reasonCategoryCounts);
+            mergeCounts(warningCounts, partial.warningCounts);
+            mergeCounts(warningCategoryCounts, partial.warningCategoryCounts);
+            mergeCounts(missingFieldCounts, partial.missingFieldCounts);
+            mergeCounts(reviewCounts, partial.reviewCounts);
+            for (FailureRecord record : partial.failures) {
+                if (failureLimit < 0 || failures.size() < failureLimit) {
+                    failures.add(record);
+                } else {
+                    failuresTruncated = true;
+                }
+            }
+            failuresTruncated |= partial.failuresTruncated;
+            for (ReviewRecord record : partial.reviews) {
+                if (reviewLimit < 0 || reviews.size() < reviewLimit) {
+                    reviews.add(record);
+                } else {
+                    reviewsTruncated = true;
+                }
+            }
+            reviewsTruncated |= partial.reviewsTruncated;
+        }
+
+        private static void mergeCounts(Map<String, Integer> target, Map<String, Integer> counts) {
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                target.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+        }
+
+        synchronized FailureGroups failureGroups() {
+            if (failureGroups == null) {
+                failureGroups = FailureGroups.of(failures);
+            }
+            return failureGroups;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                failures.close();
+            } finally {
+                reviews.close();
+            }
+        }
+    }
+
+    private static class FailureGroups {
+        final List<FailureGroup> groups = new ArrayList<>();
+
+        static FailureGroups of(Iterable<FailureRecord> failures) {
+            Map<String, Integer> codes = new HashMap<>();
+            Map<Signature, FailureGroup> bySignature = new HashMap<>();
+            FailureGroups result = new FailureGroups();
+            for (FailureRecord record : failures) {
+                int[] signature = new int[record.reasons.size()];
+                for (int r = 0; r < signature.length; r++) {
+                    Integer code = codes.get(record.reasons.get(r));
+                    if (code == null) {
+                        code = codes.size();
+                        codes.put(record.reasons.get(r), code);
+                    }
+                    signature[r] = code;
+                }
+                FailureGroup group = bySignature.get(new Signature(signature));
+                if (group == null) {
+                    group = new FailureGroup(record.reasons);
+                    bySignature.put(new Signature(signature), group);
+                    result.groups.add(group);
+                }
+                group.ids.add(record.id);
+            }
+            result.groups.sort((a, b) -> Integer.compare(b.ids.size(), a.ids.size()));
+            return result;
+        }
+    }
+
+    private static class FailureGroup {
+        final List<String> reasons;
+        final List<String> ids = new ArrayList<>();
+
+        FailureGroup(List<String> reasons) {
+            this.reasons = reasons;
+        }
+    }
+
+    private static final class Signature {
+        private final int[] codes;
+        private final int hash;
+
+        Signature(int[] codes) {
+            this.codes = codes;
+            this.hash = Arrays.hashCode(codes);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Signature && Arrays.equals(codes, ((Signature) other).codes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class RuleComparison implements AutoCloseable {
+        static final RecordCodec<RowRecord[]> ROWS_CODEC = new RecordCodec<>() {
+            public void write(DataOutputStream out, RowRecord[] records) throws IOException {
+                out.writeInt(records.length);
+                for (RowRecord record : records) {
+                    RowRecord.CODEC.write(out, record);
+                }
+            }
+
+            public RowRecord[] read(DataInputStream in) throws IOException {
+                RowRecord[] records = new RowRecord[in.readInt()];
+                for (int l = 0; l < records.length; l++) {
+                    records[l] = RowRecord.CODEC.read(in);
+                }
+                return records;
+            }
+
+            public long estimate(RowRecord[] records) {
+                long size = 16 + 8L * records.length;
+                for (RowRecord record : records) {
+                    size += RowRecord.CODEC.estimate(record);
+                }
+                return size;
+            }
+        };
+
+        final List<AuditResult> results = new ArrayList<>();
+        final List<RuleTransition> transitions = new ArrayList<>();
+        final int sampleLimit;
+        String inputPath = "";
+
+        RuleComparison(int sampleLimit) {
+            this.sampleLimit = sampleLimit;
+        }
+
+        void add(AuditResult result) {
+            if (!results.isEmpty()) {
+                transitions.add(new RuleTransition(sampleLimit));
+            }
+            results.add(result);
+        }
+
+        void accept(RowRecord[] records) throws IOException {
+            for (int l = 0; l < records.length; l++) {
+                finalizeRow(records[l], results.get(l), null);
+            }
+            for (int l = 1; l < records.length; l++) {
+                transitions.get(l - 1).accept(records[0], records[l]);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (AuditResult result : results) {
+                result.close();
+            }
+        }
+    }
+
+    private static class RuleTransition {
+        final int sampleLimit;
+        int eligibleToEligible = 0;
+        int eligibleToIneligible = 0;
+        int ineligibleToEligible = 0;
+        int ineligibleToIneligible = 0;
+        Map<String, Integer> newlyIneligibleReasons = new LinkedHashMap<>();
+        Map<String, Integer> newlyEligibleReasons = new LinkedHashMap<>();
+        List<String> newlyIneligibleSample = new ArrayList<>();
+        List<String> newlyEligibleSample = new ArrayList<>();
+
+        RuleTransition(int sampleLimit) {
+            this.sampleLimit = sampleLimit;
+        }
+
+        void accept(RowRecord baseline, RowRecord candidate) {
+            boolean wasEligible = baseline.reasons.isEmpty();
+            boolean isEligible = candidate.reasons.isEmpty();
+            if (wasEligible && isEligible) {
+                eligibleToEligible++;
+            } else if (wasEligible) {
+                eligibleToIneligible++;
+                count(newlyIneligibleReasons, candidate.reasons);
+                sample(newlyIneligibleSample, candidate.id);
+            } else if (isEligible) {
+                ineligibleToEligible++;
+                count(newlyEligibleReasons, baseline.reasons);
+                sample(newlyEligibleSample, candidate.id);
+            } else {
+                ineligibleToIneligible++;
+            }
+        }
+
+        private static void count(Map<String, Integer> counts, List<String> reasons) {
+            for (String reason : reasons) {
+                counts.put(reason, counts.getOrDefault(reason, 0) + 1);
+            }
+        }
+
+        private void sample(List<String> sample, String id) {
+            if (sample.size() < sampleLimit) {
+                sample.add(id);
+            }
+        }
+    }
+
+    private static class SegmentCube {
+        static final long MAX_CROSS_CELLS = 1L << 22;
+
+        final List<String> fields = new ArrayList<>();
+        final List<int[]> crosses = new ArrayList<>();
+        private final List<NormalizedValueSet> dictionaries = new ArrayList<>();
+        private int[][] totals = new int[0][];
+        private int[][] eligibles = new int[0][];
+        private int[][] crossTotals = new int[0][];
+        private int[][] crossEligibles = new int[0][];
+        private int[] crossRows = new int[0];
+        private int[] crossColumns = new int[0];
+        private int[] ids = new int[0];
+
+        static SegmentCube create(String fieldList, String crossList, RuleSet rules) throws IOException {
+            SegmentCube cube = new SegmentCube();
+            if (fieldList != null) {
+                for (String field : fieldList.split(",")) {
+                    if (!field.isBlank()) {
+                        cube.dimension(canonicalizeField(normalize(field), rules));
+                    }
+                }
+            }
+            if (crossList != null) {
+                for (String pair : crossList.split(",")) {
+                    if (pair.isBlank()) {
+                        continue;
+                    }
+                    String[] parts = pair.split(":");
+                    if (parts.length != 2 || parts[0].isBlank() || parts[1].isBlank()) {
+                        throw new IOException("Invalid --segment-cross entry '" + pair.trim() + "' (expected field:field).");
+                    }
+                    int first = cube.dimension(canonicalizeField(normalize(parts[0]), rules));
+                    int second = cube.dimension(canonicalizeField(normalize(parts[1]), rules));
+                    if (first == second) {
+                        throw new IOException("Invalid --segment-cross entry '" + pair.trim() + "' (fields must differ).");
+                    }
+                    cube.cross(first, second);
+                }
+            }
+            return cube.fields.isEmpty() ? null : cube;
+        }
+
+        int dimension(String field) {
+            int existing = fields.indexOf(field);
+            if (existing >= 0) {
+                return existing;
+            }
+            int d = fields.size();
+            fields.add(field);
+            dictionaries.add(new NormalizedValueSet());
+            totals = Arrays.copyOf(totals, d + 1);
+            eligibles = Arrays.copyOf(eligibles, d + 1);
+            totals[d] = new int[16];
+            eligibles[d] = new int[16];
+            ids = new int[d + 1];
+            return d;
+        }
+
+        int cross(int first, int second) {
+            for (int c = 0; c < crosses.size(); c++) {
+                if (crosses.get(c)[0] == first && crosses.get(c)[1] == second) {
+                    return c;
+                }
+            }
+            int c = crosses.size();
+            crosses.add(new int[] {first, second});
+            crossTotals = Arrays.copyOf(crossTotals, c + 1);
+            crossEligibles = Arrays.copyOf(crossEligibles, c + 1);
+            crossRows = Arrays.copyOf(crossRows, c + 1);
+            crossColumns = Arrays.copyOf(crossColumns, c + 1);
+            crossRows[c] = 8;
+            crossColumns[c] = 8;
+            crossTotals[c] = new int[64];
+            crossEligibles[c] = new int[64];
+            return c;
+        }
+
+        void add(Map<String, String> rowMap, boolean eligible) throws IOException {
+            int eligibleCount = eligible ? 1 : 0;
+            for (int d = 0; d < fields.size(); d++) {
+                String raw = rowMap.getOrDefault(fields.get(d), "");
+                int id = dictionaries.get(d).internOrdinal(raw.isBlank() ? "missing" : raw);
+                ids[d] = id;
+                count(d, id, 1, eligibleCount);
+            }
+            for (int c = 0; c < crosses.size(); c++) {
+                int[] pair = crosses.get(c);
+                countCross(c, ids[pair[0]], ids[pair[1]], 1, eligibleCount);
+            }
+        }
+
+        void put(int d, String value, int total, int eligible) {
+            count(d, dictionaries.get(d).internOrdinal(value), total, eligible);
+        }
+
+        void putCross(int c, String first, String second, int total, int eligible) throws IOException {
+            int[] pair = crosses.get(c);
+            countCross(c, dictionaries.get(pair[0]).internOrdinal(first), dictionaries.get(pair[1]).internOrdinal(second), total, eligible);
+        }
+
+        private void count(int d, int id, int total, int eligible) {
+            if (id >= totals[d].length) {
+                int capacity = Math.max(totals[d].length * 2, id + 1);
+                totals[d] = Arrays.copyOf(totals[d], capacity);
+                eligibles[d] = Arrays.copyOf(eligibles[d], capacity);
+            }
+            totals[d][id] += total;
+            eligibles[d][id] += eligible;
+        }
+
+        private void countCross(int c, int row, int column, int total, int eligible) throws IOException {
+            if (row >= crossRows[c] || column >= crossColumns[c]) {
+                growCross(c, row, column);
+            }
+            int cell = row * crossColumns[c] + column;
+            crossTotals[c][cell] += total;
+            crossEligibles[c][cell] += eligible;
+        }
+
+        private void growCross(int c, int row, int column) throws IOException {
+            int rows = crossRows[c];
+            int columns = crossColumns[c];
+            int newRows = row >= rows ? Math.max(rows * 2, row + 1) : rows;
+            int newColumns = column >= columns ? Math.max(columns * 2, column + 1) : columns;
+            if ((long) newRows * newColumns > MAX_CROSS_CELLS) {
+                int[] pair = crosses.get(c);
+                throw new IOException("Segment cross " + fields.get(pair[0]) + ":" + fields.get(pair[1]) + " exceeds "
+                        + MAX_CROSS_CELLS + " value pairs; cross lower-cardinality fields.");
+            }
+            int[] newTotals = new int[newRows * newColumns];
+            int[] newEligibles = new int[newRows * newColumns];
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(crossTotals[c], r * columns, newTotals, r * newColumns, columns);
+                System.arraycopy(crossEligibles[c], r * columns, newEligibles, r * newColumns, columns);
+            }
+            crossTotals[c] = newTotals;
+            crossEligibles[c] = newEligibles;
+            crossRows[c] = newRows;
+            crossColumns[c] = newColumns;
+        }
+
+        void merge(SegmentCube other) throws IOException {
+            for (int d = 0; d < fields.size(); d++) {
+                NormalizedValueSet values = other.dictionaries.get(d);
+                for (int id = 0; id < values.size(); id++) {
+                    count(d, dictionaries.get(d).add(values.value(id)), other.totals[d][id], other.eligibles[d][id]);
+                }
+            }
+            for (int c = 0; c < crosses.size(); c++) {
+                int[] pair = crosses.get(c);
+                NormalizedValueSet rowValues = other.dictionaries.get(pair[0]);
+                NormalizedValueSet columnValues = other.dictionaries.get(pair[1]);
+                for (int r = 0; r < Math.min(rowValues.size(), other.crossRows[c]); r++) {
+                    for (int col = 0; col < Math.min(columnValues.size(), other.crossColumns[c]); col++) {
+                        int cell = r * other.crossColumns[c] + col;
+                        if (other.crossTotals[c][cell] != 0) {
+                            countCross(c, dictionaries.get(pair[0]).add(rowValues.value(r)), dictionaries.get(pair[1]).add(columnValues.value(col)),
+                                    other.crossTotals[c][cell], other.crossEligibles[c][cell]);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<SegmentBreakdown> breakdowns() {
+            List<SegmentBreakdown> breakdowns = new ArrayList<>();
+            for (int d = 0; d < fields.size(); d++) {
+                SegmentBreakdown breakdown = new SegmentBreakdown(fields.get(d), null);
+                NormalizedValueSet dictionary = dictionaries.get(d);
+                for (int id = 0; id < dictionary.size(); id++) {
+                    breakdown.add(dictionary.value(id), null, totals[d][id], eligibles[d][id]);
+                }
+                breakdowns.add(breakdown.sorted());
+            }
+            for (int c = 0; c < crosses.size(); c++) {
+                int[] pair = crosses.get(c);
+                SegmentBreakdown breakdown = new SegmentBreakdown(fields.get(pair[0]), fields.get(pair[1]));
+                NormalizedValueSet rowValues = dictionaries.get(pair[0]);
+                NormalizedValueSet columnValues = dictionaries.get(pair[1]);
+                for (int r = 0; r < Math.min(rowValues.size(), crossRows[c]); r++) {
+                    for (int col = 0; col < Math.min(columnValues.size(), crossColumns[c]); col++) {
+                        int cell = r * crossColumns[c] + col;
+                        breakdown.add(rowValues.value(r), columnValues.value(col), crossTotals[c][cell], crossEligibles[c][cell]);
+                    }
+                }
+                breakdowns.add(breakdown.sorted());
+            }
+            return breakdowns;
+        }
+
+        static void write(DataOutputStream out, SegmentCube cube) throws IOException {
+            ResultCodec.writeStrings(out, cube.fields);
+            out.writeInt(cube.crosses.size());
+            for (int[] pair : cube.crosses) {
+                out.writeInt(pair[0]);
+                out.writeInt(pair[1]);
+            }
+            for (SegmentBreakdown breakdown : cube.breakdowns()) {
+                out.writeInt(breakdown.stats.size());
+                for (SegmentStats stat : breakdown.stats) {
+                    ResultCodec.writeString(out, stat.value);
+                    ResultCodec.writeNullableString(out, stat.crossValue);
+                    out.writeInt(stat.total);
+                    out.writeInt(stat.eligible);
+                }
+            }
+        }
+
+        static void writeState(DataOutputStream out, SegmentCube cube) throws IOException {
+            ResultCodec.writeStrings(out, cube.fields);
+            out.writeInt(cube.crosses.size());
+            for (int[] pair : cube.crosses) {
+                out.writeInt(pair[0]);
+                out.writeInt(pair[1]);
+            }
+            for (int d = 0; d < cube.fields.size(); d++) {
+                NormalizedValueSet dictionary = cube.dictionaries.get(d);
+                out.writeInt(dictionary.size());
+                for (int id = 0; id < dictionary.size(); id++) {
+                    ResultCodec.writeString(out, dictionary.value(id));
+                    out.writeInt(cube.totals[d][id]);
+                    out.writeInt(cube.eligibles[d][id]);
+                }
+            }
+            for (int c = 0; c < cube.crosses.size(); c++) {
+                out.writeInt(cube.crossRows[c]);
+                out.writeInt(cube.crossColumns[c]);
+                for (int cell = 0; cell < cube.crossTotals[c].length; cell++) {
+                    out.writeInt(cube.crossTotals[c][cell]);
+                    out.writeInt(cube.crossEligibles[c][cell]);
+                }
+            }
+        }
+
+        static SegmentCube readState(DataInputStream in) throws IOException {
+            SegmentCube cube = new SegmentCube();
+            for (String field : ResultCodec.readStrings(in)) {
+                cube.dimension(field);
+            }
+            int crosses = in.readInt();
+            for (int c = 0; c < crosses; c++) {
+                cube.cross(in.readInt(), in.readInt());
+            }
+            for (int d = 0; d < cube.fields.size(); d++) {
+                int values = in.readInt();
+                for (int id = 0; id < values; id++) {
+                    cube.count(d, cube.dictionaries.get(d).add(ResultCodec.readString(in)), in.readInt(), in.readInt());
+                }
+            }
+            for (int c = 0; c < crosses; c++) {
+                int rows = in.readInt();
+                int columns = in.readInt();
+                cube.crossRows[c] = rows;
+                cube.crossColumns[c] = columns;
+                cube.crossTotals[c] = new int[rows * columns];
+                cube.crossEligibles[c] = new int[rows * columns];
+                for (int cell = 0; cell < rows * columns; cell++) {
+                    cube.crossTotals[c][cell] = in.readInt();
+                    cube.crossEligibles[c][cell] = in.readInt();
+                }
+            }
+            return cube;
+        }
+
+        static SegmentCube read(DataInputStream in) throws IOException {
+            SegmentCube cube = new SegmentCube();
+            for (String field : ResultCodec.readStrings(in)) {
+                cube.dimension(field);
             }
-            sb.append("  ");
+            int crosses = in.readInt();
+            for (int c = 0; c < crosses; c++) {
+                cube.cross(in.readInt(), in.readInt());
+            }
+            for (int b = 0; b < cube.fields.size() + crosses; b++) {
+                int entries = in.readInt();
+                for (int i = 0; i < entries; i++) {
+                    String value = ResultCodec.readString(in);
+                    String crossValue = ResultCodec.readNullableString(in);
+                    int total = in.readInt();
+                    int eligible = in.readInt();
+                    if (b < cube.fields.size()) {
+                        cube.put(b, value, total, eligible);
+                    } else {
+                        cube.putCross(b - cube.fields.size(), value, crossValue, total, eligible);
+                    }
+                }
+            }
+            return cube;
         }
-        sb.append("},\n");
-        sb.append("  \"missingFieldRates\": {");
-        if (!result.missingFieldCounts.isEmpty()) {
-            sb.append("\n");
-            int idx = 0;
-            for (Map.Entry<String, Integer> entry : result.missingFieldCounts.entrySet()) {
-                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ")
-                        .append(formatRateValue(entry.getValue(), result.totalRows));
-                idx++;
-                sb.append(idx < result.missingFieldCounts.size() ? ",\n" : "\n");
+    }
+
+    private static class SegmentBreakdown {
+        String field;
+        String crossField;
+        List<SegmentStats> stats = new ArrayList<>();
+
+        SegmentBreakdown(String field, String crossField) {
+            this.field = field;
+            this.crossField = crossField;
+        }
+
+        void add(String value, String crossValue, int total, int eligible) {
+            if (total == 0) {
+                return;
             }
-            sb.append("  ");
+            SegmentStats stat = new SegmentStats(value);
+            stat.crossValue = crossValue;
+            stat.total = total;
+            stat.eligible = eligible;
+            stat.ineligible = total - eligible;
+            stats.add(stat);
+        }
+
+        SegmentBreakdown sorted() {
+            stats.sort((a, b) -> Integer.compare(b.total, a.total));
+            return this;
+        }
+
+        String label() {
+            return crossField == null ? field : field + " x " + crossField;
+        }
+    }
+
+    private static class SegmentStats {
+        String value;
+        String crossValue;
+        int total;
+        int eligible;
+        int ineligible;
+
+        SegmentStats(String value) {
+            this.value = value;
+        }
+
+        String label() {
+            return crossValue == null ? value : value + " x " + crossValue;
+        }
+    }
+
+    private static class HistoryReport {
+        final LocalDate since;
+        final LocalDate until;
+        final String bucket;
+        final String runName;
+        final Map<LocalDate, HistoryPeriod> periods = new LinkedHashMap<>();
+        final Map<String, Map<LocalDate, Long>> reasons = new HashMap<>();
+        final Map<String, Map<LocalDate, long[]>> completeness = new HashMap<>();
+        Map<String, Long> reasonTotals = new HashMap<>();
+        List<String> topReasons = new ArrayList<>();
+
+        HistoryReport(LocalDate since, LocalDate until, String bucket, String runName) {
+            this.since = since;
+            this.until = until;
+            this.bucket = bucket;
+            this.runName = runName;
+        }
+    }
+
+    private static class HistoryPeriod {
+        final LocalDate period;
+        long runs;
+        long total;
+        long eligible;
+        long ineligible;
+        long warnings;
+        long reviews;
+
+        HistoryPeriod(LocalDate period) {
+            this.period = period;
+        }
+    }
+
+    private static class Migration {
+        private static final Pattern FILE_NAME = Pattern.compile("(\\d+)_.*\\.sql");
+
+        final int version;
+        final String name;
+        final String sql;
+
+        Migration(int version, String name, String sql) {
+            this.version = version;
+            this.name = name;
+            this.sql = sql;
+        }
+
+        static List<Migration> load(Path dir) throws IOException {
+            if (!Files.isDirectory(dir)) {
+                throw new IOException("Migrations directory not found: " + dir);
+            }
+            List<Migration> migrations = new ArrayList<>();
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = file.getFileName().toString();
+                    Matcher matcher = FILE_NAME.matcher(name);
+                    if (matcher.matches()) {
+                        migrations.add(new Migration(Integer.parseInt(matcher.group(1)), name, Files.readString(file, StandardCharsets.UTF_8)));
+                    }
+                }
+            }
+            migrations.sort((a, b) -> Integer.compare(a.version, b.version));
+            if (migrations.isEmpty()) {
+                throw new IOException("No migrations found in " + dir);
+            }
+            for (int i = 1; i < migrations.size(); i++) {
+                if (migrations.get(i).version == migrations.get(i - 1).version) {
+                    throw new IOException("Duplicate migration version " + migrations.get(i).version + " in " + dir);
+                }
+            }
+            return migrations;
+        }
+    }
+
+    private static class SpooledRun {
+        String runKey;
+        long runAt;
+        String runName;
+        AuditResult result;
+
+        SpooledRun(String runKey, long runAt, String runName, AuditResult result) {
+            this.runKey = runKey;
+            this.runAt = runAt;
+            this.runName = runName;
+            this.result = result;
+        }
+    }
+
+    private static class DbSpool {
+        static final int RECORD_MAGIC = 0x4753504C;
+        private static final Object APPEND_MONITOR = new Object();
+        private static final AtomicBoolean FLUSHING = new AtomicBoolean(false);
+
+        final Path dir;
+        private final Path logPath;
+        private final Path offsetPath;
+        private final Path lockPath;
+        private final Path flushLockPath;
+
+        private DbSpool(Path dir) {
+            this.dir = dir;
+            this.logPath = dir.resolve("audit-runs.spool");
+            this.offsetPath = dir.resolve("audit-runs.offset");
+            this.lockPath = dir.resolve("append.lock");
+            this.flushLockPath = dir.resolve("flush.lock");
+        }
+
+        static DbSpool open(Path dir) throws IOException {
+            Files.createDirectories(dir);
+            return new DbSpool(dir);
+        }
+
+        void append(SpooledRun run) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeUTF(run.runKey);
+                out.writeLong(run.runAt);
+                ResultCodec.writeNullableString(out, run.runName);
+                ResultCodec.write(out, run.result);
+            }
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer record = ByteBuffer.allocate(16 + payload.length);
+            record.putInt(RECORD_MAGIC).putInt(payload.length).putLong(crc.getValue()).put(payload).flip();
+            synchronized (APPEND_MONITOR) {
+                try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    FileLock lock = channel.lock();
+                    try (FileChannel log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                        while (record.hasRemaining()) {
+                            log.write(record);
+                        }
+                        log.force(true);
+                    } finally {
+                        lock.release();
+                    }
+                }
+            }
+        }
+
+        long committedOffset() throws IOException {
+            if (!Files.exists(offsetPath)) {
+                return 0L;
+            }
+            String text = Files.readString(offsetPath, StandardCharsets.UTF_8).trim();
+            try {
+                return text.isEmpty() ? 0L : Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                throw new IOException("Corrupt spool offset file: " + offsetPath);
+            }
+        }
+
+        void commit(long offset) throws IOException {
+            Path temp = offsetPath.resolveSibling(offsetPath.getFileName() + ".tmp");
+            Files.writeString(temp, Long.toString(offset), StandardCharsets.UTF_8);
+            Files.move(temp, offsetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        long pendingBytes() throws IOException {
+            long size = Files.exists(logPath) ? Files.size(logPath) : 0L;
+            return Math.max(0L, size - committedOffset());
+        }
+
+        List<SpoolEntry> read(long offset, int maxRuns) throws IOException {
+            List<SpoolEntry> entries = new ArrayList<>();
+            if (!Files.exists(logPath)) {
+                return entries;
+            }
+            try (RandomAccessFile file = new RandomAccessFile(logPath.toFile(), "r")) {
+                long length = file.length();
+                long position = offset;
+                while (entries.size() < maxRuns && position + 16 <= length) {
+                    file.seek(position);
+                    int magic = file.readInt();
+                    int size = file.readInt();
+                    long checksum = file.readLong();
+                    if (magic != RECORD_MAGIC || size < 0 || position + 16 + size > length) {
+                        if (magic == RECORD_MAGIC && size >= 0) {
+                            break;
+                        }
+                        position = skipCorrupt(file, position, length);
+                        continue;
+                    }
+                    byte[] payload = new byte[size];
+                    file.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if (crc.getValue() != checksum) {
+                        position = skipCorrupt(file, position, length);
+                        continue;
+                    }
+                    position += 16 + size;
+                    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+                        String runKey = in.readUTF();
+                        long runAt = in.readLong();
+                        String runName = ResultCodec.readNullableString(in);
+                        entries.add(new SpoolEntry(new SpooledRun(runKey, runAt, runName, ResultCodec.read(in)), position));
+                    }
+                }
+                if (entries.isEmpty() && position > offset) {
+                    entries.add(new SpoolEntry(null, position));
+                }
+            }
+            return entries;
+        }
+
+        // Resumes at the next RECORD_MAGIC after a bad header or checksum. Without one, it
+        // stops short of the last three bytes, which may be the start of a record being appended.
+        private static long skipCorrupt(RandomAccessFile file, long position, long length) throws IOException {
+            long next = findMagic(file, position + 1, length);
+            if (next < 0) {
+                next = Math.max(position + 1, length - 3);
+            }
+            System.err.println("Skipping " + (next - position) + " corrupt spool byte(s) at offset " + position + ".");
+            return next;
+        }
+
+        private static long findMagic(RandomAccessFile file, long start, long length) throws IOException {
+            byte[] chunk = new byte[64 * 1024];
+            while (start + 4 <= length) {
+                int count = (int) Math.min(chunk.length, length - start);
+                file.seek(start);
+                file.readFully(chunk, 0, count);
+                for (int i = 0; i + 4 <= count; i++) {
+                    int word = (chunk[i] & 0xFF) << 24 | (chunk[i + 1] & 0xFF) << 16 | (chunk[i + 2] & 0xFF) << 8 | chunk[i + 3] & 0xFF;
+                    if (word == RECORD_MAGIC) {
+                        return start + i;
+                    }
+                }
+                start += count - 3;
+            }
+            return -1L;
+        }
+
+        void compactIfDrained() throws IOException {
+            synchronized (APPEND_MONITOR) {
+                try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    FileLock lock = channel.lock();
+                    try {
+                        if (Files.exists(logPath) && Files.size(logPath) == committedOffset()) {
+                            try (FileChannel log = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+                                log.truncate(0L);
+                            }
+                            commit(0L);
+                        }
+                    } finally {
+                        lock.release();
+                    }
+                }
+            }
+        }
+
+        FileLock tryLockFlush(FileChannel channel) throws IOException {
+            if (!FLUSHING.compareAndSet(false, true)) {
+                return null;
+            }
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                FLUSHING.set(false);
+            }
+            return lock;
+        }
+
+        void releaseFlush(FileLock lock) throws IOException {
+            try {
+                lock.release();
+            } finally {
+                FLUSHING.set(false);
+            }
+        }
+    }
+
+    private static class SpoolEntry {
+        SpooledRun run;
+        long endOffset;
+
+        SpoolEntry(SpooledRun run, long endOffset) {
+            this.run = run;
+            this.endOffset = endOffset;
+        }
+    }
+
+    private static class SpoolFlusher {
+        private static final int BATCH_RUNS = 16;
+
+        final DbSpool spool;
+        private final DbConfig config;
+        private boolean running = false;
+        private boolean requested = false;
+
+        SpoolFlusher(DbSpool spool, DbConfig config) {
+            this.spool = spool;
+            this.config = config;
+        }
+
+        synchronized void requestFlush() {
+            requested = true;
+            if (running) {
+                return;
+            }
+            running = true;
+            Thread worker = new Thread(this::drainRequests, "db-spool-flusher");
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        private void drainRequests() {
+            while (true) {
+                synchronized (this) {
+                    if (!requested) {
+                        running = false;
+                        notifyAll();
+                        return;
+                    }
+                    requested = false;
+                }
+                try {
+                    flushOnce();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("DB logging failed: " + e.getMessage());
+                }
+            }
+        }
+
+        synchronized boolean awaitIdle(long waitMillis) {
+            long deadline = System.currentTimeMillis() + Math.max(0L, waitMillis);
+            while (running) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int flushOnce() throws IOException {
+            try (FileChannel channel = FileChannel.open(spool.flushLockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = spool.tryLockFlush(channel);
+                if (lock == null) {
+                    return 0;
+                }
+                try {
+                    return flushLocked();
+                } finally {
+                    spool.releaseFlush(lock);
+                }
+            }
+        }
+
+        private int flushLocked() throws IOException {
+            long offset = spool.committedOffset();
+            List<SpoolEntry> batch = spool.read(offset, BATCH_RUNS);
+            if (batch.isEmpty()) {
+                spool.compactIfDrained();
+                return 0;
+            }
+            int flushed = 0;
+            long started = System.nanoTime();
+            try (Connection conn = openConnection(config)) {
+                conn.setAutoCommit(false);
+                ensureSchema(conn, config.schema);
+                conn.commit();
+                Map<String, Integer> reasonIds = new HashMap<>();
+                while (!batch.isEmpty()) {
+                    try {
+                        for (SpoolEntry entry : batch) {
+                            if (entry.run == null) {
+                                continue;
+                            }
+                            long runId = writeSpooledRun(conn, config.schema, entry.run, reasonIds);
+                            if (runId >= 0) {
+                                flushed++;
+                            }
+                        }
+                        DbPhaseEvent phase = DbPhaseEvent.start("commit", config.schema);
+                        conn.commit();
+                        phase.finish(batch.size());
+                    } catch (SQLException e) {
+                        conn.rollback();
+                        throw e;
+                    }
+                    offset = batch.get(batch.size() - 1).endOffset;
+                    spool.commit(offset);
+                    batch = spool.read(offset, BATCH_RUNS);
+                }
+            } catch (SQLException e) {
+                System.err.println("DB logging failed: " + e.getMessage() + " (" + flushed + " run(s) flushed, remainder stays spooled).");
+                return flushed == 0 ? -1 : flushed;
+            }
+            spool.compactIfDrained();
+            System.err.println("Logged " + flushed + " spooled audit run(s) to DB in " + (System.nanoTime() - started) / 1_000_000L + " ms.");
+            return flushed;
+        }
+    }
+
+    private static class RouteTable {
+        static final String FALLBACK = "*";
+
+        String field;
+        final List<RouteProgram> programs = new ArrayList<>();
+        private final Map<String, RouteProgram> byValue = new HashMap<>();
+        private RouteProgram fallback;
+
+        static RouteTable load(Path path, Map<String, String> options) throws IOException {
+            RouteTable table = new RouteTable();
+            Path base = path.toAbsolutePath().getParent();
+            Map<Path, RuleSet> parsed = new HashMap<>();
+            String section = "";
+            for (String raw : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                String line = raw.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (line.startsWith("[") && line.endsWith("]")) {
+                    section = line.substring(1, line.length() - 1).toLowerCase(Locale.ROOT);
+                    if (!section.startsWith("route:") || section.length() == "route:".length()) {
+                        throw new IOException("Unknown routes section [" + section + "] in " + path + " (expected [route:field]).");
+                    }
+                    if (table.field != null) {
+                        throw new IOException("Routes file " + path + " must have exactly one [route:field] section.");
+                    }
+                    table.field = normalize(section.substring("route:".length()));
+                    continue;
+                }
+                String[] parts = line.split("=", 2);
+                if (parts.length != 2 || table.field == null) {
+                    continue;
+                }
+                String key = parts[0].trim();
+                Path rulesFile = base.resolve(parts[1].trim()).normalize();
+                RuleSet rules = parsed.get(rulesFile);
+                if (rules == null) {
+                    rules = loadRules(rulesFile, options);
+                    parsed.put(rulesFile, rules);
+                }
+                RouteProgram program = new RouteProgram(table.programs.size(), key, parts[1].trim(), rules);
+                if (key.equals(FALLBACK)) {
+                    if (table.fallback != null) {
+                        throw new IOException("Routes file " + path + " has more than one '*' route.");
+                    }
+                    table.fallback = program;
+                } else {
+                    for (String value : key.split(",")) {
+                        if (value.isBlank()) {
+                            continue;
+                        }
+                        String normalized = normalizeValue(value);
+                        if (table.byValue.putIfAbsent(normalized, program) != null) {
+                            throw new IOException("Route value '" + value.trim() + "' is mapped more than once in " + path + ".");
+                        }
+                        program.values.add(normalized);
+                    }
+                }
+                table.programs.add(program);
+            }
+            if (table.field == null || table.programs.isEmpty()) {
+                throw new IOException("Routes file " + path + " needs a [route:field] section with at least one value = rules line.");
+            }
+            return table;
+        }
+
+        RouteProgram route(String value) {
+            RouteProgram program = value == null ? null : byValue.get(normalizeValue(value));
+            return program == null ? fallback : program;
+        }
+    }
+
+    private static class RouteProgram {
+        final int index;
+        final String label;
+        final String rulesPath;
+        final RuleSet rules;
+        final List<String> values = new ArrayList<>();
+
+        RouteProgram(int index, String label, String rulesPath, RuleSet rules) {
+            this.index = index;
+            this.label = label;
+            this.rulesPath = rulesPath;
+            this.rules = rules;
+        }
+    }
+
+    private static class RoutedAudit implements AutoCloseable {
+        static final int MAX_UNROUTED_VALUES = 100;
+
+        RouteTable table;
+        final List<AuditResult> results = new ArrayList<>();
+        final Map<String, Integer> unroutedValues = new LinkedHashMap<>();
+        String inputPath = "";
+        String routesPath = "";
+        int totalRows;
+        int unrouted;
+
+        void unrouted(String value) {
+            unrouted++;
+            String key = value == null || value.isBlank() ? "missing" : normalizeValue(value);
+            if (!unroutedValues.containsKey(key) && unroutedValues.size() >= MAX_UNROUTED_VALUES) {
+                key = "(other)";
+            }
+            unroutedValues.merge(key, 1, Integer::sum);
+        }
+
+        int eligible() {
+            int eligible = 0;
+            for (AuditResult result : results) {
+                eligible += result.eligible;
+            }
+            return eligible;
+        }
+
+        int ineligible() {
+            int ineligible = 0;
+            for (AuditResult result : results) {
+                ineligible += result.ineligible;
+            }
+            return ineligible;
+        }
+
+        Map<String, Integer> reasonCounts() {
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (AuditResult result : results) {
+                for (Map.Entry<String, Integer> entry : result.reasonCounts.entrySet()) {
+                    counts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                }
+            }
+            return counts;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (AuditResult result : results) {
+                result.close();
+            }
+        }
+    }
+
+    @Name("eligibility.AuditRun")
+    @Label("Audit Run")
+    @Description("One audit of an intake file, from opening the input to the finished aggregates")
+    @Category("Eligibility Oracle")
+    @Enabled(false)
+    @StackTrace(false)
+    private static class AuditRunEvent extends Event {
+        @Label("Input")
+        String input;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytes;
+
+        @Label("Eligible")
+        long eligible;
+
+        @Label("Ineligible")
+        long ineligible;
+    }
+
+    @Name("eligibility.RowEvaluation")
+    @Label("Row Evaluation")
+    @Description("Sampled evaluation of one applicant row against every built-in rule (one row in 1024)")
+    @Category("Eligibility Oracle")
+    @Enabled(false)
+    @StackTrace(false)
+    private static class RowEvaluationEvent extends Event {
+        static final int SAMPLE_ROWS = 1024;
+
+        @Label("Row")
+        int row;
+
+        @Label("Applicant Id")
+        String applicantId;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Label("Reasons")
+        String reasons;
+
+        void describe(RowRecord record) {
+            row = record.row;
+            applicantId = record.id;
+            outcome = record.reasons.isEmpty() ? "eligible" : "ineligible";
+            reasons = String.join(",", record.reasons);
+        }
+    }
+
+    @Name("eligibility.RuleEvaluation")
+    @Label("Rule Evaluation")
+    @Description("Sampled evaluation of one expression rule (rows sampled with eligibility.RowEvaluation)")
+    @Category("Eligibility Oracle")
+    @Enabled(false)
+    @StackTrace(false)
+    private static class RuleEvaluationEvent extends Event {
+        @Label("Rule")
+        String rule;
+
+        @Label("Row")
+        int row;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("eligibility.SlowRow")
+    @Label("Slow Row")
+    @Description("Applicant row whose rule evaluation took longer than the threshold")
+    @Category("Eligibility Oracle")
+    @Enabled(false)
+    @Threshold("5 ms")
+    @StackTrace(false)
+    private static class SlowRowEvent extends Event {
+        @Label("Row")
+        int row;
+
+        @Label("Applicant Id")
+        String applicantId;
+
+        @Label("Reasons")
+        String reasons;
+    }
+
+    @Name("eligibility.DbPhase")
+    @Label("DB Phase")
+    @Description("One step of writing an audit run to Postgres or reading history from it")
+    @Category("Eligibility Oracle")
+    @Enabled(false)
+    @StackTrace(false)
+    private static class DbPhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Schema")
+        String schema;
+
+        @Label("Records")
+        @Description("Records written by the phase; 0 when the phase writes aggregates only")
+        long records;
+
+        static DbPhaseEvent start(String phase, String schema) {
+            DbPhaseEvent event = new DbPhaseEvent();
+            event.phase = phase;
+            event.schema = schema;
+            event.begin();
+            return event;
+        }
+
+        void finish(long records) {
+            this.records = records;
+            commit();
+        }
+    }
+
+    private static class AuditCheckpoint {
+        static final int CHECK_ROWS = 4096;
+        private static final int MAGIC = 0x4743484B;
+        private static final int VERSION = 2;
+        private static final List<String> FINGERPRINT_OPTIONS = List.of("id-field", "limit", "review-limit", "segment-field", "segment-cross");
+
+        private final Path file;
+        private final String fingerprint;
+        private final long intervalNanos;
+        private long savedAt = System.nanoTime();
+
+        AuditCheckpoint(Path file, String fingerprint, long intervalNanos) {
+            this.file = file;
+            this.fingerprint = fingerprint;
+            this.intervalNanos = intervalNanos;
+        }
+
+        static AuditCheckpoint open(Path dir, Path inputPath, Path rulesPath, Map<String, String> options) throws IOException {
+            Files.createDirectories(dir);
+            MessageDigest digest = sha256();
+            StringBuilder key = new StringBuilder();
+            key.append(inputPath.toAbsolutePath().normalize()).append('\n')
+                    .append(Files.size(inputPath)).append('\n')
+                    .append(Files.getLastModifiedTime(inputPath).toMillis()).append('\n');
+            for (String option : FINGERPRINT_OPTIONS) {
+                key.append(option).append('=').append(options.getOrDefault(option, "")).append('\n');
+            }
+            digest.update(key.toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(Files.readAllBytes(rulesPath));
+            long interval = Math.max(1, parseIntOption(options.get("checkpoint-interval"), 60));
+            return new AuditCheckpoint(dir.resolve("checkpoint.bin"), HexFormat.of().formatHex(digest.digest()),
+                    TimeUnit.SECONDS.toNanos(interval));
+        }
+
+        boolean due() {
+            return System.nanoTime() - savedAt >= intervalNanos;
         }
-        sb.append("},\n");
-        sb.append("  \"failures\": [");
-        if (!result.failures.isEmpty()) {
-            sb.append("\n");
-            for (int i = 0; i < result.failures.size(); i++) {
-                FailureRecord record = result.failures.get(i);
-                sb.append("    {\"id\": \"").append(escapeJson(record.id)).append("\", \"reasons\": [");
-                for (int r = 0; r < record.reasons.size(); r++) {
-                    sb.append("\"").append(escapeJson(record.reasons.get(r))).append("\"");
-                    if (r + 1 < record.reasons.size()) {
-                        sb.append(", ");
-                    }
+
+        void save(int row, long offset, AuditResult result, RecordList<RowRecord> rows, DuplicateIndex duplicates) throws IOException {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                ResultCodec.writeString(out, fingerprint);
+                out.writeInt(row);
+                out.writeLong(offset);
+                ResultCodec.write(out, result);
+                out.writeBoolean(result.segments != null);
+                if (result.segments != null) {
+                    SegmentCube.writeState(out, result.segments);
                 }
-                sb.append("]}");
-                sb.append(i + 1 < result.failures.size() ? ",\n" : "\n");
+                out.writeInt(rows.size());
+                for (RowRecord record : rows) {
+                    RowRecord.CODEC.write(out, record);
+                }
+                duplicates.writeState(out);
             }
-            sb.append("  ");
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedAt = System.nanoTime();
         }
-        sb.append("],\n");
-        sb.append("  \"reviewCounts\": {");
-        if (!result.reviewCounts.isEmpty()) {
-            sb.append("\n");
-            int idx = 0;
-            for (Map.Entry<String, Integer> entry : result.reviewCounts.entrySet()) {
-                sb.append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue());
-                idx++;
-                sb.append(idx < result.reviewCounts.size() ? ",\n" : "\n");
+
+        int restore(RowSource reader, AuditResult result, RecordList<RowRecord> rows, DuplicateIndex duplicates) throws IOException {
+            if (!Files.exists(file)) {
+                return 0;
             }
-            sb.append("  ");
-        }
-        sb.append("},\n");
-        sb.append("  \"reviews\": [");
-        if (!result.reviews.isEmpty()) {
-            sb.append("\n");
-            for (int i = 0; i < result.reviews.size(); i++) {
-                ReviewRecord record = result.reviews.get(i);
-                sb.append("    {\"id\": \"").append(escapeJson(record.id)).append("\", \"reasons\": [");
-                for (int r = 0; r < record.reasons.size(); r++) {
-                    sb.append("\"").append(escapeJson(record.reasons.get(r))).append("\"");
-                    if (r + 1 < record.reasons.size()) {
-                        sb.append(", ");
-                    }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Unrecognized checkpoint file: " + file);
                 }
-                sb.append("]}");
-                sb.append(i + 1 < result.reviews.size() ? ",\n" : "\n");
+                if (!ResultCodec.readString(in).equals(fingerprint)) {
+                    System.err.println("Ignoring checkpoint " + file + "; it was written for a different input, rules file or options.");
+                    return 0;
+                }
+                int row = in.readInt();
+                long offset = in.readLong();
+                ResultCodec.read(in, result);
+                result.segments = in.readBoolean() ? SegmentCube.readState(in) : null;
+                for (int n = in.readInt(); n > 0; n--) {
+                    rows.add(RowRecord.CODEC.read(in));
+                }
+                duplicates.readState(in);
+                reader.seek(offset);
+                System.err.println("Resuming from checkpoint " + file + " at applicant " + row + ".");
+                return row;
             }
-            sb.append("  ");
         }
-        sb.append("],\n");
-        sb.append("  \"segments\": [");
-        if (!result.segmentStats.isEmpty()) {
-            sb.append("\n");
-            List<SegmentStats> stats = new ArrayList<>(result.segmentStats.values());
-            stats.sort((a, b) -> Integer.compare(b.total, a.total));
-            for (int i = 0; i < stats.size(); i++) {
-                SegmentStats stat = stats.get(i);
-                sb.append("    {\"value\": \"").append(escapeJson(stat.value)).append("\",")
-                        .append(" \"total\": ").append(stat.total).append(",")
-                        .append(" \"eligible\": ").append(stat.eligible).append(",")
-                        .append(" \"eligibleRate\": ").append(formatRateValue(stat.eligible, stat.total)).append(",")
-                        .append(" \"ineligible\": ").append(stat.ineligible).append(",")
-                        .append(" \"ineligibleRate\": ").append(formatRateValue(stat.ineligible, stat.total)).append("}");
-                sb.append(i + 1 < stats.size() ? ",\n" : "\n");
-            }
-            sb.append("  ");
+
+        void clear() throws IOException {
+            Files.deleteIfExists(file);
         }
-        sb.append("]\n");
-        sb.append("}\n");
-        return sb.toString();
     }
 
-    private static void logToDatabase(AuditResult result, Path inputPath, Path rulesPath, String runName) {
-        DbConfig config = DbConfig.fromEnv();
-        if (!config.enabled) {
-            System.err.println("DB logging requested but ELIGIBILITY_DB_URL is not set.");
-            return;
-        }
+    private static class AuditCache {
+        private static final int MAGIC = 0x47434143;
+        private static final int VERSION = 1;
+        private static final String SUFFIX = ".result";
+        private static final List<String> KEY_OPTIONS = List.of("id-field", "limit", "review-limit", "segment-field", "segment-cross");
+        private static final Object LOCK = new Object();
 
-        Properties props = new Properties();
-        if (config.user != null && !config.user.isBlank()) {
-            props.setProperty("user", config.user);
-        }
-        if (config.password != null && !config.password.isBlank()) {
-            props.setProperty("password", config.password);
-        }
+        private final Path dir;
+        private final long maxBytes;
 
-        try (Connection conn = DriverManager.getConnection(config.url, props)) {
-            conn.setAutoCommit(false);
-            ensureSchema(conn, config.schema);
-            long runId = insertAuditRun(conn, config.schema, result, inputPath, rulesPath, runName);
-            insertReasonCounts(conn, config.schema, runId, result.reasonCounts, "audit_reason_counts", "reason");
-            insertReasonCounts(conn, config.schema, runId, result.reasonCategoryCounts, "audit_reason_categories", "category");
-            insertReasonCounts(conn, config.schema, runId, result.warningCounts, "audit_warning_counts", "warning");
-            insertReasonCounts(conn, config.schema, runId, result.warningCategoryCounts, "audit_warning_categories", "category");
-            insertReasonCounts(conn, config.schema, runId, result.reviewCounts, "audit_review_counts", "reason");
-            insertFieldCompleteness(conn, config.schema, runId, result);
-            insertFailures(conn, config.schema, runId, result.failures);
-            insertReviews(conn, config.schema, runId, result.reviews);
-            insertSegments(conn, config.schema, runId, result);
-            conn.commit();
-            System.err.println("Logged audit to DB (run_id=" + runId + ").");
-        } catch (SQLException e) {
-            System.err.println("DB logging failed: " + e.getMessage());
+        static class Entry {
+            final AuditResult result;
+            final long auditNanos;
+
+            Entry(AuditResult result, long auditNanos) {
+                this.result = result;
+                this.auditNanos = auditNanos;
+            }
         }
-    }
 
-    private static void ensureSchema(Connection conn, String schema) throws SQLException {
-        try (PreparedStatement stmt = conn.prepareStatement("CREATE SCHEMA IF NOT EXISTS " + schema)) {
-            stmt.execute();
+        AuditCache(Path dir, long maxBytes) {
+            this.dir = dir;
+            this.maxBytes = maxBytes;
         }
-        String runsSql = "CREATE TABLE IF NOT EXISTS " + schema + ".audit_runs (" +
-                "id BIGSERIAL PRIMARY KEY," +
-                "run_at TIMESTAMPTZ NOT NULL," +
-                "run_name TEXT," +
-                "input_file TEXT," +
-                "rules_file TEXT," +
-                "total_applicants INT NOT NULL," +
-                "eligible INT NOT NULL," +
-                "ineligible INT NOT NULL," +
-                "eligible_rate NUMERIC(6,4) NOT NULL," +
-                "ineligible_rate NUMERIC(6,4) NOT NULL," +
-                "warning_applicants INT," +
-                "warning_rate NUMERIC(6,4)," +
-                "review_count INT," +
-                "review_rate NUMERIC(6,4)," +
-                "id_field TEXT NOT NULL," +
-                "failure_limit INT," +
-                "failures_truncated BOOLEAN NOT NULL," +
-                "review_limit INT," +
-                "reviews_truncated BOOLEAN" +
-                ")";
-        String reasonSql = "CREATE TABLE IF NOT EXISTS " + schema + ".audit_reason_counts (" +
-                "run_id BIGINT REFERENCES " + schema + ".audit_runs(id) ON DELETE CASCADE," +
-                "reason TEXT NOT NULL," +
-                "count INT NOT NULL" +
-                ")";
-        String categorySql = "CREATE TABLE IF NOT EXISTS " + schema + ".audit_reason_categories (" +
-                "run_id BIGINT REFERENCES " + schema + ".audit_runs(id) ON DELETE CASCADE," +
-                "category TEXT NOT NULL," +
-                "count INT NOT NULL" +
-                ")";
-        String warningSql = "CREATE TABLE IF NOT EXISTS " + schema + ".audit_warning_counts (" +
-                "run_id BIGINT REFERENCES " + schema + ".audit_runs(id) ON DELETE CASCADE," +
-                "warning TEXT NOT NULL," +
-                "count INT NOT NULL" +
-                ")";
-        String warningCategorySql = "CREATE TABLE IF NOT EXISTS " + schema + ".audit_warning_categories (" +
-                "run_id BIGINT REFERENCES " + schema + ".audit_runs(id) ON DELETE CASCADE," +
-                "category TEXT NOT NULL," +
-                "count INT NOT NULL" +
-                ")";
-        String reviewSql = "CREATE TABLE IF NOT EXISTS " + schema + ".audit_review_counts (" +
-                "run_id BIGINT REFERENCES " + schema + ".audit_runs(id) ON DELETE CASCADE," +
-                "reason TEXT NOT NULL," +
-                "count INT NOT NULL" +
-                ")";
-        String completenessSql = "CREATE TABLE IF NOT EXISTS " + schema + ".audit_field_completeness (" +
-                "run_id BIGINT REFERENCES " + schema + ".audit_runs(id) ON DELETE CASCADE," +
-                "field_name TEXT NOT NULL," +
-                "missing_count INT NOT NULL," +
-                "missing_rate NUMERIC(6,4) NOT NULL" +
-                ")";
-        String failureSql = "CREATE TABLE IF NOT EXISTS " + schema + ".audit_failures (" +
-                "run_id BIGINT REFERENCES " + schema + ".audit_runs(id) ON DELETE CASCADE," +
-                "applicant_id TEXT NOT NULL," +
-                "reasons TEXT[] NOT NULL" +
-                ")";
-        String reviewFlagSql = "CREATE TABLE IF NOT EXISTS " + schema + ".audit_reviews (" +
-                "run_id BIGINT REFERENCES " + schema + ".audit_runs(id) ON DELETE CASCADE," +
-                "applicant_id TEXT NOT NULL," +
-                "reasons TEXT[] NOT NULL" +
-                ")";
-        String segmentSql = "CREATE TABLE IF NOT EXISTS " + schema + ".audit_segments (" +
-                "run_id BIGINT REFERENCES " + schema + ".audit_runs(id) ON DELETE CASCADE," +
-                "segment_field TEXT NOT NULL," +
-                "segment_value TEXT NOT NULL," +
-                "total INT NOT NULL," +
-                "eligible INT NOT NULL," +
-                "ineligible INT NOT NULL," +
-                "eligible_rate NUMERIC(6,4) NOT NULL," +
-                "ineligible_rate NUMERIC(6,4) NOT NULL" +
-                ")";
-        try (PreparedStatement stmt = conn.prepareStatement(runsSql)) {
-            stmt.execute();
+
+        static AuditCache open(Map<String, String> options) throws IOException {
+            if (!options.containsKey("cache")) {
+                return null;
+            }
+            if (options.containsKey("verdicts") || options.containsKey("output-ndjson")) {
+                throw new IOException("--verdicts and --output-ndjson are not supported with --cache; a cached result has no per-applicant verdicts.");
+            }
+            String configured = options.getOrDefault("cache-size", "256m");
+            long maxBytes = parseByteSize(configured);
+            if (maxBytes <= 0) {
+                throw new IOException("Invalid --cache-size: " + configured + " (expected bytes or a size like 256m, 1g).");
+            }
+            Path dir = Path.of(options.get("cache"));
+            Files.createDirectories(dir);
+            return new AuditCache(dir, maxBytes);
         }
-        try (PreparedStatement stmt = conn.prepareStatement("ALTER TABLE " + schema + ".audit_runs ADD COLUMN IF NOT EXISTS warning_applicants INT")) {
-            stmt.execute();
+
+        String key(Path inputPath, RuleSet rules, Map<String, String> options) throws IOException {
+            MessageDigest digest = sha256();
+            byte[] buffer = new byte[1 << 16];
+            try (InputStream in = Files.newInputStream(inputPath)) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            StringBuilder key = new StringBuilder("\n");
+            for (String option : KEY_OPTIONS) {
+                key.append(option).append('=').append(options.getOrDefault(option, "")).append('\n');
+            }
+            key.append(rules.source);
+            digest.update(key.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
         }
-        try (PreparedStatement stmt = conn.prepareStatement("ALTER TABLE " + schema + ".audit_runs ADD COLUMN IF NOT EXISTS warning_rate NUMERIC(6,4)")) {
-            stmt.execute();
+
+        Entry get(String key) {
+            Path file = dir.resolve(key + SUFFIX);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return null;
+                }
+                long auditNanos = in.readLong();
+                AuditResult result = ResultCodec.read(in);
+                result.segments = in.readBoolean() ? SegmentCube.readState(in) : null;
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                return new Entry(result, auditNanos);
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable cache entry " + file + ": " + e.getMessage());
+                return null;
+            }
         }
-        try (PreparedStatement stmt = conn.prepareStatement("ALTER TABLE " + schema + ".audit_runs ADD COLUMN IF NOT EXISTS review_count INT")) {
-            stmt.execute();
+
+        void put(String key, AuditResult result, long auditNanos, Path inputPath) throws IOException {
+            Path file = dir.resolve(key + SUFFIX);
+            Path temp = Files.createTempFile(dir, key, ".tmp");
+            long size;
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeLong(auditNanos);
+                    ResultCodec.write(out, result);
+                    out.writeBoolean(result.segments != null);
+                    if (result.segments != null) {
+                        SegmentCube.writeState(out, result.segments);
+                    }
+                }
+                size = Files.size(temp);
+                if (size <= maxBytes) {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            String stats = update(false, 0);
+            String stored = size <= maxBytes
+                    ? String.format(Locale.ROOT, "stored %.1f MiB result in %s", size / (1024.0 * 1024.0), file)
+                    : String.format(Locale.ROOT, "the %.1f MiB result is larger than --cache-size and was not stored", size / (1024.0 * 1024.0));
+            System.err.println("Cache miss for " + inputPath.getFileName() + "; " + stored + ". " + stats);
         }
-        try (PreparedStatement stmt = conn.prepareStatement("ALTER TABLE " + schema + ".audit_runs ADD COLUMN IF NOT EXISTS review_rate NUMERIC(6,4)")) {
-            stmt.execute();
+
+        void recordHit(Path inputPath, long servedNanos, long auditNanos) throws IOException {
+            String stats = update(true, Math.max(0, auditNanos - servedNanos));
+            System.err.println(String.format(Locale.ROOT, "Cache hit for %s: served in %d ms instead of about %d ms. %s",
+                    inputPath.getFileName(), servedNanos / 1_000_000L, auditNanos / 1_000_000L, stats));
         }
-        try (PreparedStatement stmt = conn.prepareStatement("ALTER TABLE " + schema + ".audit_runs ADD COLUMN IF NOT EXISTS review_limit INT")) {
-            stmt.execute();
+
+        private String update(boolean hit, long savedNanos) throws IOException {
+            synchronized (LOCK) {
+                try (FileChannel channel = FileChannel.open(dir.resolve("cache.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    FileLock lock = channel.lock();
+                    try {
+                        Path statsFile = dir.resolve("stats.properties");
+                        Properties stats = new Properties();
+                        if (Files.exists(statsFile)) {
+                            try (InputStream in = Files.newInputStream(statsFile)) {
+                                stats.load(in);
+                            }
+                        }
+                        long hits = Long.parseLong(stats.getProperty("hits", "0")) + (hit ? 1 : 0);
+                        long misses = Long.parseLong(stats.getProperty("misses", "0")) + (hit ? 0 : 1);
+                        long savedMillis = Long.parseLong(stats.getProperty("saved-millis", "0")) + savedNanos / 1_000_000L;
+                        stats.setProperty("hits", Long.toString(hits));
+                        stats.setProperty("misses", Long.toString(misses));
+                        stats.setProperty("saved-millis", Long.toString(savedMillis));
+                        try (OutputStream out = Files.newOutputStream(statsFile)) {
+                            stats.store(out, "Eligibility Oracle audit cache");
+                        }
+                        if (!hit) {
+                            evict();
+                        }
+                        long lookups = hits + misses;
+                        return String.format(Locale.ROOT, "Cache hit rate %d/%d (%s), %.1f s saved in total.",
+                                hits, lookups, formatRate((int) Math.min(hits, Integer.MAX_VALUE), (int) Math.min(lookups, Integer.MAX_VALUE)),
+                                savedMillis / 1000.0);
+                    } finally {
+                        lock.release();
+                    }
+                }
+            }
         }
-        try (PreparedStatement stmt = conn.prepareStatement("ALTER TABLE " + schema + ".audit_runs ADD COLUMN IF NOT EXISTS reviews_truncated BOOLEAN")) {
-            stmt.execute();
+
+        private void evict() throws IOException {
+            List<Path> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+                for (Path entry : stream) {
+                    entries.add(entry);
+                }
+            }
+            Map<Path, long[]> attributes = new HashMap<>();
+            for (Path entry : entries) {
+                try {
+                    attributes.put(entry, new long[] {Files.getLastModifiedTime(entry).toMillis(), Files.size(entry)});
+                } catch (NoSuchFileException e) {
+                    attributes.put(entry, new long[] {0L, 0L});
+                }
+            }
+            entries.sort((a, b) -> Long.compare(attributes.get(b)[0], attributes.get(a)[0]));
+            long total = 0;
+            for (Path entry : entries) {
+                total += attributes.get(entry)[1];
+                if (total > maxBytes) {
+                    Files.deleteIfExists(entry);
+                }
+            }
         }
-        try (PreparedStatement stmt = conn.prepareStatement(reasonSql)) {
-            stmt.execute();
+    }
+
+    private static class ShardedAudit {
+        private static final int MAGIC = 0x47534844;
+        private static final int VERSION = 2;
+        private static final int KEY_BYTES = 16;
+        private static final List<String> WORKER_OPTIONS = List.of("id-field", "limit", "review-limit", "segment-field", "segment-cross",
+                "memory-budget", "spill-dir", "no-optimize");
+
+        final long[] starts;
+        final int[] firstRows;
+        private final long size;
+        private long dataStart = -1;
+        private int rows;
+        private int placed;
+
+        ShardedAudit(int shards, long size) {
+            starts = new long[shards + 1];
+            firstRows = new int[shards];
+            this.size = size;
         }
-        try (PreparedStatement stmt = conn.prepareStatement(categorySql)) {
-            stmt.execute();
+
+        static ShardedAudit split(Path inputPath, int shards) throws IOException {
+            long size = Files.size(inputPath);
+            if (size == 0) {
+                throw new IOException("Input CSV is empty.");
+            }
+            ShardedAudit plan = new ShardedAudit(shards, size);
+            byte[] buffer = new byte[1 << 20];
+            long base = 0;
+            boolean carriage = false;
+            try (InputStream in = Files.newInputStream(inputPath)) {
+                scan:
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    for (int i = 0; i < read; i++) {
+                        byte b = buffer[i];
+                        if (carriage) {
+                            carriage = false;
+                            if (b == '\n') {
+                                if (plan.recordEnd(base + i + 1)) {
+                                    break scan;
+                                }
+                                continue;
+                            }
+                            if (plan.recordEnd(base + i)) {
+                                break scan;
+                            }
+                        }
+                        if (b == '\n') {
+                            if (plan.recordEnd(base + i + 1)) {
+                                break scan;
+                            }
+                        } else if (b == '\r') {
+                            carriage = true;
+                        }
+                    }
+                    base += read;
+                }
+            }
+            if (carriage) {
+                plan.recordEnd(size);
+            }
+            if (plan.dataStart < 0) {
+                plan.recordEnd(size);
+            }
+            for (; plan.placed < shards; plan.placed++) {
+                plan.starts[plan.placed] = size;
+                plan.firstRows[plan.placed] = plan.rows + 1;
+            }
+            plan.starts[shards] = size;
+            return plan;
         }
-        try (PreparedStatement stmt = conn.prepareStatement(warningSql)) {
-            stmt.execute();
+
+        private boolean recordEnd(long next) {
+            if (dataStart < 0) {
+                dataStart = next;
+                starts[0] = next;
+                firstRows[0] = 1;
+                placed = 1;
+            } else {
+                rows++;
+            }
+            while (placed < firstRows.length && next >= dataStart + (size - dataStart) * placed / firstRows.length) {
+                starts[placed] = next;
+                firstRows[placed] = rows + 1;
+                placed++;
+            }
+            return placed == firstRows.length;
         }
-        try (PreparedStatement stmt = conn.prepareStatement(warningCategorySql)) {
-            stmt.execute();
+
+        static AuditResult run(Path inputPath, Path rulesPath, RuleSet rules, Map<String, String> options, int shards, AuditResult merged,
+                               MemoryBudget budget) throws IOException {
+            ShardedAudit plan = split(inputPath, shards);
+            boolean temporary = !options.containsKey("shard-dir");
+            Path dir = temporary ? Files.createTempDirectory("eligibility-shards-") : Path.of(options.get("shard-dir"));
+            Files.createDirectories(dir);
+            List<Path> partials = new ArrayList<>();
+            List<Process> workers = new ArrayList<>();
+            List<Integer> launched = new ArrayList<>();
+            try {
+                for (int k = 0; k < shards; k++) {
+                    if (plan.starts[k] == plan.starts[k + 1]) {
+                        continue;
+                    }
+                    Path partial = dir.resolve("shard-" + k + ".bin").toAbsolutePath();
+                    Files.deleteIfExists(partial);
+                    partials.add(partial);
+                    List<String> command = launcher(k, options);
+                    command.addAll(List.of("--shard-worker", "--input", inputPath.toAbsolutePath().toString(),
+                            "--rules", rulesPath.toAbsolutePath().toString(), "--shard-range", plan.starts[k] + ":" + plan.starts[k + 1],
+                            "--shard-first-row", String.valueOf(plan.firstRows[k]), "--shard-output", partial.toString()));
+                    for (String option : WORKER_OPTIONS) {
+                        if (options.containsKey(option)) {
+                            command.add("--" + option);
+                            command.add(options.get(option));
+                        }
+                    }
+                    workers.add(new ProcessBuilder(command).inheritIO().start());
+                    launched.add(k);
+                }
+                merge(partials, workers, launched, rules, merged, budget);
+                System.err.println("Merged " + partials.size() + " shard results (" + merged.totalRows + " rows).");
+                return merged;
+            } catch (IOException | RuntimeException e) {
+                merged.close();
+                throw e;
+            } finally {
+                workers.forEach(Process::destroy);
+                for (Path partial : partials) {
+                    Files.deleteIfExists(partial);
+                }
+                if (temporary) {
+                    Files.deleteIfExists(dir);
+                }
+            }
         }
-        try (PreparedStatement stmt = conn.prepareStatement(reviewSql)) {
-            stmt.execute();
+
+        private static List<String> launcher(int shard, Map<String, String> options) {
+            List<String> command = new ArrayList<>();
+            String launcher = options.get("shard-launcher");
+            if (launcher == null) {
+                command.add(ProcessHandle.current().info().command().orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(EligibilityOracle.class.getName());
+                return command;
+            }
+            for (String part : launcher.trim().split("\\s+")) {
+                command.add(part.replace("{shard}", String.valueOf(shard)));
+            }
+            return command;
         }
-        try (PreparedStatement stmt = conn.prepareStatement(completenessSql)) {
-            stmt.execute();
+
+        private static void await(Process worker, int shard) throws IOException {
+            int exit;
+            try {
+                exit = worker.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for shard worker " + shard + ".");
+            }
+            if (exit != 0) {
+                throw new IOException("Shard worker " + shard + " failed with exit code " + exit + ".");
+            }
         }
-        try (PreparedStatement stmt = conn.prepareStatement(failureSql)) {
-            stmt.execute();
+
+        private static void merge(List<Path> partials, List<Process> workers, List<Integer> shards, RuleSet rules, AuditResult merged,
+                                  MemoryBudget budget) throws IOException {
+            try (RecordList<RowRecord> rows = new RecordList<>(RowRecord.CODEC, budget);
+                 DuplicateIndex duplicates = new DuplicateIndex(budget, rules.nearUniqueRules)) {
+                byte[] key = new byte[KEY_BYTES];
+                byte[] rulesDigest = sha256().digest(rules.source.getBytes(StandardCharsets.UTF_8));
+                byte[] storedDigest = new byte[rulesDigest.length];
+                for (int p = 0; p < partials.size(); p++) {
+                    Path partial = partials.get(p);
+                    await(workers.get(p), shards.get(p));
+                    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(partial), 1 << 16))) {
+                        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                            throw new IOException("Unrecognized shard result: " + partial);
+                        }
+                        in.readFully(storedDigest);
+                        if (!Arrays.equals(storedDigest, rulesDigest)) {
+                            throw new IOException("Shard result " + partial + " was evaluated with different rules than the coordinator.");
+                        }
+                        List<String> dictionary = new ArrayList<>();
+                        while (in.readBoolean()) {
+                            int row = in.readInt();
+                            RowRecord record = new RowRecord(ResultCodec.readString(in), readReasons(in, dictionary),
+                                    readReasons(in, dictionary), readReasons(in, dictionary));
+                            record.row = row;
+                            rows.add(record);
+                            for (int u = in.readShort(); u >= 0; u = in.readShort()) {
+                                in.readFully(key);
+                                duplicates.add(rules.uniqueFields.get(u), new String(key, StandardCharsets.ISO_8859_1), record.row);
+                            }
+                        }
+                        try (AuditResult result = ResultCodec.read(in)) {
+                            merged.merge(result);
+                        }
+                        if (in.readBoolean()) {
+                            SegmentCube cube = SegmentCube.readState(in);
+                            if (merged.segments != null) {
+                                merged.segments.merge(cube);
+                            }
+                        }
+                        duplicates.readNearState(in);
+                    }
+                }
+                duplicates.resolve();
+                Iterator<RowRecord> buffered = rows.drain();
+                while (buffered.hasNext()) {
+                    RowRecord record = buffered.next();
+                    for (String field : duplicates.duplicateFields(record.row)) {
+                        record.reasons.add("duplicate:" + field);
+                    }
+                    finalizeRow(record, merged, null);
+                }
+            }
         }
-        try (PreparedStatement stmt = conn.prepareStatement(reviewFlagSql)) {
-            stmt.execute();
+
+        private static void writeReasons(DataOutputStream out, List<String> reasons, Map<String, Integer> codes) throws IOException {
+            out.writeInt(reasons.size());
+            for (String reason : reasons) {
+                Integer code = codes.get(reason);
+                if (code != null) {
+                    out.writeInt(code);
+                    continue;
+                }
+                out.writeInt(codes.size());
+                ResultCodec.writeString(out, reason);
+                codes.put(reason, codes.size());
+            }
         }
-        try (PreparedStatement stmt = conn.prepareStatement(segmentSql)) {
-            stmt.execute();
+
+        private static List<String> readReasons(DataInputStream in, List<String> dictionary) throws IOException {
+            int size = in.readInt();
+            List<String> reasons = new ArrayList<>(size);
+            for (int r = 0; r < size; r++) {
+                int code = in.readInt();
+                if (code == dictionary.size()) {
+                    dictionary.add(ResultCodec.readString(in));
+                } else if (code > dictionary.size() || code < 0) {
+                    throw new IOException("Corrupt reason code " + code + " in shard result.");
+                }
+                reasons.add(dictionary.get(code));
+            }
+            return reasons;
         }
-    }
 
-    private static long insertAuditRun(Connection conn, String schema, AuditResult result, Path inputPath, Path rulesPath, String runName) throws SQLException {
-        double eligibleRate = result.totalRows == 0 ? 0.0 : (result.eligible * 1.0) / result.totalRows;
-        double ineligibleRate = result.totalRows == 0 ? 0.0 : (result.ineligible * 1.0) / result.totalRows;
-        double warningRate = result.totalRows == 0 ? 0.0 : (result.warningApplicants * 1.0) / result.totalRows;
-        double reviewRate = result.totalRows == 0 ? 0.0 : (result.reviewCount * 1.0) / result.totalRows;
-        String sql = "INSERT INTO " + schema + ".audit_runs " +
-                "(run_at, run_name, input_file, rules_file, total_applicants, eligible, ineligible, eligible_rate, ineligible_rate, warning_applicants, warning_rate, review_count, review_rate, id_field, failure_limit, failures_truncated, review_limit, reviews_truncated) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING id";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setObject(1, OffsetDateTime.now());
-            stmt.setString(2, runName);
-            stmt.setString(3, inputPath.toString());
-            stmt.setString(4, rulesPath.toString());
-            stmt.setInt(5, result.totalRows);
-            stmt.setInt(6, result.eligible);
-            stmt.setInt(7, result.ineligible);
-            stmt.setBigDecimal(8, java.math.BigDecimal.valueOf(eligibleRate));
-            stmt.setBigDecimal(9, java.math.BigDecimal.valueOf(ineligibleRate));
-            stmt.setInt(10, result.warningApplicants);
-            stmt.setBigDecimal(11, java.math.BigDecimal.valueOf(warningRate));
-            stmt.setInt(12, result.reviewCount);
-            stmt.setBigDecimal(13, java.math.BigDecimal.valueOf(reviewRate));
-            stmt.setString(14, result.idField);
-            if (result.failureLimit >= 0) {
-                stmt.setInt(15, result.failureLimit);
-            } else {
-                stmt.setNull(15, java.sql.Types.INTEGER);
+        static void work(Map<String, String> options) throws IOException {
+            for (String option : List.of("input", "rules", "shard-range", "shard-first-row", "shard-output")) {
+                if (!options.containsKey(option)) {
+                    throw new IOException("--shard-worker needs --" + option + ".");
+                }
             }
-            stmt.setBoolean(16, result.failuresTruncated);
-            if (result.reviewLimit >= 0) {
-                stmt.setInt(17, result.reviewLimit);
-            } else {
-                stmt.setNull(17, java.sql.Types.INTEGER);
+            long start;
+            long end;
+            int firstRow;
+            try {
+                String[] range = options.get("shard-range").split(":");
+                start = Long.parseLong(range[0]);
+                end = Long.parseLong(range[1]);
+                firstRow = Integer.parseInt(options.get("shard-first-row"));
+            } catch (RuntimeException e) {
+                throw new IOException("Invalid shard range " + options.get("shard-range") + " starting at row " + options.get("shard-first-row") + ".");
             }
-            stmt.setBoolean(18, result.reviewsTruncated);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getLong(1);
+            RuleSet rules = RuleSet.load(Path.of(options.get("rules")), !options.containsKey("no-optimize"));
+            MemoryBudget budget = MemoryBudget.fromOptions(options);
+            SegmentCube segments = SegmentCube.create(options.get("segment-field"), options.get("segment-cross"), rules);
+            List<String> trackedFields = buildTrackedFields(rules);
+            MessageDigest digest = sha256();
+            Path output = Path.of(options.get("shard-output"));
+            createParentDirectories(output);
+            try (RowSource reader = CsvRowReader.open(Path.of(options.get("input")));
+                 AuditResult result = newAuditResult(rules, trackedFields, options.getOrDefault("id-field", "id"), parseIntOption(options.get("limit"), -1),
+                         segments, parseIntOption(options.get("review-limit"), -1), budget);
+                 DuplicateIndex near = new DuplicateIndex(budget, rules.nearUniqueRules);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output), 1 << 16))) {
+                List<String> headerKeys = readHeader(reader);
+                reader.seek(start);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(digest.digest(rules.source.getBytes(StandardCharsets.UTF_8)));
+                Map<String, Integer> codes = new HashMap<>();
+                int row = firstRow - 1;
+                while (reader.offset() < end && reader.next()) {
+                    row++;
+                    result.totalRows++;
+                    Map<String, String> rowMap = readRow(reader, headerKeys);
+                    applyAliases(rowMap, rules);
+                    RowRecord record = evaluateRecord(rowMap, rules, trackedFields, result, row);
+                    if (!rules.checksDuplicates()) {
+                        finalizeRow(record, result, null);
+                        continue;
+                    }
+                    out.writeBoolean(true);
+                    out.writeInt(record.row);
+                    ResultCodec.writeString(out, record.id);
+                    writeReasons(out, record.reasons, codes);
+                    writeReasons(out, record.reviewReasons, codes);
+                    writeReasons(out, record.warningReasons, codes);
+                    for (int u = 0; u < rules.uniqueFields.size(); u++) {
+                        String value = rowMap.getOrDefault(rules.uniqueFields.get(u), "").trim();
+                        if (value.isBlank()) {
+                            continue;
+                        }
+                        out.writeShort(u);
+                        out.write(digest.digest(value.getBytes(StandardCharsets.UTF_8)), 0, KEY_BYTES);
+                    }
+                    out.writeShort(-1);
+                    near.addNear(rowMap, row);
+                }
+                out.writeBoolean(false);
+                result.segments = null;
+                ResultCodec.write(out, result);
+                out.writeBoolean(segments != null);
+                if (segments != null) {
+                    SegmentCube.writeState(out, segments);
                 }
+                near.writeNearState(out);
             }
         }
-        throw new SQLException("Failed to insert audit run row.");
     }
 
-    private static void insertReasonCounts(Connection conn, String schema, long runId, Map<String, Integer> counts, String table, String keyColumn) throws SQLException {
-        if (counts.isEmpty()) {
-            return;
-        }
-        String sql = "INSERT INTO " + schema + "." + table + " (run_id, " + keyColumn + ", count) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
-                stmt.setLong(1, runId);
-                stmt.setString(2, entry.getKey());
-                stmt.setInt(3, entry.getValue());
-                stmt.addBatch();
+    private static class ResultCodec {
+        static final int VERSION = 3;
+
+        static void write(DataOutputStream out, AuditResult result) throws IOException {
+            out.writeInt(VERSION);
+            out.writeInt(result.totalRows);
+            out.writeInt(result.eligible);
+            out.writeInt(result.ineligible);
+            out.writeInt(result.warningApplicants);
+            out.writeInt(result.reviewCount);
+            writeCounts(out, result.reasonCounts);
+            writeCounts(out, result.reasonCategoryCounts);
+            writeCounts(out, result.warningCounts);
+            writeCounts(out, result.warningCategoryCounts);
+            writeCounts(out, result.missingFieldCounts);
+            writeCounts(out, result.reviewCounts);
+            out.writeInt(result.failures.size());
+            for (FailureRecord record : result.failures) {
+                writeString(out, record.id);
+                writeStrings(out, record.reasons);
             }
-            stmt.executeBatch();
+            out.writeInt(result.reviews.size());
+            for (ReviewRecord record : result.reviews) {
+                writeString(out, record.id);
+                writeStrings(out, record.reasons);
+            }
+            out.writeInt(result.failureLimit);
+            out.writeBoolean(result.failuresTruncated);
+            out.writeInt(result.reviewLimit);
+            out.writeBoolean(result.reviewsTruncated);
+            writeString(out, result.idField);
+            writeString(out, result.runName);
+            writeString(out, result.inputPath);
+            writeString(out, result.rulesPath);
+            out.writeBoolean(result.segments != null);
+            if (result.segments != null) {
+                SegmentCube.write(out, result.segments);
+            }
+            out.writeBoolean(result.groupFailures);
         }
-    }
 
-    private static void insertFieldCompleteness(Connection conn, String schema, long runId, AuditResult result) throws SQLException {
-        if (result.missingFieldCounts.isEmpty()) {
-            return;
+        static AuditResult read(DataInputStream in) throws IOException {
+            return read(in, new AuditResult());
         }
-        String sql = "INSERT INTO " + schema + ".audit_field_completeness (run_id, field_name, missing_count, missing_rate) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            for (Map.Entry<String, Integer> entry : result.missingFieldCounts.entrySet()) {
-                stmt.setLong(1, runId);
-                stmt.setString(2, entry.getKey());
-                stmt.setInt(3, entry.getValue());
-                double missingRate = result.totalRows == 0 ? 0.0 : (entry.getValue() * 1.0) / result.totalRows;
-                stmt.setBigDecimal(4, java.math.BigDecimal.valueOf(missingRate));
-                stmt.addBatch();
+
+        static AuditResult read(DataInputStream in, AuditResult result) throws IOException {
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported audit result encoding version " + version + ".");
             }
-            stmt.executeBatch();
+            result.totalRows = in.readInt();
+            result.eligible = in.readInt();
+            result.ineligible = in.readInt();
+            result.warningApplicants = in.readInt();
+            result.reviewCount = in.readInt();
+            readCounts(in, result.reasonCounts);
+            readCounts(in, result.reasonCategoryCounts);
+            readCounts(in, result.warningCounts);
+            readCounts(in, result.warningCategoryCounts);
+            readCounts(in, result.missingFieldCounts);
+            readCounts(in, result.reviewCounts);
+            int failures = in.readInt();
+            for (int i = 0; i < failures; i++) {
+                result.failures.add(new FailureRecord(readString(in), readStrings(in)));
+            }
+            int reviews = in.readInt();
+            for (int i = 0; i < reviews; i++) {
+                result.reviews.add(new ReviewRecord(readString(in), readStrings(in)));
+            }
+            result.failureLimit = in.readInt();
+            result.failuresTruncated = in.readBoolean();
+            result.reviewLimit = in.readInt();
+            result.reviewsTruncated = in.readBoolean();
+            result.idField = readString(in);
+            result.runName = readString(in);
+            result.inputPath = readString(in);
+            result.rulesPath = readString(in);
+            if (version == 1) {
+                readLegacySegments(in, result);
+            } else if (in.readBoolean()) {
+                result.segments = SegmentCube.read(in);
+            }
+            if (version >= 3) {
+                result.groupFailures = in.readBoolean();
+            }
+            return result;
         }
-    }
 
-    private static void insertFailures(Connection conn, String schema, long runId, List<FailureRecord> failures) throws SQLException {
-        if (failures.isEmpty()) {
-            return;
+        static void readLegacySegments(DataInputStream in, AuditResult result) throws IOException {
+            String field = readString(in);
+            int segments = in.readInt();
+            if (!field.isBlank()) {
+                result.segments = new SegmentCube();
+                result.segments.dimension(field);
+            }
+            for (int i = 0; i < segments; i++) {
+                String value = readString(in);
+                int total = in.readInt();
+                int eligible = in.readInt();
+                in.readInt();
+                if (result.segments != null) {
+                    result.segments.put(0, value, total, eligible);
+                }
+            }
         }
-        String sql = "INSERT INTO " + schema + ".audit_failures (run_id, applicant_id, reasons) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            for (FailureRecord record : failures) {
-                stmt.setLong(1, runId);
-                stmt.setString(2, record.id);
-                Array reasonArray = conn.createArrayOf("text", record.reasons.toArray());
-                stmt.setArray(3, reasonArray);
-                stmt.addBatch();
+
+        static void writeCounts(DataOutputStream out, Map<String, Integer> counts) throws IOException {
+            out.writeInt(counts.size());
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue());
             }
-            stmt.executeBatch();
         }
-    }
 
-    private static void insertReviews(Connection conn, String schema, long runId, List<ReviewRecord> reviews) throws SQLException {
-        if (reviews.isEmpty()) {
-            return;
-        }
-        String sql = "INSERT INTO " + schema + ".audit_reviews (run_id, applicant_id, reasons) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            for (ReviewRecord record : reviews) {
-                stmt.setLong(1, runId);
-                stmt.setString(2, record.id);
-                Array reasonArray = conn.createArrayOf("text", record.reasons.toArray());
-                stmt.setArray(3, reasonArray);
-                stmt.addBatch();
+        static void readCounts(DataInputStream in, Map<String, Integer> counts) throws IOException {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                counts.put(readString(in), in.readInt());
             }
-            stmt.executeBatch();
         }
-    }
 
-    private static void insertSegments(Connection conn, String schema, long runId, AuditResult result) throws SQLException {
-        if (result.segmentField.isBlank() || result.segmentStats.isEmpty()) {
-            return;
-        }
-        String sql = "INSERT INTO " + schema + ".audit_segments " +
-                "(run_id, segment_field, segment_value, total, eligible, ineligible, eligible_rate, ineligible_rate) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            for (SegmentStats stat : result.segmentStats.values()) {
-                double eligibleRate = stat.total == 0 ? 0.0 : (stat.eligible * 1.0) / stat.total;
-                double ineligibleRate = stat.total == 0 ? 0.0 : (stat.ineligible * 1.0) / stat.total;
-                stmt.setLong(1, runId);
-                stmt.setString(2, result.segmentField);
-                stmt.setString(3, stat.value);
-                stmt.setInt(4, stat.total);
-                stmt.setInt(5, stat.eligible);
-                stmt.setInt(6, stat.ineligible);
-                stmt.setBigDecimal(7, java.math.BigDecimal.valueOf(eligibleRate));
-                stmt.setBigDecimal(8, java.math.BigDecimal.valueOf(ineligibleRate));
-                stmt.addBatch();
+        static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+            out.writeInt(values.size());
+            for (String value : values) {
+                writeString(out, value);
             }
-            stmt.executeBatch();
         }
-    }
 
-    private static String escapeJson(String value) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < value.length(); i++) {
-            char ch = value.charAt(i);
-            switch (ch) {
-                case '"': sb.append("\\\""); break;
-                case '\\': sb.append("\\\\"); break;
-                case '\n': sb.append("\\n"); break;
-                case '\r': sb.append("\\r"); break;
-                case '\t': sb.append("\\t"); break;
-                default: sb.append(ch);
+        static List<String> readStrings(DataInputStream in) throws IOException {
+            int size = in.readInt();
+            List<String> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(readString(in));
             }
+            return values;
         }
-        return sb.toString();
-    }
 
-    private static class AuditResult {
-        int totalRows = 0;
-        int eligible = 0;
-        int ineligible = 0;
-        int warningApplicants = 0;
-        int reviewCount = 0;
-        Map<String, Integer> reasonCounts = new LinkedHashMap<>();
-        Map<String, Integer> reasonCategoryCounts = new LinkedHashMap<>();
-        Map<String, Integer> warningCounts = new LinkedHashMap<>();
-        Map<String, Integer> warningCategoryCounts = new LinkedHashMap<>();
-        Map<String, Integer> missingFieldCounts = new LinkedHashMap<>();
-        Map<String, Integer> reviewCounts = new LinkedHashMap<>();
-        List<FailureRecord> failures = new ArrayList<>();
-        List<ReviewRecord> reviews = new ArrayList<>();
-        int failureLimit = -1;
-        boolean failuresTruncated = false;
-        int reviewLimit = -1;
-        boolean reviewsTruncated = false;
-        String idField = "id";
-        String runName = "";
-        String inputPath = "";
-        String rulesPath = "";
-        String segmentField = "";
-        Map<String, SegmentStats> segmentStats = new LinkedHashMap<>();
-    }
+        static void writeString(DataOutputStream out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
 
-    private static class SegmentStats {
-        String value;
-        int total;
-        int eligible;
-        int ineligible;
+        static String readString(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Corrupt string length " + length + ".");
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
 
-        SegmentStats(String value) {
-            this.value = value;
+        static void writeNullableString(DataOutputStream out, String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                writeString(out, value);
+            }
+        }
+
+        static String readNullableString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? readString(in) : null;
         }
     }
 
@@ -1171,6 +6658,21 @@ public class EligibilityOracle {
     }
 
     private static class FailureRecord {
+        static final RecordCodec<FailureRecord> CODEC = new RecordCodec<>() {
+            public void write(DataOutputStream out, FailureRecord record) throws IOException {
+                ResultCodec.writeString(out, record.id);
+                ResultCodec.writeStrings(out, record.reasons);
+            }
+
+            public FailureRecord read(DataInputStream in) throws IOException {
+                return new FailureRecord(ResultCodec.readString(in), ResultCodec.readStrings(in));
+            }
+
+            public long estimate(FailureRecord record) {
+                return 48 + estimateString(record.id) + estimateStrings(record.reasons);
+            }
+        };
+
         String id;
         List<String> reasons;
 
@@ -1181,6 +6683,30 @@ public class EligibilityOracle {
     }
 
     private static class RowRecord {
+        static final RecordCodec<RowRecord> CODEC = new RecordCodec<>() {
+            public void write(DataOutputStream out, RowRecord record) throws IOException {
+                out.writeInt(record.row);
+                ResultCodec.writeString(out, record.id);
+                ResultCodec.writeStrings(out, record.reasons);
+                ResultCodec.writeStrings(out, record.reviewReasons);
+                ResultCodec.writeStrings(out, record.warningReasons);
+            }
+
+            public RowRecord read(DataInputStream in) throws IOException {
+                int row = in.readInt();
+                RowRecord record = new RowRecord(ResultCodec.readString(in), ResultCodec.readStrings(in),
+                        ResultCodec.readStrings(in), ResultCodec.readStrings(in));
+                record.row = row;
+                return record;
+            }
+
+            public long estimate(RowRecord record) {
+                return 64 + estimateString(record.id) + estimateStrings(record.reasons)
+                        + estimateStrings(record.reviewReasons) + estimateStrings(record.warningReasons);
+            }
+        };
+
+        int row;
         String id;
         List<String> reasons;
         List<String> reviewReasons;
@@ -1195,6 +6721,21 @@ public class EligibilityOracle {
     }
 
     private static class ReviewRecord {
+        static final RecordCodec<ReviewRecord> CODEC = new RecordCodec<>() {
+            public void write(DataOutputStream out, ReviewRecord record) throws IOException {
+                ResultCodec.writeString(out, record.id);
+                ResultCodec.writeStrings(out, record.reasons);
+            }
+
+            public ReviewRecord read(DataInputStream in) throws IOException {
+                return new ReviewRecord(ResultCodec.readString(in), ResultCodec.readStrings(in));
+            }
+
+            public long estimate(ReviewRecord record) {
+                return 48 + estimateString(record.id) + estimateStrings(record.reasons);
+            }
+        };
+
         String id;
         List<String> reasons;
 
@@ -1231,31 +6772,41 @@ public class EligibilityOracle {
         List<String> reviewMissingFields = new ArrayList<>();
         List<ReviewCondition> reviewConditions = new ArrayList<>();
         Map<String, NumericRange> numericRanges = new LinkedHashMap<>();
-        Map<String, Set<String>> allowedValues = new LinkedHashMap<>();
-        Map<String, Set<String>> disallowedValues = new LinkedHashMap<>();
+        Map<String, NormalizedValueSet> allowedValues = new LinkedHashMap<>();
+        Map<String, NormalizedValueSet> disallowedValues = new LinkedHashMap<>();
         Map<String, DateRange> dateRanges = new LinkedHashMap<>();
         Map<String, Pattern> patternRules = new LinkedHashMap<>();
         List<String> uniqueFields = new ArrayList<>();
+        List<NearUniqueRule> nearUniqueRules = new ArrayList<>();
         List<String> warnRequiredFields = new ArrayList<>();
         List<ConditionalRequirement> warnConditionalRequirements = new ArrayList<>();
         List<AnyRequirement> warnAnyRequirements = new ArrayList<>();
         Map<String, NumericRange> warnNumericRanges = new LinkedHashMap<>();
-        Map<String, Set<String>> warnAllowedValues = new LinkedHashMap<>();
-        Map<String, Set<String>> warnDisallowedValues = new LinkedHashMap<>();
+        Map<String, NormalizedValueSet> warnAllowedValues = new LinkedHashMap<>();
+        Map<String, NormalizedValueSet> warnDisallowedValues = new LinkedHashMap<>();
         Map<String, DateRange> warnDateRanges = new LinkedHashMap<>();
         Map<String, Pattern> warnPatternRules = new LinkedHashMap<>();
+        List<ExpressionRule> expressionRules = new ArrayList<>();
         Map<String, List<String>> aliases = new LinkedHashMap<>();
         Map<String, String> aliasToCanonical = new LinkedHashMap<>();
+        String source = "";
+        ConditionIndex<ConditionalRequirement> conditionalIndex = new ConditionIndex<>();
+        ConditionIndex<ConditionalRequirement> warnConditionalIndex = new ConditionIndex<>();
+        ConditionIndex<ReviewCondition> reviewIndex = new ConditionIndex<>();
+        RulePlan plan;
 
-        static RuleSet load(Path path) throws IOException {
+        static RuleSet load(Path path, boolean optimize) throws IOException {
             RuleSet rules = new RuleSet();
             List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            rules.source = String.join("\n", lines);
             String section = "";
             Map<String, ConditionalRequirement> conditionalLookup = new LinkedHashMap<>();
             Map<String, AnyRequirement> anyLookup = new LinkedHashMap<>();
             Map<String, ConditionalRequirement> warnConditionalLookup = new LinkedHashMap<>();
             Map<String, AnyRequirement> warnAnyLookup = new LinkedHashMap<>();
             Map<String, ReviewCondition> reviewLookup = new LinkedHashMap<>();
+            Map<String, ExpressionRule> expressionLookup = new LinkedHashMap<>();
+            Map<String, NearUniqueRule> nearUniqueLookup = new LinkedHashMap<>();
             for (String raw : lines) {
                 String line = raw.trim();
                 if (line.isEmpty() || line.startsWith("#")) {
@@ -1374,7 +6925,7 @@ public class EligibilityOracle {
                 } else if (section.startsWith("allowed:")) {
                     String field = section.substring("allowed:".length());
                     if (key.equals("values")) {
-                        Set<String> values = new HashSet<>();
+                        NormalizedValueSet values = new NormalizedValueSet();
                         for (String entry : normalizeList(value)) {
                             values.add(entry.toLowerCase(Locale.ROOT));
                         }
@@ -1383,7 +6934,7 @@ public class EligibilityOracle {
                 } else if (section.startsWith("warn_allowed:")) {
                     String field = section.substring("warn_allowed:".length());
                     if (key.equals("values")) {
-                        Set<String> values = new HashSet<>();
+                        NormalizedValueSet values = new NormalizedValueSet();
                         for (String entry : normalizeList(value)) {
                             values.add(entry.toLowerCase(Locale.ROOT));
                         }
@@ -1392,7 +6943,7 @@ public class EligibilityOracle {
                 } else if (section.startsWith("disallowed:")) {
                     String field = section.substring("disallowed:".length());
                     if (key.equals("values")) {
-                        Set<String> values = new HashSet<>();
+                        NormalizedValueSet values = new NormalizedValueSet();
                         for (String entry : normalizeList(value)) {
                             values.add(entry.toLowerCase(Locale.ROOT));
                         }
@@ -1401,7 +6952,7 @@ public class EligibilityOracle {
                 } else if (section.startsWith("warn_disallowed:")) {
                     String field = section.substring("warn_disallowed:".length());
                     if (key.equals("values")) {
-                        Set<String> values = new HashSet<>();
+                        NormalizedValueSet values = new NormalizedValueSet();
                         for (String entry : normalizeList(value)) {
                             values.add(entry.toLowerCase(Locale.ROOT));
                         }
@@ -1445,6 +6996,28 @@ public class EligibilityOracle {
                             throw new IOException("Invalid regex for warn_pattern:" + field + " -> " + e.getMessage(), e);
                         }
                     }
+                } else if (section.startsWith("expr:")) {
+                    String name = normalizeValue(section.substring("expr:".length()));
+                    ExpressionRule rule = expressionLookup.computeIfAbsent(name, ExpressionRule::new);
+                    if (key.equals("check")) {
+                        rule.source = value;
+                    } else if (key.equals("level")) {
+                        rule.level = value.toLowerCase(Locale.ROOT);
+                    }
+                } else if (section.startsWith("near_unique:")) {
+                    String name = normalizeValue(section.substring("near_unique:".length()));
+                    NearUniqueRule rule = nearUniqueLookup.computeIfAbsent(name, NearUniqueRule::new);
+                    if (key.equals("fields")) {
+                        rule.fields = normalizeList(value);
+                    } else if (key.equals("block")) {
+                        rule.blockFields = normalizeList(value);
+                    } else if (key.equals("threshold")) {
+                        try {
+                            rule.threshold = Double.parseDouble(value);
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Invalid threshold for near_unique:" + name + " -> " + value, e);
+                        }
+                    }
                 } else if (section.equals("unique")) {
                     if (key.equals("fields")) {
                         rules.uniqueFields = normalizeList(value);
@@ -1465,6 +7038,16 @@ public class EligibilityOracle {
             rules.warnConditionalRequirements.addAll(warnConditionalLookup.values());
             rules.warnAnyRequirements.addAll(warnAnyLookup.values());
             rules.reviewConditions.addAll(reviewLookup.values());
+            for (NearUniqueRule rule : nearUniqueLookup.values()) {
+                rule.fields.replaceAll(field -> canonicalizeField(normalize(field), rules));
+                rule.blockFields.replaceAll(field -> canonicalizeField(normalize(field), rules));
+                rule.compile();
+                rules.nearUniqueRules.add(rule);
+            }
+            for (ExpressionRule rule : expressionLookup.values()) {
+                rule.compile(rules.aliasToCanonical);
+                rules.expressionRules.add(rule);
+            }
             rules.requiredFields.replaceAll(EligibilityOracle::normalize);
             rules.uniqueFields.replaceAll(EligibilityOracle::normalize);
             rules.warnRequiredFields.replaceAll(EligibilityOracle::normalize);
@@ -1475,19 +7058,658 @@ public class EligibilityOracle {
             for (AnyRequirement requirement : rules.warnAnyRequirements) {
                 requirement.fields.replaceAll(EligibilityOracle::normalize);
             }
-            return rules;
+            for (int i = 0; i < rules.conditionalRequirements.size(); i++) {
+                ConditionalRequirement requirement = rules.conditionalRequirements.get(i);
+                rules.conditionalIndex.add(requirement.conditionField, requirement.conditionValue, requirement, i);
+            }
+            for (int i = 0; i < rules.warnConditionalRequirements.size(); i++) {
+                ConditionalRequirement requirement = rules.warnConditionalRequirements.get(i);
+                rules.warnConditionalIndex.add(requirement.conditionField, requirement.conditionValue, requirement, i);
+            }
+            for (int i = 0; i < rules.reviewConditions.size(); i++) {
+                ReviewCondition condition = rules.reviewConditions.get(i);
+                rules.reviewIndex.add(condition.conditionField, condition.conditionValue, condition, i);
+            }
+            if (optimize) {
+                rules.plan = RulePlan.compile(rules);
+            }
+            return rules;
+        }
+
+        boolean checksDuplicates() {
+            return !uniqueFields.isEmpty() || !nearUniqueRules.isEmpty();
+        }
+
+        private static List<String> normalizeList(String value) {
+            if (value.isBlank()) {
+                return Collections.emptyList();
+            }
+            String[] parts = value.split(",");
+            List<String> results = new ArrayList<>();
+            for (String part : parts) {
+                results.add(normalizeValue(part));
+            }
+            return results;
+        }
+    }
+
+    private static class RulePlan {
+        private static final int ALLOWED = 1;
+        private static final int DISALLOWED = 2;
+        private static final int WARN_ALLOWED = 4;
+        private static final int WARN_DISALLOWED = 8;
+
+        private final List<String> fields = new ArrayList<>();
+        private final Map<String, Integer> slotsByField = new HashMap<>();
+        private final Map<String, List<String>> blankUses = new LinkedHashMap<>();
+        private final Map<String, Integer> patternIds = new HashMap<>();
+        private NormalizedValueSet[] dictionaries;
+        private int[][] masks;
+        private int[] dictionarySlots;
+        private PlanCheck[] required;
+        private PlanConditions conditional;
+        private PlanAny[] any;
+        private PlanCheck[] reviewMissing;
+        private PlanConditions review;
+        private PlanCheck[] numeric;
+        private PlanCheck[] allowed;
+        private PlanCheck[] disallowed;
+        private PlanCheck[] dates;
+        private PlanCheck[] patterns;
+        private PlanCheck[] warnRequired;
+        private PlanConditions warnConditional;
+        private PlanAny[] warnAny;
+        private PlanCheck[] warnNumeric;
+        private PlanCheck[] warnAllowed;
+        private PlanCheck[] warnDisallowed;
+        private PlanCheck[] warnDates;
+        private PlanCheck[] warnPatterns;
+        private int fieldReads;
+        private int valueLookups;
+        private int numberParses;
+        private int dateParses;
+        private int patternMatches;
+        final List<String> notes = new ArrayList<>();
+
+        static RulePlan compile(RuleSet rules) {
+            RulePlan plan = new RulePlan();
+            plan.required = plan.blankChecks(rules.requiredFields, "required", "missing:");
+            plan.any = plan.anyChecks(rules.anyRequirements, "require_any", "missing_any:");
+            plan.reviewMissing = plan.blankChecks(rules.reviewMissingFields, "review_missing", "review_missing:");
+            plan.warnRequired = plan.blankChecks(rules.warnRequiredFields, "warn_required", "warn_missing:");
+            plan.warnAny = plan.anyChecks(rules.warnAnyRequirements, "warn_any", "warn_missing_any:");
+            for (ConditionalRequirement requirement : rules.conditionalRequirements) {
+                for (String needed : requirement.requiredFields) {
+                    plan.blankUse(needed, "require_if:" + requirement.conditionField + "=" + requirement.conditionValue);
+                }
+            }
+            for (ConditionalRequirement requirement : rules.warnConditionalRequirements) {
+                for (String needed : requirement.requiredFields) {
+                    plan.blankUse(needed, "warn_if:" + requirement.conditionField + "=" + requirement.conditionValue);
+                }
+            }
+            plan.numeric = plan.numberChecks(rules.numericRanges, "out_of_range:", "invalid_number:");
+            plan.warnNumeric = plan.numberChecks(rules.warnNumericRanges, "warn_out_of_range:", "warn_invalid_number:");
+            plan.dates = plan.dateChecks(rules.dateRanges, "out_of_range:", "invalid_date:");
+            plan.warnDates = plan.dateChecks(rules.warnDateRanges, "warn_out_of_range:", "warn_invalid_date:");
+            plan.patterns = plan.patternChecks(rules.patternRules, "pattern", "invalid_pattern:");
+            plan.warnPatterns = plan.patternChecks(rules.warnPatternRules, "warn_pattern", "warn_invalid_pattern:");
+
+            Map<String, NormalizedValueSet> dictionaries = new LinkedHashMap<>();
+            Map<String, List<String>> lookupUses = new LinkedHashMap<>();
+            plan.registerSets(rules.allowedValues, "allowed", dictionaries, lookupUses);
+            plan.registerSets(rules.disallowedValues, "disallowed", dictionaries, lookupUses);
+            plan.registerSets(rules.warnAllowedValues, "warn_allowed", dictionaries, lookupUses);
+            plan.registerSets(rules.warnDisallowedValues, "warn_disallowed", dictionaries, lookupUses);
+            plan.registerConditions(rules.conditionalIndex, "require_if", dictionaries, lookupUses);
+            plan.registerConditions(rules.warnConditionalIndex, "warn_if", dictionaries, lookupUses);
+            plan.registerConditions(rules.reviewIndex, "review_if", dictionaries, lookupUses);
+
+            plan.dictionaries = new NormalizedValueSet[plan.fields.size()];
+            plan.masks = new int[plan.fields.size()][];
+            plan.dictionarySlots = new int[dictionaries.size()];
+            int d = 0;
+            for (Map.Entry<String, NormalizedValueSet> entry : dictionaries.entrySet()) {
+                int slot = plan.slot(entry.getKey());
+                plan.dictionaries[slot] = entry.getValue();
+                plan.masks[slot] = new int[entry.getValue().size()];
+                plan.dictionarySlots[d++] = slot;
+            }
+            plan.allowed = plan.setChecks(rules.allowedValues, ALLOWED, "disallowed:");
+            plan.disallowed = plan.setChecks(rules.disallowedValues, DISALLOWED, "blocked:");
+            plan.warnAllowed = plan.setChecks(rules.warnAllowedValues, WARN_ALLOWED, "warn_disallowed:");
+            plan.warnDisallowed = plan.setChecks(rules.warnDisallowedValues, WARN_DISALLOWED, "warn_blocked:");
+            Map<Object, PlanRequirement> compiled = new IdentityHashMap<>();
+            plan.conditional = plan.conditions(rules.conditionalIndex, compiled, "missing_if:");
+            plan.warnConditional = plan.conditions(rules.warnConditionalIndex, compiled, "warn_missing_if:");
+            plan.review = plan.conditions(rules.reviewIndex, compiled, null);
+
+            plan.describeSharing(rules, lookupUses);
+            return plan;
+        }
+
+        private int slot(String field) {
+            Integer slot = slotsByField.get(field);
+            if (slot == null) {
+                slot = fields.size();
+                fields.add(field);
+                slotsByField.put(field, slot);
+            }
+            return slot;
+        }
+
+        private void blankUse(String field, String use) {
+            slot(field);
+            fieldReads++;
+            blankUses.computeIfAbsent(field, key -> new ArrayList<>()).add(use);
+        }
+
+        private PlanCheck[] blankChecks(List<String> list, String section, String prefix) {
+            PlanCheck[] checks = new PlanCheck[list.size()];
+            for (int i = 0; i < checks.length; i++) {
+                String field = list.get(i);
+                blankUse(field, section);
+                checks[i] = new PlanCheck(slot(field), prefix + field);
+            }
+            return checks;
+        }
+
+        private PlanAny[] anyChecks(List<AnyRequirement> requirements, String section, String prefix) {
+            PlanAny[] checks = new PlanAny[requirements.size()];
+            for (int i = 0; i < checks.length; i++) {
+                AnyRequirement requirement = requirements.get(i);
+                int[] slots = new int[requirement.fields.size()];
+                for (int f = 0; f < slots.length; f++) {
+                    blankUse(requirement.fields.get(f), section + ":" + requirement.name);
+                    slots[f] = slot(requirement.fields.get(f));
+                }
+                checks[i] = new PlanAny(slots, prefix + requirement.name);
+            }
+            return checks;
+        }
+
+        private PlanCheck[] numberChecks(Map<String, NumericRange> ranges, String outPrefix, String invalidPrefix) {
+            PlanCheck[] checks = new PlanCheck[ranges.size()];
+            int i = 0;
+            for (Map.Entry<String, NumericRange> entry : ranges.entrySet()) {
+                fieldReads++;
+                numberParses++;
+                PlanCheck check = new PlanCheck(slot(entry.getKey()), outPrefix + entry.getKey());
+                check.invalidReason = invalidPrefix + entry.getKey();
+                check.min = entry.getValue().min;
+                check.max = entry.getValue().max;
+                checks[i++] = check;
+            }
+            return checks;
+        }
+
+        private PlanCheck[] dateChecks(Map<String, DateRange> ranges, String outPrefix, String invalidPrefix) {
+            PlanCheck[] checks = new PlanCheck[ranges.size()];
+            int i = 0;
+            for (Map.Entry<String, DateRange> entry : ranges.entrySet()) {
+                fieldReads++;
+                dateParses++;
+                PlanCheck check = new PlanCheck(slot(entry.getKey()), outPrefix + entry.getKey());
+                check.invalidReason = invalidPrefix + entry.getKey();
+                check.earliest = entry.getValue().earliest;
+                check.latest = entry.getValue().latest;
+                checks[i++] = check;
+            }
+            return checks;
+        }
+
+        private PlanCheck[] patternChecks(Map<String, Pattern> rules, String section, String prefix) {
+            PlanCheck[] checks = new PlanCheck[rules.size()];
+            int i = 0;
+            for (Map.Entry<String, Pattern> entry : rules.entrySet()) {
+                fieldReads++;
+                patternMatches++;
+                PlanCheck check = new PlanCheck(slot(entry.getKey()), prefix + entry.getKey());
+                String key = entry.getKey() + "\n" + entry.getValue().flags() + "\n" + entry.getValue().pattern();
+                Integer id = patternIds.get(key);
+                if (id == null) {
+                    id = patternIds.size();
+                    patternIds.put(key, id);
+                } else {
+                    notes.add(section + ":" + entry.getKey() + " uses the same regex as an earlier pattern on the field; its match is reused.");
+                }
+                check.pattern = entry.getValue();
+                check.patternId = id;
+                checks[i++] = check;
+            }
+            return checks;
+        }
+
+        private void registerSets(Map<String, NormalizedValueSet> sets, String section, Map<String, NormalizedValueSet> dictionaries,
+                                  Map<String, List<String>> lookupUses) {
+            for (Map.Entry<String, NormalizedValueSet> entry : sets.entrySet()) {
+                slot(entry.getKey());
+                fieldReads++;
+                valueLookups++;
+                NormalizedValueSet dictionary = dictionaries.computeIfAbsent(entry.getKey(), key -> new NormalizedValueSet());
+                for (int o = 0; o < entry.getValue().size(); o++) {
+                    dictionary.add(entry.getValue().value(o));
+                }
+                lookupUses.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(section + ":" + entry.getKey());
+            }
+        }
+
+        private void registerConditions(ConditionIndex<?> index, String section, Map<String, NormalizedValueSet> dictionaries,
+                                        Map<String, List<String>> lookupUses) {
+            for (int f = 0; f < index.fields.size(); f++) {
+                String field = index.fields.get(f);
+                slot(field);
+                fieldReads++;
+                valueLookups++;
+                NormalizedValueSet dictionary = dictionaries.computeIfAbsent(field, key -> new NormalizedValueSet());
+                NormalizedValueSet values = index.values.get(f);
+                for (int o = 0; o < values.size(); o++) {
+                    dictionary.add(values.value(o));
+                }
+                lookupUses.computeIfAbsent(field, key -> new ArrayList<>()).add(section + ":" + field);
+            }
+        }
+
+        private PlanCheck[] setChecks(Map<String, NormalizedValueSet> sets, int bit, String prefix) {
+            PlanCheck[] checks = new PlanCheck[sets.size()];
+            int i = 0;
+            for (Map.Entry<String, NormalizedValueSet> entry : sets.entrySet()) {
+                int slot = slot(entry.getKey());
+                for (int o = 0; o < entry.getValue().size(); o++) {
+                    masks[slot][dictionaries[slot].add(entry.getValue().value(o))] |= bit;
+                }
+                PlanCheck check = new PlanCheck(slot, prefix + entry.getKey());
+                check.bit = bit;
+                checks[i++] = check;
+            }
+            return checks;
+        }
+
+        private PlanConditions conditions(ConditionIndex<?> index, Map<Object, PlanRequirement> compiled, String prefix) {
+            PlanConditions conditions = new PlanConditions(index.fields.size());
+            for (int f = 0; f < index.fields.size(); f++) {
+                int slot = slot(index.fields.get(f));
+                NormalizedValueSet values = index.values.get(f);
+                conditions.slots[f] = slot;
+                conditions.targets[f] = new PlanRequirement[dictionaries[slot].size()];
+                for (int o = 0; o < values.size(); o++) {
+                    Object target = index.targets.get(f).get(o);
+                    int position = index.positions.get(f)[o];
+                    PlanRequirement requirement = compiled.get(target);
+                    if (requirement == null) {
+                        requirement = prefix == null ? reviewRequirement((ReviewCondition) target, position)
+                                : conditionalRequirement((ConditionalRequirement) target, position, prefix);
+                        compiled.put(target, requirement);
+                    }
+                    conditions.targets[f][dictionaries[slot].add(values.value(o))] = requirement;
+                }
+            }
+            return conditions;
+        }
+
+        private PlanRequirement conditionalRequirement(ConditionalRequirement requirement, int position, String prefix) {
+            int[] slots = new int[requirement.requiredFields.size()];
+            String[] reasons = new String[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                String needed = requirement.requiredFields.get(i);
+                slots[i] = slot(needed);
+                reasons[i] = prefix + requirement.conditionField + "=" + requirement.conditionValue + ":" + needed;
+            }
+            return new PlanRequirement(position, slots, reasons);
+        }
+
+        private PlanRequirement reviewRequirement(ReviewCondition condition, int position) {
+            String[] reasons = new String[condition.reasons.size()];
+            for (int i = 0; i < reasons.length; i++) {
+                reasons[i] = "review_flag:" + condition.reasons.get(i);
+            }
+            return new PlanRequirement(position, new int[0], reasons);
+        }
+
+        private void describeSharing(RuleSet rules, Map<String, List<String>> lookupUses) {
+            for (Map.Entry<String, List<String>> entry : blankUses.entrySet()) {
+                List<String> uses = entry.getValue();
+                if (uses.size() < 2) {
+                    continue;
+                }
+                Set<String> distinct = new LinkedHashSet<>(uses);
+                if (distinct.size() < uses.size()) {
+                    notes.add(entry.getKey() + " is listed more than once in " + String.join(", ", duplicatesOf(uses))
+                            + "; the blank check runs once and each listing still reports.");
+                }
+                if (distinct.size() > 1) {
+                    notes.add("Blank check for " + entry.getKey() + " is shared by " + String.join(", ", distinct) + ".");
+                }
+            }
+            for (Map.Entry<String, List<String>> entry : lookupUses.entrySet()) {
+                if (entry.getValue().size() > 1) {
+                    notes.add("Value lookups on " + entry.getKey() + " are merged into one: " + String.join(", ", entry.getValue()) + ".");
+                }
+            }
+            for (Map.Entry<String, NumericRange> entry : rules.warnNumericRanges.entrySet()) {
+                NumericRange range = rules.numericRanges.get(entry.getKey());
+                if (range == null) {
+                    continue;
+                }
+                NumericRange warn = entry.getValue();
+                String relation = warn.min >= range.min && warn.max <= range.max ? " lies inside range:" + entry.getKey() + "; "
+                        : " overlaps range:" + entry.getKey() + "; ";
+                notes.add("warn_range:" + entry.getKey() + relation + "the number is parsed once for both.");
+            }
+            for (Map.Entry<String, DateRange> entry : rules.warnDateRanges.entrySet()) {
+                DateRange range = rules.dateRanges.get(entry.getKey());
+                if (range == null) {
+                    continue;
+                }
+                DateRange warn = entry.getValue();
+                String relation = !warn.earliest.isBefore(range.earliest) && !warn.latest.isAfter(range.latest)
+                        ? " lies inside date:" + entry.getKey() + "; " : " overlaps date:" + entry.getKey() + "; ";
+                notes.add("warn_date:" + entry.getKey() + relation + "the date is parsed once for both.");
+            }
+            for (Map.Entry<String, NormalizedValueSet> entry : rules.disallowedValues.entrySet()) {
+                NormalizedValueSet allowedSet = rules.allowedValues.get(entry.getKey());
+                if (allowedSet == null) {
+                    continue;
+                }
+                List<String> overlap = new ArrayList<>();
+                for (int o = 0; o < entry.getValue().size(); o++) {
+                    if (allowedSet.contains(entry.getValue().value(o))) {
+                        overlap.add(entry.getValue().value(o));
+                    }
+                }
+                notes.add(overlap.isEmpty()
+                        ? "disallowed:" + entry.getKey() + " is subsumed by allowed:" + entry.getKey()
+                                + " (every blocked value is also outside the allowed list); blocked is derived from the shared lookup."
+                        : "disallowed:" + entry.getKey() + " blocks values that allowed:" + entry.getKey() + " permits: " + String.join(", ", overlap) + ".");
+            }
+        }
+
+        private static List<String> duplicatesOf(List<String> uses) {
+            Set<String> seen = new HashSet<>();
+            Set<String> repeated = new LinkedHashSet<>();
+            for (String use : uses) {
+                if (!seen.add(use)) {
+                    repeated.add(use);
+                }
+            }
+            return new ArrayList<>(repeated);
+        }
+
+        String describe(Path path) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Rule plan for ").append(path).append(":\n");
+            sb.append("- field reads per row: ").append(fieldReads).append(" -> ").append(fields.size()).append("\n");
+            sb.append("- value set lookups per row: ").append(valueLookups).append(" -> ").append(dictionarySlots.length).append("\n");
+            sb.append("- number parses per row: ").append(numberParses).append(" -> ").append(distinctSlots(numeric, warnNumeric)).append("\n");
+            sb.append("- date parses per row: ").append(dateParses).append(" -> ").append(distinctSlots(dates, warnDates)).append("\n");
+            sb.append("- regex matches per row: ").append(patternMatches).append(" -> ").append(patternIds.size()).append("\n");
+            for (String note : notes) {
+                sb.append("- ").append(note).append("\n");
+            }
+            return sb.toString();
+        }
+
+        private static int distinctSlots(PlanCheck[] first, PlanCheck[] second) {
+            Set<Integer> slots = new HashSet<>();
+            for (PlanCheck check : first) {
+                slots.add(check.slot);
+            }
+            for (PlanCheck check : second) {
+                slots.add(check.slot);
+            }
+            return slots.size();
+        }
+
+        RowRecord evaluate(Map<String, String> rowMap, RuleSet rules, String id, int row) {
+            int count = fields.size();
+            String[] values = new String[count];
+            boolean[] blank = new boolean[count];
+            for (int s = 0; s < count; s++) {
+                values[s] = rowMap.getOrDefault(fields.get(s), "");
+                blank[s] = values[s].isBlank();
+            }
+            int[] ordinals = new int[count];
+            for (int slot : dictionarySlots) {
+                ordinals[slot] = dictionaries[slot].ordinal(values[slot]);
+            }
+            PlanRow state = new PlanRow(count, patternIds.size());
+
+            List<String> reasons = new ArrayList<>();
+            List<String> reviewReasons = new ArrayList<>();
+            List<String> warnings = new ArrayList<>();
+            blanks(required, blank, reasons);
+            for (PlanRequirement requirement : conditional.match(ordinals)) {
+                for (int i = 0; i < requirement.slots.length; i++) {
+                    if (blank[requirement.slots[i]]) {
+                        reasons.add(requirement.reasons[i]);
+                    }
+                }
+            }
+            anys(any, blank, reasons);
+            blanks(reviewMissing, blank, reviewReasons);
+            for (PlanRequirement condition : review.match(ordinals)) {
+                Collections.addAll(reviewReasons, condition.reasons);
+            }
+            numbers(numeric, values, blank, state, reasons);
+            sets(allowed, values, ordinals, false, reasons);
+            sets(disallowed, values, ordinals, true, reasons);
+            dates(dates, values, blank, state, reasons);
+            patterns(patterns, values, blank, state, reasons);
+
+            blanks(warnRequired, blank, warnings);
+            for (PlanRequirement requirement : warnConditional.match(ordinals)) {
+                for (int i = 0; i < requirement.slots.length; i++) {
+                    if (blank[requirement.slots[i]]) {
+                        warnings.add(requirement.reasons[i]);
+                    }
+                }
+            }
+            anys(warnAny, blank, warnings);
+            numbers(warnNumeric, values, blank, state, warnings);
+            sets(warnAllowed, values, ordinals, false, warnings);
+            sets(warnDisallowed, values, ordinals, true, warnings);
+            dates(warnDates, values, blank, state, warnings);
+            patterns(warnPatterns, values, blank, state, warnings);
+
+            evaluateExpressions(rowMap, rules, row, reasons, reviewReasons, warnings);
+            RowRecord record = new RowRecord(id, reasons, reviewReasons, warnings);
+            record.row = row;
+            return record;
+        }
+
+        private static void blanks(PlanCheck[] checks, boolean[] blank, List<String> out) {
+            for (PlanCheck check : checks) {
+                if (blank[check.slot]) {
+                    out.add(check.reason);
+                }
+            }
+        }
+
+        private static void anys(PlanAny[] checks, boolean[] blank, List<String> out) {
+            for (PlanAny check : checks) {
+                boolean hasAny = false;
+                for (int slot : check.slots) {
+                    if (!blank[slot]) {
+                        hasAny = true;
+                        break;
+                    }
+                }
+                if (!hasAny) {
+                    out.add(check.reason);
+                }
+            }
+        }
+
+        private static void numbers(PlanCheck[] checks, String[] values, boolean[] blank, PlanRow state, List<String> out) {
+            for (PlanCheck check : checks) {
+                int slot = check.slot;
+                if (blank[slot]) {
+                    continue;
+                }
+                if (state.numberState[slot] == PlanRow.UNKNOWN) {
+                    try {
+                        state.numbers[slot] = Double.parseDouble(values[slot]);
+                        state.numberState[slot] = PlanRow.VALID;
+                    } catch (NumberFormatException e) {
+                        state.numberState[slot] = PlanRow.INVALID;
+                    }
+                }
+                if (state.numberState[slot] == PlanRow.INVALID) {
+                    out.add(check.invalidReason);
+                } else if (state.numbers[slot] < check.min || state.numbers[slot] > check.max) {
+                    out.add(check.reason);
+                }
+            }
+        }
+
+        private void sets(PlanCheck[] checks, String[] values, int[] ordinals, boolean reportMembers, List<String> out) {
+            for (PlanCheck check : checks) {
+                int slot = check.slot;
+                if (isBlankNormalized(values[slot])) {
+                    continue;
+                }
+                int ordinal = ordinals[slot];
+                boolean member = ordinal >= 0 && (masks[slot][ordinal] & check.bit) != 0;
+                if (member == reportMembers) {
+                    out.add(check.reason);
+                }
+            }
+        }
+
+        private static void dates(PlanCheck[] checks, String[] values, boolean[] blank, PlanRow state, List<String> out) {
+            for (PlanCheck check : checks) {
+                int slot = check.slot;
+                if (blank[slot]) {
+                    continue;
+                }
+                if (state.dateState[slot] == PlanRow.UNKNOWN) {
+                    try {
+                        state.dates[slot] = LocalDate.parse(values[slot]);
+                        state.dateState[slot] = PlanRow.VALID;
+                    } catch (DateTimeParseException e) {
+                        state.dateState[slot] = PlanRow.INVALID;
+                    }
+                }
+                if (state.dateState[slot] == PlanRow.INVALID) {
+                    out.add(check.invalidReason);
+                } else if (state.dates[slot].isBefore(check.earliest) || state.dates[slot].isAfter(check.latest)) {
+                    out.add(check.reason);
+                }
+            }
         }
 
-        private static List<String> normalizeList(String value) {
-            if (value.isBlank()) {
+        private static void patterns(PlanCheck[] checks, String[] values, boolean[] blank, PlanRow state, List<String> out) {
+            for (PlanCheck check : checks) {
+                int slot = check.slot;
+                if (blank[slot]) {
+                    continue;
+                }
+                if (state.patternState[check.patternId] == PlanRow.UNKNOWN) {
+                    state.patternState[check.patternId] = check.pattern.matcher(values[slot]).matches() ? PlanRow.VALID : PlanRow.INVALID;
+                }
+                if (state.patternState[check.patternId] == PlanRow.INVALID) {
+                    out.add(check.reason);
+                }
+            }
+        }
+    }
+
+    private static class PlanCheck {
+        final int slot;
+        final String reason;
+        String invalidReason;
+        double min;
+        double max;
+        LocalDate earliest;
+        LocalDate latest;
+        int bit;
+        Pattern pattern;
+        int patternId;
+
+        PlanCheck(int slot, String reason) {
+            this.slot = slot;
+            this.reason = reason;
+        }
+    }
+
+    private static class PlanAny {
+        final int[] slots;
+        final String reason;
+
+        PlanAny(int[] slots, String reason) {
+            this.slots = slots;
+            this.reason = reason;
+        }
+    }
+
+    private static class PlanRequirement {
+        final int position;
+        final int[] slots;
+        final String[] reasons;
+
+        PlanRequirement(int position, int[] slots, String[] reasons) {
+            this.position = position;
+            this.slots = slots;
+            this.reasons = reasons;
+        }
+    }
+
+    private static class PlanConditions {
+        final int[] slots;
+        final PlanRequirement[][] targets;
+
+        PlanConditions(int size) {
+            slots = new int[size];
+            targets = new PlanRequirement[size][];
+        }
+
+        List<PlanRequirement> match(int[] ordinals) {
+            PlanRequirement first = null;
+            List<PlanRequirement> more = null;
+            for (int f = 0; f < slots.length; f++) {
+                int ordinal = ordinals[slots[f]];
+                PlanRequirement target = ordinal < 0 ? null : targets[f][ordinal];
+                if (target == null) {
+                    continue;
+                }
+                if (first == null) {
+                    first = target;
+                    continue;
+                }
+                if (more == null) {
+                    more = new ArrayList<>();
+                    more.add(first);
+                }
+                more.add(target);
+            }
+            if (first == null) {
                 return Collections.emptyList();
             }
-            String[] parts = value.split(",");
-            List<String> results = new ArrayList<>();
-            for (String part : parts) {
-                results.add(normalizeValue(part));
+            if (more == null) {
+                return Collections.singletonList(first);
             }
-            return results;
+            more.sort((a, b) -> Integer.compare(a.position, b.position));
+            return more;
+        }
+    }
+
+    private static class PlanRow {
+        static final byte UNKNOWN = 0;
+        static final byte VALID = 1;
+        static final byte INVALID = 2;
+
+        final byte[] numberState;
+        final double[] numbers;
+        final byte[] dateState;
+        final LocalDate[] dates;
+        final byte[] patternState;
+
+        PlanRow(int slots, int patterns) {
+            numberState = new byte[slots];
+            numbers = new double[slots];
+            dateState = new byte[slots];
+            dates = new LocalDate[slots];
+            patternState = new byte[patterns];
         }
     }
 
@@ -1522,7 +7744,603 @@ public class EligibilityOracle {
         }
     }
 
-    private static String formatRate(int count, int total) {
+    private static class ExpressionRule {
+        static final int PASS = 1;
+        static final int FAIL = 0;
+        static final int SKIP = -1;
+        static final int INVALID = -2;
+
+        String name;
+        String source;
+        String level = "fail";
+        List<String> fields = new ArrayList<>();
+        private MethodHandle check;
+
+        ExpressionRule(String name) {
+            this.name = name;
+        }
+
+        void compile(Map<String, String> aliasToCanonical) throws IOException {
+            if (source == null || source.isBlank()) {
+                throw new IOException("Missing check for expr:" + name);
+            }
+            if (!level.equals("fail") && !level.equals("warn") && !level.equals("review")) {
+                throw new IOException("Invalid level for expr:" + name + " -> " + level + " (expected fail, warn or review)");
+            }
+            try {
+                ExpressionCompiler compiler = new ExpressionCompiler(source, aliasToCanonical);
+                check = compiler.compileCheck();
+                fields.addAll(compiler.fields);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid expression for expr:" + name + " -> " + e.getMessage(), e);
+            }
+        }
+
+        String reason() {
+            return prefix() + "expr:" + name;
+        }
+
+        String invalidReason() {
+            return prefix() + "invalid_expr:" + name;
+        }
+
+        private String prefix() {
+            return level.equals("fail") ? "" : level + "_";
+        }
+
+        int evaluateTraced(Map<String, String> rowMap, int row) {
+            RuleEvaluationEvent event = new RuleEvaluationEvent();
+            event.begin();
+            int outcome = evaluate(rowMap);
+            if (event.shouldCommit()) {
+                event.rule = "expr:" + name;
+                event.row = row;
+                event.outcome = outcome == PASS ? "pass" : outcome == FAIL ? "fail" : outcome == SKIP ? "skip" : "invalid";
+                event.commit();
+            }
+            return outcome;
+        }
+
+        int evaluate(Map<String, String> rowMap) {
+            try {
+                return (int) check.invokeExact(rowMap);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static class ExpressionSignal extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        static final ExpressionSignal SKIP = new ExpressionSignal(ExpressionRule.SKIP);
+        static final ExpressionSignal INVALID = new ExpressionSignal(ExpressionRule.INVALID);
+
+        final int outcome;
+
+        private ExpressionSignal(int outcome) {
+            super(null, null, false, false);
+            this.outcome = outcome;
+        }
+    }
+
+    private static class ExpressionCompiler {
+        private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+        private static final MethodHandle FIELD = handle("field", String.class, Map.class, String.class);
+        private static final MethodHandle NUMBER = handle("number", double.class, String.class);
+        private static final MethodHandle YEAR = handle("year", double.class, String.class);
+        private static final MethodHandle LENGTH = handle("length", double.class, String.class);
+        private static final MethodHandle BLANK = handle("blank", boolean.class, String.class);
+        private static final MethodHandle PRESENT = handle("present", boolean.class, String.class);
+        private static final MethodHandle TEXT_EQUALS = handle("textEquals", boolean.class, String.class, String.class);
+        private static final MethodHandle TEXT_NOT_EQUALS = handle("textNotEquals", boolean.class, String.class, String.class);
+        private static final MethodHandle CONTAINS = handle("contains", boolean.class, NormalizedValueSet.class, String.class);
+        private static final MethodHandle NOT = handle("not", boolean.class, boolean.class);
+        private static final MethodHandle NEGATE = handle("negate", double.class, double.class);
+        private static final MethodHandle OUTCOME = handle("outcome", int.class, ExpressionSignal.class, Map.class);
+        private static final Map<String, MethodHandle> ARITHMETIC = Map.of(
+                "+", handle("add", double.class, double.class, double.class),
+                "-", handle("subtract", double.class, double.class, double.class),
+                "*", handle("multiply", double.class, double.class, double.class),
+                "/", handle("divide", double.class, double.class, double.class),
+                "%", handle("remainder", double.class, double.class, double.class));
+        private static final Map<String, MethodHandle> COMPARISONS = Map.of(
+                "<", handle("lessThan", boolean.class, double.class, double.class),
+                "<=", handle("lessOrEqual", boolean.class, double.class, double.class),
+                ">", handle("greaterThan", boolean.class, double.class, double.class),
+                ">=", handle("greaterOrEqual", boolean.class, double.class, double.class),
+                "==", handle("equal", boolean.class, double.class, double.class),
+                "!=", handle("notEqual", boolean.class, double.class, double.class));
+
+        private final String source;
+        private final Map<String, String> aliasToCanonical;
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Integer> offsets = new ArrayList<>();
+        private int position = 0;
+        final Set<String> fields = new LinkedHashSet<>();
+
+        ExpressionCompiler(String source, Map<String, String> aliasToCanonical) {
+            this.source = source;
+            this.aliasToCanonical = aliasToCanonical;
+            tokenize();
+        }
+
+        MethodHandle compileCheck() {
+            MethodHandle parsed = parseOr();
+            if (position < tokens.size()) {
+                throw error("unexpected '" + tokens.get(position) + "'");
+            }
+            MethodHandle body = requireBoolean(parsed, "check");
+            MethodHandle outcome = MethodHandles.guardWithTest(body, constant(int.class, ExpressionRule.PASS), constant(int.class, ExpressionRule.FAIL));
+            return MethodHandles.catchException(outcome, ExpressionSignal.class, OUTCOME);
+        }
+
+        private MethodHandle parseOr() {
+            MethodHandle left = parseAnd();
+            while (accept("or") || accept("||")) {
+                MethodHandle right = requireBoolean(parseAnd(), "or");
+                left = MethodHandles.guardWithTest(requireBoolean(left, "or"), constant(boolean.class, true), right);
+            }
+            return left;
+        }
+
+        private MethodHandle parseAnd() {
+            MethodHandle left = parseNot();
+            while (accept("and") || accept("&&")) {
+                MethodHandle right = requireBoolean(parseNot(), "and");
+                left = MethodHandles.guardWithTest(requireBoolean(left, "and"), right, constant(boolean.class, false));
+            }
+            return left;
+        }
+
+        private MethodHandle parseNot() {
+            if (accept("not") || accept("!")) {
+                return MethodHandles.filterReturnValue(requireBoolean(parseNot(), "not"), NOT);
+            }
+            return parseComparison();
+        }
+
+        private MethodHandle parseComparison() {
+            MethodHandle left = parseSum();
+            if (peek("not") && "in".equals(lookahead(1))) {
+                position += 2;
+                return MethodHandles.filterReturnValue(parseIn(left), NOT);
+            }
+            if (accept("in")) {
+                return parseIn(left);
+            }
+            String op = peekOperator("<", "<=", ">", ">=", "==", "=", "!=", "<>");
+            if (op == null) {
+                return left;
+            }
+            position++;
+            op = op.equals("=") ? "==" : op.equals("<>") ? "!=" : op;
+            MethodHandle right = parseSum();
+            if ((op.equals("==") || op.equals("!=")) && isText(left) && isText(right)) {
+                return combine(op.equals("==") ? TEXT_EQUALS : TEXT_NOT_EQUALS, left, right);
+            }
+            return combine(COMPARISONS.get(op), requireNumber(left, op), requireNumber(right, op));
+        }
+
+        private MethodHandle parseIn(MethodHandle left) {
+            if (!isText(left)) {
+                throw error("'in' needs a field or text on the left");
+            }
+            expect("(");
+            NormalizedValueSet values = new NormalizedValueSet();
+            do {
+                String token = next();
+                if (isQuoted(token)) {
+                    values.add(normalizeValue(unquote(token)).toLowerCase(Locale.ROOT));
+                } else if (isNumber(token)) {
+                    values.add(token);
+                } else {
+                    throw error("'in' lists take literal values");
+                }
+            } while (accept(","));
+            expect(")");
+            return MethodHandles.filterReturnValue(left, CONTAINS.bindTo(values));
+        }
+
+        private MethodHandle parseSum() {
+            MethodHandle left = parseTerm();
+            String op;
+            while ((op = peekOperator("+", "-")) != null) {
+                position++;
+                MethodHandle right = parseTerm();
+                left = combine(ARITHMETIC.get(op), requireNumber(left, op), requireNumber(right, op));
+            }
+            return left;
+        }
+
+        private MethodHandle parseTerm() {
+            MethodHandle left = parseUnary();
+            String op;
+            while ((op = peekOperator("*", "/", "%")) != null) {
+                position++;
+                MethodHandle right = parseUnary();
+                left = combine(ARITHMETIC.get(op), requireNumber(left, op), requireNumber(right, op));
+            }
+            return left;
+        }
+
+        private MethodHandle parseUnary() {
+            if (accept("-")) {
+                return MethodHandles.filterReturnValue(requireNumber(parseUnary(), "-"), NEGATE);
+            }
+            return parsePrimary();
+        }
+
+        private MethodHandle parsePrimary() {
+            String token = next();
+            if (token.equals("(")) {
+                MethodHandle inner = parseOr();
+                expect(")");
+                return inner;
+            }
+            if (isQuoted(token)) {
+                return constant(String.class, unquote(token));
+            }
+            if (isNumber(token)) {
+                return constant(double.class, Double.parseDouble(token));
+            }
+            if (!isIdentifier(token)) {
+                throw error("unexpected '" + token + "'");
+            }
+            String name = token.toLowerCase(Locale.ROOT);
+            if (name.equals("true") || name.equals("false")) {
+                return constant(boolean.class, name.equals("true"));
+            }
+            if (accept("(")) {
+                List<MethodHandle> args = new ArrayList<>();
+                if (!accept(")")) {
+                    do {
+                        args.add(parseOr());
+                    } while (accept(","));
+                    expect(")");
+                }
+                return call(name, args);
+            }
+            String field = aliasToCanonical.getOrDefault(normalize(name), normalize(name));
+            fields.add(field);
+            return MethodHandles.insertArguments(FIELD, 1, field);
+        }
+
+        private MethodHandle call(String function, List<MethodHandle> args) {
+            switch (function) {
+                case "year":
+                    arity(function, args, 1);
+                    return MethodHandles.filterReturnValue(requireText(args.get(0), function), YEAR);
+                case "len":
+                    arity(function, args, 1);
+                    return MethodHandles.filterReturnValue(requireText(args.get(0), function), LENGTH);
+                case "blank":
+                    arity(function, args, 1);
+                    return MethodHandles.filterReturnValue(requireText(args.get(0), function), BLANK);
+                case "present":
+                    arity(function, args, 1);
+                    return MethodHandles.filterReturnValue(requireText(args.get(0), function), PRESENT);
+                case "abs":
+                    arity(function, args, 1);
+                    return MethodHandles.filterReturnValue(requireNumber(args.get(0), function), math("abs", 1));
+                case "min":
+                case "max":
+                    if (args.size() < 2) {
+                        throw error(function + "() takes at least 2 arguments");
+                    }
+                    MethodHandle folded = requireNumber(args.get(0), function);
+                    for (int i = 1; i < args.size(); i++) {
+                        folded = combine(math(function, 2), folded, requireNumber(args.get(i), function));
+                    }
+                    return folded;
+                case "coalesce":
+                    arity(function, args, 2);
+                    MethodHandle fallback = requireNumber(args.get(1), function);
+                    if (!isText(args.get(0))) {
+                        return requireNumber(args.get(0), function);
+                    }
+                    MethodHandle value = args.get(0);
+                    return MethodHandles.guardWithTest(MethodHandles.filterReturnValue(value, BLANK), fallback,
+                            MethodHandles.filterReturnValue(value, NUMBER));
+                case "if":
+                    arity(function, args, 3);
+                    MethodHandle test = requireBoolean(args.get(0), function);
+                    MethodHandle then = args.get(1);
+                    MethodHandle otherwise = args.get(2);
+                    if (type(then) != type(otherwise)) {
+                        then = requireNumber(then, function);
+                        otherwise = requireNumber(otherwise, function);
+                    }
+                    return MethodHandles.guardWithTest(test, then, otherwise);
+                default:
+                    throw error("unknown function " + function + "()");
+            }
+        }
+
+        private void arity(String function, List<MethodHandle> args, int expected) {
+            if (args.size() != expected) {
+                throw error(function + "() takes " + expected + " argument" + (expected == 1 ? "" : "s"));
+            }
+        }
+
+        private MethodHandle requireNumber(MethodHandle value, String context) {
+            if (type(value) == double.class) {
+                return value;
+            }
+            if (type(value) == String.class) {
+                return MethodHandles.filterReturnValue(value, NUMBER);
+            }
+            throw error("'" + context + "' needs a number, not a true/false value");
+        }
+
+        private MethodHandle requireBoolean(MethodHandle value, String context) {
+            if (type(value) != boolean.class) {
+                throw error("'" + context + "' needs a true/false value");
+            }
+            return value;
+        }
+
+        private MethodHandle requireText(MethodHandle value, String context) {
+            if (!isText(value)) {
+                throw error(context + "() needs a field or text");
+            }
+            return value;
+        }
+
+        private static boolean isText(MethodHandle value) {
+            return type(value) == String.class;
+        }
+
+        private static Class<?> type(MethodHandle value) {
+            return value.type().returnType();
+        }
+
+        private static MethodHandle combine(MethodHandle op, MethodHandle left, MethodHandle right) {
+            MethodHandle filtered = MethodHandles.filterArguments(op, 0, left, right);
+            return MethodHandles.permuteArguments(filtered, MethodType.methodType(op.type().returnType(), Map.class), 0, 0);
+        }
+
+        private static MethodHandle constant(Class<?> type, Object value) {
+            return MethodHandles.dropArguments(MethodHandles.constant(type, value), 0, Map.class);
+        }
+
+        private static MethodHandle math(String name, int arity) {
+            try {
+                Class<?>[] params = new Class<?>[arity];
+                Arrays.fill(params, double.class);
+                return LOOKUP.findStatic(Math.class, name, MethodType.methodType(double.class, params));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static MethodHandle handle(String name, Class<?> returnType, Class<?>... params) {
+            try {
+                return LOOKUP.findStatic(ExpressionCompiler.class, name, MethodType.methodType(returnType, params));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void tokenize() {
+            int i = 0;
+            while (i < source.length()) {
+                char ch = source.charAt(i);
+                if (Character.isWhitespace(ch)) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                if (ch == '\'' || ch == '"') {
+                    i++;
+                    while (i < source.length() && source.charAt(i) != ch) {
+                        i++;
+                    }
+                    if (i >= source.length()) {
+                        throw new IllegalArgumentException("unterminated text at position " + (start + 1));
+                    }
+                    i++;
+                } else if (Character.isDigit(ch) || (ch == '.' && i + 1 < source.length() && Character.isDigit(source.charAt(i + 1)))) {
+                    while (i < source.length() && (Character.isDigit(source.charAt(i)) || source.charAt(i) == '.')) {
+                        i++;
+                    }
+                } else if (Character.isLetter(ch) || ch == '_') {
+                    while (i < source.length() && (Character.isLetterOrDigit(source.charAt(i)) || source.charAt(i) == '_')) {
+                        i++;
+                    }
+                } else if (i + 1 < source.length() && Arrays.asList("<=", ">=", "==", "!=", "<>", "&&", "||").contains(source.substring(i, i + 2))) {
+                    i += 2;
+                } else if ("<>=!+-*/%(),".indexOf(ch) >= 0) {
+                    i++;
+                } else {
+                    throw new IllegalArgumentException("unexpected '" + ch + "' at position " + (i + 1));
+                }
+                tokens.add(source.substring(start, i));
+                offsets.add(start);
+            }
+        }
+
+        private boolean peek(String token) {
+            return position < tokens.size() && tokens.get(position).equalsIgnoreCase(token);
+        }
+
+        private String lookahead(int distance) {
+            int index = position + distance;
+            return index < tokens.size() ? tokens.get(index).toLowerCase(Locale.ROOT) : null;
+        }
+
+        private String peekOperator(String... operators) {
+            if (position >= tokens.size()) {
+                return null;
+            }
+            String token = tokens.get(position);
+            for (String operator : operators) {
+                if (operator.equals(token)) {
+                    return operator;
+                }
+            }
+            return null;
+        }
+
+        private boolean accept(String token) {
+            if (peek(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error("expected '" + token + "'");
+            }
+        }
+
+        private String next() {
+            if (position >= tokens.size()) {
+                throw error("unexpected end of expression");
+            }
+            return tokens.get(position++);
+        }
+
+        private IllegalArgumentException error(String message) {
+            int index = Math.min(position, tokens.size());
+            int offset = index < offsets.size() ? offsets.get(index) : source.length();
+            return new IllegalArgumentException(message + " at position " + (offset + 1));
+        }
+
+        private static boolean isQuoted(String token) {
+            return token.length() >= 2 && (token.charAt(0) == '\'' || token.charAt(0) == '"');
+        }
+
+        private static String unquote(String token) {
+            return token.substring(1, token.length() - 1);
+        }
+
+        private static boolean isNumber(String token) {
+            try {
+                Double.parseDouble(token);
+                return Character.isDigit(token.charAt(0)) || token.charAt(0) == '.';
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        private static boolean isIdentifier(String token) {
+            return Character.isLetter(token.charAt(0)) || token.charAt(0) == '_';
+        }
+
+        private static String field(Map<String, String> rowMap, String field) {
+            String value = rowMap.get(field);
+            return value == null ? "" : value;
+        }
+
+        private static double number(String value) {
+            if (value.isBlank()) {
+                throw ExpressionSignal.SKIP;
+            }
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw ExpressionSignal.INVALID;
+            }
+        }
+
+        private static double year(String value) {
+            if (value.isBlank()) {
+                throw ExpressionSignal.SKIP;
+            }
+            try {
+                return LocalDate.parse(value).getYear();
+            } catch (DateTimeParseException e) {
+                throw ExpressionSignal.INVALID;
+            }
+        }
+
+        private static double length(String value) {
+            return value.length();
+        }
+
+        private static boolean blank(String value) {
+            return value.isBlank();
+        }
+
+        private static boolean present(String value) {
+            return !value.isBlank();
+        }
+
+        private static boolean textEquals(String left, String right) {
+            return left.trim().equalsIgnoreCase(right.trim());
+        }
+
+        private static boolean textNotEquals(String left, String right) {
+            return !textEquals(left, right);
+        }
+
+        private static boolean contains(NormalizedValueSet values, String value) {
+            return values.contains(value);
+        }
+
+        private static boolean not(boolean value) {
+            return !value;
+        }
+
+        private static double negate(double value) {
+            return -value;
+        }
+
+        private static double add(double left, double right) {
+            return left + right;
+        }
+
+        private static double subtract(double left, double right) {
+            return left - right;
+        }
+
+        private static double multiply(double left, double right) {
+            return left * right;
+        }
+
+        private static double divide(double left, double right) {
+            return left / right;
+        }
+
+        private static double remainder(double left, double right) {
+            return left % right;
+        }
+
+        private static boolean lessThan(double left, double right) {
+            return left < right;
+        }
+
+        private static boolean lessOrEqual(double left, double right) {
+            return left <= right;
+        }
+
+        private static boolean greaterThan(double left, double right) {
+            return left > right;
+        }
+
+        private static boolean greaterOrEqual(double left, double right) {
+            return left >= right;
+        }
+
+        private static boolean equal(double left, double right) {
+            return left == right;
+        }
+
+        private static boolean notEqual(double left, double right) {
+            return left != right;
+        }
+
+        private static int outcome(ExpressionSignal signal, Map<String, String> rowMap) {
+            return signal.outcome;
+        }
+    }
+
+    private static String formatRate(long count, long total) {
         if (total == 0) {
             return "0.00%";
         }
@@ -1582,6 +8400,13 @@ public class EligibilityOracle {
         addAll(fields, rules.warnDateRanges.keySet());
         addAll(fields, rules.warnPatternRules.keySet());
         addAll(fields, rules.uniqueFields);
+        for (NearUniqueRule rule : rules.nearUniqueRules) {
+            addAll(fields, rule.fields);
+            addAll(fields, rule.blockFields);
+        }
+        for (ExpressionRule rule : rules.expressionRules) {
+            addAll(fields, rule.fields);
+        }
         return new ArrayList<>(fields.keySet());
     }
 